@@ -9,6 +9,7 @@ import org.apache.commons.io.IOUtils;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author h819
@@ -78,7 +79,42 @@ public class MyCharsetUtils {
 
     public static Charset detectEncoding(File file) throws IOException {
         //必须用 BufferedInputStream 包装
-        return detectEncoding(new BufferedInputStream(new FileInputStream(file)));
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return detectEncoding(in);
+        }
+    }
+
+    /**
+     * 只读取文件开头的 maxBytes 字节探测编码，大文件不需要全部读取
+     * 有 BOM 时直接按 BOM 确定编码 (UTF-8 , UTF-16BE , UTF-16LE)
+     *
+     * @param file
+     * @param maxBytes 最多读取的字节数，越多越准确，一般 64K 就足够
+     * @return 无法判断时返回 null
+     * @throws IOException
+     */
+    public static Charset detectEncoding(File file, int maxBytes) throws IOException {
+        byte[] prefix;
+        try (InputStream in = new FileInputStream(file)) {
+            prefix = new byte[(int) Math.min(maxBytes, file.length())];
+            prefix = Arrays.copyOf(prefix, IOUtils.read(in, prefix));
+        }
+        Charset bomCharset = detectBOM(prefix);
+        return bomCharset != null ? bomCharset : detectEncoding(prefix);
+    }
+
+    /**
+     * @param bytes 文件开头的字节
+     * @return BOM 对应的编码，没有 BOM 时返回 null
+     */
+    public static Charset detectBOM(byte[] bytes) {
+        if (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF)
+            return StandardCharsets.UTF_8;
+        if (bytes.length >= 2 && bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF)
+            return StandardCharsets.UTF_16BE;
+        if (bytes.length >= 2 && bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE)
+            return StandardCharsets.UTF_16LE;
+        return null;
     }
 
     public static Charset detectEncoding(String string) throws IOException {
@@ -86,7 +122,10 @@ public class MyCharsetUtils {
     }
 
     public static Charset detectEncoding(byte[] bytes) throws IOException {
-        return detectEncoding(new ByteArrayInputStream(bytes));
+        // setText(InputStream) 最多只读取 8000 字节，字节数组直接全部使用
+        final CharsetDetector detector = new CharsetDetector();
+        detector.setText(bytes);
+        return detect(detector);
     }
 
     /**
@@ -101,7 +140,10 @@ public class MyCharsetUtils {
     public static Charset detectEncoding(InputStream in) throws IOException {
         final CharsetDetector detector = new CharsetDetector();
         detector.setText(in);
+        return detect(detector);
+    }
 
+    private static Charset detect(CharsetDetector detector) {
         final CharsetMatch charsetMatch = detector.detect();
         if (charsetMatch == null) {
             log.info("Cannot detect source charset.");
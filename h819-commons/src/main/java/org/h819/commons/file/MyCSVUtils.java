@@ -1,10 +1,8 @@
 package org.h819.commons.file;
 
-import org.apache.commons.collections4.SetUtils;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
-import org.h819.commons.MyCharsetUtils;
+import org.h819.commons.file.csv.StreamingCSVReader;
+import org.h819.commons.file.excel.poi.vo.ColumnarLine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,54 +40,38 @@ public class MyCSVUtils {
 
     /**
      * 获取所有行数据
+     * 流式读取，只读取文件开头部分探测编码，去重时只保存每行内容的 hash ，见 StreamingCSVReader
+     * 行数很多时，用 StreamingCSVReader 逐行处理，不要全部放在 List 中
      *
      * @param csvFile   csv 文件
-     * @param duplicate 是否过滤重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @param duplicate 是否保留重复行 。判断重复行的依据是各个单元格内容是否相同
      * @return
      * @throws IOException
      */
     public static List<CSVRecord> getCSVRecords(File csvFile, boolean duplicate) throws IOException {
-
-        List<CSVRecord> collection = CSVParser.parse(csvFile, MyCharsetUtils.detectEncoding(csvFile), CSVFormat.DEFAULT).getRecords();
-
-        if (duplicate) {
-            //    logger.info("in list");
-            return collection;
-        } else {
-            //自定义了一个比较器，只比较单元格内容
-            //    logger.info("in set.");
-            Set set = new TreeSet(new Comparator<CSVRecord>() {
-                @Override
-                // record.toString() 方法输出为  CSVRecord [comment=null, mapping=null, recordNumber=55, values=[USDA, 美国农业部, 1]]
-                // values 为各行的值
-                public int compare(CSVRecord csv1, CSVRecord csv2) {
-                    String values1 = getCSVListValues(csv1).toString();
-                    String values2 = getCSVListValues(csv2).toString();
-                    return values1.compareTo(values2);
-                }
-            });
-
-            //创建一个按照 参数 set 进行排序的空 set ，用法见 SetUtils
-            Set set1 = SetUtils.orderedSet(set);
-            //重新用 set 包装，去掉重复元素
-            for (CSVRecord csvRecord : collection) {
-                set1.add(csvRecord);
-            }
-
-            return new ArrayList<>(set1);
-        }
+        List<CSVRecord> records = new ArrayList<>();
+        new StreamingCSVReader(csvFile).read(duplicate, records::add);
+        return records;
     }
 
     /**
      * 得到指定行号的行 CSVRecord
+     * 只解析到该行为止 ; 需要读取多行时，使用同一个 StreamingCSVReader 的 getRecord ，第一次调用后建立行索引，之后直接定位
      *
      * @param csvFile    CSV 文件
      * @param lineNumber 指定行号（第 0 行号，第 7 行 ... 行号从 0 开始）
-     * @return
+     * @return 行号超出范围时返回 null
      * @throws IOException
      */
     public static CSVRecord getCSVRecord(File csvFile, int lineNumber) throws IOException {
-        return CSVParser.parse(csvFile, MyCharsetUtils.detectEncoding(csvFile), CSVFormat.DEFAULT).getRecords().get(lineNumber);
+        try (StreamingCSVReader.RecordIterator iterator = new StreamingCSVReader(csvFile).iterator(true)) {
+            for (int i = 0; iterator.hasNext(); i++) {
+                CSVRecord record = iterator.next();
+                if (i == lineNumber)
+                    return record;
+            }
+        }
+        return null;
     }
 
 
@@ -146,6 +128,32 @@ public class MyCSVUtils {
         return Arrays.asList(getCSVArrayValues(csvRecord));
     }
 
+    /**
+     * 获取所有行数据，按列号保存在 ColumnarLine 中
+     *
+     * @param csvFile   csv 文件
+     * @param duplicate 是否过滤重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @return
+     * @throws IOException
+     */
+    public static List<ColumnarLine> getColumnarLines(File csvFile, boolean duplicate) throws IOException {
+        List<ColumnarLine> lines = new ArrayList<>();
+        new StreamingCSVReader(csvFile).read(duplicate, record -> lines.add(toColumnarLine(record, csvFile.getName())));
+        return lines;
+    }
+
+    /**
+     * 行数据转换为 ColumnarLine ，和 excel 的行数据使用相同的结构
+     * sheetName 为 "" ，sheetNumber 为 0
+     *
+     * @param csvRecord 行数据
+     * @param fileName  文件名称
+     * @return 行号从 0 开始，同 getCSVRecord
+     */
+    public static ColumnarLine toColumnarLine(CSVRecord csvRecord, String fileName) {
+        return new ColumnarLine(fileName, "", 0, (int) csvRecord.getRecordNumber() - 1, getCSVArrayValues(csvRecord));
+    }
+
     private void test() {
 
         try {
@@ -12,15 +12,17 @@ import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.h819.commons.MyDateUtils;
+import org.h819.commons.file.excel.poi.StreamingExcelReader;
+import org.h819.commons.file.excel.poi.StreamingExcelWriter;
+import org.h819.commons.file.excel.poi.vo.ColumnarLine;
 import org.h819.commons.file.excel.poi.vo.ExcelCell;
 import org.h819.commons.file.excel.poi.vo.ExcelLine;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Description : TODO(静态方法)
@@ -93,81 +95,80 @@ public class MyExcelUtils {
 
 
     /**
-     * 读取 excel 文件所有内容到 set 中，利用 set 的唯一性，去掉了相同行，并且保留原来的行序</br>
-     * 一次性读取所有数据，没有考虑性能问题。
+     * 读取 excel 文件所有内容到 list 中，可以去掉相同行，并且保留原来的行序</br>
+     * 流式读取 (见 StreamingExcelReader)，不再把整个 workbook 读入内存，但所有行仍然保存在返回的 list 中。
+     * 行数很多时 (如几十万行的上传文件)，用 readExcel(..., Consumer) 逐行处理。
      * 如果单元格为空白，则返回的行中，无此单元格，所以返回的行的单元格可能是不连续的，如 A 列，C 列 ... ，没有 B 列
      *
      * @param excelFile       excel 文件
      * @param datePattern     日期格式  yyyy-MM-dd , yyyy-MM-dd HH:mm:ss  ...
      * @param sheetNumber     指定的读取 sheet 序号，从 0 开始。null 为全部读取
-     * @param isDuplicateLine 是否过滤重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @param isDuplicateLine 是否允许重复行 。判断重复行的依据是各个单元格内容是否相同
      * @return 包含 excel 数据的集合
      */
 
     public static List<ExcelLine> readExcel(File excelFile, String datePattern, Integer sheetNumber, String sheetName, boolean isDuplicateLine) {
 
-        Optional<Workbook> workbook = getInputWorkbook(excelFile);
-
-        if (!workbook.isPresent())
-            return Collections.emptyList();
+        List<ExcelLine> lines = new ArrayList<>();
+        readExcel(excelFile, datePattern, sheetNumber, sheetName, isDuplicateLine, lines::add);
+        return lines;
+    }
 
-        // set 可以过滤重复元素。
-        Collection<ExcelLine> lines;
+    /**
+     * 流式读取 excel 文件，每读取一行调用一次 consumer ，内存占用和文件的行数无关
+     * xlsx 用 SAX 事件模型，xls 用 HSSF 事件模型，见 StreamingExcelReader
+     * 去重时只保存每行内容的 hash ，不保存行
+     *
+     * @param excelFile       excel 文件 (xls , xlsx)
+     * @param datePattern     日期格式  yyyy-MM-dd , yyyy-MM-dd HH:mm:ss  ...
+     * @param sheetNumber     指定的读取 sheet 序号，从 0 开始。null 为全部读取
+     * @param sheetName       指定的读取 sheet 名称，sheetNumber 为 null 时有效。null 为全部读取
+     * @param isDuplicateLine 是否允许重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @param consumer        行处理，不要保存 ExcelLine 的引用到集合中，否则仍然会占用全部内存
+     * @return 读取的行数，文件不存在时返回 0
+     */
+    public static long readExcel(File excelFile, String datePattern, Integer sheetNumber, String sheetName, boolean isDuplicateLine,
+                                 Consumer<ExcelLine> consumer) {
 
-        if (isDuplicateLine) // 允许重复
-            lines = new LinkedList(); //按照 add 先后排序. LinkList: add,delete 快;  ArrayList: get 定位快
-        else
-            lines = new LinkedHashSet();    // 利用 LinkedHashSet 来保证元素按照添加顺序排序，默认的比较器
+        if (!excelFile.exists()) {
+            System.out.println("excel file not exist " + excelFile);
+            return 0;
+        }
 
-        //判断文件类型
         try {
+            return new StreamingExcelReader(datePattern, sheetNumber, sheetName, isDuplicateLine).read(excelFile, consumer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
 
+    /**
+     * 流式读取 excel 文件，同 readExcel(File, String, Integer, String, boolean, Consumer) ，
+     * 行数据按列号保存在 ColumnarLine 中 (数组，下标为列号)，按列取值 O(1) ，空白单元格的值为 null
+     *
+     * @param excelFile       excel 文件 (xls , xlsx)
+     * @param datePattern     日期格式  yyyy-MM-dd , yyyy-MM-dd HH:mm:ss  ...
+     * @param sheetNumber     指定的读取 sheet 序号，从 0 开始。null 为全部读取
+     * @param sheetName       指定的读取 sheet 名称，sheetNumber 为 null 时有效。null 为全部读取
+     * @param isDuplicateLine 是否允许重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @param consumer        行处理
+     * @return 读取的行数，文件不存在时返回 0
+     */
+    public static long readExcelColumnar(File excelFile, String datePattern, Integer sheetNumber, String sheetName, boolean isDuplicateLine,
+                                         Consumer<ColumnarLine> consumer) {
 
-            if (sheetNumber == null && sheetName != null)
-                sheetNumber = workbook.get().getSheetIndex(sheetName);
-
-            // 循环 sheet
-            for (int i = 0; i < workbook.get().getNumberOfSheets(); i++) {
-
-                if (sheetNumber != null && i != sheetNumber.intValue())
-                    continue;
-
-                // 循环行
-                for (Row row : workbook.get().getSheetAt(i)) {
-
-                    ExcelLine excelLine = new ExcelLine();
-                    excelLine.setFileName(excelFile.getName());
-                    excelLine.setSheetName(workbook.get().getSheetName(i));
-                    excelLine.setSheetNumber(i);
-                    excelLine.setLineNumber(row.getRowNum());
-                    //For each row, iterate through each columns
-                    Iterator<Cell> cellIterator = row.cellIterator();
-                    //单行的每个单元格
-                    //.hasNext() 方法原理：如果单元格为空，结果为 false，直接跳到下一个有内容的单元格。所以返回的行的单元格可能是不连续的，如 A 列，C 列 ... ，没有 B 列
-                    while (cellIterator.hasNext()) {
-                        Cell cell = cellIterator.next();
-                        ExcelCell excelCell = new ExcelCell();
-                        excelCell.setTitle(convertColumnIndexToTitle(cell.getColumnIndex()));
-                        excelCell.setValue(getFormatCellValue(cell, datePattern));
-                        excelLine.addCellValue(excelCell);
-
-                    } //单行完成
-                    // 添加单行数据
-                    lines.add(excelLine);
-
-                } //单行循环完成
-
-            } //所有行完成
+        if (!excelFile.exists()) {
+            System.out.println("excel file not exist " + excelFile);
+            return 0;
+        }
 
-            workbook.get().close();
+        try {
+            return new StreamingExcelReader(datePattern, sheetNumber, sheetName, isDuplicateLine).readColumnar(excelFile, consumer);
         } catch (IOException e) {
             e.printStackTrace();
+            return 0;
         }
-
-        System.out.println("read excel end...");
-
-        //重新包装为 list
-        return new ArrayList(lines);
     }
 
     /**
@@ -183,7 +184,8 @@ public class MyExcelUtils {
     }
 
     /**
-     * 写 excel , 指定 sheet 名称，如果 excel 已经存在，则追加 sheet
+     * 写 excel , 指定 sheet 名称，如果 excel 已经存在，则追加 sheet (同名 sheet 已经存在时，名称为 sheetName_Copy)
+     * 流式写入，见 StreamingExcelWriter
      *
      * @param lines
      * @param sheetName
@@ -192,50 +194,49 @@ public class MyExcelUtils {
      */
     public static void writeExcel(List<ExcelLine> lines, String sheetName, File outExcelFile) throws Exception {
 
-        XSSFWorkbook workbook;
-        //Blank workbook
-        if (!outExcelFile.exists())
-            workbook = new XSSFWorkbook();
-        else {
-            if (!FilenameUtils.isExtension(outExcelFile.getName().toLowerCase(), "xlsx")) {
-                throw new Exception("输出文件必须是 xlsx 类型");
-            }
-            workbook = (XSSFWorkbook) WorkbookFactory.create(new FileInputStream(outExcelFile));
-        }
+        if (outExcelFile.exists() && !FilenameUtils.isExtension(outExcelFile.getName().toLowerCase(), "xlsx"))
+            throw new Exception("输出文件必须是 xlsx 类型");
 
-        XSSFSheet sheet;
-        //Create a blank sheet
-        if (sheetName == null)
-            sheet = workbook.createSheet();
-        else {
-            if (workbook.getSheet(sheetName) != null)
-                sheet = workbook.createSheet(sheetName + "_Copy");
-            else sheet = workbook.createSheet(sheetName);
+        try (StreamingExcelWriter writer = StreamingExcelWriter.append(outExcelFile, StreamingExcelWriter.DEFAULT_WINDOW_SIZE)) {
+            writer.sheet(sheetName != null && writer.hasSheet(sheetName) ? sheetName + "_Copy" : sheetName);
+            for (ExcelLine line : lines)
+                writer.writeLine(line);
         }
+    }
 
+    /**
+     * 追加行到 excel 指定的 sheet 中，从该 sheet 的最后一行之后开始写 ; excel 或者 sheet 不存在时新建
+     * 已有的行不读入内存，新写入的行是流式的，见 StreamingExcelWriter.append
+     *
+     * @param lines        待写入的行，可以是逐行生成的 Iterable ，不必全部放在内存中
+     * @param sheetName    sheet 名称
+     * @param outExcelFile xlsx 文件
+     * @throws IOException
+     */
+    public static void appendExcel(Iterable<ExcelLine> lines, String sheetName, File outExcelFile) throws IOException {
 
-        int rowNum = 0;
-        for (ExcelLine line : lines) {
-            Row row = sheet.createRow(rowNum++); //第一行
-            Set<ExcelCell> cells = line.getCellValues();
-            for (ExcelCell excelCell : cells) {
-                int cellIndex = convertColumnTitleToIndex(excelCell.getTitle());  // 根据 title ，获得列序号
-                Cell newCell = row.createCell(cellIndex);
-                String value = excelCell.getValue();
-                newCell.setCellValue(value);
-            }
+        try (StreamingExcelWriter writer = StreamingExcelWriter.append(outExcelFile, StreamingExcelWriter.DEFAULT_WINDOW_SIZE)) {
+            writer.sheet(sheetName);
+            for (ExcelLine line : lines)
+                writer.writeLine(line);
         }
+    }
 
-        try {
-            //Write the workbook in file system
-            FileOutputStream out = new FileOutputStream(outExcelFile);
-            workbook.write(out);
-            workbook.close(); //
-            out.flush();
-            out.close();
+    /**
+     * 写 excel 到输出流 (如 HttpServletResponse.getOutputStream())，不产生中间文件，不关闭 out
+     *
+     * @param lines      待写入的行，可以是逐行生成的 Iterable ，不必全部放在内存中
+     * @param sheetName  sheet 名称，null 为默认名称
+     * @param out        输出流
+     * @param windowSize 内存中保留的行数，见 StreamingExcelWriter.DEFAULT_WINDOW_SIZE
+     * @throws IOException
+     */
+    public static void writeExcel(Iterable<ExcelLine> lines, String sheetName, OutputStream out, int windowSize) throws IOException {
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        try (StreamingExcelWriter writer = StreamingExcelWriter.create(out, windowSize)) {
+            writer.sheet(sheetName);
+            for (ExcelLine line : lines)
+                writer.writeLine(line);
         }
     }
 
@@ -1,25 +1,13 @@
 package org.h819.commons.file;
 
 import com.itextpdf.forms.PdfPageFormCopier;
-import com.itextpdf.io.font.PdfEncodings;
-import com.itextpdf.io.image.ImageData;
-import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
 import com.itextpdf.io.source.FileChannelRandomAccessSource;
 import com.itextpdf.io.source.IRandomAccessSource;
-import com.itextpdf.kernel.color.Color;
 import com.itextpdf.kernel.crypto.BadPasswordException;
-import com.itextpdf.kernel.font.PdfFont;
-import com.itextpdf.kernel.font.PdfFontFactory;
-import com.itextpdf.kernel.geom.Rectangle;
 import com.itextpdf.kernel.pdf.*;
 import com.itextpdf.kernel.pdf.action.PdfAction;
-import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
-import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
-import com.itextpdf.kernel.utils.PdfMerger;
-import com.itextpdf.layout.Document;
-import com.itextpdf.layout.element.Paragraph;
-import com.itextpdf.layout.property.TextAlignment;
-import com.itextpdf.layout.property.VerticalAlignment;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -28,6 +16,10 @@ import org.dom4j.DocumentException;
 import org.h819.commons.MyConstants;
 import org.h819.commons.MyExecUtils;
 import org.h819.commons.file.pdf.PdfBase;
+import org.h819.commons.file.pdf.PdfDirectoryPipeline;
+import org.h819.commons.file.pdf.PdfIncrementalMerger;
+import org.h819.commons.file.pdf.PdfMetadataIndex;
+import org.h819.commons.file.pdf.PdfWatermark;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -234,9 +226,6 @@ public class MyPdfUtils extends PdfBase {
     private static String src_1 = "D:\\itext7\\source1.pdf";
     private static String src_2 = "D:\\itext7\\source2.pdf";
     private static String src_3 = "D:\\itext7\\source3.pdf";
-    // 该变量专门为 countPages() 函数设立，由于使用了递归，故提到全局变量，否则每次的返回值不能累计
-    private static int numberOfPagesOfDirectory;
-    private static List tempList;
     //private static final Logger log = LoggerFactory.getLogger(MyPdfUtils.class);
     private String dest_1 = "D:\\itext7\\DEST1.pdf";
 
@@ -389,11 +378,12 @@ public class MyPdfUtils extends PdfBase {
      * 获得自定义的空心字体 STCAIYUN.TTF，该字体已经制成为 jar，需要加入项目的 classpath
      * 经过测试，该空心字体作为 pdf 的水印，不会遮挡 pdf 原文，支持中文
      * 需要注意的是，空心字体不能太小，否则会看不清楚
+     * 字体文件只解析一次 (FontProgramFactory 缓存)，每个文件用 PdfFontFactory.createFont(fontProgram, encoding) 创建自己的 PdfFont
      *
      * @return
      * @throws IOException
      */
-    private static PdfFont getPdfFont() throws IOException {
+    private static FontProgram getPdfFontProgram() throws IOException {
 
         //空心字体
         String fontName = "/STCAIYUN.TTF";
@@ -402,62 +392,68 @@ public class MyPdfUtils extends PdfBase {
                         + File.separator + MyConstants.JarTempDir + File.separator
                         + fontName;
 
-        //如果已经拷贝过，就不用再拷贝了
-        if (!Files.exists(Paths.get(fontPath))) {
-            MyFileUtils.copyResourceFileFromJarLibToTmpDir(fontName);
+        //如果已经拷贝过，就不用再拷贝了 ; 多个线程同时处理文件时，只拷贝一次
+        synchronized (MyPdfUtils.class) {
+            if (!Files.exists(Paths.get(fontPath)))
+                MyFileUtils.copyResourceFileFromJarLibToTmpDir(fontName);
         }
-        return PdfFontFactory.createFont(fontPath, PdfEncodings.IDENTITY_H);
+        return FontProgramFactory.createFont(fontPath);
     }
 
     /**
      * 计算指定目录中所有的pdf文本的页数，包括子目录。
+     * 多个线程并行计算 (线程数为 cpu 核数)，见 PdfDirectoryPipeline ; 不能打开的文件 (如有打开密码) 不计算，记录在日志中
      *
      * @param srcPdfFileDir 待计算的文件夹路径
      * @return
      * @throws IOException
      */
     public static int getDirectoryPages(File srcPdfFileDir) throws IOException {
+        return getDirectoryPages(srcPdfFileDir, Runtime.getRuntime().availableProcessors());
+    }
 
-        numberOfPagesOfDirectory = 0; //重新初始化，否则静态变量全局不变
-        countNumberOfPagesOfDir(srcPdfFileDir);
-        return numberOfPagesOfDirectory;
+    /**
+     * 计算指定目录中所有的pdf文本的页数，包括子目录。
+     *
+     * @param srcPdfFileDir 待计算的文件夹路径
+     * @param parallelism   线程数
+     * @return
+     * @throws IOException
+     */
+    public static int getDirectoryPages(File srcPdfFileDir, int parallelism) throws IOException {
+
+        if (srcPdfFileDir == null || !srcPdfFileDir.isDirectory())
+            throw new FileNotFoundException(srcPdfFileDir + "'is null or dose not exist.");
+
+        // sink 串行调用，不需要同步
+        long[] pages = new long[1];
+        new PdfDirectoryPipeline(parallelism).run(srcPdfFileDir.toPath(), null, null,
+                (srcPdf, destPdf) -> getFilePages(srcPdf), count -> pages[0] += count);
+        return (int) pages[0];
     }
 
     /**
-     * 计算指定目录中所有的pdf文本的页数，包括子目录。用到了递归方法，返回值被全局变量记录，通过 getPageCount()函数调用
+     * 计算指定目录中所有的pdf文本的页数，包括子目录。
+     * 使用元数据索引，只解析新增和修改过的文件，见 PdfMetadataIndex ; 不能打开的文件不计算，记录在日志中
      *
-     * @param srcPDFFileDir 待计算的文件夹路径
+     * @param srcPdfFileDir 待计算的文件夹路径
+     * @param index         元数据索引，调用者负责保存 (close)
      * @return
      * @throws IOException
      */
-    private static void countNumberOfPagesOfDir(File srcPDFFileDir) throws IOException {
-
-        if (srcPDFFileDir == null || !srcPDFFileDir.isDirectory())
-            throw new FileNotFoundException(srcPDFFileDir + "'is null or dose not exist.");
-
-
-        Collection<File> listPDFs = FileUtils.listFiles(srcPDFFileDir, null, true);
-        for (File f : listPDFs) {
-
-            // 递归文件夹
-            if (f.isDirectory())
-                countNumberOfPagesOfDir(f);
-
-            if (!FilenameUtils.getExtension(f.getName().toUpperCase()).equals("PDF"))
-                continue;
-            // System.out.println(f.getPath());
-            // we create a reader for a certain document
-            Optional<PdfReader> reader = getPdfReader(f.toPath());
-            // we retrieve the total number of pages
-            // 对加密的文件会抛出异常
-            if (!reader.isPresent()) {
-                if (reader.get().isEncrypted()) {
-                    System.err.println(getEncryptedErrorMessage(f.toPath()));
-                    continue;
-                }
-                numberOfPagesOfDirectory = numberOfPagesOfDirectory + getFilePages(f.toPath());
-            }
+    public static int getDirectoryPages(File srcPdfFileDir, PdfMetadataIndex index) throws IOException {
+
+        if (srcPdfFileDir == null || !srcPdfFileDir.isDirectory())
+            throw new FileNotFoundException(srcPdfFileDir + "'is null or dose not exist.");
+
+        long pages = 0;
+        for (PdfMetadataIndex.Entry entry : index.scan(srcPdfFileDir.toPath(), Runtime.getRuntime().availableProcessors())) {
+            if (entry.getStatus() == PdfMetadataIndex.Status.OK)
+                pages += entry.getPages();
+            else
+                log.warn("{} can not open : {}", entry.getPath(), entry.getStatus());
         }
+        return (int) pages;
     }
 
     /**
@@ -468,7 +464,27 @@ public class MyPdfUtils extends PdfBase {
      * @throws IOException
      */
     public static int getFilePages(Path srcPdfFile) throws IOException {
-        return new PdfDocument(getPdfReader(srcPdfFile).get()).getNumberOfPages();
+        Optional<PdfReader> reader = getPdfReader(srcPdfFile);
+        if (!reader.isPresent())
+            throw new IOException(srcPdfFile.toAbsolutePath() + " Illegal.");
+        try (PdfDocument pdfDoc = new PdfDocument(reader.get())) {
+            return pdfDoc.getNumberOfPages();
+        }
+    }
+
+    /**
+     * 获得 pdf 文件页数，文件没有变化时从元数据索引中读取，不打开文件
+     *
+     * @param srcPdfFile
+     * @param index      元数据索引，调用者负责保存 (close)
+     * @return
+     * @throws IOException 文件不能打开
+     */
+    public static int getFilePages(Path srcPdfFile, PdfMetadataIndex index) throws IOException {
+        PdfMetadataIndex.Entry entry = index.get(srcPdfFile);
+        if (entry.getStatus() != PdfMetadataIndex.Status.OK)
+            throw new IOException(srcPdfFile.toAbsolutePath() + " Illegal : " + entry.getStatus());
+        return entry.getPages();
     }
 
     /**
@@ -494,7 +510,7 @@ public class MyPdfUtils extends PdfBase {
     }
 
     /**
-     * 文件夹中所有文件添加水印图片
+     * 文件夹中所有文件添加水印图片，保持目录结构，多个线程并行处理，见 PdfDirectoryPipeline
      *
      * @param srcPdfDirectory  源文件夹
      * @param descPdfDirectory 目标文件夹
@@ -509,20 +525,15 @@ public class MyPdfUtils extends PdfBase {
         if (!isEnoughSpace(srcPdfDirectory, descPdfDirectory))
             return;
 
-        for (File file : srcPdfDirectory.toFile().listFiles()) {
-            Path destPath = Paths.get(descPdfDirectory.toAbsolutePath().toString(), file.getName());
-
-            if (file.isFile()) {
-                addWaterMarkFile(file.toPath(), destPath, waterMarkImage, null, null);
-            } else if (file.isDirectory())
-                addWaterMarkDerictory(file.toPath(), destPath, waterMarkImage);
-            else return;
-
-        }
+        PdfWatermark waterMark = createWaterMark(waterMarkImage, null, null);
+        new PdfDirectoryPipeline().run(srcPdfDirectory, descPdfDirectory, null, (srcPdf, destPdf) -> {
+            addWaterMarkFile(srcPdf, destPdf, waterMark);
+            return null;
+        }, null);
     }
 
     /**
-     * 文件夹中所有文件添加水印文字
+     * 文件夹中所有文件添加水印文字，保持目录结构，多个线程并行处理，见 PdfDirectoryPipeline
      *
      * @param srcPdfFileDirectory  源文件夹
      * @param descPdfFileDirectory 目标文件夹
@@ -535,16 +546,11 @@ public class MyPdfUtils extends PdfBase {
         if (!isEnoughSpace(srcPdfFileDirectory.toPath(), descPdfFileDirectory.toPath()))
             return;
 
-        for (File file : srcPdfFileDirectory.listFiles()) {
-            String destPath = descPdfFileDirectory.getAbsolutePath() + File.separator + file.getName();
-            if (file.isFile()) {
-                addWaterMarkFile(file, Paths.get(destPath).toFile(), waterMarkText, textPosition);
-            } else if (file.isDirectory())
-                addWaterMarkDerictory(file, Paths.get(destPath).toFile(), waterMarkText, textPosition);
-            else continue;
-
-        }
-
+        PdfWatermark waterMark = createWaterMark(null, waterMarkText, textPosition);
+        new PdfDirectoryPipeline().run(srcPdfFileDirectory.toPath(), descPdfFileDirectory.toPath(), null, (srcPdf, destPdf) -> {
+            addWaterMarkFile(srcPdf, destPdf, waterMark);
+            return null;
+        }, null);
     }
 
     /**
@@ -597,141 +603,65 @@ public class MyPdfUtils extends PdfBase {
 
     /**
      * 单个文件添加水印
+     * 文字、图片在文件中各只有一个对象 (Form XObject)，每页引用，见 PdfWatermark
      *
      * @param srcPdf         源文件
      * @param destPdf        目标文件
      * @param waterMarkText  水印文字
      * @param waterMarkImage 水印图片
-     * @param textPosition   文字位置
+     * @param textPosition   文字位置，为 null 时居中
      */
     public static void addWaterMarkFile(Path srcPdf, Path destPdf, Path waterMarkImage, String waterMarkText, TextPosition textPosition) throws IOException, IllegalFormatException {
+        addWaterMarkFile(srcPdf, destPdf, createWaterMark(waterMarkImage, waterMarkText, textPosition));
+    }
+
+    /**
+     * 检查参数，创建水印。文件夹处理时只创建一次，所有文件共用 (图片只解码一次、字体只解析一次)
+     */
+    private static PdfWatermark createWaterMark(Path waterMarkImage, String waterMarkText, TextPosition textPosition) throws IOException {
 
         //加指定页
         if (waterMarkText == null && waterMarkImage == null)
             throw new FileNotFoundException(waterMarkText + " " + waterMarkImage + " all null.");
 
-
-        if (!Files.exists(srcPdf))
-            throw new FileNotFoundException("pdf file :  '" + srcPdf + "' does not exsit.");
-
-
-        if (!FilenameUtils.getExtension(srcPdf.getFileName().toString().toLowerCase()).equals("pdf"))
-            throw new FileNotFoundException("file :  '" + srcPdf + "' is not pdf.");
-
         if (waterMarkImage != null) {
             if (!Files.exists(waterMarkImage))
-                throw new FileNotFoundException("img file :  '" + srcPdf + "' does not exsit.");
+                throw new FileNotFoundException("img file :  '" + waterMarkImage + "' does not exsit.");
 
             if (!FilenameUtils.getExtension(waterMarkImage.getFileName().toString().toLowerCase()).equals("png"))
-                throw new FileNotFoundException("image file '" + srcPdf + "'  not png.(必须为透明图片(png)格式，否则会遮挡 pdf 内容)");
+                throw new FileNotFoundException("image file '" + waterMarkImage + "'  not png.(必须为透明图片(png)格式，否则会遮挡 pdf 内容)");
         }
 
-        Files.createDirectories(destPdf.getParent());
-
-        try {
-
+        return new PdfWatermark(waterMarkText, waterMarkText == null ? null : getPdfFontProgram(), waterMarkImage, textPosition);
+    }
 
-            Optional<PdfReader> reader = getPdfReader(srcPdf);
-            if (!reader.isPresent())
-                return;
+    /**
+     * 单个文件添加已经创建的水印
+     * 出错时抛出异常，文件夹处理时 (PdfDirectoryPipeline) 记录为出错的文件，不影响其他文件
+     */
+    private static void addWaterMarkFile(Path srcPdf, Path destPdf, PdfWatermark waterMark) throws IOException {
 
-            if (reader.get().isEncrypted()) {
-                System.err.println(getEncryptedErrorMessage(srcPdf));
-                return;
-            }
+        if (!Files.exists(srcPdf))
+            throw new FileNotFoundException("pdf file :  '" + srcPdf + "' does not exsit.");
 
+        if (!FilenameUtils.getExtension(srcPdf.getFileName().toString().toLowerCase()).equals("pdf"))
+            throw new FileNotFoundException("file :  '" + srcPdf + "' is not pdf.");
 
-            PdfWriter writer = new PdfWriter(new FileOutputStream(destPdf.toFile()));
-            PdfDocument pdfDoc = new PdfDocument(reader.get(), writer);
-            Document doc = new Document(pdfDoc);
-            int n = pdfDoc.getNumberOfPages();
-            PdfFont font = getPdfFont();//创建一个空心字体
-            Paragraph p = new Paragraph("My watermark (text ?中文支持么)");
-            p.setFont(font); //此处需要加载支持中文的字体
-            p.setFontSize(18);
-            p.setFontColor(Color.GRAY, 0.3f); //透明度
-
-
-            // image watermark
-            ImageData img = null;
-            float w = 0, h = 0;
-            if (waterMarkImage != null) {
-                img = ImageDataFactory.create(waterMarkImage.toAbsolutePath().toString());
-                //  Implement transformation matrix usage in order to scale image
-                w = img.getWidth();
-                h = img.getHeight();
-            }
-            // transparency
-            PdfExtGState gs1 = new PdfExtGState();
-            gs1.setFillOpacity(0.5f);
-            // properties
-            PdfCanvas over;
-            Rectangle pageSize;
-            float x = 0; //横坐标
-            float y = 0; //纵坐标
-            float r = 0; //旋转角度
-            // loop over every page
-            for (int i = 1; i <= n; i++) {
-                PdfPage pdfPage = pdfDoc.getPage(i);
-
-                pageSize = pdfPage.getPageSizeWithRotation();
-                pdfPage.setIgnorePageRotationForContent(true);
-
-                //添加文字时，文字位置
-                if (waterMarkText != null)
-                    if (textPosition.equals(TextPosition.CENTER) || textPosition == null) {  // 居中对齐，旋转 45 度
-                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
-                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
-                        r = 45;
-                        p.setFontSize(35);
-                    } else if (textPosition.equals(TextPosition.TOP)) {
-                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
-                        y = pageSize.getTop() - 10;
-                        r = 0;
-
-                    } else if (textPosition.equals(TextPosition.BOTTOM)) {
-                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
-                        y = pageSize.getBottom() + 30;
-                        r = 0;
-
-                    } else if (textPosition.equals(TextPosition.LEFT)) {
-                        x = pageSize.getLeft() + 20;
-                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
-                        r = (float) Math.toRadians(90);  //注意 90 度的写法
-                    } else if (textPosition.equals(TextPosition.RIGHT)) {
-                        x = pageSize.getRight() - 20;
-                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
-                        r = (float) Math.toRadians(90); //注意 90 度的写法
-                    }
-
-
-                // 在 pdf 内容之上添加，如果加在底部，pdf 文件内容为图片，就会遮挡而看不见
-                //over = stamper.getOverContent(i);
-                over = new PdfCanvas(pdfDoc.getPage(i));
-                over.saveState();
-                over.setExtGState(gs1);
-
-                if (waterMarkText != null && waterMarkImage != null) { // 文字图片隔页添加
-                    if (i % 2 == 1) {
-                        doc.showTextAligned(p, x, y, i, TextAlignment.CENTER, VerticalAlignment.MIDDLE, r);
-                    } else {  //图片不用设置位置
-                        over.addImage(img, w, 0, 0, h, x - (w / 2), y - (h / 2), false);
-                    }
-                } else if (waterMarkText != null && waterMarkImage == null) {  //每页添加文字
-                    doc.showTextAligned(p, x, y, i, TextAlignment.CENTER, VerticalAlignment.MIDDLE, r);
-                } else {   //每页添加图片
-                    over.addImage(img, w, 0, 0, h, x - (w / 2), y - (h / 2));
-                }
-                over.restoreState();//恢复状态
-                pdfDoc.setFlushUnusedObjects(true);
+        Files.createDirectories(destPdf.toAbsolutePath().getParent());
 
-            }
+        Optional<PdfReader> reader = getPdfReader(srcPdf);
+        if (!reader.isPresent())
+            return;
 
-            doc.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (reader.get().isEncrypted()) {
+            reader.get().close();
+            System.err.println(getEncryptedErrorMessage(srcPdf));
+            return;
         }
 
+        try (PdfDocument pdfDoc = new PdfDocument(reader.get(), new PdfWriter(new FileOutputStream(destPdf.toFile())))) {
+            waterMark.stamp(pdfDoc);
+        }
     }
 
     private static String getEncryptedErrorMessage(Path f) {
@@ -739,94 +669,54 @@ public class MyPdfUtils extends PdfBase {
     }
 
     /**
-     * 检查文件夹内的文件是否被加密，可以递归
+     * 检查文件夹内的文件是否被加密，包括子文件夹，结果写到文件夹同级的 encrypt.txt 中
      *
      * @param srcPdfFileDir 待检查的文件夹
      * @throws java.io.IOException
      */
     public static void findEncryptPdf(File srcPdfFileDir) throws IOException {
-        if (tempList == null)
-            tempList = new ArrayList();
-
-        tempList.clear();//重新初始化，否则静态变量全局不变
-        findEncryptPdf0(srcPdfFileDir);
-
-        if (tempList.size() != 0)
-            FileUtils.writeLines(new File(srcPdfFileDir.getParent()
-                    + File.separator + "encrypt.txt"), StandardCharsets.UTF_8.name(), tempList);
-        log.info(" finished!");
-
+        findEncryptPdf(srcPdfFileDir, new PdfMetadataIndex(null));
     }
 
     /**
-     * 检查文件夹内的文件是否被加密，用到了递归方法，返回值被全局变量记录，通过 findEncryptPdf()函数调用
+     * 检查文件夹内的文件是否被加密，包括子文件夹，结果写到文件夹同级的 encrypt.txt 中
+     * 使用元数据索引，只解析新增和修改过的文件，见 PdfMetadataIndex
      *
      * @param srcPdfFileDir 待检查的文件夹
+     * @param index         元数据索引，调用者负责保存 (close)
      * @throws java.io.IOException
      */
-    private static void findEncryptPdf0(File srcPdfFileDir) throws IOException {
+    public static void findEncryptPdf(File srcPdfFileDir, PdfMetadataIndex index) throws IOException {
 
         if (!srcPdfFileDir.isDirectory()) {
             log.info("srcPdfFileDir is not a Directory: " + srcPdfFileDir.getAbsolutePath());
             return;
         }
 
-        File listFiles[] = srcPdfFileDir.listFiles();
-
-        if (listFiles.length == 0) {
-            log.info("srcPdfFileDir has not file. " + srcPdfFileDir.getAbsolutePath());
-            return;
+        List<PdfMetadataIndex.Entry> entries = index.scan(srcPdfFileDir.toPath(), Runtime.getRuntime().availableProcessors());
+        entries.sort(Comparator.comparing(PdfMetadataIndex.Entry::getPath));
+
+        List<String> lines = new ArrayList<>(entries.size());
+        for (PdfMetadataIndex.Entry entry : entries) {
+            switch (entry.getStatus()) {
+                case EMPTY: // 损坏的 0 字节文件，直接登记
+                    lines.add("size = 0 :" + entry.getPath());
+                    break;
+                case PASSWORD: // 有打开密码的文件，不能破解，直接登记
+                    lines.add("BadPassword,can not open :" + entry.getPath());
+                    break;
+                case DAMAGED:
+                    lines.add("damaged,can not open :" + entry.getPath());
+                    break;
+                default:
+                    lines.add((entry.isEncrypted() ? "encrypted :" : "not encrypted :") + entry.getPath());
+            }
         }
 
-        // log.info(descPdfFileDir.getAbsolutePath());
-
-        for (File f : listFiles) {
-            String fileName = f.getName();
-            String extension = FilenameUtils.getExtension(fileName).toLowerCase();
-            if (f.isFile()) {
-                if (extension.equals("pdf")) {
-                    // 损坏的 0 字节文件，文件体积大于 40 M， 直接登记
-                    if (FileUtils.sizeOf(f) == 0) {
-                        tempList.add("size = 0 :" + f.getAbsolutePath());
-                        continue;
-                    }
-
-                    Optional<PdfReader> reader;
-
-
-                    try {
-                        reader = getPdfReader(f.toPath());
-                        if (!reader.isPresent())
-                            return;
-                    } catch (BadPasswordException e) {
-                        // 有打开密码的文件，不能破解，直接登记
-                        e.printStackTrace();
-                        tempList.add("BadPassword,can not open :" + f.getAbsolutePath());
-                        continue;
-                    }
-                    // log.info("fileDesc name :" + fileDesc.getAbsolutePath());
-
-                    if (reader.get().isEncrypted()) {// 未加密的文件，，直接登记
-                        tempList.add("encrypted :" + f.getAbsolutePath());
-                        reader.get().close();
-                        continue;
-                    } else {
-                        tempList.add("not encrypted :" + f.getAbsoluteFile());
-                        reader.get().close();
-                        continue;
-                    }
-
-                }// end if f.isFile
-                else
-                    continue;
-            } else if (f.isDirectory()) {
-                findEncryptPdf0(f);
-            }// end if f.isDirectory
-            else
-                continue;
-
-        }// end for
-
+        if (lines.size() != 0)
+            FileUtils.writeLines(new File(srcPdfFileDir.getParent()
+                    + File.separator + "encrypt.txt"), StandardCharsets.UTF_8.name(), lines);
+        log.info(" finished!");
     }
 
     /**
@@ -922,6 +812,7 @@ public class MyPdfUtils extends PdfBase {
 
     /**
      * 通过第三方提供的工具，破解没有设置打开密码的 pdf 文件。可以递归破解指定文件夹内的所有文件，并保留原来的目录结构
+     * 多个线程并行处理，见 PdfDirectoryPipeline ; 处理出错的文件也拷贝到 badDirectory 中 (保持目录结构)
      *
      * @param srcPdfDirectory  存放待破解 pdf 文件的文件夹. 破解之后的文件，存放子默认的文件夹内。
      * @param descPdfDirectory 破解之后的文件存放的文件夹，保持和源文件同样的结构
@@ -937,16 +828,10 @@ public class MyPdfUtils extends PdfBase {
         if (!isEnoughSpace(srcPdfDirectory, descPdfDirectory))
             return;
 
-        for (File file : srcPdfDirectory.toFile().listFiles()) {
-            Path destPath = Paths.get(descPdfDirectory.toAbsolutePath().toString(), file.getName());
-
-            if (file.isFile()) {
-                decryptFile(file.toPath(), destPath, badDirectory);
-            } else if (file.isDirectory())
-                decryptFileDerictory(file.toPath(), destPath, badDirectory);
-            else return;
-
-        }
+        new PdfDirectoryPipeline().run(srcPdfDirectory, descPdfDirectory, badDirectory, (srcPdf, destPdf) -> {
+            decryptFile(srcPdf, destPdf, badDirectory);
+            return null;
+        }, null);
     }
 
     /**
@@ -988,7 +873,7 @@ public class MyPdfUtils extends PdfBase {
         // 损坏的 0 字节文件，直接拷贝到统一的文件夹
         if (Files.size(srcPdf) == 0) {
             log.info("{} size =0 ,copy to {}", srcPdf.toAbsolutePath(), badDirectory.toAbsolutePath());
-            FileUtils.copyDirectory(srcPdf.toFile(), badDirectory.toFile(), true);
+            FileUtils.copyFileToDirectory(srcPdf.toFile(), badDirectory.toFile(), true);
             return;
         }
 
@@ -1112,7 +997,7 @@ public class MyPdfUtils extends PdfBase {
     }
 
     /**
-     * 文件夹
+     * 文件夹中所有文件添加使用日期限制，保持目录结构，多个线程并行处理，见 PdfDirectoryPipeline
      *
      * @param srcPdfFileDir
      * @param descPdfFileDir
@@ -1126,27 +1011,10 @@ public class MyPdfUtils extends PdfBase {
         if (!isEnoughSpace(srcPdfFileDir, descPdfFileDir))
             return;
 
-        File listFiles[] = srcPdfFileDir.toFile().listFiles();
-
-        if (listFiles.length == 0) {
-            log.info("srcPdfFileDir has not file. " + srcPdfFileDir.toFile().getAbsolutePath());
-            return;
-        }
-
-        for (File f : listFiles) {
-            if (f.isFile()) {
-                addExpireDateWithJavaScriptFile(f.toPath(), Paths.get(descPdfFileDir.toAbsolutePath().toString(), f.getName())
-                        , startDate,
-                        alertDays, expiredDays);
-            }// end if f.isFile
-
-            else if (f.isDirectory()) {
-                addExpireDateWithJavaScriptDerictory(f.toPath(), descPdfFileDir, startDate, alertDays, expiredDays);
-            }// end if f.isDirectory
-            else
-                continue;
-
-        }// end for
+        new PdfDirectoryPipeline().run(srcPdfFileDir, descPdfFileDir, null, (srcPdf, destPdf) -> {
+            addExpireDateWithJavaScriptFile(srcPdf, destPdf, startDate, alertDays, expiredDays);
+            return null;
+        }, null);
     }
 
 
@@ -1223,7 +1091,7 @@ public class MyPdfUtils extends PdfBase {
      * @return
      * @throws IOException
      */
-    private static String getPdfPdfdecryptExec() {
+    private static synchronized String getPdfPdfdecryptExec() {
 
         //命令行模式，只需要两个文件即可
         String exec1 = "/pdfdecrypt.exe";
@@ -1326,28 +1194,27 @@ public class MyPdfUtils extends PdfBase {
 
     /**
      * 合并 pdf
+     * 每合并一个文件就写出页面并关闭源文件，内存占用和文件数量无关 ; 相同的资源 (字体、图片) 只写一次，见 PdfIncrementalMerger
      *
      * @param srcPdfs
      * @param destPdf
-     * @throws IOException
+     * @throws IOException 源文件不能打开或者合并出错时，异常信息中包含该文件名
      */
     public void mergeFiles(List<Path> srcPdfs, Path destPdf) throws IOException {
-        //Initialize PDF document with output intent
-        PdfDocument pdf = new PdfDocument(new PdfWriter(destPdf.toAbsolutePath().toString()));
-        PdfMerger merger = new PdfMerger(pdf);
+        new PdfIncrementalMerger().merge(srcPdfs, destPdf);
+    }
 
-        for (Path file : srcPdfs) {
-            //Add pages from the first document
-            Optional<PdfReader> reader = getPdfReader(file);
-            if (!reader.isPresent())
-                return;
-            PdfDocument sourcePdf = new PdfDocument(reader.get());
-            merger.merge(sourcePdf, 1, sourcePdf.getNumberOfPages());
-            sourcePdf.setFlushUnusedObjects(true);
-            sourcePdf.close();
-        }
-        pdf.setFlushUnusedObjects(true);
-        pdf.close();
+    /**
+     * 合并 pdf ，可以跳过出错的源文件
+     *
+     * @param srcPdfs
+     * @param destPdf
+     * @param skipBadFiles 源文件出错时是否跳过，false 时抛出 IOException
+     * @return 合并的文件数、页数、跳过的文件、内存峰值等
+     * @throws IOException
+     */
+    public static PdfIncrementalMerger.Report mergeFiles(List<Path> srcPdfs, Path destPdf, boolean skipBadFiles) throws IOException {
+        return new PdfIncrementalMerger(skipBadFiles).merge(srcPdfs, destPdf);
     }
 
 
@@ -0,0 +1,262 @@
+package org.h819.commons.file.base;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Description : TODO(查找重复文件 : 按大小分组 -> 比较开头结尾的部分 hash -> 比较整个文件的 hash)
+ * -
+ * 1. 遍历文件夹，按文件大小分组，大小唯一的文件不可能重复，不读内容 ;
+ * 2. 大小相同的文件，计算开头和结尾各 PARTIAL_BYTES 字节的 hash (每个文件只读 8K)，大部分不同的文件在这一步就区分开了 ;
+ * 3. 部分 hash 也相同的文件，才计算整个文件的 hash (murmur3 128 位)。不大于 2 * PARTIAL_BYTES 的文件，部分 hash 就是整个文件的内容，不再计算。
+ * -
+ * 并行 : 返回的是并行 Stream ，每组大小相同的文件、组内的每个文件在 ForkJoinPool 中并行计算 hash ;
+ * 读文件用 FileChannel 读到每个线程自己的 direct buffer 中，不经过 java 堆。
+ * 没有用内存映射 (MappedByteBuffer) : java 8 不能主动释放映射，映射期间 windows 上文件不能删除，而找到重复文件之后通常就要删除。
+ * -
+ * 结果逐组生成 (Stream 是惰性的)，第一组重复文件不需要等所有文件计算完成。
+ * 所有状态都在每次 find 调用中，可以在多个线程中同时调用。
+ * 0 字节文件、$RECYCLE.BIN 等系统文件夹忽略 ; 同一个文件 (多个文件夹参数有重叠) 只计算一次。读取出错的文件跳过，记录在日志中。
+ * -
+ * 用法 :
+ * try (Stream<DuplicateFileFinder.DuplicateGroup> groups = new DuplicateFileFinder().find(fileFilter, directories)) {
+ * groups.forEach(group -> ...);
+ * }
+ */
+@Slf4j
+public class DuplicateFileFinder {
+
+    /**
+     * 部分 hash 读取文件开头和结尾的字节数
+     */
+    public static final int PARTIAL_BYTES = 4 * 1024;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    //操作系统文件，忽略
+    private static final List<String> SYS_FILES = Arrays.asList("$RECYCLE.BIN");
+
+    // 每个线程一个 direct buffer ，读文件时重复使用
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * 查找重复文件
+     *
+     * @param fileFilter  文件过滤，和 File.listFiles(fileFilter) 相同，也用于子文件夹 ; 为 null 时不过滤
+     * @param directories 待比较的文件夹 (也可以是文件)
+     * @return 重复文件的分组，每组至少两个文件，并行、顺序不确定 ; 终端操作时才读文件
+     * @throws IOException 遍历文件夹出错
+     */
+    public Stream<DuplicateGroup> find(FileFilter fileFilter, List<File> directories) throws IOException {
+
+        Map<Long, Set<Path>> bySize = new HashMap<>();
+        for (File directory : directories)
+            walk(directory.toPath(), fileFilter, bySize);
+
+        List<Map.Entry<Long, Set<Path>>> candidates = bySize.entrySet().stream()
+                .filter(sameSize -> sameSize.getValue().size() > 1)
+                .collect(Collectors.toList());
+        log.info("{} files have the same size with others, in {} groups.",
+                candidates.stream().mapToInt(sameSize -> sameSize.getValue().size()).sum(), candidates.size());
+
+        return candidates.parallelStream().flatMap(sameSize -> resolve(sameSize.getKey(), sameSize.getValue()));
+    }
+
+    /**
+     * 第一步 : 按文件大小分组
+     */
+    private static void walk(Path root, FileFilter fileFilter, Map<Long, Set<Path>> bySize) throws IOException {
+        if (!Files.exists(root))
+            return;
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!Files.isReadable(dir) || (dir.getFileName() != null && SYS_FILES.contains(dir.getFileName().toString())))
+                    return FileVisitResult.SKIP_SUBTREE;
+                if (!dir.equals(root) && fileFilter != null && !fileFilter.accept(dir.toFile()))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile() || attrs.size() == 0)
+                    return FileVisitResult.CONTINUE;
+                if (!file.equals(root) && fileFilter != null && !fileFilter.accept(file.toFile()))
+                    return FileVisitResult.CONTINUE;
+                bySize.computeIfAbsent(attrs.size(), size -> new LinkedHashSet<>())
+                        .add(file.toAbsolutePath().normalize());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("{} can not read : {}", file.toAbsolutePath(), e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 第二步、第三步 : 大小相同的一组文件，先比较部分 hash ，再比较整个文件的 hash
+     */
+    private static Stream<DuplicateGroup> resolve(long size, Set<Path> sameSize) {
+        boolean partialIsFull = size <= 2L * PARTIAL_BYTES;
+
+        return group(sameSize, DuplicateFileFinder::partialHash).entrySet().stream()
+                .filter(partial -> partial.getValue().size() > 1)
+                .flatMap(partial -> partialIsFull
+                        ? Stream.of(partial)
+                        : group(partial.getValue(), DuplicateFileFinder::fullHash).entrySet().stream())
+                .filter(full -> full.getValue().size() > 1)
+                .map(full -> new DuplicateGroup(size, full.getKey().toString(), full.getValue()));
+    }
+
+    /**
+     * 组内的文件并行计算 hash ，按 hash 分组 ; 读取出错的文件跳过
+     */
+    private static Map<HashCode, List<Path>> group(Iterable<Path> files, HashFunction hashFunction) {
+        List<Path> list = new ArrayList<>();
+        files.forEach(list::add);
+        ConcurrentMap<HashCode, List<Path>> groups = new ConcurrentHashMap<>();
+        list.parallelStream().forEach(file -> hash(file, hashFunction).ifPresent(hash ->
+                groups.computeIfAbsent(hash, h -> Collections.synchronizedList(new ArrayList<>())).add(file)));
+        return groups;
+    }
+
+    private static Optional<HashCode> hash(Path file, HashFunction hashFunction) {
+        try {
+            return Optional.of(hashFunction.hash(file));
+        } catch (IOException e) {
+            log.warn("{} can not read : {}", file, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 文件大小 + 开头和结尾各 PARTIAL_BYTES 字节 (小文件为整个文件) 的 hash
+     */
+    private static HashCode partialHash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Hasher hasher = Hashing.murmur3_128().newHasher().putLong(size);
+            read(channel, 0, Math.min(size, PARTIAL_BYTES), hasher);
+            if (size > PARTIAL_BYTES) {
+                long tail = Math.max(PARTIAL_BYTES, size - PARTIAL_BYTES);
+                read(channel, tail, size - tail, hasher);
+            }
+            return hasher.hash();
+        }
+    }
+
+    /**
+     * 整个文件的 hash
+     */
+    private static HashCode fullHash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            read(channel, 0, channel.size(), hasher);
+            return hasher.hash();
+        }
+    }
+
+    private static void read(FileChannel channel, long position, long length, Hasher hasher) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("file truncated while hashing");
+            position += read;
+            buffer.flip();
+            hasher.putBytes(buffer);
+        }
+    }
+
+    @FunctionalInterface
+    private interface HashFunction {
+        HashCode hash(Path file) throws IOException;
+    }
+
+    /**
+     * 一组内容相同的文件
+     */
+    public static final class DuplicateGroup {
+
+        private final long size;
+        private final String hash;
+        private final List<Path> files;
+
+        private DuplicateGroup(long size, String hash, List<Path> files) {
+            this.size = size;
+            this.hash = hash;
+            List<Path> sorted = new ArrayList<>(files);
+            Collections.sort(sorted);
+            this.files = Collections.unmodifiableList(sorted);
+        }
+
+        /**
+         * @return 文件大小
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return 文件内容的 hash (十六进制) ; 不大于 2 * PARTIAL_BYTES 的文件为部分 hash (包括整个文件)
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return 内容相同的文件，按路径排序
+         */
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return 可以删除的字节数 (保留一个文件)
+         */
+        public long getWastedBytes() {
+            return size * (files.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return hash + " (" + size + " bytes) " + files;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.h819.commons.file.base;
 
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.lang.StringUtils;
 import org.h819.commons.MyFastJsonUtils;
@@ -9,16 +7,13 @@ import org.h819.commons.MyFastJsonUtils;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class FileUtilsBase {
-    //暂存文件大小相同的文件, key: 文件大小, value: 文件大小相同的文件路径，可以为多个
-    private static Map<Long, List<String>> duplicateFilesMapBySize = new HashMap();
-    //暂存文件 hash 相同的文件
-    private static Map<String, List<String>> duplicateFilesMapByHash = new HashMap();
-    //操作系统文件，忽略
-    private static String[] sysFiles = {"$RECYCLE.BIN"};
 
 
     /**
@@ -35,95 +30,23 @@ public class FileUtilsBase {
      *  1. 已经测试过(几万个文件，大小不一)，方案一和方案二，找到的相同的文件的结果一致。
      *  2. 但两个方案效率相差悬殊，计算文件的 Hash 值很耗时间，尤其是大文件，耗时更长。文件很多、大文件很大的话，方案一以可能需要数小时，而方案二仅需要数秒钟。
      *  3. 大文件进行 hash 计算很慢，单个2G 以上的文件可能就需要十几秒钟。
+     *  -
+     *  现在用方案二，并在两步之间加了部分 hash (文件开头和结尾)，大小相同的文件大部分在这一步就区分开了，只有部分 hash 也相同的文件才计算整个文件的 hash，
+     *  并且并行计算，见 DuplicateFileFinder
      */
 
     /**
-     * 第一步：先比较文件大小，找到所有文件大小相同的文件，结果存放到 outDuplicateFilesMapBySize
-     * -
-     * 之后文件大小相同，才可能相同 。文件大小相同之后，再比较文件的 hash
-     * -
+     * 找到指定文件夹中重复的文件，逐组返回
      *
-     * @param directories 待比较的文件夹结合
      * @param fileFilter
-     * @return key: 文件的 hash 值,  value: hash 值相同文件的路径集合，也就是相同文件的集合
-     */
-    private static void findDuplicateFilesBySize(FileFilter fileFilter, List<File> directories) {
-        if (directories == null || directories.isEmpty())
-            return;
-        for (File dirChild : directories) {
-            if (!dirChild.canRead() || Arrays.asList(sysFiles).contains(dirChild.getName()))
-                continue;
-
-            if (dirChild.isDirectory()) {
-                if (dirChild.listFiles() == null || dirChild.listFiles().length == 0)
-                    continue;
-                findDuplicateFilesBySize(fileFilter, Arrays.asList(dirChild.listFiles(fileFilter)));
-            } else {
-                if (dirChild.length() == 0)
-                    continue;
-                System.out.println(String.format("calculate file size : %d -> %s", dirChild.length(), dirChild.getAbsolutePath()));
-                long uniqueFileLength = dirChild.length();
-                //获取文件大小相等文件的路径
-                List<String> identicalList = duplicateFilesMapBySize.get(uniqueFileLength);
-                if (identicalList == null) {//该大小的文件，还没有放入 map
-                    identicalList = new LinkedList();
-                }
-                // Add path to list
-                identicalList.add(dirChild.getAbsolutePath());
-                // push updated list to Hash table
-                duplicateFilesMapBySize.put(uniqueFileLength, identicalList);
-
-            }
-
-        }
-
-    }
-
-    /**
-     * 第二步：文件大小相同的文件，进行 hash 比较 ，结果存放到 outDuplicateFilesMapByHash
-     * -
-     * 仅比较文件大小相同的文件，避免了所有文件都进行 hash 计算，节省了时间
+     * @param directories
+     * @return 重复文件的分组 (每组至少两个文件)，并行 Stream ，终端操作时才计算 hash
+     * @throws IOException 遍历文件夹出错
      */
-    private static void findDuplicateFilesByHash() {
-
-        for (Map.Entry<Long, List<String>> entry : duplicateFilesMapBySize.entrySet()) {
-            List<String> fileList = entry.getValue();
-            if (fileList.size() == 1) //该文件大小下，无重复文件
-                continue;
-
-            for (String fileStr : fileList) {
-
-                try {
-                    /**
-                     * 文件 Hash
-                     * 1. com.google.common.io.Files.asByteSource(new File(fileStr)).hash(Hashing.goodFastHash(5)) 最快 (比 commons DigestUtils.md5Hex 快 50%)
-                     * goodFastHash(5) 相当于 md5
-                     * 2. md5 比 SHA-256 快 40% 以上，md5 用于文件 hash ，足够准确
-                     * md5 已经被证实，是不安全的，可以被破解和伪装。就是说不同的文件内容，md5 可能会相同
-                     * sha-1 新近被 google 证实，同 md5 一样可以被伪装
-                     * 如果不是要求非常高的系统 md5 验证足够
-                     */
-                    String uniqueFileHash = Files.asByteSource(new File(fileStr)).hash(Hashing.goodFastHash(5)).toString();
-                    System.out.println(String.format("calculate file hash : %s -> %s", uniqueFileHash, fileStr));
-                    List<String> identicalList = duplicateFilesMapByHash.get(uniqueFileHash);
-                    if (identicalList == null) {
-                        identicalList = new LinkedList();
-                    }
-                    // Add path to list
-                    identicalList.add(fileStr);
-                    // push updated list to Hash table
-                    duplicateFilesMapByHash.put(uniqueFileHash, identicalList);
-                } catch (IOException e) {
-                    throw new RuntimeException("cannot read file " + fileStr, e);
-                }
-            }
-
-
-            // duplicate.put(entry.getKey(), entry.getValue());
-        }
+    public static Stream<DuplicateFileFinder.DuplicateGroup> streamDuplicateFiles(FileFilter fileFilter, List<File> directories) throws IOException {
+        return new DuplicateFileFinder().find(fileFilter, directories);
     }
 
-
     /**
      * 找到指定文件夹中重复的文件
      *
@@ -134,27 +57,18 @@ public class FileUtilsBase {
 
     public static Map<String, List<String>> findDuplicateFiles(FileFilter fileFilter, List<File> directories) {
 
-        /**
-         * 静态变量在全局固定，如果多次使用，map 会积累所有的使用数据
-         * 所以每次使用时，要用一个外部方法清空
-         * - Duplicate 方法仅在此方法中进行即可
-         *
-         */
-        duplicateFilesMapBySize.clear();
-        duplicateFilesMapByHash.clear();
-
-        //第一步，比较文件大小
-        findDuplicateFilesBySize(fileFilter, directories); // outDuplicateFilesMapBySize 赋值
-        System.out.println(StringUtils.center("begin to hash file which has same size", 80, "="));
-        //第二步，比较文件 hash
-        findDuplicateFilesByHash();  // outDuplicateFilesMapByHash 赋值
-        //返回结果
-        Map<String, List<String>> duplicate = new HashMap();
-        for (Map.Entry<String, List<String>> entry : duplicateFilesMapByHash.entrySet()) {
-            if (entry.getValue().size() > 1) // 找到重复 hash 的文件
-                duplicate.put(entry.getKey(), entry.getValue());
+        try (Stream<DuplicateFileFinder.DuplicateGroup> groups = streamDuplicateFiles(fileFilter, directories)) {
+            Map<String, List<String>> duplicate = new HashMap<>();
+            groups.forEachOrdered(group -> {
+                List<String> paths = new LinkedList<>();
+                for (Path file : group.getFiles())
+                    paths.add(file.toString());
+                duplicate.put(group.getHash(), paths);
+            });
+            return duplicate;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read directories " + directories, e);
         }
-        return duplicate;
     }
 
     /**
@@ -0,0 +1,333 @@
+package org.h819.commons.file.csv;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.IOUtils;
+import org.h819.commons.MyCharsetUtils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Description : TODO(流式读取 csv 文件，逐行返回，不把所有行读入内存)
+ * -
+ * 编码 : 只读取文件开头的 DEFAULT_DETECT_BYTES 字节探测编码 (有 BOM 时按 BOM)，BOM 不作为第一个单元格的内容返回。
+ * 去重 : 不保存已经读取的行，只保存每行单元格内容的 128 位 hash (murmur3)，每行 16 字节，冲突的概率可以忽略。
+ * -
+ * 行索引 : 第一次按行号读取 (getRecord) 时扫描一遍文件，记录每行开始的字节位置，之后按行号读取时直接定位，不需要从头解析。
+ * 扫描时只比较引号、换行字节，不解码，要求编码和 ASCII 兼容 (UTF-8 , GBK 等)，UTF-16 等编码、有表头的格式不建立索引，按行号读取时从头解析。
+ * 行号和 MyCSVUtils.getCSVRecord 相同 (从 0 开始，不包括被忽略的空行、注释行)。
+ * 索引只在内存中，每行 8 字节。文件修改之后需要新建 StreamingCSVReader 。
+ * -
+ * 用法 :
+ * StreamingCSVReader reader = new StreamingCSVReader(csvFile);
+ * try (StreamingCSVReader.RecordIterator it = reader.iterator(false)) {
+ * while (it.hasNext()) { CSVRecord record = it.next(); ... }
+ * }
+ * CSVRecord record = reader.getRecord(1000); // 第一次建立索引，之后 O(1) 定位
+ */
+public class StreamingCSVReader {
+
+    /**
+     * 默认探测编码时读取的字节数
+     */
+    public static final int DEFAULT_DETECT_BYTES = 64 * 1024;
+
+    private final File csvFile;
+    private final CSVFormat format;
+    private final Charset charset;
+    private final int bomLength;
+
+    // 每行开始的字节位置 (包括 BOM)，getRecord 第一次调用时建立
+    private long[] lineOffsets;
+    private int lineCount;
+
+    /**
+     * 默认格式 (CSVFormat.DEFAULT)，探测编码
+     *
+     * @param csvFile csv 文件
+     * @throws IOException
+     */
+    public StreamingCSVReader(File csvFile) throws IOException {
+        this(csvFile, CSVFormat.DEFAULT, null);
+    }
+
+    /**
+     * @param csvFile csv 文件
+     * @param format  csv 格式
+     * @param charset 文件编码，为 null 时读取文件开头的 DEFAULT_DETECT_BYTES 字节探测，无法判断时为 UTF-8
+     * @throws IOException
+     */
+    public StreamingCSVReader(File csvFile, CSVFormat format, Charset charset) throws IOException {
+        this.csvFile = csvFile;
+        this.format = format;
+        if (charset == null) {
+            charset = MyCharsetUtils.detectEncoding(csvFile, DEFAULT_DETECT_BYTES);
+            if (charset == null)
+                charset = StandardCharsets.UTF_8;
+        }
+        this.charset = charset;
+        this.bomLength = bomLength(csvFile, charset);
+    }
+
+    private static int bomLength(File file, Charset charset) throws IOException {
+        byte[] head = new byte[3];
+        int read;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            read = IOUtils.read(in, head);
+        }
+        return charset.equals(MyCharsetUtils.detectBOM(Arrays.copyOf(head, read)))
+                ? (charset.equals(StandardCharsets.UTF_8) ? 3 : 2) : 0;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * 从头逐行读取
+     *
+     * @param duplicate 是否保留重复行 。判断重复行的依据是各个单元格内容是否相同
+     * @return 使用完后需要关闭 (try-with-resources)
+     * @throws IOException
+     */
+    public RecordIterator iterator(boolean duplicate) throws IOException {
+        return new RecordIterator(open(bomLength, 1), duplicate);
+    }
+
+    /**
+     * 从头逐行读取，每一行调用一次 consumer
+     *
+     * @param duplicate 是否保留重复行
+     * @param consumer  行处理
+     * @return 读取的行数 (去掉重复行之后)
+     * @throws IOException
+     */
+    public long read(boolean duplicate, Consumer<CSVRecord> consumer) throws IOException {
+        long count = 0;
+        try (RecordIterator iterator = iterator(duplicate)) {
+            while (iterator.hasNext()) {
+                consumer.accept(iterator.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按行号读取。第一次调用时建立行索引 (扫描一遍文件)，之后直接定位到该行
+     *
+     * @param lineNumber 行号，从 0 开始
+     * @return 行号超出范围时返回 null
+     * @throws IOException
+     */
+    public CSVRecord getRecord(int lineNumber) throws IOException {
+        if (lineNumber < 0)
+            return null;
+
+        if (!isIndexable()) { // 不能建立索引，从头解析
+            try (RecordIterator iterator = iterator(true)) {
+                for (int i = 0; iterator.hasNext(); i++) {
+                    CSVRecord record = iterator.next();
+                    if (i == lineNumber)
+                        return record;
+                }
+            }
+            return null;
+        }
+
+        buildIndex();
+        if (lineNumber >= lineCount)
+            return null;
+        try (CSVParser parser = open(lineOffsets[lineNumber], lineNumber + 1)) {
+            Iterator<CSVRecord> iterator = parser.iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    /**
+     * @return 行数，需要建立索引 (扫描一遍文件)
+     * @throws IOException
+     */
+    public int getLineCount() throws IOException {
+        if (!isIndexable())
+            return (int) read(true, record -> {
+            });
+        buildIndex();
+        return lineCount;
+    }
+
+    /**
+     * 编码中引号、换行是否是单字节且和 ASCII 相同，只有这样才能按字节扫描行的边界 ;
+     * 有表头 (header) 的格式从中间开始解析时会把该行当作表头，也不建立索引
+     */
+    private boolean isIndexable() {
+        return format.getHeader() == null && Arrays.equals("\"\r\n".getBytes(charset), new byte[]{'"', '\r', '\n'});
+    }
+
+    private CSVParser open(long position, long recordNumber) throws IOException {
+        FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(position);
+            return new CSVParser(new InputStreamReader(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024), charset),
+                    format, 0, recordNumber);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 扫描文件，记录每行开始的字节位置。
+     * 引号中的换行不是行的结束 ; 和 CSVFormat 一致，跳过空行 (ignoreEmptyLines) 和注释行 (commentMarker)
+     */
+    private synchronized void buildIndex() throws IOException {
+        if (lineOffsets != null)
+            return;
+
+        int quote = format.getQuoteCharacter() == null ? -1 : format.getQuoteCharacter();
+        int escape = format.getEscapeCharacter() == null ? -1 : format.getEscapeCharacter();
+        int comment = format.getCommentMarker() == null ? -1 : format.getCommentMarker();
+        boolean ignoreEmptyLines = format.getIgnoreEmptyLines();
+
+        long[] offsets = new long[1024];
+        int count = 0;
+        long recordStart = -1; // 当前行开始的位置，-1 表示在行之间
+        boolean inQuotes = false;
+        boolean escaped = false;
+        boolean inComment = false;
+        boolean afterCR = false; // 上一个字节是结束一行的 \r ，紧接的 \n 属于同一个换行
+
+        byte[] buffer = new byte[64 * 1024];
+        long position = bomLength;
+        try (InputStream in = Files.newInputStream(csvFile.toPath())) {
+            IOUtils.skipFully(in, bomLength);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++, position++) {
+                    int b = buffer[i] & 0xFF;
+                    boolean newLine = b == '\n' || b == '\r';
+                    boolean crlf = afterCR && b == '\n';
+                    afterCR = false;
+
+                    if (inComment) {
+                        if (newLine) {
+                            inComment = false;
+                            afterCR = b == '\r';
+                        }
+                        continue;
+                    }
+
+                    if (recordStart < 0) { // 行之间
+                        if (crlf)
+                            continue;
+                        if (b == comment) {
+                            inComment = true;
+                            continue;
+                        }
+                        if (newLine) {
+                            afterCR = b == '\r';
+                            if (!ignoreEmptyLines)
+                                offsets = add(offsets, count++, position);
+                            continue;
+                        }
+                        recordStart = position;
+                    }
+
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == escape) {
+                        escaped = true;
+                    } else if (b == quote) {
+                        inQuotes = !inQuotes;
+                    } else if (newLine && !inQuotes) {
+                        offsets = add(offsets, count++, recordStart);
+                        recordStart = -1;
+                        afterCR = b == '\r';
+                    }
+                }
+            }
+        }
+        if (recordStart >= 0)
+            offsets = add(offsets, count++, recordStart);
+
+        lineCount = count;
+        lineOffsets = offsets;
+    }
+
+    private static long[] add(long[] offsets, int index, long offset) {
+        if (index == offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[index] = offset;
+        return offsets;
+    }
+
+    private static HashCode hash(CSVRecord record) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String value : record)
+            hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+        return hasher.putInt(record.size()).hash();
+    }
+
+    /**
+     * 逐行读取，可以过滤重复行。使用完后需要关闭
+     */
+    public static final class RecordIterator implements Iterator<CSVRecord>, Closeable {
+
+        private final CSVParser parser;
+        private final Iterator<CSVRecord> iterator;
+        // 已经读取的行的 hash ，保留重复行时为 null
+        private final Set<HashCode> hashes;
+        private CSVRecord next;
+
+        private RecordIterator(CSVParser parser, boolean duplicate) {
+            this.parser = parser;
+            this.iterator = parser.iterator();
+            this.hashes = duplicate ? null : new HashSet<>();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && iterator.hasNext()) {
+                CSVRecord record = iterator.next();
+                if (hashes == null || hashes.add(hash(record)))
+                    next = record;
+            }
+            return next != null;
+        }
+
+        @Override
+        public CSVRecord next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            CSVRecord record = next;
+            next = null;
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+}
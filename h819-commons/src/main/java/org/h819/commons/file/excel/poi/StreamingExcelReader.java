@@ -0,0 +1,396 @@
+package org.h819.commons.file.excel.poi;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.time.DateFormatUtils;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.h819.commons.file.excel.poi.vo.ColumnarLine;
+import org.h819.commons.file.excel.poi.vo.ExcelLine;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Description : TODO(流式读取 excel ，每读取一行调用一次回调，不把整个 workbook 读入内存)
+ * -
+ * XSSFWorkbook / HSSFWorkbook 把整个文件解析为对象 (DOM)，几十万行的文件需要几个 G 的内存。
+ * 本类使用 poi 的事件模型 :
+ * xlsx : XSSFReader + SAX (XSSFSheetXMLHandler)，共享字符串表只读 ;
+ * xls  : HSSFEventFactory 逐条读取 record 。
+ * 内存占用只和当前行有关，和文件的行数无关。
+ * -
+ * 去重 : 不保存已经读取的行，只保存每行单元格内容的 128 位 hash (murmur3)，每行 16 字节。
+ * hash 相同即认为重复，冲突的概率可以忽略。
+ * -
+ * 单元格为空白时，返回的行中无此单元格，和 MyExcelUtils.readExcel 相同。
+ * 读取时按列号保存在 ColumnarLine 中 (见 readColumnar)，read 方法再转换为 ExcelLine 。
+ * 公式单元格返回文件中保存的计算结果，日期按 datePattern 格式化，其他按单元格格式 (DataFormatter) 格式化。
+ * -
+ * 用法见 MyExcelUtils.readExcel(File, String, Integer, String, boolean, Consumer)
+ */
+public class StreamingExcelReader {
+
+    private final Integer sheetNumber;
+    private final String sheetName;
+    private final boolean isDuplicateLine;
+    private final DataFormatter formatter;
+    // 已经读取的行的 hash ，isDuplicateLine 为 false 时使用
+    private final Set<HashCode> lineHashes = new HashSet<>();
+
+    /**
+     * @param datePattern     日期格式  yyyy-MM-dd , yyyy-MM-dd HH:mm:ss  ...
+     * @param sheetNumber     指定的读取 sheet 序号，从 0 开始。null 为全部读取
+     * @param sheetName       指定的读取 sheet 名称，sheetNumber 为 null 时有效。null 为全部读取
+     * @param isDuplicateLine 是否允许重复行 。判断重复行的依据是各个单元格内容是否相同
+     */
+    public StreamingExcelReader(String datePattern, Integer sheetNumber, String sheetName, boolean isDuplicateLine) {
+        this.sheetNumber = sheetNumber;
+        this.sheetName = sheetName;
+        this.isDuplicateLine = isDuplicateLine;
+        this.formatter = new DatePatternFormatter(datePattern);
+    }
+
+    /**
+     * 读取 excel 文件，每一行调用一次 consumer
+     *
+     * @param excelFile xls 或者 xlsx 文件
+     * @param consumer  行处理，不要保存 ExcelLine 的引用到集合中，否则仍然会占用全部内存
+     * @return 读取的行数 (去掉重复行之后)
+     * @throws IOException
+     */
+    public long read(File excelFile, Consumer<ExcelLine> consumer) throws IOException {
+        return readColumnar(excelFile, line -> consumer.accept(line.toExcelLine()));
+    }
+
+    /**
+     * 读取 excel 文件，每一行调用一次 consumer ，行数据按列号保存，不转换为 ExcelLine
+     *
+     * @param excelFile xls 或者 xlsx 文件
+     * @param consumer  行处理，空白单元格的值为 null
+     * @return 读取的行数 (去掉重复行之后)
+     * @throws IOException
+     */
+    public long readColumnar(File excelFile, Consumer<ColumnarLine> consumer) throws IOException {
+
+        LineCounter counter = new LineCounter(consumer);
+        String fileName = excelFile.getName().toLowerCase();
+
+        if (FilenameUtils.isExtension(fileName, "xlsx"))
+            readXlsx(excelFile, counter);
+        else if (FilenameUtils.isExtension(fileName, "xls"))
+            readXls(excelFile, counter);
+        else
+            throw new IllegalArgumentException("Received file does not have a standard excel extension.");
+
+        return counter.count;
+    }
+
+    private boolean isSelectedSheet(int index, String name) {
+        if (sheetNumber != null)
+            return sheetNumber == index;
+        return sheetName == null || sheetName.equals(name);
+    }
+
+    /**
+     * 去重之后交给 consumer
+     */
+    private void emit(ColumnarLine line, LineCounter counter) {
+        if (!isDuplicateLine && !lineHashes.add(hash(line)))
+            return;
+        counter.accept(line);
+    }
+
+    private static HashCode hash(ColumnarLine line) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (int i = 0; i < line.size(); i++) {
+            String value = line.get(i);
+            if (value != null)
+                hasher.putInt(i).putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash();
+    }
+
+    private static ColumnarLine newLine(String fileName, String sheetName, int sheetIndex, int rowNum) {
+        return new ColumnarLine(fileName, sheetName, sheetIndex, rowNum, null);
+    }
+
+    private static void addCell(ColumnarLine line, int columnIndex, String value) {
+        line.set(columnIndex, value == null ? "" : value.trim());
+    }
+
+    //======================== xlsx ========================
+
+    private void readXlsx(File excelFile, LineCounter counter) throws IOException {
+
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(excelFile, PackageAccess.READ);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader reader = new XSSFReader(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int index = 0;
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    String name = sheets.getSheetName();
+                    if (isSelectedSheet(index, name)) {
+                        XMLReader parser = SAXHelper.newXMLReader();
+                        parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                                new XlsxRowHandler(excelFile.getName(), name, index, counter), formatter, false));
+                        parser.parse(new InputSource(sheet));
+                    }
+                }
+                index++;
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("read excel failed : " + excelFile, e);
+        } finally {
+            if (pkg != null)
+                pkg.revert(); // 只读打开，不保存
+        }
+    }
+
+    private final class XlsxRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final String fileName;
+        private final String sheetName;
+        private final int sheetIndex;
+        private final LineCounter counter;
+        private ColumnarLine line;
+        private int nextColumn;
+
+        private XlsxRowHandler(String fileName, String sheetName, int sheetIndex, LineCounter counter) {
+            this.fileName = fileName;
+            this.sheetName = sheetName;
+            this.sheetIndex = sheetIndex;
+            this.counter = counter;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            line = newLine(fileName, sheetName, sheetIndex, rowNum);
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            emit(line, counter);
+            line = null;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // cellReference 可能为 null (部分程序生成的文件没有 r 属性)，此时按顺序计算列
+            int column = cellReference == null ? nextColumn : new CellReference(cellReference).getCol();
+            nextColumn = column + 1;
+            addCell(line, column, formattedValue);
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+        }
+    }
+
+    //======================== xls ========================
+
+    private void readXls(File excelFile, LineCounter counter) throws IOException {
+
+        try (POIFSFileSystem fs = new POIFSFileSystem(excelFile, true)) {
+            XlsRecordHandler handler = new XlsRecordHandler(excelFile.getName(), counter);
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(handler.formatListener);
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+        }
+    }
+
+    private final class XlsRecordHandler implements HSSFListener {
+
+        private final String fileName;
+        private final LineCounter counter;
+        private final FormatTrackingHSSFListener formatListener;
+        private final MissingRecordAwareHSSFListener missingRecordListener;
+
+        // sheet 名称，BoundSheetRecord 在所有 sheet 之前，顺序和 sheet 相同
+        private final List<String> sheetNames = new ArrayList<>();
+        private SSTRecord sstRecord;
+        private int sheetIndex = -1;
+        private boolean selected;
+        private ColumnarLine line;
+        // 公式的结果为字符串时，值在后面的 StringRecord 中
+        private int formulaRow;
+        private int formulaColumn;
+        private boolean outputNextStringRecord;
+
+        private XlsRecordHandler(String fileName, LineCounter counter) {
+            this.fileName = fileName;
+            this.counter = counter;
+            this.missingRecordListener = new MissingRecordAwareHSSFListener(this);
+            this.formatListener = new FormatTrackingHSSFListener(missingRecordListener);
+        }
+
+        @Override
+        public void processRecord(Record record) {
+
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    sheetNames.add(((BoundSheetRecord) record).getSheetname());
+                    return;
+                case BOFRecord.sid:
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                        sheetIndex++;
+                        selected = isSelectedSheet(sheetIndex, sheetIndex < sheetNames.size() ? sheetNames.get(sheetIndex) : null);
+                        line = null;
+                    }
+                    return;
+                case SSTRecord.sid:
+                    sstRecord = (SSTRecord) record;
+                    return;
+                default:
+            }
+
+            if (!selected)
+                return;
+
+            if (record instanceof LastCellOfRowDummyRecord) {
+                if (line != null)
+                    emit(line, counter);
+                line = null;
+                return;
+            }
+
+            switch (record.getSid()) {
+                case LabelSSTRecord.sid: {
+                    LabelSSTRecord rec = (LabelSSTRecord) record;
+                    cell(rec.getRow(), rec.getColumn(), sstRecord == null ? "" : sstRecord.getString(rec.getSSTIndex()).toString());
+                    break;
+                }
+                case LabelRecord.sid: {
+                    LabelRecord rec = (LabelRecord) record;
+                    cell(rec.getRow(), rec.getColumn(), rec.getValue());
+                    break;
+                }
+                case NumberRecord.sid: {
+                    NumberRecord rec = (NumberRecord) record;
+                    cell(rec.getRow(), rec.getColumn(), formatNumber(rec.getValue(), rec));
+                    break;
+                }
+                case BoolErrRecord.sid: {
+                    BoolErrRecord rec = (BoolErrRecord) record;
+                    cell(rec.getRow(), rec.getColumn(), rec.isBoolean() ? (rec.getBooleanValue() ? "TRUE" : "FALSE")
+                            : FormulaError.forInt(rec.getErrorValue()).getString());
+                    break;
+                }
+                case FormulaRecord.sid: {
+                    FormulaRecord rec = (FormulaRecord) record;
+                    if (rec.hasCachedResultString()) {
+                        formulaRow = rec.getRow();
+                        formulaColumn = rec.getColumn();
+                        outputNextStringRecord = true;
+                    } else if (rec.getCachedResultType() == CellType.BOOLEAN.getCode())
+                        cell(rec.getRow(), rec.getColumn(), rec.getCachedBooleanValue() ? "TRUE" : "FALSE");
+                    else if (rec.getCachedResultType() == CellType.ERROR.getCode())
+                        cell(rec.getRow(), rec.getColumn(), FormulaError.forInt(rec.getCachedErrorValue()).getString());
+                    else
+                        cell(rec.getRow(), rec.getColumn(), formatNumber(rec.getValue(), rec));
+                    break;
+                }
+                case StringRecord.sid:
+                    if (outputNextStringRecord) {
+                        cell(formulaRow, formulaColumn, ((StringRecord) record).getString());
+                        outputNextStringRecord = false;
+                    }
+                    break;
+                default:
+            }
+        }
+
+        private String formatNumber(double value, CellValueRecordInterface rec) {
+            return formatter.formatRawCellContents(value, formatListener.getFormatIndex(rec), formatListener.getFormatString(rec));
+        }
+
+        private void cell(int row, int column, String value) {
+            if (line == null)
+                line = newLine(fileName, sheetIndex < sheetNames.size() ? sheetNames.get(sheetIndex) : "", sheetIndex, row);
+            addCell(line, column, value);
+        }
+    }
+
+    /**
+     * 日期按指定格式输出，其他同 DataFormatter
+     */
+    private static final class DatePatternFormatter extends DataFormatter {
+
+        private final String datePattern;
+
+        private DatePatternFormatter(String datePattern) {
+            this.datePattern = datePattern;
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value))
+                return DateFormatUtils.format(DateUtil.getJavaDate(value, use1904Windowing), datePattern);
+            return super.formatRawCellContents(value, formatIndex, formatString, use1904Windowing);
+        }
+    }
+
+    private static final class LineCounter implements Consumer<ColumnarLine> {
+        private final Consumer<ColumnarLine> consumer;
+        private long count;
+
+        private LineCounter(Consumer<ColumnarLine> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(ColumnarLine line) {
+            count++;
+            consumer.accept(line);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.h819.commons.file.excel.poi;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.h819.commons.file.excel.poi.vo.ExcelCell;
+import org.h819.commons.file.excel.poi.vo.ExcelLine;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Description : TODO(流式写 xlsx ，内存中只保留最近的若干行，其他行写入临时文件)
+ * -
+ * XSSFWorkbook 把所有行保存在内存中，导出几十万行的报表时内存溢出。
+ * 本类基于 SXSSFWorkbook : 内存中只保留最近 windowSize 行，之前的行写入临时文件 (压缩)，不能再修改 ; close 时合并输出。
+ * 内存占用和行数无关，只和 windowSize 、列数有关。
+ * -
+ * 三种用法 :
+ * 1. 直接写到输出流 (如 HttpServletResponse.getOutputStream())，不产生中间文件 : StreamingExcelWriter.create(out, windowSize)
+ * 2. 写到新文件 : StreamingExcelWriter.create(file, windowSize)
+ * 3. 追加到已有文件 : StreamingExcelWriter.append(file, windowSize) ，已有的 sheet 从最后一行之后继续写，没有的 sheet 新建。
+ * 已有的行不读入内存，close 时从原文件流式复制，新行插入在已有的行之后，见 XlsxAppender ; 先写到临时文件，完成后替换原文件。
+ * -
+ * 写完必须调用 close (try-with-resources)，close 时输出文件并删除临时文件。
+ * 不是线程安全的。
+ * -
+ * 例子 :
+ * try (StreamingExcelWriter writer = StreamingExcelWriter.create(response.getOutputStream(), 1000)) {
+ * writer.sheet("订单");
+ * writer.writeRow("编号", "金额");
+ * for (Order order : orders) writer.writeRow(order.getId(), order.getAmount());
+ * }
+ */
+public class StreamingExcelWriter implements Closeable {
+
+    /**
+     * 默认内存中保留的行数
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+
+    private final SXSSFWorkbook workbook;
+    private final OutputStream out;
+    // 追加模式 : 先写到 tempFile ，close 时和已有的行合并，替换原文件
+    private final XlsxAppender appender;
+    private final File tempFile;
+
+    // 切换 sheet 时记录每个 sheet 的下一行 (SXSSFSheet 写出到临时文件的行，不能再读取行号)
+    private final Map<Sheet, Integer> nextRowNums = new IdentityHashMap<>();
+    private Sheet sheet;
+    private int nextRowNum;
+    private boolean closed;
+
+    private StreamingExcelWriter(SXSSFWorkbook workbook, OutputStream out, XlsxAppender appender, File tempFile) {
+        this.workbook = workbook;
+        this.out = out;
+        this.appender = appender;
+        this.tempFile = tempFile;
+        workbook.setCompressTempFiles(true);
+    }
+
+    /**
+     * 写到输出流，close 时输出，不关闭 out
+     *
+     * @param out        输出流，如 HttpServletResponse.getOutputStream()
+     * @param windowSize 内存中保留的行数
+     * @return
+     */
+    public static StreamingExcelWriter create(OutputStream out, int windowSize) {
+        return new StreamingExcelWriter(new SXSSFWorkbook(windowSize), new NonClosingOutputStream(out), null, null);
+    }
+
+    /**
+     * 写到新文件，已经存在时覆盖
+     *
+     * @param outExcelFile xlsx 文件
+     * @param windowSize   内存中保留的行数
+     * @return
+     * @throws IOException
+     */
+    public static StreamingExcelWriter create(File outExcelFile, int windowSize) throws IOException {
+        checkExtension(outExcelFile);
+        return new StreamingExcelWriter(new SXSSFWorkbook(windowSize), new BufferedOutputStream(new FileOutputStream(outExcelFile)), null, null);
+    }
+
+    /**
+     * 追加到已有文件，文件不存在时同 create
+     * <p>
+     * 已有的行不读入内存 : 模板为去掉所有行和共享字符串的已有文件 (只有 sheet 、样式等结构)，新写入的行按 windowSize 流式写出，
+     * close 时逐个 sheet 从原文件复制已有的行，在其后插入新写入的行，见 XlsxAppender 。内存占用和已有的行数无关。
+     * 新写入的字符串为 inline string ，不加入共享字符串表。
+     *
+     * @param outExcelFile xlsx 文件
+     * @param windowSize   内存中保留的行数
+     * @return
+     * @throws IOException
+     */
+    public static StreamingExcelWriter append(File outExcelFile, int windowSize) throws IOException {
+        if (!outExcelFile.exists())
+            return create(outExcelFile, windowSize);
+
+        checkExtension(outExcelFile);
+        XlsxAppender appender = new XlsxAppender(outExcelFile);
+        File tempFile = XlsxAppender.createTempFile(outExcelFile);
+        return new StreamingExcelWriter(new SXSSFWorkbook(appender.getTemplate(), windowSize), new BufferedOutputStream(new FileOutputStream(tempFile)), appender, tempFile);
+    }
+
+    private static void checkExtension(File excelFile) {
+        if (!FilenameUtils.isExtension(excelFile.getName().toLowerCase(), "xlsx"))
+            throw new IllegalArgumentException("输出文件必须是 xlsx 类型");
+    }
+
+    /**
+     * 切换到指定的 sheet ，不存在时新建，存在时 (追加模式) 从最后一行之后继续写
+     * 没有调用时，第一次写入时新建一个默认名称的 sheet
+     *
+     * @param sheetName sheet 名称，为 null 时新建默认名称的 sheet
+     * @return
+     */
+    public StreamingExcelWriter sheet(String sheetName) {
+        if (sheet != null)
+            nextRowNums.put(sheet, nextRowNum);
+
+        Sheet existing = sheetName == null ? null : workbook.getSheet(sheetName);
+        if (existing == null) {
+            sheet = sheetName == null ? workbook.createSheet() : workbook.createSheet(sheetName);
+            nextRowNum = 0;
+        } else if (nextRowNums.containsKey(existing)) { // 本次写过的 sheet
+            sheet = existing;
+            nextRowNum = nextRowNums.get(existing);
+        } else { // 模板中的 sheet ，已有的行不在模板中，行号为扫描原文件时记录的
+            sheet = existing;
+            nextRowNum = appender.getNextRowNum(existing.getSheetName());
+        }
+        return this;
+    }
+
+    /**
+     * @param sheetName
+     * @return 是否已经有该名称的 sheet (模板中的或者本次新建的)
+     */
+    public boolean hasSheet(String sheetName) {
+        return workbook.getSheet(sheetName) != null;
+    }
+
+    /**
+     * 当前 sheet 中追加一行
+     *
+     * @param values 按列顺序的值，null 时该单元格为空
+     * @return
+     */
+    public StreamingExcelWriter writeRow(Object... values) {
+        Row row = nextRow();
+        for (int i = 0; i < values.length; i++)
+            setCellValue(row, i, values[i]);
+        return this;
+    }
+
+    /**
+     * 当前 sheet 中追加一行
+     *
+     * @param values 按列顺序的值，null 时该单元格为空
+     * @return
+     */
+    public StreamingExcelWriter writeRow(List<?> values) {
+        Row row = nextRow();
+        for (int i = 0; i < values.size(); i++)
+            setCellValue(row, i, values.get(i));
+        return this;
+    }
+
+    /**
+     * 当前 sheet 中追加一行，单元格位置由 ExcelCell 的 title (A,B,C ...) 确定
+     *
+     * @param line
+     * @return
+     */
+    public StreamingExcelWriter writeLine(ExcelLine line) {
+        Row row = nextRow();
+        for (ExcelCell excelCell : line.getCellValues())
+            row.createCell(CellReference.convertColStringToIndex(excelCell.getTitle())).setCellValue(excelCell.getValue());
+        return this;
+    }
+
+    /**
+     * @return 当前 sheet 下一行的行号，从 0 开始
+     */
+    public int getNextRowNum() {
+        return nextRowNum;
+    }
+
+    private Row nextRow() {
+        if (closed)
+            throw new IllegalStateException("writer closed");
+        if (sheet == null)
+            sheet(null);
+        return sheet.createRow(nextRowNum++);
+    }
+
+    private static void setCellValue(Row row, int column, Object value) {
+        if (value == null)
+            return;
+        Cell cell = row.createCell(column);
+        if (value instanceof Number)
+            cell.setCellValue(((Number) value).doubleValue());
+        else if (value instanceof Boolean)
+            cell.setCellValue((Boolean) value);
+        else
+            cell.setCellValue(value.toString());
+    }
+
+    /**
+     * 输出文件，删除临时文件 ; 追加模式下合并已有的行，替换原文件
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            try (OutputStream output = out) {
+                workbook.write(output);
+            }
+            if (appender != null)
+                appender.merge(tempFile);
+        } finally {
+            workbook.dispose(); // 删除 SXSSF 的临时文件
+            workbook.close();
+            if (tempFile != null)
+                Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * 写到调用者的输出流时，不关闭该流 (如 HttpServletResponse)，只 flush
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        private NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
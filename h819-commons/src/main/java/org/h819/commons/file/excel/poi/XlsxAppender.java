@@ -0,0 +1,373 @@
+package org.h819.commons.file.excel.poi;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Description : TODO(xlsx 追加模式 : 不读入已有的行，在 sheet xml 的 sheetData 中流式追加新行)
+ * -
+ * xlsx 是 zip 包 (OPC)，每个 sheet 一个 xml ，行在 sheetData 中 ; 字符串单元格一般引用共享字符串表 (sharedStrings.xml)。
+ * 追加分三步 :
+ * 1. 复制已有文件，去掉 sheetData 中的行和共享字符串表中的字符串，得到只有结构 (sheet 、样式等) 的模板，同时记录每个 sheet 的下一行 ;
+ * 2. 模板读入 XSSFWorkbook ，新行由 SXSSFWorkbook 流式写出 (字符串为 inline string ，不使用共享字符串表) ;
+ * 3. merge : 已有的 sheet ，复制原文件的 xml ，在 sheetData 结束之前插入新写出的行 ; 共享字符串表用原文件的 ;
+ * 其他文件 (新建的 sheet 、workbook.xml 等) 用 SXSSF 写出的。
+ * 都是逐个 zip entry 流式复制，内存占用和已有的行数无关。
+ * -
+ * 按字节扫描 xml 标签 : xlsx 中的 xml 为 utf-8 ，多字节字符中不会出现 '<' '>' 等 ascii 字符。
+ * 行号取 row 的 r 属性，没有 r 属性时为上一行加 1 。
+ * 不是线程安全的，通过 StreamingExcelWriter.append 使用。
+ */
+final class XlsxAppender {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SHEET_DATA = "sheetData";
+    private static final String SHARED_STRINGS = "sst";
+    private static final Pattern ROW_NUM = Pattern.compile("\\sr\\s*=\\s*[\"'](\\d+)[\"']");
+
+    private final File original;
+    private final XSSFWorkbook template;
+    // zip 中的 sheet xml
+    private final Set<String> sheetEntries = new HashSet<>();
+    // sheet 名称 -> 已有的下一行，从 0 开始
+    private final Map<String, Integer> nextRowNums = new HashMap<>();
+    private final String sharedStringsEntry;
+
+    /**
+     * 去掉已有文件中的行，读入模板
+     *
+     * @param original 已有的 xlsx 文件
+     * @throws IOException
+     */
+    XlsxAppender(File original) throws IOException {
+        this.original = original;
+
+        File skeleton = createTempFile(original);
+        Map<String, Integer> entryRowNums;
+        try {
+            entryRowNums = copyWithoutRows(original, skeleton);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(skeleton))) {
+                template = new XSSFWorkbook(in);
+            }
+        } finally {
+            Files.deleteIfExists(skeleton.toPath());
+        }
+
+        for (int i = 0; i < template.getNumberOfSheets(); i++) {
+            XSSFSheet sheet = template.getSheetAt(i);
+            String entry = getEntryName(sheet.getPackagePart().getPartName().getName());
+            sheetEntries.add(entry);
+            nextRowNums.put(sheet.getSheetName(), entryRowNums.getOrDefault(entry, 0));
+        }
+        sharedStringsEntry = getEntryName(template.getSharedStringSource().getPackagePart().getPartName().getName());
+    }
+
+    /**
+     * @return 没有行的模板，作为 SXSSFWorkbook 的模板
+     */
+    XSSFWorkbook getTemplate() {
+        return template;
+    }
+
+    /**
+     * @param sheetName 模板中的 sheet 名称
+     * @return 已有文件中该 sheet 的下一行，从 0 开始
+     */
+    int getNextRowNum(String sheetName) {
+        return nextRowNums.getOrDefault(sheetName, 0);
+    }
+
+    /**
+     * 把已有的行和 SXSSF 写出的新行合并，替换原文件
+     *
+     * @param generated SXSSFWorkbook 写出的文件 (模板 + 新行)
+     * @throws IOException
+     */
+    void merge(File generated) throws IOException {
+        File merged = createTempFile(original);
+        try {
+            try (ZipFile originalZip = new ZipFile(original);
+                 ZipFile generatedZip = new ZipFile(generated);
+                 ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(merged))) {
+                OutputStream out = new BufferedOutputStream(zipOut, BUFFER_SIZE);
+                Enumeration<? extends ZipEntry> entries = generatedZip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    ZipEntry originalEntry = originalZip.getEntry(entry.getName());
+                    zipOut.putNextEntry(new ZipEntry(entry.getName()));
+                    if (originalEntry != null && sheetEntries.contains(entry.getName())) {
+                        try (InputStream source = originalZip.getInputStream(originalEntry);
+                             InputStream rows = generatedZip.getInputStream(entry)) {
+                            injectRows(source, rows, out);
+                        }
+                    } else if (originalEntry != null && entry.getName().equals(sharedStringsEntry)) {
+                        try (InputStream in = originalZip.getInputStream(originalEntry)) {
+                            IOUtils.copy(in, out);
+                        }
+                    } else {
+                        try (InputStream in = generatedZip.getInputStream(entry)) {
+                            IOUtils.copy(in, out);
+                        }
+                    }
+                    out.flush();
+                    zipOut.closeEntry();
+                }
+            }
+            Files.move(merged.toPath(), original.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(merged.toPath());
+        }
+    }
+
+    /**
+     * 临时文件放在同一个目录下，完成后可以直接 move
+     */
+    static File createTempFile(File excelFile) throws IOException {
+        return File.createTempFile(FilenameUtils.getBaseName(excelFile.getName()), ".xlsx.tmp", excelFile.getAbsoluteFile().getParentFile());
+    }
+
+    private static String getEntryName(String partName) {
+        return partName.startsWith("/") ? partName.substring(1) : partName;
+    }
+
+    /**
+     * 复制 xlsx ，xml 文件中去掉 sheetData 和 sst 的子元素
+     *
+     * @return sheet xml 的 zip entry 名称 -> 下一行
+     */
+    static Map<String, Integer> copyWithoutRows(File xlsx, File skeleton) throws IOException {
+        Map<String, Integer> entryRowNums = new HashMap<>();
+        try (ZipFile zip = new ZipFile(xlsx);
+             ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(skeleton))) {
+            OutputStream out = new BufferedOutputStream(zipOut, BUFFER_SIZE);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                zipOut.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (entry.getName().endsWith(".xml")) {
+                        int nextRowNum = copyWithoutRows(in, out);
+                        if (nextRowNum >= 0)
+                            entryRowNums.put(entry.getName(), nextRowNum);
+                    } else
+                        IOUtils.copy(in, out);
+                }
+                out.flush();
+                zipOut.closeEntry();
+            }
+        }
+        return entryRowNums;
+    }
+
+    /**
+     * 复制 xml ，去掉 sheetData 和 sst 的子元素
+     *
+     * @return 有 sheetData 时返回下一行 (最后一行 + 1)，没有时返回 -1
+     */
+    static int copyWithoutRows(InputStream in, OutputStream out) throws IOException {
+        TagScanner scanner = new TagScanner(in);
+        boolean found = false;
+        int lastRowNum = -1;
+        int depth = -1; // 在去掉子元素的元素中的深度，-1 表示不在其中
+        byte[] tag;
+        while ((tag = scanner.next(depth < 0 ? out : null)) != null) {
+            if (depth < 0) {
+                out.write(tag);
+                String name = localName(tag);
+                if (isStartTag(tag) && (SHEET_DATA.equals(name) || SHARED_STRINGS.equals(name))) {
+                    found |= SHEET_DATA.equals(name);
+                    if (!isEmptyTag(tag))
+                        depth = 0;
+                }
+            } else if (isEndTag(tag)) {
+                if (depth == 0) {
+                    out.write(tag);
+                    depth = -1;
+                } else
+                    depth--;
+            } else if (isStartTag(tag)) {
+                if (depth == 0 && "row".equals(localName(tag)))
+                    lastRowNum = getRowNum(tag, lastRowNum);
+                if (!isEmptyTag(tag))
+                    depth++;
+            }
+        }
+        return found ? lastRowNum + 1 : -1;
+    }
+
+    /**
+     * 复制已有的 sheet xml ，在 sheetData 结束之前插入 generated 中 sheetData 的子元素 (新写出的行)
+     *
+     * @param source    原文件中的 sheet xml
+     * @param generated SXSSF 写出的 sheet xml
+     * @param out
+     * @throws IOException
+     */
+    static void injectRows(InputStream source, InputStream generated, OutputStream out) throws IOException {
+        TagScanner scanner = new TagScanner(source);
+        boolean injected = false;
+        byte[] tag;
+        while ((tag = scanner.next(out)) != null) {
+            if (injected || !isStartTag(tag) || !SHEET_DATA.equals(localName(tag))) {
+                out.write(tag);
+                continue;
+            }
+
+            if (isEmptyTag(tag)) { // <sheetData/> -> <sheetData>新行</sheetData>
+                out.write(tag, 0, tag.length - 2);
+                out.write('>');
+            } else {
+                out.write(tag);
+                copyChildren(scanner, out); // 已有的行
+            }
+            copyRows(generated, out);
+            out.write(("</" + qualifiedName(tag) + ">").getBytes(StandardCharsets.UTF_8));
+            injected = true;
+        }
+        if (!injected)
+            throw new IOException("sheet xml 中没有 sheetData");
+    }
+
+    /**
+     * 复制 xml 中 sheetData 的子元素
+     */
+    private static void copyRows(InputStream in, OutputStream out) throws IOException {
+        TagScanner scanner = new TagScanner(in);
+        byte[] tag;
+        while ((tag = scanner.next(null)) != null) {
+            if (isStartTag(tag) && SHEET_DATA.equals(localName(tag))) {
+                if (!isEmptyTag(tag))
+                    copyChildren(scanner, out);
+                return;
+            }
+        }
+        throw new IOException("sheet xml 中没有 sheetData");
+    }
+
+    /**
+     * 复制到当前元素结束为止，不包括结束标签
+     */
+    private static void copyChildren(TagScanner scanner, OutputStream out) throws IOException {
+        int depth = 0;
+        byte[] tag;
+        while ((tag = scanner.next(out)) != null) {
+            if (isEndTag(tag)) {
+                if (depth == 0)
+                    return;
+                depth--;
+            } else if (isStartTag(tag) && !isEmptyTag(tag))
+                depth++;
+            out.write(tag);
+        }
+        throw new EOFException("xml 不完整，没有 sheetData 的结束标签");
+    }
+
+    private static int getRowNum(byte[] tag, int lastRowNum) {
+        Matcher matcher = ROW_NUM.matcher(new String(tag, StandardCharsets.ISO_8859_1));
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) - 1 : lastRowNum + 1;
+    }
+
+    private static boolean isStartTag(byte[] tag) {
+        return tag[1] != '/' && tag[1] != '!' && tag[1] != '?';
+    }
+
+    private static boolean isEndTag(byte[] tag) {
+        return tag[1] == '/';
+    }
+
+    private static boolean isEmptyTag(byte[] tag) {
+        return tag[tag.length - 2] == '/';
+    }
+
+    /**
+     * @return 标签名称，包括前缀，如 x:sheetData
+     */
+    private static String qualifiedName(byte[] tag) {
+        int begin = isEndTag(tag) ? 2 : 1;
+        int end = begin;
+        while (end < tag.length && tag[end] != '>' && tag[end] != '/' && !Character.isWhitespace(tag[end]))
+            end++;
+        return new String(tag, begin, end - begin, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 去掉前缀的标签名称
+     */
+    private static String localName(byte[] tag) {
+        String name = qualifiedName(tag);
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    /**
+     * 逐个读取 xml 标签，标签之间的文本复制到输出流或者丢弃
+     */
+    private static final class TagScanner {
+
+        private final InputStream in;
+        private final ByteArrayOutputStream tag = new ByteArrayOutputStream(128);
+
+        private TagScanner(InputStream in) {
+            this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        }
+
+        /**
+         * @param text 下一个标签之前的文本复制到 text ，为 null 时丢弃
+         * @return 下一个标签 (包括 < >)，注释、CDATA 作为一个标签返回 ; 结束时返回 null
+         */
+        private byte[] next(OutputStream text) throws IOException {
+            int c;
+            while ((c = in.read()) != -1 && c != '<')
+                if (text != null)
+                    text.write(c);
+            if (c == -1)
+                return null;
+
+            tag.reset();
+            tag.write(c);
+            String terminator = null; // 注释、CDATA 的结束符，其中的引号不是属性值
+            int quote = 0;
+            while ((c = in.read()) != -1) {
+                tag.write(c);
+                if (tag.size() == 4 && startsWith("<!--"))
+                    terminator = "-->";
+                else if (tag.size() == 9 && startsWith("<![CDATA["))
+                    terminator = "]]>";
+
+                if (terminator != null) {
+                    if (c == '>' && endsWith(terminator))
+                        return tag.toByteArray();
+                } else if (quote != 0) {
+                    if (c == quote)
+                        quote = 0;
+                } else if (c == '"' || c == '\'')
+                    quote = c;
+                else if (c == '>')
+                    return tag.toByteArray();
+            }
+            throw new EOFException("xml 不完整，标签没有结束");
+        }
+
+        private boolean startsWith(String prefix) {
+            return new String(tag.toByteArray(), 0, Math.min(tag.size(), prefix.length()), StandardCharsets.ISO_8859_1).equals(prefix);
+        }
+
+        private boolean endsWith(String suffix) {
+            byte[] bytes = tag.toByteArray();
+            return bytes.length >= suffix.length()
+                    && new String(bytes, bytes.length - suffix.length(), suffix.length(), StandardCharsets.ISO_8859_1).equals(suffix);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.h819.commons.file.excel.poi.vo;
+
+import org.h819.commons.file.MyExcelUtils;
+
+import java.util.Arrays;
+
+/**
+ * Description : TODO(按列号保存的行数据，单元格值保存在数组中，下标就是列号)
+ * -
+ * ExcelLine 用 TreeSet<ExcelCell> 保存单元格，按列名 (A,B,C ...) 字符串排序，getCellValues 每次复制整个 set ，
+ * 按列取值时需要遍历并比较列名。本类用 String[] 保存，按列号取值是 O(1) ，不复制。
+ * -
+ * 空白单元格 (ExcelLine 中没有的列) 的值为 null ，size() 为最后一个有值的列号 + 1 。
+ * 和 ExcelLine 的相互转换 : ColumnarLine.of(excelLine) , columnarLine.toExcelLine()
+ * 由 MyExcelUtils.readExcelColumnar 、 MyCSVUtils.toColumnarLine 生成。
+ * -
+ * 不是线程安全的。
+ */
+public class ColumnarLine {
+
+    private static final String[] EMPTY = new String[0];
+
+    private String fileName = "";
+    private String sheetName = "";
+    private int sheetNumber = 0;
+    private int lineNumber = 0;
+    // 下标为列号，从 0 开始 ; values.length 可能大于 size
+    private String[] values;
+    private int size;
+
+    public ColumnarLine() {
+        this.values = EMPTY;
+    }
+
+    /**
+     * 构造行数据
+     *
+     * @param fileName    行所在文件名称
+     * @param sheetName   行所在 sheet 名称
+     * @param sheetNumber 行所在 sheet 序号
+     * @param lineNumber  所在 sheet 的行号
+     * @param values      单元格值，下标为列号，空白单元格为 null 。直接使用，不复制
+     */
+    public ColumnarLine(String fileName, String sheetName, int sheetNumber, int lineNumber, String[] values) {
+        this.fileName = fileName;
+        this.sheetName = sheetName;
+        this.sheetNumber = sheetNumber;
+        this.lineNumber = lineNumber;
+        this.values = values == null ? EMPTY : values;
+        this.size = this.values.length;
+    }
+
+    /**
+     * 从 ExcelLine 转换
+     *
+     * @param excelLine
+     * @return
+     */
+    public static ColumnarLine of(ExcelLine excelLine) {
+        ColumnarLine line = new ColumnarLine();
+        line.fileName = excelLine.getFileName();
+        line.sheetName = excelLine.getSheetName();
+        line.sheetNumber = excelLine.getSheetNumber();
+        line.lineNumber = excelLine.getLineNumber();
+        for (ExcelCell cell : excelLine.getCellValues())
+            line.set(MyExcelUtils.convertColumnTitleToIndex(cell.getTitle()), cell.getValue());
+        return line;
+    }
+
+    /**
+     * 转换为 ExcelLine ，值为 null 的列不包含在内
+     *
+     * @return
+     */
+    public ExcelLine toExcelLine() {
+        ExcelLine line = new ExcelLine();
+        line.setFileName(fileName);
+        line.setSheetName(sheetName);
+        line.setSheetNumber(sheetNumber);
+        line.setLineNumber(lineNumber);
+        for (int i = 0; i < size; i++)
+            if (values[i] != null)
+                line.addCellValue(new ExcelCell(MyExcelUtils.convertColumnIndexToTitle(i), values[i]));
+        return line;
+    }
+
+    /**
+     * @param columnIndex 列号，从 0 开始
+     * @return 单元格值，空白单元格或者超出范围时返回 null
+     */
+    public String get(int columnIndex) {
+        return columnIndex >= 0 && columnIndex < size ? values[columnIndex] : null;
+    }
+
+    /**
+     * @param columnTitle 列名 ，英文字母，不区分大小写
+     * @return 单元格值，空白单元格或者超出范围时返回 null
+     */
+    public String get(String columnTitle) {
+        return get(MyExcelUtils.convertColumnTitleToIndex(columnTitle));
+    }
+
+    /**
+     * 设置单元格值，超出当前范围时扩展
+     *
+     * @param columnIndex 列号，从 0 开始
+     * @param value       为 null 时表示空白单元格
+     */
+    public void set(int columnIndex, String value) {
+        if (columnIndex < 0)
+            throw new IllegalArgumentException("columnIndex : " + columnIndex);
+        if (columnIndex >= values.length)
+            values = Arrays.copyOf(values, Math.max(columnIndex + 1, values.length * 2));
+        values[columnIndex] = value;
+        if (columnIndex >= size)
+            size = columnIndex + 1;
+    }
+
+    /**
+     * @param columnTitle 列名 ，英文字母，不区分大小写
+     * @param value       为 null 时表示空白单元格
+     */
+    public void set(String columnTitle, String value) {
+        set(MyExcelUtils.convertColumnTitleToIndex(columnTitle), value);
+    }
+
+    /**
+     * @return 列数，最后一个单元格的列号 + 1 (中间可能有值为 null 的空白单元格)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 单元格值的副本，长度为 size()
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    public void setSheetName(String sheetName) {
+        this.sheetName = sheetName;
+    }
+
+    public int getSheetNumber() {
+        return sheetNumber;
+    }
+
+    public void setSheetNumber(int sheetNumber) {
+        this.sheetNumber = sheetNumber;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public void setLineNumber(int lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return fileName + " [" + sheetName + "] " + lineNumber + " " + Arrays.toString(toArray());
+    }
+}
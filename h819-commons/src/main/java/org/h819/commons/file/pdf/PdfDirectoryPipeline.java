@@ -0,0 +1,301 @@
+package org.h819.commons.file.pdf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Description : TODO(并行处理文件夹中的 pdf 文件 : 遍历文件夹 -> 每个文件一个任务 (iText) -> 结果汇总)
+ * -
+ * 1. 调用线程遍历文件夹 (包括子文件夹)，每个 pdf 文件提交一个任务 ;
+ * 2. 任务在 work-stealing 线程池 (ForkJoinPool) 中执行，parallelism 为线程数 ;
+ * 正在执行和等待执行的任务最多 maxPending 个，超过时遍历线程等待，文件再多也不会把所有任务堆积在内存中 ;
+ * 3. 任务的返回值交给 sink ，sink 的调用是串行的，不需要线程安全。
+ * -
+ * 错误隔离 : 一个文件出错 (异常) 不影响其他文件，记录在 Progress 的 failures 中 ;
+ * badDirectory 不为 null 时，把出错的源文件按原来的目录结构拷贝到 badDirectory 中。
+ * 目标文件 : destDirectory 不为 null 时，目标文件的路径为源文件相对于源文件夹的路径，保持目录结构 ; 为 null 时 (如统计页数) 任务的目标文件为 null 。
+ * -
+ * 线程安全 : 每次 run 使用自己的线程池和计数器，可以同时执行多个 run 。
+ * 任务本身需要是线程安全的 (每个文件使用自己的 PdfReader / PdfDocument)。
+ * -
+ * 用法见 MyPdfUtils.getDirectoryPages , addWaterMarkDerictory , decryptFileDerictory
+ */
+@Slf4j
+public class PdfDirectoryPipeline {
+
+    /**
+     * 每处理多少个文件打印一次进度
+     */
+    private static final int LOG_INTERVAL = 100;
+
+    private final int parallelism;
+    private final int maxPending;
+    private volatile Consumer<Progress> progressListener;
+
+    /**
+     * 线程数为 cpu 核数，最多 4 倍线程数的任务等待执行
+     */
+    public PdfDirectoryPipeline() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism 线程数，最多 4 倍线程数的任务等待执行
+     */
+    public PdfDirectoryPipeline(int parallelism) {
+        this(parallelism, parallelism * 4);
+    }
+
+    /**
+     * @param parallelism 线程数
+     * @param maxPending  正在执行和等待执行的任务的最大数量，不小于 parallelism
+     */
+    public PdfDirectoryPipeline(int parallelism, int maxPending) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism : 线程数应大于 0");
+        this.parallelism = parallelism;
+        this.maxPending = Math.max(maxPending, parallelism);
+    }
+
+    /**
+     * 进度通知 : 每处理 LOG_INTERVAL 个文件、以及全部结束时调用，在线程池的线程中调用，需要线程安全
+     *
+     * @param progressListener 如把进度输出到监控
+     * @return
+     */
+    public PdfDirectoryPipeline onProgress(Consumer<Progress> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * 处理 srcDirectory 中的所有 pdf 文件 (包括子文件夹)，执行完所有文件后返回
+     *
+     * @param srcDirectory  源文件夹
+     * @param destDirectory 目标文件夹，保持源文件夹的目录结构 ; 为 null 时任务的目标文件为 null
+     * @param badDirectory  出错的文件拷贝到此文件夹，为 null 时不拷贝
+     * @param task          每个文件执行的任务
+     * @param sink          任务的返回值 (不为 null 时) ，串行调用 ; 为 null 时忽略返回值
+     * @param <R>           任务返回值的类型
+     * @return 执行结果
+     * @throws IOException 遍历文件夹出错，或者等待时被中断
+     */
+    public <R> Progress run(Path srcDirectory, Path destDirectory, Path badDirectory, FileTask<R> task, Consumer<? super R> sink) throws IOException {
+
+        if (!Files.isDirectory(srcDirectory))
+            throw new IOException(srcDirectory.toAbsolutePath() + " is not a directory.");
+
+        Progress progress = new Progress();
+        Semaphore pending = new Semaphore(maxPending);
+        ExecutorService pool = Executors.newWorkStealingPool(parallelism);
+        Object sinkLock = new Object();
+
+        try {
+            Files.walkFileTree(srcDirectory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile() || !FilenameUtils.isExtension(file.getFileName().toString().toLowerCase(), "pdf"))
+                        return FileVisitResult.CONTINUE;
+
+                    Path relative = srcDirectory.relativize(file);
+                    Path dest = destDirectory == null ? null : destDirectory.resolve(relative.toString());
+                    long size = attrs.size();
+
+                    acquire(pending);
+                    progress.submitted.incrementAndGet();
+                    pool.execute(() -> {
+                        try {
+                            if (dest != null)
+                                Files.createDirectories(dest.getParent());
+                            R result = task.process(file, dest);
+                            if (sink != null && result != null)
+                                synchronized (sinkLock) {
+                                    sink.accept(result);
+                                }
+                            progress.succeeded.incrementAndGet();
+                            progress.bytes.addAndGet(size);
+                        } catch (Exception e) {
+                            progress.fail(file, e);
+                            copyToBadDirectory(file, relative, badDirectory);
+                        } finally {
+                            pending.release();
+                            progress.report(srcDirectory, progressListener);
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    progress.fail(file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            // 等待所有任务完成 : 取回全部许可
+            acquire(pending, maxPending);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        progress.finish();
+        log.info("{} finished : {}", srcDirectory.toAbsolutePath(), progress);
+        Consumer<Progress> listener = progressListener;
+        if (listener != null)
+            listener.accept(progress);
+        return progress;
+    }
+
+    private static void acquire(Semaphore semaphore) throws InterruptedIOException {
+        acquire(semaphore, 1);
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws InterruptedIOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("pdf pipeline interrupted");
+        }
+    }
+
+    private static void copyToBadDirectory(Path file, Path relative, Path badDirectory) {
+        if (badDirectory == null)
+            return;
+        try {
+            Path target = badDirectory.resolve(relative.toString());
+            Files.createDirectories(target.getParent());
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        } catch (IOException e) {
+            log.warn("copy {} to {} failed : {}", file.toAbsolutePath(), badDirectory.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 每个文件执行的任务，在线程池中并行执行
+     *
+     * @param <R> 返回值类型
+     */
+    @FunctionalInterface
+    public interface FileTask<R> {
+
+        /**
+         * @param srcFile  源文件
+         * @param destFile 目标文件，没有目标文件夹时为 null
+         * @return 交给 sink 的结果，为 null 时不调用 sink
+         * @throws Exception 该文件处理失败
+         */
+        R process(Path srcFile, Path destFile) throws Exception;
+    }
+
+    /**
+     * 处理进度，执行过程中可以从其他线程读取
+     */
+    public static final class Progress {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile long elapsedNanos = -1;
+
+        private void fail(Path file, Exception e) {
+            failed.incrementAndGet();
+            failures.add(file.toAbsolutePath() + " : " + e);
+            log.warn("{} failed : {}", file.toAbsolutePath(), e.toString());
+        }
+
+        private void report(Path srcDirectory, Consumer<Progress> listener) {
+            long done = succeeded.get() + failed.get();
+            if (done % LOG_INTERVAL != 0)
+                return;
+            log.info("{} : {}", srcDirectory.toAbsolutePath(), this);
+            if (listener != null)
+                listener.accept(this);
+        }
+
+        /**
+         * @return 是否已经全部结束
+         */
+        public boolean isFinished() {
+            return elapsedNanos >= 0;
+        }
+
+        private void finish() {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * @return 已经提交的文件数
+         */
+        public long getSubmitted() {
+            return submitted.get();
+        }
+
+        public long getSucceeded() {
+            return succeeded.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return 处理成功的文件的总字节数
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return 出错的文件及原因
+         */
+        public List<String> getFailures() {
+            synchronized (failures) {
+                return new ArrayList<>(failures);
+            }
+        }
+
+        /**
+         * @return 已经执行的时间，结束之后为总时间
+         */
+        public long getElapsedMillis() {
+            long nanos = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * @return 每秒处理的文件数
+         */
+        public double getFilesPerSecond() {
+            long millis = getElapsedMillis();
+            return millis == 0 ? 0 : (succeeded.get() + failed.get()) * 1000.0 / millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("submitted=%d succeeded=%d failed=%d bytes=%d elapsed=%dms %.1f files/s",
+                    getSubmitted(), getSucceeded(), getFailed(), getBytes(), getElapsedMillis(), getFilesPerSecond());
+        }
+    }
+}
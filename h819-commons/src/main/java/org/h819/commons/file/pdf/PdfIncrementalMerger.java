@@ -0,0 +1,162 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.kernel.utils.PdfMerger;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(合并大量 pdf 文件，内存占用和文件数量无关)
+ * -
+ * PdfMerger 默认把合并后的所有页面保存在内存中，close 时才写出，合并几千个文件时内存溢出。本类 :
+ * 1. 每合并一个源文件，立即 flush 新加入的页面 (包括页面的资源)，写到输出流，并关闭源文件，内存中只保留交叉引用表 ;
+ * 2. smart mode : 不同源文件中内容相同的对象 (字体、图片等资源) 只写一次，后面的引用同一个对象 ;
+ * 3. full compression : 对象流 + 压缩的交叉引用表，输出文件更小。
+ * -
+ * 源文件出错 (不能打开、合并出错) :
+ * skipBadFiles 为 false 时抛出 IOException (包含文件名)，已经合并的页面保留在输出文件中 ; 为 true 时跳过，记录在 Report 中。
+ * 合并过程中出错的文件，出错之前已经复制的页面无法撤销。
+ * -
+ * 用法 :
+ * PdfIncrementalMerger.Report report = new PdfIncrementalMerger(true).merge(srcPdfs, destPdf);
+ */
+@Slf4j
+public class PdfIncrementalMerger {
+
+    private final boolean skipBadFiles;
+
+    /**
+     * 源文件出错时抛出异常
+     */
+    public PdfIncrementalMerger() {
+        this(false);
+    }
+
+    /**
+     * @param skipBadFiles 源文件出错时是否跳过，false 时抛出 IOException
+     */
+    public PdfIncrementalMerger(boolean skipBadFiles) {
+        this.skipBadFiles = skipBadFiles;
+    }
+
+    /**
+     * 按顺序合并
+     *
+     * @param srcPdfs 源文件
+     * @param destPdf 目标文件
+     * @return 合并结果
+     * @throws IOException 写目标文件出错，或者 skipBadFiles 为 false 时源文件出错
+     */
+    public Report merge(List<Path> srcPdfs, Path destPdf) throws IOException {
+
+        Report report = new Report();
+        long start = System.nanoTime();
+
+        if (destPdf.toAbsolutePath().getParent() != null)
+            Files.createDirectories(destPdf.toAbsolutePath().getParent());
+
+        WriterProperties properties = new WriterProperties().useSmartMode().setFullCompressionMode(true);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destPdf), 64 * 1024);
+             PdfDocument pdf = new PdfDocument(new PdfWriter(out, properties))) {
+
+            pdf.setFlushUnusedObjects(true);
+            PdfMerger merger = new PdfMerger(pdf);
+
+            for (Path srcPdf : srcPdfs) {
+                int before = pdf.getNumberOfPages();
+                try (PdfDocument source = new PdfDocument(new PdfReader(srcPdf.toAbsolutePath().toString()))) {
+                    merger.merge(source, 1, source.getNumberOfPages());
+                } catch (IOException | RuntimeException e) { // iText 的异常 (PdfException) 是 RuntimeException
+                    if (!skipBadFiles)
+                        throw new IOException("merge failed : " + srcPdf.toAbsolutePath(), e);
+                    report.failures.add(srcPdf.toAbsolutePath() + " : " + e);
+                    log.warn("{} skipped : {}", srcPdf.toAbsolutePath(), e.toString());
+                }
+
+                // 新加入的页面写到输出流，不再保存在内存中
+                int after = pdf.getNumberOfPages();
+                for (int i = before + 1; i <= after; i++)
+                    pdf.getPage(i).flush(true);
+
+                if (after > before)
+                    report.mergedFiles++;
+                report.pages = after;
+                report.samplePeakHeap();
+            }
+        }
+
+        report.outputBytes = Files.size(destPdf);
+        report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("{} merged : {}", destPdf.toAbsolutePath(), report);
+        return report;
+    }
+
+    /**
+     * 合并结果
+     */
+    public static final class Report {
+
+        private int mergedFiles;
+        private int pages;
+        private long outputBytes;
+        private long elapsedMillis;
+        private long peakHeapBytes;
+        private final List<String> failures = new ArrayList<>();
+
+        /**
+         * 每合并一个文件采样一次当前的堆内存使用量，记录最大值
+         */
+        private void samplePeakHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            peakHeapBytes = Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        public int getMergedFiles() {
+            return mergedFiles;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return 合并过程中采样到的最大堆内存使用量 (包括还没有回收的垃圾，是上限)
+         */
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        /**
+         * @return 跳过的文件及原因
+         */
+        public List<String> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("files=%d pages=%d failed=%d size=%d bytes elapsed=%dms peakHeap=%dMB",
+                    mergedFiles, pages, failures.size(), outputBytes, elapsedMillis, peakHeapBytes >> 20);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.h819.commons.file.pdf;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.itextpdf.kernel.crypto.BadPasswordException;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description : TODO(pdf 文件元数据索引 : 页数、是否加密、权限，保存在本地文件中，只解析新增和修改过的文件)
+ * -
+ * 每个文件记录 : 路径、大小、修改时间、内容指纹 -> 状态、页数、是否加密、权限。
+ * 1. 大小和修改时间都没有变 : 直接返回记录，不读文件 ;
+ * 2. 同一个路径，大小或者修改时间有变化 : 文件被修改过，用 iText 打开文件，重新解析 ;
+ * 3. 新路径 : 计算内容指纹 (文件大小 + 开头和结尾各 FINGERPRINT_BYTES 字节的 murmur3 128 位 hash，
+ * 不读整个文件，大文件也只读 128K) ，和其他路径的记录指纹相同 (文件被移动、改名或者复制) 时沿用该记录，否则重新解析。
+ * 指纹只比较开头和结尾，不能发现中间的修改，所以只用来识别移动、复制的文件，同一个路径有变化时总是重新解析。
+ * 不能打开的文件 (0 字节、有打开密码、损坏) 也记录状态，下次不再解析。
+ * -
+ * 索引文件 : 二进制格式 (DataOutputStream)，save / close 时写到临时文件再替换，写的过程中出错不会破坏原来的索引 ;
+ * 索引文件损坏或者版本不同时，丢弃并重新建立 (索引只是缓存)。indexFile 为 null 时只在内存中。
+ * -
+ * 线程安全 : get / scan 可以在多个线程中同时调用 ; scan 使用 PdfDirectoryPipeline 并行解析。
+ * -
+ * 用法 :
+ * try (PdfMetadataIndex index = new PdfMetadataIndex(Paths.get("d:/pdf-index.bin"))) {
+ * int pages = MyPdfUtils.getDirectoryPages(dir, index); // 第二次运行时只解析新增和修改过的文件
+ * }
+ */
+@Slf4j
+public class PdfMetadataIndex implements Closeable {
+
+    /**
+     * 内容指纹读取文件开头和结尾的字节数
+     */
+    public static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x50444649; // "PDFI"
+    private static final int VERSION = 1;
+
+    private final Path indexFile;
+    // 路径 -> 记录
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 内容指纹 -> 记录，用于识别移动、改名的文件
+    private final Map<String, Entry> byFingerprint = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+
+    /**
+     * @param indexFile 索引文件，存在时读取 ; 为 null 时只在内存中，不保存
+     * @throws IOException 读取索引文件出错
+     */
+    public PdfMetadataIndex(Path indexFile) throws IOException {
+        this.indexFile = indexFile;
+        if (indexFile != null && Files.exists(indexFile))
+            load();
+    }
+
+    /**
+     * 获得文件的元数据，文件没有变化时不打开文件
+     *
+     * @param pdfFile pdf 文件
+     * @return 文件的记录
+     * @throws IOException 读取文件属性、内容出错 (解析出错不抛出异常，记录为 Status.DAMAGED)
+     */
+    public Entry get(Path pdfFile) throws IOException {
+        String key = key(pdfFile);
+        BasicFileAttributes attrs = Files.readAttributes(pdfFile, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        Entry old = entries.get(key);
+        if (old != null && old.size == size && old.lastModified == lastModified) {
+            unchanged.incrementAndGet();
+            return old;
+        }
+
+        String fingerprint = fingerprint(pdfFile, size);
+        // 只有新路径 (移动、复制的文件) 按指纹沿用其他路径的记录 ; 同一个路径有变化时，中间的内容可能被修改过
+        Entry same = old == null ? byFingerprint.get(fingerprint) : null;
+        Entry entry;
+        if (same != null && same.size == size) {
+            entry = same.copy(key, lastModified);
+            reused.incrementAndGet();
+        } else {
+            entry = parse(pdfFile, key, size, lastModified, fingerprint);
+            parsed.incrementAndGet();
+        }
+
+        put(entry);
+        return entry;
+    }
+
+    /**
+     * 获得文件夹中所有 pdf 文件 (包括子文件夹) 的元数据，并删除该文件夹中已经不存在的文件的记录
+     *
+     * @param srcDirectory 文件夹
+     * @param parallelism  解析文件的线程数
+     * @return 文件的记录，顺序不确定
+     * @throws IOException 遍历文件夹出错
+     */
+    public List<Entry> scan(Path srcDirectory, int parallelism) throws IOException {
+        List<Entry> result = new ArrayList<>();
+        PdfDirectoryPipeline.Progress progress = new PdfDirectoryPipeline(parallelism)
+                .run(srcDirectory, null, null, (srcPdf, destPdf) -> get(srcPdf), result::add);
+
+        // 读不到属性的文件 (遍历时出错) 可能还存在，只有遍历完整时才删除
+        if (progress.getFailed() == 0) {
+            Set<String> seen = new HashSet<>();
+            for (Entry entry : result)
+                seen.add(entry.path);
+            String prefix = key(srcDirectory) + File.separator;
+            for (Entry entry : entries.values())
+                if (entry.path.startsWith(prefix) && !seen.contains(entry.path))
+                    remove(entry);
+        }
+        return result;
+    }
+
+    /**
+     * 删除文件的记录
+     *
+     * @param pdfFile pdf 文件
+     */
+    public void remove(Path pdfFile) {
+        Entry entry = entries.get(key(pdfFile));
+        if (entry != null)
+            remove(entry);
+    }
+
+    /**
+     * @return 记录数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return 大小和修改时间没有变化，直接返回记录的次数
+     */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return 新路径的内容指纹和其他路径的记录相同 (移动、改名或者复制)，沿用该记录的次数
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * @return 打开文件解析的次数
+     */
+    public long getParsed() {
+        return parsed.get();
+    }
+
+    /**
+     * 保存到索引文件，没有变化时不写
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (indexFile == null || !dirty)
+            return;
+        dirty = false;
+
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        Path parent = indexFile.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.fingerprint);
+                out.writeByte(entry.status.ordinal());
+                out.writeInt(entry.pages);
+                out.writeBoolean(entry.encrypted);
+                out.writeLong(entry.permissions);
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("{} saved : {} entries", indexFile.toAbsolutePath(), snapshot.size());
+    }
+
+    /**
+     * 保存到索引文件
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("{} is not a pdf index (or an old version), rebuild.", indexFile.toAbsolutePath());
+                return;
+            }
+            Status[] statuses = Status.values();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String fingerprint = in.readUTF();
+                Status status = statuses[in.readByte()];
+                int pages = in.readInt();
+                boolean encrypted = in.readBoolean();
+                long permissions = in.readLong();
+                Entry entry = new Entry(path, size, lastModified, fingerprint, status, pages, encrypted, permissions);
+                entries.put(path, entry);
+                byFingerprint.put(fingerprint, entry);
+            }
+        } catch (IOException | RuntimeException e) { // 截断、损坏 : 丢弃，重新建立
+            log.warn("{} damaged, rebuild : {}", indexFile.toAbsolutePath(), e.toString());
+            entries.clear();
+            byFingerprint.clear();
+            dirty = true;
+            return;
+        }
+        log.info("{} loaded : {} entries", indexFile.toAbsolutePath(), entries.size());
+    }
+
+    private void put(Entry entry) {
+        Entry old = entries.put(entry.path, entry);
+        if (old != null && !old.fingerprint.equals(entry.fingerprint))
+            byFingerprint.remove(old.fingerprint, old);
+        byFingerprint.put(entry.fingerprint, entry);
+        dirty = true;
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.path, entry)) {
+            byFingerprint.remove(entry.fingerprint, entry);
+            dirty = true;
+        }
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * 文件大小 + 开头和结尾各 FINGERPRINT_BYTES 字节 (小文件为整个文件) 的 hash
+     */
+    private static String fingerprint(Path file, long size) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putLong(size);
+        ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            hash(channel, 0, buffer, hasher);
+            if (size > FINGERPRINT_BYTES)
+                hash(channel, Math.max(FINGERPRINT_BYTES, size - FINGERPRINT_BYTES), buffer, hasher);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void hash(FileChannel channel, long position, ByteBuffer buffer, Hasher hasher) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                break;
+        }
+        buffer.flip();
+        hasher.putBytes(buffer);
+    }
+
+    private static Entry parse(Path pdfFile, String key, long size, long lastModified, String fingerprint) {
+        if (size == 0)
+            return new Entry(key, size, lastModified, fingerprint, Status.EMPTY, 0, false, 0);
+
+        // 打开 PdfDocument 之后 isEncrypted 、getPermissions 才有效
+        try (PdfDocument pdfDoc = new PdfDocument(new PdfReader(pdfFile.toAbsolutePath().toString()))) {
+            PdfReader reader = pdfDoc.getReader();
+            return new Entry(key, size, lastModified, fingerprint, Status.OK,
+                    pdfDoc.getNumberOfPages(), reader.isEncrypted(), reader.getPermissions());
+        } catch (BadPasswordException e) { // 有打开密码
+            return new Entry(key, size, lastModified, fingerprint, Status.PASSWORD, 0, true, 0);
+        } catch (IOException | RuntimeException e) { // iText 的异常 (PdfException) 是 RuntimeException
+            log.warn("{} damaged : {}", key, e.toString());
+            return new Entry(key, size, lastModified, fingerprint, Status.DAMAGED, 0, false, 0);
+        }
+    }
+
+    /**
+     * 文件状态
+     */
+    public enum Status {
+        /**
+         * 可以打开
+         */
+        OK,
+        /**
+         * 0 字节
+         */
+        EMPTY,
+        /**
+         * 有打开密码，不能打开
+         */
+        PASSWORD,
+        /**
+         * 文件损坏，不能解析
+         */
+        DAMAGED
+    }
+
+    /**
+     * 一个文件的记录，不可变
+     */
+    public static final class Entry {
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String fingerprint;
+        private final Status status;
+        private final int pages;
+        private final boolean encrypted;
+        private final long permissions;
+
+        private Entry(String path, long size, long lastModified, String fingerprint, Status status,
+                      int pages, boolean encrypted, long permissions) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.pages = pages;
+            this.encrypted = encrypted;
+            this.permissions = permissions;
+        }
+
+        private Entry copy(String path, long lastModified) {
+            return new Entry(path, size, lastModified, fingerprint, status, pages, encrypted, permissions);
+        }
+
+        /**
+         * @return 绝对路径
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return 内容指纹 (十六进制)
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return 页数，不能打开时为 0
+         */
+        public int getPages() {
+            return pages;
+        }
+
+        /**
+         * @return 是否加密 (有打开密码，或者有权限密码)
+         */
+        public boolean isEncrypted() {
+            return encrypted;
+        }
+
+        /**
+         * @return 权限 (EncryptionConstants.ALLOW_PRINTING 等的组合)，没有加密时无意义
+         */
+        public long getPermissions() {
+            return permissions;
+        }
+
+        @Override
+        public String toString() {
+            return path + " : " + status + " pages=" + pages + " encrypted=" + encrypted + " permissions=" + permissions;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.color.Color;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+import org.h819.commons.file.MyPdfUtils.TextPosition;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Description : TODO(pdf 水印，准备一次，每页引用同一个 Form XObject)
+ * -
+ * 原来每页都用 Document.showTextAligned 排版一次文字、addImage 一次图片 (每页一个新的图片对象)，
+ * 文件越大，重复的内容越多，输出文件也越大。本类 :
+ * 1. 跨文件 : 图片只解码一次 (ImageData)，字体文件只解析一次 (FontProgram)，同一个 PdfWatermark 可以用于多个文件 ;
+ * 2. 跨页面 : 每个文件中，文字、图片各生成一个 Form XObject (以原点为中心)，每页只写一条引用和变换矩阵 (位置、旋转)，
+ * 文字在文件中只排版一次，字体子集只包含水印文字用到的字形。
+ * -
+ * 文字和图片都有时，奇数页加文字，偶数页加图片 ; 图片位置和文字相同，只有图片时在页面中心。
+ * 可以在多个线程中同时使用 (每个文件使用自己的 PdfDocument)。
+ * -
+ * 用法 :
+ * PdfWatermark watermark = new PdfWatermark("内部资料", fontProgram, null, TextPosition.CENTER);
+ * watermark.stamp(pdfDoc); // 对每个文件调用
+ */
+public class PdfWatermark {
+
+    /**
+     * 居中时的字号，其他位置的字号
+     */
+    private static final float CENTER_FONT_SIZE = 35;
+    private static final float EDGE_FONT_SIZE = 18;
+
+    private static final float TEXT_OPACITY = 0.3f;
+    private static final float IMAGE_OPACITY = 0.5f;
+
+    private final String text;
+    private final FontProgram fontProgram;
+    private final ImageData image;
+    private final TextPosition textPosition;
+
+    /**
+     * @param text         水印文字，为 null 时只加图片
+     * @param fontProgram  文字的字体，text 不为 null 时需要，如 FontProgramFactory.createFont(fontPath)
+     * @param image        水印图片 (透明的 png)，为 null 时只加文字
+     * @param textPosition 文字位置，为 null 时居中
+     * @throws IOException 读取图片出错
+     */
+    public PdfWatermark(String text, FontProgram fontProgram, Path image, TextPosition textPosition) throws IOException {
+        if (text == null && image == null)
+            throw new IllegalArgumentException("text , image : 水印文字和图片不能都为 null");
+        if (text != null && fontProgram == null)
+            throw new IllegalArgumentException("fontProgram : 有水印文字时，字体不能为 null");
+
+        this.text = text;
+        this.fontProgram = fontProgram;
+        this.image = image == null ? null : ImageDataFactory.create(image.toAbsolutePath().toString());
+        this.textPosition = textPosition == null ? TextPosition.CENTER : textPosition;
+    }
+
+    /**
+     * 给文件的每一页加水印，调用者负责关闭 pdfDoc
+     *
+     * @param pdfDoc 以修改模式打开的文件 (有 PdfReader 和 PdfWriter)
+     */
+    public void stamp(PdfDocument pdfDoc) {
+
+        float fontSize = textPosition == TextPosition.CENTER ? CENTER_FONT_SIZE : EDGE_FONT_SIZE;
+        PdfFormXObject textForm = text == null ? null : createTextForm(pdfDoc, fontSize);
+        PdfFormXObject imageForm = image == null ? null : createImageForm(pdfDoc);
+
+        int n = pdfDoc.getNumberOfPages();
+        for (int i = 1; i <= n; i++) {
+            PdfPage page = pdfDoc.getPage(i);
+            Rectangle pageSize = page.getPageSizeWithRotation();
+            page.setIgnorePageRotationForContent(true);
+
+            PdfFormXObject form;
+            if (textForm != null && imageForm != null) // 文字图片隔页添加
+                form = i % 2 == 1 ? textForm : imageForm;
+            else
+                form = textForm != null ? textForm : imageForm;
+
+            float x, y, degrees;
+            if (textForm == null) { // 只有图片，页面中心
+                x = (pageSize.getLeft() + pageSize.getRight()) / 2;
+                y = (pageSize.getTop() + pageSize.getBottom()) / 2;
+                degrees = 0;
+            } else
+                switch (textPosition) {
+                    case TOP:
+                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
+                        y = pageSize.getTop() - 10;
+                        degrees = 0;
+                        break;
+                    case BOTTOM:
+                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
+                        y = pageSize.getBottom() + 30;
+                        degrees = 0;
+                        break;
+                    case LEFT:
+                        x = pageSize.getLeft() + 20;
+                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
+                        degrees = 90;
+                        break;
+                    case RIGHT:
+                        x = pageSize.getRight() - 20;
+                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
+                        degrees = 90;
+                        break;
+                    default: // 居中对齐，旋转 45 度
+                        x = (pageSize.getLeft() + pageSize.getRight()) / 2;
+                        y = (pageSize.getTop() + pageSize.getBottom()) / 2;
+                        degrees = 45;
+                }
+
+            // 在 pdf 内容之上添加，如果加在底部，pdf 文件内容为图片，就会遮挡而看不见
+            float cos = (float) Math.cos(Math.toRadians(degrees));
+            float sin = (float) Math.sin(Math.toRadians(degrees));
+            new PdfCanvas(page)
+                    .saveState()
+                    .addXObject(form, cos, sin, -sin, cos, x, y)
+                    .restoreState()
+                    .release();
+        }
+    }
+
+    /**
+     * 文字 : 以原点为中心，只排版一次
+     */
+    private PdfFormXObject createTextForm(PdfDocument pdfDoc, float fontSize) {
+        PdfFont font = PdfFontFactory.createFont(fontProgram, PdfEncodings.IDENTITY_H); // 嵌入子集
+        float width = font.getWidth(text, fontSize);
+        float ascent = font.getAscent(text, fontSize);
+        float descent = font.getDescent(text, fontSize);
+        float baseline = -(ascent + descent) / 2; // 垂直居中
+
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(-width / 2, baseline + descent, width, ascent - descent));
+        new PdfCanvas(form, pdfDoc)
+                .saveState()
+                .setExtGState(new PdfExtGState().setFillOpacity(TEXT_OPACITY))
+                .setFillColor(Color.GRAY)
+                .beginText()
+                .setFontAndSize(font, fontSize)
+                .moveText(-width / 2, baseline)
+                .showText(text)
+                .endText()
+                .restoreState()
+                .release();
+        return form;
+    }
+
+    /**
+     * 图片 : 以原点为中心，每个文件只有一个图片对象
+     */
+    private PdfFormXObject createImageForm(PdfDocument pdfDoc) {
+        PdfImageXObject imageXObject = new PdfImageXObject(image);
+        float w = imageXObject.getWidth();
+        float h = imageXObject.getHeight();
+
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(-w / 2, -h / 2, w, h));
+        new PdfCanvas(form, pdfDoc)
+                .saveState()
+                .setExtGState(new PdfExtGState().setFillOpacity(IMAGE_OPACITY))
+                .addXObject(imageXObject, w, 0, 0, h, -w / 2, -h / 2)
+                .restoreState()
+                .release();
+        return form;
+    }
+}
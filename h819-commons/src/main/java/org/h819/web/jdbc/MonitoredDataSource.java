@@ -0,0 +1,212 @@
+package org.h819.web.jdbc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.dbcp2.ConnectionFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description : TODO(带监控和连接泄漏检测的 dbcp2 连接池)
+ * -
+ * 连接池大小不能靠猜，需要在压力下观察 : 等待连接的时间、同时使用的连接数、预编译语句缓存是否有效。
+ * 通过 micrometer 输出 (作为 spring bean 时 actuator 自动绑定，见 MeterBinder)，指标名称前缀 jdbc.pool ，tag pool 为连接池名称 :
+ * jdbc.pool.active / idle / max : 当前使用中、空闲的连接数，最大连接数
+ * jdbc.pool.wait : 取连接的等待时间 (histogram) ，等待时间长说明连接数不够
+ * jdbc.pool.usage : 连接从取出到关闭的时间 (histogram)
+ * jdbc.pool.active.sampled : 每次取连接时使用中的连接数 (histogram) ，高分位数接近 max 时说明连接数不够
+ * jdbc.pool.statements.requested / created : 预编译语句的请求数、实际创建数 (缓存未命中) ; jdbc.pool.statements.hit.ratio 命中率
+ * -
+ * 连接泄漏 : leakThresholdMillis > 0 时，记录每个连接被取出时的调用栈，持有时间超过阈值的连接打印一次调用栈 (warn)，不关闭连接。
+ * 和 dbcp2 的 removeAbandoned 不同，只报告不回收，可以在生产环境中打开。
+ * -
+ * 通过 MyDataSourceFactory.builder() 创建
+ */
+@Slf4j
+public class MonitoredDataSource extends BasicDataSource implements MeterBinder {
+
+    private final String poolName;
+    private final long leakThresholdMillis;
+
+    private final AtomicLong statementsRequested = new AtomicLong();
+    private final AtomicLong statementsCreated = new AtomicLong();
+    // 使用中的连接取出时的信息
+    private final Set<Borrow> borrowed = ConcurrentHashMap.newKeySet();
+
+    // bindTo 之后才有值
+    private volatile Timer waitTimer;
+    private volatile Timer usageTimer;
+    private volatile DistributionSummary activeSummary;
+
+    private volatile ScheduledExecutorService leakDetector;
+
+    /**
+     * @param poolName            连接池名称，用于监控指标的 tag 和日志
+     * @param leakThresholdMillis 连接持有时间超过此值时打印取出时的调用栈，小于等于 0 时不检测
+     */
+    public MonitoredDataSource(String poolName, long leakThresholdMillis) {
+        this.poolName = poolName;
+        this.leakThresholdMillis = leakThresholdMillis;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("jdbc.pool.active", this, MonitoredDataSource::getNumActive).tag("pool", poolName).register(registry);
+        Gauge.builder("jdbc.pool.idle", this, MonitoredDataSource::getNumIdle).tag("pool", poolName).register(registry);
+        Gauge.builder("jdbc.pool.max", this, MonitoredDataSource::getMaxTotal).tag("pool", poolName).register(registry);
+        FunctionCounter.builder("jdbc.pool.statements.requested", statementsRequested, AtomicLong::get).tag("pool", poolName).register(registry);
+        FunctionCounter.builder("jdbc.pool.statements.created", statementsCreated, AtomicLong::get).tag("pool", poolName).register(registry);
+        Gauge.builder("jdbc.pool.statements.hit.ratio", this, MonitoredDataSource::getStatementCacheHitRatio).tag("pool", poolName).register(registry);
+
+        waitTimer = Timer.builder("jdbc.pool.wait").tag("pool", poolName).publishPercentileHistogram().register(registry);
+        usageTimer = Timer.builder("jdbc.pool.usage").tag("pool", poolName).publishPercentileHistogram().register(registry);
+        activeSummary = DistributionSummary.builder("jdbc.pool.active.sampled").tag("pool", poolName).publishPercentileHistogram().register(registry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        long borrowedAt = System.nanoTime();
+
+        Timer timer = waitTimer;
+        if (timer != null) {
+            timer.record(borrowedAt - start, TimeUnit.NANOSECONDS);
+            activeSummary.record(getNumActive());
+        }
+        if (leakThresholdMillis > 0 && leakDetector == null)
+            startLeakDetector();
+        return trackingConnection(connection, borrowedAt);
+    }
+
+    /**
+     * 预编译语句缓存命中率，没有请求时为 NaN
+     * 没有打开 poolPreparedStatements 时为 0 (每次都创建)
+     */
+    public double getStatementCacheHitRatio() {
+        long requested = statementsRequested.get();
+        return requested == 0 ? Double.NaN : 1 - (double) statementsCreated.get() / requested;
+    }
+
+    /**
+     * @return 持有时间超过 leakThresholdMillis 的连接数
+     */
+    public int getLeakedConnectionCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Borrow borrow : borrowed)
+            if (borrow.isLeaked(now))
+                count++;
+        return count;
+    }
+
+    /**
+     * 检查持有时间超过阈值的连接，每个连接只报告一次
+     */
+    public void detectLeaks() {
+        long now = System.nanoTime();
+        for (Borrow borrow : borrowed)
+            if (borrow.isLeaked(now) && !borrow.reported) {
+                borrow.reported = true;
+                log.warn("[{}] connection held for {} ms (threshold {} ms) , borrowed by thread '{}' at :", poolName,
+                        TimeUnit.NANOSECONDS.toMillis(now - borrow.borrowedAt), leakThresholdMillis, borrow.threadName, borrow.stackTrace);
+            }
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+            leakDetector = null;
+        }
+        super.close();
+    }
+
+    /**
+     * 物理连接包装一层，统计实际创建的预编译语句 (缓存未命中时 dbcp2 才会调用物理连接的 prepareStatement)
+     */
+    @Override
+    protected ConnectionFactory createConnectionFactory() throws SQLException {
+        ConnectionFactory factory = super.createConnectionFactory();
+        return () -> countingConnection(factory.createConnection(), statementsCreated);
+    }
+
+    private synchronized void startLeakDetector() {
+        if (leakDetector != null)
+            return;
+        leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-leak-detector-" + poolName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(leakThresholdMillis / 2, 1000);
+        leakDetector.scheduleWithFixedDelay(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取出的连接 : 统计预编译语句的请求数 ; 记录取出时间和调用栈，关闭时记录使用时间
+     */
+    private Connection trackingConnection(Connection target, long borrowedAt) {
+        Borrow borrow = new Borrow(borrowedAt, leakThresholdMillis > 0 ? new Throwable("connection borrowed") : null);
+        borrowed.add(borrow);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (p, method, args) -> {
+            String name = method.getName();
+            if (name.equals("prepareStatement") || name.equals("prepareCall"))
+                statementsRequested.incrementAndGet();
+            else if (name.equals("close") && borrowed.remove(borrow)) {
+                Timer timer = usageTimer;
+                if (timer != null)
+                    timer.record(System.nanoTime() - borrowedAt, TimeUnit.NANOSECONDS);
+            }
+            return invoke(target, method, args);
+        });
+    }
+
+    private static Connection countingConnection(Connection target, AtomicLong counter) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (p, method, args) -> {
+            String name = method.getName();
+            if (name.equals("prepareStatement") || name.equals("prepareCall"))
+                counter.incrementAndGet();
+            return invoke(target, method, args);
+        });
+    }
+
+    private static Object invoke(Connection target, java.lang.reflect.Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private final class Borrow {
+        private final long borrowedAt;
+        private final Throwable stackTrace;
+        private final String threadName = Thread.currentThread().getName();
+        private volatile boolean reported;
+
+        private Borrow(long borrowedAt, Throwable stackTrace) {
+            this.borrowedAt = borrowedAt;
+            this.stackTrace = stackTrace;
+        }
+
+        private boolean isLeaked(long now) {
+            return stackTrace != null && now - borrowedAt > TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.h819.web.jdbc;
 
-import org.apache.commons.dbcp2.BasicDataSource;
-
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -63,37 +61,156 @@ public class MyDataSourceFactory {
      * @return
      */
     protected static DataSource getDBCP2DataSource() {
-        //创建BasicDataSource类对象
-        BasicDataSource datasource = new BasicDataSource();
-        //数据库连接信息（必须）
-        datasource.setDriverClassName("com.mysql.jdbc.Driver");
-        datasource.setUrl("jdbc:mysql://localhost:3306/ztree?useUnicode=true&characterEncoding=utf-8&useSSL=false");
-        datasource.setUsername("root");
-        datasource.setPassword("123456");
-        //连接池中的连接数量配置（可选）
-        datasource.setInitialSize(10);//初始化的连接数
-        datasource.setMaxOpenPreparedStatements(8);//最大连接数
-        datasource.setMaxIdle(5);//最大空闲连接
-        datasource.setMinIdle(1);//最小空闲连接
-        return datasource;
+        return builder("ztree")
+                .driverClassName("com.mysql.jdbc.Driver")
+                .url("jdbc:mysql://localhost:3306/ztree?useUnicode=true&characterEncoding=utf-8&useSSL=false&rewriteBatchedStatements=true")
+                .username("root")
+                .password("123456")
+                .build();
     }
 
     protected static DataSource getDBCP2DataSource2() {
-        //创建BasicDataSource类对象
-        BasicDataSource datasource = new BasicDataSource();
-        //数据库连接信息（必须）
-        datasource.setDriverClassName("com.mysql.jdbc.Driver");
-        datasource.setUrl("jdbc:mysql://129.9.100.16:3306/test?useUnicode=true&characterEncoding=utf-8&useSSL=false");
-        datasource.setUsername("test");
-        datasource.setPassword("123456");
-        //连接池中的连接数量配置（可选）
-        datasource.setInitialSize(10);//初始化的连接数
-        datasource.setMaxOpenPreparedStatements(8);//最大连接数
-        datasource.setMaxIdle(5);//最大空闲连接
-        datasource.setMinIdle(1);//最小空闲连接
-        return datasource;
+        return builder("test")
+                .driverClassName("com.mysql.jdbc.Driver")
+                .url("jdbc:mysql://129.9.100.16:3306/test?useUnicode=true&characterEncoding=utf-8&useSSL=false&rewriteBatchedStatements=true")
+                .username("test")
+                .password("123456")
+                .build();
     }
 
+    /**
+     * 可配置的 dbcp2 连接池，带监控和连接泄漏检测，见 MonitoredDataSource
+     * 用法 :
+     * MonitoredDataSource dataSource = MyDataSourceFactory.builder("order").url(...).username(...).password(...)
+     * .maxTotal(50).maxWaitMillis(2000).leakThresholdMillis(30000).build();
+     * dataSource.bindTo(meterRegistry); // spring bean 时 actuator 自动绑定
+     *
+     * @param poolName 连接池名称，用于监控指标的 tag 和日志
+     * @return
+     */
+    public static PoolBuilder builder(String poolName) {
+        return new PoolBuilder(poolName);
+    }
+
+    /**
+     * 连接池配置，默认值适合一般的 web 应用，根据 MonitoredDataSource 输出的指标调整 :
+     * jdbc.pool.wait 等待时间长、jdbc.pool.active.sampled 高分位数接近 maxTotal : 增大 maxTotal ;
+     * jdbc.pool.statements.hit.ratio 低 : 增大 maxOpenPreparedStatements (每个连接缓存的预编译语句数)
+     */
+    public static class PoolBuilder {
+
+        private final String poolName;
+        private String driverClassName;
+        private String url;
+        private String username;
+        private String password;
+        private int initialSize = 5;         //初始化的连接数
+        private int maxTotal = 20;           //最大连接数
+        private int maxIdle = 10;            //最大空闲连接
+        private int minIdle = 1;             //最小空闲连接
+        private long maxWaitMillis = 3000;   //取连接的最长等待时间，超时抛出异常，-1 一直等待
+        private boolean poolPreparedStatements = true;
+        private int maxOpenPreparedStatements = 100; //每个连接缓存的预编译语句数
+        private String validationQuery;      //为 null 时用 jdbc4 Connection.isValid
+        private long leakThresholdMillis = 0; //连接持有时间超过此值时打印调用栈，0 不检测
+
+        private PoolBuilder(String poolName) {
+            this.poolName = poolName;
+        }
+
+        public PoolBuilder driverClassName(String driverClassName) {
+            this.driverClassName = driverClassName;
+            return this;
+        }
+
+        public PoolBuilder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public PoolBuilder username(String username) {
+            this.username = username;
+            return this;
+        }
+
+        public PoolBuilder password(String password) {
+            this.password = password;
+            return this;
+        }
+
+        public PoolBuilder initialSize(int initialSize) {
+            this.initialSize = initialSize;
+            return this;
+        }
+
+        public PoolBuilder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public PoolBuilder maxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+            return this;
+        }
+
+        public PoolBuilder minIdle(int minIdle) {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        public PoolBuilder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public PoolBuilder poolPreparedStatements(boolean poolPreparedStatements) {
+            this.poolPreparedStatements = poolPreparedStatements;
+            return this;
+        }
+
+        public PoolBuilder maxOpenPreparedStatements(int maxOpenPreparedStatements) {
+            this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+            return this;
+        }
+
+        public PoolBuilder validationQuery(String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public PoolBuilder leakThresholdMillis(long leakThresholdMillis) {
+            this.leakThresholdMillis = leakThresholdMillis;
+            return this;
+        }
+
+        public MonitoredDataSource build() {
+            if (url == null)
+                throw new IllegalArgumentException("url : 数据库连接不能为空");
+            if (maxTotal < 1 || minIdle > maxIdle || maxIdle > maxTotal || initialSize > maxTotal)
+                throw new IllegalArgumentException("连接数应满足 minIdle <= maxIdle <= maxTotal , initialSize <= maxTotal");
+
+            MonitoredDataSource dataSource = new MonitoredDataSource(poolName, leakThresholdMillis);
+            //数据库连接信息（必须）
+            dataSource.setDriverClassName(driverClassName);
+            dataSource.setUrl(url);
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            //连接池中的连接数量配置
+            dataSource.setInitialSize(initialSize);
+            dataSource.setMaxTotal(maxTotal);
+            dataSource.setMaxIdle(maxIdle);
+            dataSource.setMinIdle(minIdle);
+            dataSource.setMaxWaitMillis(maxWaitMillis);
+            //预编译语句缓存
+            dataSource.setPoolPreparedStatements(poolPreparedStatements);
+            dataSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+            //空闲连接检测
+            dataSource.setValidationQuery(validationQuery);
+            dataSource.setTestWhileIdle(true);
+            dataSource.setTimeBetweenEvictionRunsMillis(60000);
+            return dataSource;
+        }
+    }
 
     /**
      * 根据实际情况，进行数据源切换
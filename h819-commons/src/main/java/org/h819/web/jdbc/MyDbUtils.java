@@ -1,9 +1,16 @@
 package org.h819.web.jdbc;
 
+import org.apache.commons.dbutils.BasicRowProcessor;
 import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
 import org.apache.commons.dbutils.handlers.*;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -26,12 +33,39 @@ import java.util.Map;
  * ---
  * 如果是多数据源，重新建立一个 MyDbUtils2 工具类，只是更换数据源
  * 不在尝试统一为一个工具类，代码难看且不方便使用
+ * ---
+ * 事务 (unit of work) :
+ * 开启事务后，当前线程绑定一个连接，之后本类的所有方法都使用这个连接，直到 commit 或 rollback 后归还连接池，见 inTransaction 。
+ * 事务中执行 sql 出错时抛出 RuntimeException ，以便回滚 ; 事务之外仍然和原来一样，只打印异常。
+ * ---
+ * 批量操作 :
+ * 1. batch : jdbc batch ，每 batchSize 行执行一次 executeBatch ，不会把所有行一次发送 ;
+ * mysql 需要在 url 中设置 rewriteBatchedStatements=true ，驱动才会把一批 insert 改写为多行 insert ，否则仍然逐行发送 ;
+ * 2. batchInsert : 自己生成多行 insert (insert into t (a,b) values (?,?),(?,?)...) ，不依赖驱动的改写，适用于 mysql , postgresql , h2 , sql server ，不适用于 oracle 。
+ * 性能测试见 MyDbUtilsBatchBenchmark
+ * ---
+ * 大量数据的查询 (如导出) :
+ * getListMap / getListBean 把全部结果放到 List 中，几百万行时会内存溢出，改用 forEachMap / forEachBean 逐行处理。
  */
 
 public class MyDbUtils {
 
+    // 默认每批执行的行数
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // 逐行读取时，驱动每次从数据库取回的行数
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    // mysql 驱动只有 fetchSize 为 Integer.MIN_VALUE 时才逐行读取，否则把全部结果读入内存 (或者在 url 中设置 useCursorFetch=true)
+    public static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
     private static final QueryRunner queryRunner;
 
+    private static final BasicRowProcessor rowProcessor = new BasicRowProcessor();
+
+    // 当前线程的事务连接，见 beginTransaction
+    private static final ThreadLocal<Connection> transactionConnection = new ThreadLocal<>();
+
     /**
      * 必须使用数据源
      * 如果没有数据源，可以使用 QueryRunner 带 Connection 参数的方法
@@ -58,8 +92,8 @@ public class MyDbUtils {
      */
     public static boolean isValid(int i) {
 
-        try {
-            return queryRunner.getDataSource().getConnection().isValid(i);
+        try (Connection connection = queryRunner.getDataSource().getConnection()) {
+            return connection.isValid(i);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -67,57 +101,305 @@ public class MyDbUtils {
     }
 
     /**
-     * 开启事务
+     * 事务中执行的操作，connection 为当前线程绑定的连接，本类的方法也会使用这个连接
+     *
+     * @param <T>
      */
-    private static void beginTransaction() {
+    public interface Transaction<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 在一个事务中执行 work ，成功则提交，出现异常则回滚，之后归还连接
+     * 当前线程已经在事务中时，直接加入该事务
+     *
+     * @param work
+     * @param <T>
+     * @return work 的返回值
+     */
+    public static <T> T inTransaction(Transaction<T> work) {
         try {
-            // 开启事务
-            queryRunner.getDataSource().getConnection().setAutoCommit(false);
+            return execute(work);
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new RuntimeException(e);
         }
     }
 
     /**
-     * 回滚事务
+     * 开启事务，获取一个连接并绑定到当前线程
+     * 必须在 finally 中保证调用 commit 或 rollback ，否则连接不会归还，推荐使用 inTransaction
      */
-    private static void rollback() {
+    public static void beginTransaction() {
+        if (transactionConnection.get() != null)
+            throw new IllegalStateException("当前线程已经开启了事务");
+        try {
+            Connection connection = queryRunner.getDataSource().getConnection();
+            connection.setAutoCommit(false);
+            transactionConnection.set(connection);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * 回滚事务，并归还连接 ; 当前线程没有事务时，不做任何操作
+     */
+    public static void rollback() {
+        Connection connection = transactionConnection.get();
+        if (connection == null)
+            return;
         try {
-            queryRunner.getDataSource().getConnection().rollback();
+            connection.rollback();
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            release(connection);
         }
-
     }
 
     /**
-     * 提交事务
+     * 提交事务，并归还连接
+     * 提交失败时抛出异常，连接仍然绑定在当前线程，需要调用 rollback
      */
-    private static void commit() {
+    public static void commit() {
+        Connection connection = transactionConnection.get();
+        if (connection == null)
+            throw new IllegalStateException("当前线程没有开启事务");
         try {
-            queryRunner.getDataSource().getConnection().commit();
+            connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+        release(connection);
+    }
+
+    /**
+     * @return 当前线程是否在事务中
+     */
+    public static boolean isInTransaction() {
+        return transactionConnection.get() != null;
+    }
+
+    private static <T> T execute(Transaction<T> work) throws SQLException {
+        Connection current = transactionConnection.get();
+        if (current != null)
+            return work.execute(current);
+
+        beginTransaction();
+        boolean committed = false;
+        try {
+            T result = work.execute(transactionConnection.get());
+            commit();
+            committed = true;
+            return result;
+        } finally {
+            if (!committed)
+                rollback();
+        }
+    }
+
+    private static void release(Connection connection) {
+        transactionConnection.remove();
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                connection.close(); // 归还连接池
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 事务中出现异常时抛出，以便回滚 ; 事务之外只打印异常，和原来的方法一致
+     */
+    private static void handleException(SQLException e) {
+        if (transactionConnection.get() != null)
+            throw new RuntimeException(e);
+        e.printStackTrace();
+    }
+
+    private static int doUpdate(String sql, Object... params) throws SQLException {
+        Connection connection = transactionConnection.get();
+        return connection == null ? queryRunner.update(sql, params) : queryRunner.update(connection, sql, params);
+    }
+
+    private static <T> T doQuery(String sql, ResultSetHandler<T> handler, Object... params) throws SQLException {
+        Connection connection = transactionConnection.get();
+        return connection == null ? queryRunner.query(sql, handler, params) : queryRunner.query(connection, sql, handler, params);
     }
 
     /**
      * 批量操作，包括批量保存、修改、删除
+     * 每 DEFAULT_BATCH_SIZE 行执行一次，在一个事务中执行
      *
      * @param sql
      * @param params
-     * @return
+     * @return 每一行影响的记录数
      */
     public static int[] batch(String sql, Object[][] params) {
+        return batch(sql, params, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 批量操作，每 batchSize 行执行一次，在一个事务中执行 (当前线程已经在事务中时，加入该事务)
+     *
+     * @param sql
+     * @param params
+     * @param batchSize 每批的行数
+     * @return 每一行影响的记录数
+     */
+    public static int[] batch(String sql, Object[][] params, int batchSize) {
+        checkBatchSize(batchSize);
         try {
-            return queryRunner.batch(sql, params);
+            return execute(connection -> {
+                int[] result = new int[params.length];
+                for (int from = 0; from < params.length; from += batchSize) {
+                    int to = Math.min(from + batchSize, params.length);
+                    int[] counts = queryRunner.batch(connection, sql, Arrays.copyOfRange(params, from, to));
+                    System.arraycopy(counts, 0, result, from, counts.length);
+                }
+                return result;
+            });
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return new int[0];
     }
 
+    /**
+     * 批量操作，参数逐行读取，每 batchSize 行执行一次，适用于大量数据 (不需要一次全部放到内存中，如逐行读取文件)
+     * 在一个事务中执行 (当前线程已经在事务中时，加入该事务)
+     *
+     * @param sql
+     * @param params    每个元素为一行的参数
+     * @param batchSize 每批的行数
+     * @return 影响的记录数之和 ; 驱动不返回行数 (Statement.SUCCESS_NO_INFO) 时，按 1 行计算
+     */
+    public static long batch(String sql, Iterable<Object[]> params, int batchSize) {
+        checkBatchSize(batchSize);
+        try {
+            return execute(connection -> batch(connection, sql, params, batchSize));
+        } catch (SQLException ex) {
+            handleException(ex);
+        }
+        return 0;
+    }
+
+    /**
+     * 同上，使用指定的连接，不提交、不关闭连接
+     *
+     * @param connection
+     * @param sql
+     * @param params
+     * @param batchSize
+     * @return
+     * @throws SQLException
+     */
+    public static long batch(Connection connection, String sql, Iterable<Object[]> params, int batchSize) throws SQLException {
+        checkBatchSize(batchSize);
+        long total = 0;
+        int pending = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Object[] row : params) {
+                queryRunner.fillStatement(statement, row);
+                statement.addBatch();
+                if (++pending == batchSize) {
+                    total += sum(statement.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0)
+                total += sum(statement.executeBatch());
+        }
+        return total;
+    }
+
+    /**
+     * 多行 insert : insert into table (c1, c2) values (?, ?), (?, ?) ...
+     * 每 rowsPerStatement 行生成一条 sql ，数据库一次解析、一次执行，比逐行 insert 快很多，相当于 mysql 驱动的 rewriteBatchedStatements
+     * 在一个事务中执行 (当前线程已经在事务中时，加入该事务)
+     * -
+     * 注意 :
+     * 1. table 和 columns 直接拼接到 sql 中，不能来自用户输入 ;
+     * 2. 一条 sql 的参数个数为 rowsPerStatement * columns.length ，不能超过数据库的限制 (如 sql server 为 2100 ，mysql 为 65535) ;
+     * 3. oracle 不支持多行 values 。
+     *
+     * @param table            表名
+     * @param columns          列名
+     * @param rows             每个元素为一行的值，和 columns 一一对应
+     * @param rowsPerStatement 每条 sql 的行数
+     * @return 插入的记录数
+     */
+    public static long batchInsert(String table, String[] columns, Iterable<Object[]> rows, int rowsPerStatement) {
+        checkBatchSize(rowsPerStatement);
+        try {
+            return execute(connection -> batchInsert(connection, table, columns, rows, rowsPerStatement));
+        } catch (SQLException ex) {
+            handleException(ex);
+        }
+        return 0;
+    }
+
+    /**
+     * 同上，使用指定的连接，不提交、不关闭连接
+     */
+    public static long batchInsert(Connection connection, String table, String[] columns, Iterable<Object[]> rows, int rowsPerStatement) throws SQLException {
+        checkBatchSize(rowsPerStatement);
+        long total = 0;
+        Object[] buffer = new Object[rowsPerStatement * columns.length];
+        int buffered = 0;
+        try (PreparedStatement statement = connection.prepareStatement(createMultiRowInsertSql(table, columns, rowsPerStatement))) {
+            for (Object[] row : rows) {
+                if (row.length != columns.length)
+                    throw new IllegalArgumentException("值的个数和列的个数不一致 : " + row.length + " != " + columns.length);
+                System.arraycopy(row, 0, buffer, buffered * columns.length, columns.length);
+                if (++buffered == rowsPerStatement) {
+                    queryRunner.fillStatement(statement, buffer);
+                    total += statement.executeUpdate();
+                    buffered = 0;
+                }
+            }
+        }
+        if (buffered > 0) { // 剩余的行
+            try (PreparedStatement statement = connection.prepareStatement(createMultiRowInsertSql(table, columns, buffered))) {
+                queryRunner.fillStatement(statement, Arrays.copyOf(buffer, buffered * columns.length));
+                total += statement.executeUpdate();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * insert into table (c1, c2) values (?, ?), (?, ?)
+     */
+    static String createMultiRowInsertSql(String table, String[] columns, int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++)
+            row.append(i == 0 ? "?" : ", ?");
+        row.append(')');
+
+        StringBuilder sql = new StringBuilder(32 + rows * (row.length() + 2));
+        sql.append("insert into ").append(table).append(" (").append(String.join(", ", columns)).append(") values ");
+        for (int i = 0; i < rows; i++)
+            sql.append(i == 0 ? "" : ", ").append(row);
+        return sql.toString();
+    }
+
+    private static long sum(int[] counts) {
+        long total = 0;
+        for (int count : counts)
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        return total;
+    }
+
+    private static void checkBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize 需要 >= 1");
+    }
 
     /**
      * ArrayHandler：把结果集中的第一行数据转成对象数组。
@@ -133,9 +415,9 @@ public class MyDbUtils {
     public static int delete(String sql) {
 
         try {
-            return queryRunner.update(sql);
+            return doUpdate(sql);
         } catch (SQLException e) {
-            e.printStackTrace();
+            handleException(e);
         }
 
         return 0;
@@ -150,9 +432,9 @@ public class MyDbUtils {
      */
     public static int delete(String sql, Object... params) {
         try {
-            return queryRunner.update(sql, params);
+            return doUpdate(sql, params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
@@ -166,18 +448,18 @@ public class MyDbUtils {
      */
     public static int update(String sql, Object... params) {
         try {
-            return queryRunner.update(sql, params);
+            return doUpdate(sql, params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
 
     public static int update(String sqlUpdate) {
         try {
-            return queryRunner.update(sqlUpdate);
+            return doUpdate(sqlUpdate);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
@@ -191,18 +473,18 @@ public class MyDbUtils {
      */
     public static int save(String sql, Object... params) {
         try {
-            return queryRunner.update(sql, params);
+            return doUpdate(sql, params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
 
     public static int save(String sql) {
         try {
-            return queryRunner.update(sql);
+            return doUpdate(sql);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
@@ -218,9 +500,9 @@ public class MyDbUtils {
      */
     public static <T> List<T> getListBean(String sql, Class<T> type, Object... params) {
         try {
-            return queryRunner.query(sql, new BeanListHandler<T>(type), params);
+            return doQuery(sql, new BeanListHandler<T>(type), params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_LIST;
     }
@@ -236,9 +518,9 @@ public class MyDbUtils {
     public static <T> List<T> getListBean(String sql, Class<T> type) {
         try {
             // BeanListHandler 将ResultSet转换为List<JavaBean>的ResultSetHandler实现类
-            return queryRunner.query(sql, new BeanListHandler<T>(type));
+            return doQuery(sql, new BeanListHandler<T>(type));
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_LIST;
     }
@@ -254,9 +536,9 @@ public class MyDbUtils {
      */
     public static <T> T getBean(String sql, Class<T> type, Object... params) {
         try {
-            return queryRunner.query(sql, new BeanHandler<T>(type), params);
+            return doQuery(sql, new BeanHandler<T>(type), params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return null;
     }
@@ -272,9 +554,9 @@ public class MyDbUtils {
     public static <T> T getBean(String sql, Class<T> type) {
         try {
             // BeanHandler 将ResultSet行转换为一个JavaBean的ResultSetHandler实现类
-            return queryRunner.query(sql, new BeanHandler<T>(type));
+            return doQuery(sql, new BeanHandler<T>(type));
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return null;
     }
@@ -288,9 +570,9 @@ public class MyDbUtils {
      */
     public static List<Map<String, Object>> getListMap(String sql, Object... params) {
         try {
-            return queryRunner.query(sql, new MapListHandler(), params);
+            return doQuery(sql, new MapListHandler(), params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_LIST;
     }
@@ -304,13 +586,94 @@ public class MyDbUtils {
     public static List<Map<String, Object>> getListMap(String sql) {
         try {
             // MapListHandler 将ResultSet转换为List<Map>的ResultSetHandler实现类
-            return queryRunner.query(sql, new MapListHandler());
+            return doQuery(sql, new MapListHandler());
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_LIST;
     }
 
+    /**
+     * 逐行读取查询结果，每一行转换为 Map 后调用 handler ，内存占用和结果的行数无关
+     * -
+     * 使用只进、只读的游标，并设置 fetchSize ，驱动每次只从数据库取回 fetchSize 行 ; 读取完毕或者出现异常时，关闭 ResultSet 、Statement ，并归还连接。
+     * 没有在事务中时，读取期间关闭连接的 autoCommit (postgresql 只有在事务中 fetchSize 才有效)，之后恢复。
+     * mysql 需要使用 MYSQL_STREAMING_FETCH_SIZE ，此时读取完之前，同一个连接不能执行其他 sql 。
+     *
+     * @param sql
+     * @param fetchSize 驱动每次取回的行数，如 DEFAULT_FETCH_SIZE , MYSQL_STREAMING_FETCH_SIZE
+     * @param handler   每一行调用一次
+     * @param params
+     * @return 读取的行数
+     */
+    public static long forEachMap(String sql, int fetchSize, RowHandler<Map<String, Object>> handler, Object... params) {
+        return forEach(sql, fetchSize, rowProcessor::toMap, handler, params);
+    }
+
+    /**
+     * 同上，每一行转换为 bean
+     *
+     * @param sql
+     * @param type
+     * @param fetchSize
+     * @param handler
+     * @param params
+     * @param <T>
+     * @return 读取的行数
+     */
+    public static <T> long forEachBean(String sql, Class<T> type, int fetchSize, RowHandler<T> handler, Object... params) {
+        return forEach(sql, fetchSize, rs -> rowProcessor.toBean(rs, type), handler, params);
+    }
+
+    private interface RowConverter<T> {
+        T convert(ResultSet rs) throws SQLException;
+    }
+
+    private static <T> long forEach(String sql, int fetchSize, RowConverter<T> converter, RowHandler<T> handler, Object... params) {
+
+        Connection current = transactionConnection.get();
+        try {
+            if (current != null)
+                return forEach(current, sql, fetchSize, converter, handler, params);
+
+            try (Connection connection = queryRunner.getDataSource().getConnection()) {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    return forEach(connection, sql, fetchSize, converter, handler, params);
+                } finally {
+                    connection.rollback(); // 只读，结束游标所在的事务
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+        } catch (SQLException e) {
+            handleException(e);
+        }
+        return 0;
+    }
+
+    private static <T> long forEach(Connection connection, String sql, int fetchSize, RowConverter<T> converter, RowHandler<T> handler, Object... params) throws SQLException {
+        long count = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(fetchSize);
+            queryRunner.fillStatement(statement, params);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    T row = converter.convert(rs);
+                    try {
+                        handler.handle(row);
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     /**
      * 根据传入的sql，查询记录，以Map形式返回第一行记录。 注意：如果有多行记录，只会返回第一行，所以适用场景需要注意，可以使用根据主键来查询的场景
      *
@@ -320,9 +683,9 @@ public class MyDbUtils {
      */
     public static Map<String, Object> getFirstRowMap(String sql, Object... params) {
         try {
-            return queryRunner.query(sql, new MapHandler(), params);
+            return doQuery(sql, new MapHandler(), params);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_MAP;
     }
@@ -336,9 +699,9 @@ public class MyDbUtils {
     public static Map<String, Object> getFirstRowMap(String sql) {
         try {
             // MapHandler 将ResultSet的首行转换为一个Map的ResultSetHandler实现类
-            return queryRunner.query(sql, new MapHandler());
+            return doQuery(sql, new MapHandler());
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return Collections.EMPTY_MAP;
     }
@@ -352,10 +715,10 @@ public class MyDbUtils {
      */
     public static int getCount(String sql, Object... params) {
         try {
-            Object value = queryRunner.query(sql, new ScalarHandler(), params);
+            Object value = doQuery(sql, new ScalarHandler(), params);
             return objectToInteger(value);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
@@ -368,10 +731,10 @@ public class MyDbUtils {
      */
     public static int getCount(String sql) {
         try {
-            Object value = queryRunner.query(sql, new ScalarHandler());
+            Object value = doQuery(sql, new ScalarHandler());
             return objectToInteger(value);
         } catch (SQLException ex) {
-            ex.printStackTrace();
+            handleException(ex);
         }
         return 0;
     }
@@ -396,13 +759,20 @@ public class MyDbUtils {
         //下面代码执行了一个事务
         // 如果执行成功，就代表一个完整的事务执行成功了
         // 如果不成功，会自动回滚
+        // 事务中调用的本类方法，都使用同一个连接
 
+        MyDbUtils.inTransaction(connection -> {
+            MyDbUtils.update("update account set balance = balance - ? where id = ?", 100, 1);
+            MyDbUtils.update("update account set balance = balance + ? where id = ?", 100, 2);
+            return null;
+        });
+
+        // 或者手动控制，rollback 在没有提交时回滚，已经提交时不做任何操作
         try {
             MyDbUtils.beginTransaction();
             //...  do somethiong
             MyDbUtils.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
             MyDbUtils.rollback();
         }
     }
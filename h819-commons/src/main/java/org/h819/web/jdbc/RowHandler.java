@@ -0,0 +1,21 @@
+package org.h819.web.jdbc;
+
+/**
+ * Description : TODO(逐行处理查询结果的回调)
+ * -
+ * 查询结果很多时 (如导出几百万行)，不能先放到 List 中再处理，而是每读取一行调用一次 handle ，处理完的行可以被回收，内存占用和结果的行数无关。
+ * handle 中不要保存 row 的引用到集合中，否则仍然会占用全部内存。
+ * -
+ * 用法见 MyDbUtils.forEachMap , JdbcTemplateUtils.queryForEachByMapMapperNativeSqlString
+ *
+ * @param <T> 每一行转换后的类型，如 Map 或者 bean
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+    /**
+     * @param row 当前行
+     * @throws Exception 抛出异常时停止读取，关闭数据库资源，异常包装为 RuntimeException 抛出 (RuntimeException 直接抛出)
+     */
+    void handle(T row) throws Exception;
+}
@@ -5,6 +5,7 @@
  * Time: 11:13
  * ---
  * apache commons dbutils 工具类，无 spring 环境
+ * 连接池 : MyDataSourceFactory.builder() 创建 dbcp2 连接池，带监控指标和连接泄漏检测，见 MonitoredDataSource
  */
 package org.h819.web.jdbc;
 /**
@@ -108,6 +108,18 @@ public class JqgridPage<T> implements Serializable {
      */
     private Map<String, Object> userdata;
 
+    /**
+     * keyset 分页时，下一页的游标，请求下一页时原样传回，见 KeysetCursor
+     * 没有下一页，或者不是 keyset 分页时为 null
+     */
+    private String cursor;
+
+    /**
+     * 是否有下一页
+     * 不计算总数时，通过多取一行判断，此时 records 和 total 是估计值，只保证有下一页时 total 比 page 大 1 ，使 jqgrid 可以点击下一页
+     */
+    private boolean hasNext;
+
     /**
      * 必须以有参构造方法生成
      */
@@ -149,6 +161,7 @@ public class JqgridPage<T> implements Serializable {
             totalTemp++;
         }
         total = (int) totalTemp;
+        hasNext = page < total;
 
     }
 
@@ -187,4 +200,19 @@ public class JqgridPage<T> implements Serializable {
         this.rows = rows;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(boolean hasNext) {
+        this.hasNext = hasNext;
+    }
 }
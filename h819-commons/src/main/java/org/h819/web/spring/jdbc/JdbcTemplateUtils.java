@@ -1,15 +1,27 @@
 package org.h819.web.spring.jdbc;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.h819.web.jdbc.RowHandler;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
 import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Description : JdbcTemplate 工具类 ，参数绑定方式，可以避免 sql 注入
@@ -34,6 +46,9 @@ public class JdbcTemplateUtils {
     //where name like '%'||?||'%'
     public static String BIND_LIKE_STRING = " '%'||?||'%' ";
 
+    // 逐行读取时，驱动每次从数据库取回的行数，见 getStreamingFetchSize
+    public static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+
     //其他的例子
     //= ：  name =?
     //between :  act_time between to_date(?,'yyyy-mm-dd') and to_date(?,'yyyy-mm-dd')
@@ -52,11 +67,11 @@ public class JdbcTemplateUtils {
         return queryPageByNativeSqlString(jdbcTemplate, dbDialect,
                 queryNativeSql, queryArgs,
                 countNativeSql, countArgs,
-                currentPageNo, pageSize, new ColumnMapRowMapper());
+                currentPageNo, pageSize, new ColumnMapRowMapper(), null, null);
     }
 
     /**
-     * BeanPropertyRowMapper 包装
+     * MethodHandleRowMapper 包装
      */
     public static <T> PageBean<T> queryPageByBeanMppaerNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
                                                                        final String queryNativeSql, Object[] queryArgs,
@@ -66,7 +81,59 @@ public class JdbcTemplateUtils {
         return queryPageByNativeSqlString(jdbcTemplate, dbDialect,
                 queryNativeSql, queryArgs,
                 countNativeSql, countArgs,
-                currentPageNo, pageSize, new BeanPropertyRowMapper(resultClass));
+                currentPageNo, pageSize, MethodHandleRowMapper.of(resultClass), null, null);
+    }
+
+    /**
+     * Map 包装，总数缓存在 countCache 中，见 PageCountCache
+     */
+    public static PageBean queryPageByMapMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                               final String queryNativeSql, Object[] queryArgs,
+                                                               final String countNativeSql, Object[] countArgs,
+                                                               int currentPageNo, int pageSize,
+                                                               PageCountCache countCache, String countNamespace) {
+        return queryPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                countNativeSql, countArgs,
+                currentPageNo, pageSize, new ColumnMapRowMapper(), countCache, countNamespace);
+    }
+
+    /**
+     * MethodHandleRowMapper 包装，总数缓存在 countCache 中，见 PageCountCache
+     */
+    public static <T> PageBean<T> queryPageByBeanMppaerNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                       final String queryNativeSql, Object[] queryArgs,
+                                                                       final String countNativeSql, Object[] countArgs,
+                                                                       int currentPageNo, int pageSize,
+                                                                       Class<T> resultClass,
+                                                                       PageCountCache countCache, String countNamespace) {
+        return queryPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                countNativeSql, countArgs,
+                currentPageNo, pageSize, MethodHandleRowMapper.of(resultClass), countCache, countNamespace);
+    }
+
+    /**
+     * Map 包装，不计算总数
+     */
+    public static PageBean querySlicePageByMapMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                    final String queryNativeSql, Object[] queryArgs,
+                                                                    int currentPageNo, int pageSize) {
+        return querySlicePageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                currentPageNo, pageSize, new ColumnMapRowMapper());
+    }
+
+    /**
+     * MethodHandleRowMapper 包装，不计算总数
+     */
+    public static <T> PageBean<T> querySlicePageByBeanMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                            final String queryNativeSql, Object[] queryArgs,
+                                                                            int currentPageNo, int pageSize,
+                                                                            Class<T> resultClass) {
+        return querySlicePageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                currentPageNo, pageSize, MethodHandleRowMapper.of(resultClass));
     }
 
     /**
@@ -95,37 +162,216 @@ public class JdbcTemplateUtils {
      * @param currentPageNo  当前页码，从 1 开始
      * @param pageSize       页大小
      * @param rowMapper      自定义返回值
+     * @param countCache     总数缓存，为 null 时每次都计算总数
+     * @param countNamespace 总数缓存的命名空间，一般为表名，数据修改后通过 countCache.invalidate(countNamespace) 清除
      * @param <T>
      * @return
      */
     private static <T> PageBean<T> queryPageByNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
                                                               final String queryNativeSql, Object[] queryArgs,
                                                               final String countNativeSql, Object[] countArgs,
-                                                              int currentPageNo, int pageSize, RowMapper<T> rowMapper) {
+                                                              int currentPageNo, int pageSize, RowMapper<T> rowMapper,
+                                                              PageCountCache countCache, String countNamespace) {
 
         Assert.isTrue(currentPageNo >= 1, "currentPageNo : 起始页不应小于 1 ，且从 1 开始。");
         Assert.isTrue(pageSize >= 0, "pageSize : 页大小不能小于 0");
         Assert.isTrue(countNativeSql.contains("count"), "queryNativeSql 和 countNativeSql 参数顺序不对");
 
 
-        String queryNativeSqlString = SqlUtils.createNativePageSqlString(dbDialect, queryNativeSql, currentPageNo, pageSize);
+        // 分页参数为占位符，翻页时 sql 不变，数据库可以重用执行计划
+        SqlUtils.PageSqlTemplate pageTemplate = SqlUtils.getNativePageSqlTemplate(dbDialect, queryNativeSql);
 
         log.info("countNativeSql : \n {} ", countNativeSql);
-        log.info("queryPageNativeSql : \n {} ", queryNativeSqlString);
+        log.info("queryPageNativeSql : \n {} ", pageTemplate.getSql());
 
         // 计算总数
-        final int totalRecordsSize = jdbcTemplate.queryForObject(countNativeSql, countArgs, Integer.class);
+        final int totalRecordsSize = queryCount(jdbcTemplate, countNativeSql, countArgs, countCache, countNamespace);
 //        log.info("totalRecordsSize : " + totalRecordsSize);
         if (totalRecordsSize == 0)
             return new PageBean(pageSize, 0 + 1, 0, Collections.EMPTY_LIST); //currentPageNo 从 1 开始
 
         //不能用 queryForList(java.lang.String sql, java.lang.Class<T> elementType)
         // 他的参数 elementType 只能是简单类型 String.class,Integer.class ，不能是一个bean
-        List<T> content = jdbcTemplate.query(queryNativeSqlString, queryArgs, rowMapper);
+        List<T> content = jdbcTemplate.query(pageTemplate.getSql(), pageTemplate.createPageArgs(queryArgs, currentPageNo, pageSize), rowMapper);
 
         return new PageBean(pageSize, currentPageNo, totalRecordsSize, content);
     }
 
+    /**
+     * 利用 spring JdbcTemplate 进行分页查询，不计算总数，参数同 queryPageByNativeSqlString
+     * -
+     * 多取一行，判断是否有下一页，每一页只需要一次查询。适合只需要 "上一页/下一页" 的列表，或者 count 很慢的大表。
+     *
+     * @return PageBean.getTotalRecords() 和 getTotalPages() 为 -1 ，PageBean.isHasNext() 表示是否有下一页
+     */
+    private static <T> PageBean<T> querySlicePageByNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                   final String queryNativeSql, Object[] queryArgs,
+                                                                   int currentPageNo, int pageSize, RowMapper<T> rowMapper) {
+
+        Assert.isTrue(currentPageNo >= 1, "currentPageNo : 起始页不应小于 1 ，且从 1 开始。");
+        Assert.isTrue(pageSize > 0, "pageSize : 页大小应大于 0");
+
+        SqlUtils.PageSqlTemplate pageTemplate = SqlUtils.getNativePageSqlTemplate(dbDialect, queryNativeSql);
+        log.info("querySliceNativeSql : \n {} ", pageTemplate.getSql());
+
+        List<T> content = jdbcTemplate.query(pageTemplate.getSql(), pageTemplate.createArgs(queryArgs, (currentPageNo - 1) * pageSize, pageSize + 1), rowMapper);
+        return createSlicePage(currentPageNo, pageSize, content);
+    }
+
+    /**
+     * 多取了一行的结果集，包装为不含总数的 PageBean
+     */
+    private static <T> PageBean<T> createSlicePage(int currentPageNo, int pageSize, List<T> content) {
+        boolean hasNext = content.size() > pageSize;
+        PageBean<T> page = new PageBean(pageSize, currentPageNo, -1, hasNext ? new ArrayList<>(content.subList(0, pageSize)) : content);
+        page.setHasNext(hasNext);
+        return page;
+    }
+
+    /**
+     * 计算总数，有 countCache 时先从缓存中获取
+     * 缓存的 key 为合并空白后的 countNativeSql 和参数
+     */
+    private static int queryCount(final JdbcTemplate jdbcTemplate, final String countNativeSql, final Object[] countArgs,
+                                  PageCountCache countCache, String countNamespace) {
+
+        if (countCache == null)
+            return jdbcTemplate.queryForObject(countNativeSql, countArgs, Integer.class);
+
+        Assert.hasText(countNamespace, "countNamespace : 使用 countCache 时需要指定命名空间");
+        String query = countNativeSql.trim().replaceAll("\\s+", " ") + " " + Arrays.deepToString(countArgs);
+        return countCache.getCount(countNamespace, query, () -> jdbcTemplate.queryForObject(countNativeSql, countArgs, Integer.class));
+    }
+
+
+    /**
+     * Map 包装，keyset 分页
+     */
+    public static PageBean queryKeysetPageByMapMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                     final String queryNativeSql, Object[] queryArgs,
+                                                                     final String countNativeSql, Object[] countArgs,
+                                                                     List<Order> orders, String idColumn, String cursor,
+                                                                     int currentPageNo, int pageSize) {
+        return queryKeysetPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                countNativeSql, countArgs,
+                orders, idColumn, cursor,
+                currentPageNo, pageSize, new ColumnMapRowMapper());
+    }
+
+    /**
+     * Map 包装，keyset 分页，不计算总数
+     */
+    public static PageBean queryKeysetSlicePageByMapMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                          final String queryNativeSql, Object[] queryArgs,
+                                                                          List<Order> orders, String idColumn, String cursor,
+                                                                          int currentPageNo, int pageSize) {
+        return queryKeysetPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                null, null,
+                orders, idColumn, cursor,
+                currentPageNo, pageSize, new ColumnMapRowMapper());
+    }
+
+    /**
+     * MethodHandleRowMapper 包装，keyset 分页
+     */
+    public static <T> PageBean<T> queryKeysetPageByBeanMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                             final String queryNativeSql, Object[] queryArgs,
+                                                                             final String countNativeSql, Object[] countArgs,
+                                                                             List<Order> orders, String idColumn, String cursor,
+                                                                             int currentPageNo, int pageSize,
+                                                                             Class<T> resultClass) {
+        return queryKeysetPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                countNativeSql, countArgs,
+                orders, idColumn, cursor,
+                currentPageNo, pageSize, MethodHandleRowMapper.of(resultClass));
+    }
+
+    /**
+     * MethodHandleRowMapper 包装，keyset 分页，不计算总数
+     */
+    public static <T> PageBean<T> queryKeysetSlicePageByBeanMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                                  final String queryNativeSql, Object[] queryArgs,
+                                                                                  List<Order> orders, String idColumn, String cursor,
+                                                                                  int currentPageNo, int pageSize,
+                                                                                  Class<T> resultClass) {
+        return queryKeysetPageByNativeSqlString(jdbcTemplate, dbDialect,
+                queryNativeSql, queryArgs,
+                null, null,
+                orders, idColumn, cursor,
+                currentPageNo, pageSize, MethodHandleRowMapper.of(resultClass));
+    }
+
+    /**
+     * 利用 spring JdbcTemplate 进行 keyset (seek) 分页查询，参数同 queryPageByNativeSqlString
+     * -
+     * 以上一页最后一行排序字段的值 (游标) 作为查询条件，代替 offset ，翻到很深的页时耗时不变，见 SqlUtils.getNativeKeysetPageSqlTemplate
+     * 前端请求下一页时，传回上一页 PageBean.getCursor() ; 没有游标时 (第一页，或者直接跳转到某一页)，按 offset 方式查询当前页。
+     *
+     * @param orders   排序条件，排序字段应该是 queryNativeSql 结果集中的列名，排序字段的值可以为 null
+     * @param idColumn 唯一字段，追加在排序条件最后，保证顺序唯一
+     * @param cursor   上一页返回的游标，可以为 null
+     *                 countNativeSql 为 null 时不计算总数，PageBean.getTotalRecords() 为 -1 ，见 querySlicePageByNativeSqlString
+     * @return PageBean.getCursor() 为下一页的游标，没有下一页时为 null
+     */
+    private static <T> PageBean<T> queryKeysetPageByNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                    final String queryNativeSql, Object[] queryArgs,
+                                                                    final String countNativeSql, Object[] countArgs,
+                                                                    List<Order> orders, String idColumn, String cursor,
+                                                                    int currentPageNo, int pageSize, final RowMapper<T> rowMapper) {
+
+        Assert.isTrue(currentPageNo >= 1, "currentPageNo : 起始页不应小于 1 ，且从 1 开始。");
+        Assert.isTrue(pageSize > 0, "pageSize : 页大小应大于 0");
+        Assert.isTrue(countNativeSql == null || countNativeSql.contains("count"), "queryNativeSql 和 countNativeSql 参数顺序不对");
+
+        final List<Order> keysetOrders = KeysetCursor.createKeysetOrders(orders, idColumn);
+        Object[] cursorValues = KeysetCursor.decode(keysetOrders, cursor);
+
+        // 多取一行，用来判断是否有下一页
+        String queryNativeSqlString;
+        Object[] args;
+        if (cursorValues != null || currentPageNo == 1) {
+            SqlUtils.PageSqlTemplate keysetTemplate = SqlUtils.getNativeKeysetPageSqlTemplate(dbDialect, queryNativeSql, keysetOrders, cursorValues);
+            queryNativeSqlString = keysetTemplate.getSql();
+            args = keysetTemplate.createArgs(SqlUtils.createKeysetArgs(dbDialect, keysetOrders, queryArgs, cursorValues), 0, pageSize + 1);
+        } else { // 没有游标，直接跳转到某一页
+            String orderedSql = "select * from (" + queryNativeSql + ") sel_tab01" + SqlUtils.createKeysetOrderString(keysetOrders);
+            SqlUtils.PageSqlTemplate pageTemplate = SqlUtils.getNativePageSqlTemplate(dbDialect, orderedSql);
+            queryNativeSqlString = pageTemplate.getSql();
+            args = pageTemplate.createArgs(queryArgs, (currentPageNo - 1) * pageSize, pageSize + 1);
+        }
+
+        log.info("countNativeSql : \n {} ", countNativeSql);
+        log.info("queryKeysetPageNativeSql : \n {} ", queryNativeSqlString);
+
+        // 计算总数，不计算总数时为 -1
+        final int totalRecordsSize = countNativeSql == null ? -1 : jdbcTemplate.queryForObject(countNativeSql, countArgs, Integer.class);
+        if (totalRecordsSize == 0)
+            return new PageBean(pageSize, 0 + 1, 0, Collections.EMPTY_LIST); //currentPageNo 从 1 开始
+
+        // 记录本页最后一行 (第 pageSize 行) 排序字段的值，作为下一页的游标
+        final Object[][] lastValues = new Object[1][];
+        List<T> content = jdbcTemplate.query(queryNativeSqlString, args, (ResultSet rs, int rowNum) -> {
+            if (rowNum == pageSize - 1) {
+                Object[] values = new Object[keysetOrders.size()];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = JdbcUtils.getResultSetValue(rs, rs.findColumn(SqlUtils.getKeysetColumnLabel(keysetOrders.get(i))));
+                lastValues[0] = values;
+            }
+            return rowMapper.mapRow(rs, rowNum);
+        });
+
+        PageBean<T> page;
+        if (content.size() > pageSize) {
+            page = new PageBean(pageSize, currentPageNo, totalRecordsSize, new ArrayList<>(content.subList(0, pageSize)));
+            page.setCursor(KeysetCursor.encode(keysetOrders, lastValues[0]));
+            page.setHasNext(true);
+        } else
+            page = new PageBean(pageSize, currentPageNo, totalRecordsSize, content);
+        return page;
+    }
 
     /**
      * 同上，构造查询语句，不分页,自定义返回值包装
@@ -157,13 +403,14 @@ public class JdbcTemplateUtils {
     public static <T> List<T> queryForListByBeanMapperNativeSqlString(final JdbcTemplate jdbcTemplate,
                                                                       final String queryNativeSql, Object[] queryArgs,
                                                                       Class<T> resultClass) {
-        return queryForListByNativeSqlString(jdbcTemplate, queryNativeSql, queryArgs, new BeanPropertyRowMapper(resultClass));
+        return queryForListByNativeSqlString(jdbcTemplate, queryNativeSql, queryArgs, MethodHandleRowMapper.of(resultClass));
     }
 
 
     /**
      * 同上，构造查询语句，不分页
      * 返回 map 包装类型 ，尤其是返回值没有对应的 bean 的时候，返回 map ，从而不必再构造一个 bean
+     * 全部结果放在 List 中，结果很多时 (如导出) 改用 queryForEachByMapMapperNativeSqlString 逐行处理
      *
      * @param jdbcTemplate
      * @param queryNativeSql
@@ -174,4 +421,184 @@ public class JdbcTemplateUtils {
         return queryForListByNativeSqlString(jdbcTemplate, queryNativeSql, queryArgs, new ColumnMapRowMapper());
     }
 
-}
\ No newline at end of file
+    /**
+     * 逐行读取查询结果，每一行调用一次 rowHandler ，不把全部结果放到 List 中，内存占用和结果的行数无关，用于导出等大量数据的查询
+     * -
+     * 使用只进、只读的游标，并设置 fetchSize (见 getStreamingFetchSize) ，读取完毕或者出现异常时，由 JdbcTemplate 关闭 ResultSet 、Statement 并归还连接。
+     * 没有在 spring 事务中时，读取期间关闭连接的 autoCommit (postgresql 只有在事务中 fetchSize 才有效)，之后恢复，同 MyDbUtils.forEachMap 。
+     *
+     * @param jdbcTemplate
+     * @param dbDialect      数据库类型，决定 fetchSize
+     * @param queryNativeSql
+     * @param queryArgs
+     * @param rowHandler     每一行调用一次
+     * @return 读取的行数
+     */
+    public static long queryForEachByMapMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                              final String queryNativeSql, Object[] queryArgs,
+                                                              RowHandler<Map<String, Object>> rowHandler) {
+        return queryForEachByNativeSqlString(jdbcTemplate, dbDialect, queryNativeSql, queryArgs, new ColumnMapRowMapper(), rowHandler);
+    }
+
+    /**
+     * 同上，每一行转换为 resultClass 类型
+     */
+    public static <T> long queryForEachByBeanMapperNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                   final String queryNativeSql, Object[] queryArgs,
+                                                                   Class<T> resultClass, RowHandler<T> rowHandler) {
+        return queryForEachByNativeSqlString(jdbcTemplate, dbDialect, queryNativeSql, queryArgs, MethodHandleRowMapper.of(resultClass), rowHandler);
+    }
+
+    /**
+     * 同上，自定义 rowMapper
+     */
+    public static <T> long queryForEachByNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                         final String queryNativeSql, Object[] queryArgs,
+                                                         RowMapper<T> rowMapper, RowHandler<T> rowHandler) {
+        Long count = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            boolean autoCommitDisabled = disableAutoCommit(connection);
+            try (PreparedStatement statement = createStreamingStatementCreator(queryNativeSql, getStreamingFetchSize(dbDialect)).createPreparedStatement(connection)) {
+                new ArgumentPreparedStatementSetter(queryArgs).setValues(statement);
+                try (ResultSet rs = statement.executeQuery()) {
+                    long rowNum = 0;
+                    while (rs.next()) {
+                        T row = rowMapper.mapRow(rs, (int) rowNum++);
+                        try {
+                            rowHandler.handle(row);
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return rowNum;
+                }
+            } finally {
+                if (autoCommitDisabled)
+                    restoreAutoCommit(connection);
+            }
+        });
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 同 queryForEachByNativeSqlString ，返回 Stream ，可以使用 map / filter 等操作，读取到哪一行才从数据库取回该行
+     * -
+     * Stream 占用着数据库连接，必须关闭，一般放在 try-with-resources 中 :
+     * try (Stream<Map<String, Object>> rows = JdbcTemplateUtils.queryForStreamByNativeSqlString(jdbcTemplate, dialect, sql, args, new ColumnMapRowMapper())) {
+     * rows.forEach(row -> writer.write(row));
+     * }
+     * 在 spring 事务中调用时，使用事务的连接，关闭 Stream 时不关闭连接 ; 没有在事务中时，读取期间关闭连接的 autoCommit ，关闭 Stream 时恢复。
+     *
+     * @param jdbcTemplate
+     * @param dbDialect
+     * @param queryNativeSql
+     * @param queryArgs
+     * @param rowMapper
+     * @param <T>
+     * @return 需要关闭的 Stream
+     */
+    public static <T> Stream<T> queryForStreamByNativeSqlString(final JdbcTemplate jdbcTemplate, final SqlUtils.Dialect dbDialect,
+                                                                final String queryNativeSql, Object[] queryArgs,
+                                                                RowMapper<T> rowMapper) {
+
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        Assert.notNull(dataSource, "jdbcTemplate 没有设置 DataSource");
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        boolean autoCommitDisabled = false;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try {
+            autoCommitDisabled = disableAutoCommit(connection);
+            statement = createStreamingStatementCreator(queryNativeSql, getStreamingFetchSize(dbDialect)).createPreparedStatement(connection);
+            new ArgumentPreparedStatementSetter(queryArgs).setValues(statement);
+            rs = statement.executeQuery();
+        } catch (SQLException e) {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(statement);
+            if (autoCommitDisabled)
+                restoreAutoCommit(connection);
+            DataSourceUtils.releaseConnection(connection, dataSource);
+            throw jdbcTemplate.getExceptionTranslator().translate("queryForStream", queryNativeSql, e);
+        }
+
+        final boolean restoreAutoCommit = autoCommitDisabled;
+        final PreparedStatement openStatement = statement;
+        final ResultSet openResultSet = rs;
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int rowNum = 0;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!openResultSet.next())
+                        return false;
+                    action.accept(rowMapper.mapRow(openResultSet, rowNum++));
+                    return true;
+                } catch (SQLException e) {
+                    throw jdbcTemplate.getExceptionTranslator().translate("queryForStream", queryNativeSql, e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> {
+            JdbcUtils.closeResultSet(openResultSet);
+            JdbcUtils.closeStatement(openStatement);
+            if (restoreAutoCommit)
+                restoreAutoCommit(connection);
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        });
+    }
+
+    /**
+     * 没有在 spring 事务中时，关闭连接的 autoCommit : postgresql 只有在事务中 fetchSize 才有效，否则一次取回全部结果
+     * 在事务中时，autoCommit 由事务管理，不修改
+     *
+     * @param connection
+     * @return 是否修改了 autoCommit ，需要在读取结束后调用 restoreAutoCommit
+     * @throws SQLException
+     */
+    private static boolean disableAutoCommit(Connection connection) throws SQLException {
+        if (TransactionSynchronizationManager.isActualTransactionActive() || !connection.getAutoCommit())
+            return false;
+        connection.setAutoCommit(false);
+        return true;
+    }
+
+    /**
+     * 结束读取时的事务 (只读，回滚即可)，恢复 autoCommit ，之后连接才能归还连接池
+     *
+     * @param connection
+     */
+    private static void restoreAutoCommit(Connection connection) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("restore autoCommit failed", e);
+        }
+    }
+
+    /**
+     * 逐行读取时的 fetchSize
+     * mysql 驱动只有 fetchSize 为 Integer.MIN_VALUE 时才逐行读取 (或者 url 中设置 useCursorFetch=true)，否则会把全部结果读入内存 ;
+     * 其他数据库为 DEFAULT_STREAMING_FETCH_SIZE (oracle 默认只有 10 行，每 10 行一次网络往返)
+     *
+     * @param dbDialect
+     * @return
+     */
+    public static int getStreamingFetchSize(final SqlUtils.Dialect dbDialect) {
+        return dbDialect == SqlUtils.Dialect.MySql ? Integer.MIN_VALUE : DEFAULT_STREAMING_FETCH_SIZE;
+    }
+
+    /**
+     * 只进、只读游标
+     */
+    private static PreparedStatementCreator createStreamingStatementCreator(final String queryNativeSql, final int fetchSize) {
+        return connection -> {
+            PreparedStatement statement = connection.prepareStatement(queryNativeSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            return statement;
+        };
+    }
+
+}
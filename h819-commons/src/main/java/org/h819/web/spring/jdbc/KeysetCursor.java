@@ -0,0 +1,198 @@
+package org.h819.web.spring.jdbc;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Description : TODO(keyset (seek) 分页的游标)
+ * -
+ * offset 分页 (limit / rownum / offset)，翻到第 n 页时，数据库需要先扫描并丢弃前面 n-1 页的记录，页数越大越慢。
+ * keyset 分页记住上一页最后一行的排序字段的值，下一页的查询条件为 (排序字段, id) > (上一页最后一行的值)，可以直接利用索引定位，每一页的耗时基本相同。
+ * -
+ * 游标就是上一页最后一行排序字段的值，编码为字符串返回给前端，前端请求下一页时原样传回。
+ * 游标中包含了排序条件的摘要，排序条件变化后，原来的游标不能再使用。
+ * -
+ * 排序字段的值支持 字符串、数字、日期和 null 。null 在排序中的位置由数据库决定，查询条件见 SqlUtils.getNativeKeysetPageSqlTemplate
+ * 日期编码为 ISO 格式的文本，保留纳秒 : 否则 Timestamp 的纳秒被截断，游标比上一页最后一行小，下一页会重复该行。
+ * java.util.Date 解析为 Timestamp ; java.time 的类型解析为原来的类型，作为查询参数时和实体属性的类型一致。
+ * 标准 jdk ，不引入第三方 lib
+ */
+public class KeysetCursor {
+
+    private static final char SEPARATOR = '.';
+    private static final char TYPE_STRING = 's';
+    private static final char TYPE_LONG = 'l';
+    private static final char TYPE_DECIMAL = 'n';
+    private static final char TYPE_TIMESTAMP = 't';
+    private static final char TYPE_INSTANT = 'i';
+    private static final char TYPE_LOCAL_DATE = 'd';
+    private static final char TYPE_LOCAL_TIME = 'h';
+    private static final char TYPE_LOCAL_DATE_TIME = 'm';
+    private static final char TYPE_OFFSET_DATE_TIME = 'o';
+    private static final char TYPE_ZONED_DATE_TIME = 'x';
+    private static final char TYPE_NULL = 'z';
+
+    /**
+     * 仅通过静态方法调用
+     */
+    private KeysetCursor() {
+    }
+
+    /**
+     * 排序条件中没有唯一字段时，排序值相同的记录先后顺序不确定，keyset 分页会漏掉或者重复记录。
+     * 所以在排序条件最后追加唯一字段(一般为主键 id)，保证顺序唯一。
+     *
+     * @param orders   排序条件，可以为空
+     * @param idColumn 唯一字段
+     * @return 新的排序条件，orders 中已经包含唯一字段时，不再追加
+     */
+    public static List<Order> createKeysetOrders(List<Order> orders, String idColumn) {
+        List<Order> keysetOrders = new ArrayList<>(orders.size() + 1);
+        boolean hasId = false;
+        for (Order order : orders) {
+            keysetOrders.add(order);
+            if (order.getProperty().equalsIgnoreCase(idColumn))
+                hasId = true;
+        }
+        if (!hasId)
+            keysetOrders.add(new Order(idColumn, Order.Direction.ASC));
+        return keysetOrders;
+    }
+
+    /**
+     * 把上一页最后一行排序字段的值编码为游标
+     *
+     * @param orders 排序条件，应该包含唯一字段，见 createKeysetOrders
+     * @param values 上一页最后一行排序字段的值，和 orders 一一对应，可以为 null
+     * @return
+     */
+    public static String encode(List<Order> orders, Object[] values) {
+
+        if (orders.size() != values.length)
+            throw new IllegalArgumentException("values 和 orders 的数量不一致");
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(Integer.toHexString(signature(orders)));
+        for (Object value : values) {
+            builder.append(SEPARATOR);
+            if (value == null)
+                builder.append(TYPE_NULL);
+            else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+                builder.append(TYPE_LONG).append(encodeString(value.toString()));
+            else if (value instanceof Number)
+                builder.append(TYPE_DECIMAL).append(encodeString(new BigDecimal(value.toString()).toPlainString()));
+            else if (value instanceof Timestamp) // Date.getTime() 只有毫秒
+                builder.append(TYPE_TIMESTAMP).append(encodeString(((Timestamp) value).toInstant().toString()));
+            else if (value instanceof Date) // java.sql.Date 不支持 toInstant()
+                builder.append(TYPE_TIMESTAMP).append(encodeString(Instant.ofEpochMilli(((Date) value).getTime()).toString()));
+            else if (value instanceof Instant)
+                builder.append(TYPE_INSTANT).append(encodeString(value.toString()));
+            else if (value instanceof LocalDate)
+                builder.append(TYPE_LOCAL_DATE).append(encodeString(value.toString()));
+            else if (value instanceof LocalTime)
+                builder.append(TYPE_LOCAL_TIME).append(encodeString(value.toString()));
+            else if (value instanceof LocalDateTime)
+                builder.append(TYPE_LOCAL_DATE_TIME).append(encodeString(value.toString()));
+            else if (value instanceof OffsetDateTime)
+                builder.append(TYPE_OFFSET_DATE_TIME).append(encodeString(value.toString()));
+            else if (value instanceof ZonedDateTime)
+                builder.append(TYPE_ZONED_DATE_TIME).append(encodeString(value.toString()));
+            else
+                builder.append(TYPE_STRING).append(encodeString(value.toString()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param orders 排序条件，需要和生成游标时相同
+     * @param cursor 前端传回的游标
+     * @return 上一页最后一行排序字段的值，和 orders 一一对应，其中可能有 null ; cursor 为 null 或空时，返回 null ，表示从第一行开始
+     * @throws IllegalArgumentException 游标格式错误，或者排序条件已经变化
+     */
+    public static Object[] decode(List<Order> orders, String cursor) {
+
+        if (cursor == null || cursor.isEmpty())
+            return null;
+
+        String[] tokens = cursor.split("\\" + SEPARATOR);
+        if (tokens.length != orders.size() + 1 || !tokens[0].equals(Integer.toHexString(signature(orders))))
+            throw new IllegalArgumentException("游标无效或者排序条件已经变化 : " + cursor);
+
+        Object[] values = new Object[orders.size()];
+        try {
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].isEmpty())
+                    throw new IllegalArgumentException("游标无效 : " + cursor);
+                String value = decodeString(tokens[i].substring(1));
+                switch (tokens[i].charAt(0)) {
+                    case TYPE_LONG:
+                        values[i - 1] = Long.valueOf(value);
+                        break;
+                    case TYPE_DECIMAL:
+                        values[i - 1] = new BigDecimal(value);
+                        break;
+                    case TYPE_TIMESTAMP:
+                        values[i - 1] = Timestamp.from(Instant.parse(value));
+                        break;
+                    case TYPE_INSTANT:
+                        values[i - 1] = Instant.parse(value);
+                        break;
+                    case TYPE_LOCAL_DATE:
+                        values[i - 1] = LocalDate.parse(value);
+                        break;
+                    case TYPE_LOCAL_TIME:
+                        values[i - 1] = LocalTime.parse(value);
+                        break;
+                    case TYPE_LOCAL_DATE_TIME:
+                        values[i - 1] = LocalDateTime.parse(value);
+                        break;
+                    case TYPE_OFFSET_DATE_TIME:
+                        values[i - 1] = OffsetDateTime.parse(value);
+                        break;
+                    case TYPE_ZONED_DATE_TIME:
+                        values[i - 1] = ZonedDateTime.parse(value);
+                        break;
+                    case TYPE_STRING:
+                        values[i - 1] = value;
+                        break;
+                    case TYPE_NULL:
+                        if (!value.isEmpty())
+                            throw new IllegalArgumentException("游标无效 : " + cursor);
+                        values[i - 1] = null;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("游标无效 : " + cursor);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeException e) { // NumberFormatException 也是 IllegalArgumentException ; DateTimeParseException 是 DateTimeException
+            throw new IllegalArgumentException("游标无效 : " + cursor, e);
+        }
+        return values;
+    }
+
+    /**
+     * 排序条件的摘要，用于检查游标和排序条件是否匹配
+     */
+    private static int signature(List<Order> orders) {
+        StringBuilder builder = new StringBuilder();
+        for (Order order : orders)
+            builder.append(order.getProperty().toLowerCase()).append(' ').append(order.getDirection()).append(',');
+        return builder.toString().hashCode();
+    }
+
+    private static String encodeString(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeString(String value) {
+        return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+}
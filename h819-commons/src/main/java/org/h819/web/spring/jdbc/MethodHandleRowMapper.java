@@ -0,0 +1,360 @@
+package org.h819.web.spring.jdbc;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Description : TODO(代替 BeanPropertyRowMapper 的 RowMapper ，列和属性的对应关系预先生成，setter 为 MethodHandle)
+ * -
+ * BeanPropertyRowMapper 每次查询都要 new 一个，重新解析 bean 的属性 ; 每一行都要通过 BeanWrapper 按属性名称查找、反射调用 setter ，基本类型还要装箱。
+ * 本类 :
+ * 1. 按类缓存 bean 的属性 : 无参构造方法和 setter 转换为 MethodHandle ;
+ * 2. 按 (类, 查询结果的列) 缓存映射计划 : 第几列 -> 哪个 setter ，每个查询只在读取第一行时查找一次 ;
+ * 3. 基本类型的属性用 rs.getInt / getLong ... 读取，通过 (Object,int)void 等形式的 MethodHandle 直接赋值，不装箱。
+ * -
+ * 列名和属性名称的对应规则和 BeanPropertyRowMapper 相同 : 不区分大小写，下划线分隔的列名对应驼峰属性 (user_name -> userName)，没有对应属性的列忽略。
+ * 和 BeanPropertyRowMapper 的区别 : 列的值为 null 时，基本类型的属性保留默认值，不抛出异常。
+ * -
+ * 用法 : jdbcTemplate.query(sql, args, MethodHandleRowMapper.of(UserBean.class));
+ * 性能比较见 MethodHandleRowMapperBenchmark
+ * -
+ * 实例很轻，只记录当前 ResultSet 使用的映射计划，一个查询使用一个实例 (同 BeanPropertyRowMapper)，不要在多个线程中同时使用。
+ *
+ * @param <T>
+ */
+public class MethodHandleRowMapper<T> implements RowMapper<T> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // 类的属性，类的结构在运行期不会变化，所以不会失效
+    private static final ConcurrentMap<Class<?>, BeanSetters> SETTERS = new ConcurrentHashMap<>();
+    // (类, 列名) -> 映射计划，查询语句是有限的，列的组合也是有限的
+    private static final ConcurrentMap<PlanKey, Column[]> PLANS = new ConcurrentHashMap<>();
+
+    private final Class<T> mappedClass;
+    private final BeanSetters setters;
+
+    // 当前 ResultSet 的映射计划
+    private ResultSet currentResultSet;
+    private Column[] currentPlan;
+
+    private MethodHandleRowMapper(Class<T> mappedClass) {
+        this.mappedClass = mappedClass;
+        this.setters = SETTERS.computeIfAbsent(mappedClass, BeanSetters::new);
+    }
+
+    /**
+     * @param mappedClass 需要有无参构造方法
+     * @param <T>
+     * @return 新的 RowMapper ，类的属性和映射计划从缓存中获取
+     */
+    public static <T> MethodHandleRowMapper<T> of(Class<T> mappedClass) {
+        return new MethodHandleRowMapper<>(mappedClass);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+
+        if (rs != currentResultSet) {
+            currentPlan = getPlan(rs.getMetaData());
+            currentResultSet = rs;
+        }
+
+        Object bean = setters.newInstance();
+        try {
+            for (Column column : currentPlan)
+                column.read(rs, bean);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) { // setter 中抛出的异常
+            throw new InvalidDataAccessApiUsageException("无法为 " + mappedClass.getName() + " 赋值", e);
+        }
+        return (T) bean;
+    }
+
+    private Column[] getPlan(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        String[] columnNames = new String[count];
+        for (int i = 0; i < count; i++)
+            columnNames[i] = StringUtils.delete(JdbcUtils.lookupColumnName(metaData, i + 1), " ").toLowerCase();
+        return PLANS.computeIfAbsent(new PlanKey(mappedClass, columnNames), key -> setters.createPlan(key.columnNames));
+    }
+
+    /**
+     * 一个类的无参构造方法和 setter
+     */
+    private static final class BeanSetters {
+
+        private final Class<?> beanClass;
+        private final MethodHandle constructor;
+        // 小写的属性名称、小写下划线形式的属性名称 -> setter
+        private final Map<String, PropertyDescriptor> properties = new HashMap<>();
+
+        private BeanSetters(Class<?> beanClass) {
+            this.beanClass = beanClass;
+            this.constructor = toConstructor(beanClass);
+            for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(beanClass)) {
+                if (descriptor.getWriteMethod() == null)
+                    continue;
+                properties.put(descriptor.getName().toLowerCase(), descriptor);
+                properties.put(underscoreName(descriptor.getName()), descriptor);
+            }
+        }
+
+        private Object newInstance() {
+            try {
+                return constructor.invokeExact();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new InvalidDataAccessApiUsageException("无法创建 " + beanClass.getName(), e);
+            }
+        }
+
+        private Column[] createPlan(String[] columnNames) {
+            List<Column> columns = new ArrayList<>(columnNames.length);
+            for (int i = 0; i < columnNames.length; i++) {
+                PropertyDescriptor descriptor = properties.get(columnNames[i]);
+                if (descriptor == null)
+                    descriptor = properties.get(columnNames[i].replace("_", ""));
+                if (descriptor != null)
+                    columns.add(Column.create(i + 1, descriptor.getPropertyType(), descriptor.getWriteMethod()));
+            }
+            return columns.toArray(new Column[0]);
+        }
+
+        /**
+         * userName -> user_name ，同 BeanPropertyRowMapper
+         */
+        private static String underscoreName(String name) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (Character.isUpperCase(c))
+                    result.append('_').append(Character.toLowerCase(c));
+                else
+                    result.append(c);
+            }
+            return result.toString();
+        }
+
+        private static MethodHandle toConstructor(Class<?> beanClass) {
+            try {
+                Constructor<?> ctor = beanClass.getDeclaredConstructor();
+                ReflectionUtils.makeAccessible(ctor);
+                return LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException ex) {
+                throw new InvalidDataAccessApiUsageException(beanClass + " 没有无参构造方法", ex);
+            }
+        }
+    }
+
+    /**
+     * 读取一列并赋值给 bean 的属性，按属性类型生成，基本类型不装箱
+     */
+    private abstract static class Column {
+
+        final int index;
+        final MethodHandle setter;
+
+        private Column(int index, MethodHandle setter) {
+            this.index = index;
+            this.setter = setter;
+        }
+
+        abstract void read(ResultSet rs, Object bean) throws Throwable;
+
+        static Column create(int index, Class<?> type, Method writeMethod) {
+            MethodHandle setter;
+            try {
+                ReflectionUtils.makeAccessible(writeMethod);
+                setter = LOOKUP.unreflect(writeMethod);
+            } catch (IllegalAccessException ex) {
+                throw new InvalidDataAccessApiUsageException(writeMethod + " 无法访问", ex);
+            }
+            // setter 转换为 (Object, 属性类型)void ，基本类型保持不变
+            MethodHandle typed = setter.asType(MethodType.methodType(void.class, Object.class, type.isPrimitive() ? type : Object.class));
+
+            if (type == int.class)
+                return new IntColumn(index, typed);
+            if (type == long.class)
+                return new LongColumn(index, typed);
+            if (type == double.class)
+                return new DoubleColumn(index, typed);
+            if (type == boolean.class)
+                return new BooleanColumn(index, typed);
+            if (type == float.class)
+                return new FloatColumn(index, typed);
+            if (type == short.class)
+                return new ShortColumn(index, typed);
+            if (type == byte.class)
+                return new ByteColumn(index, typed);
+            if (type == char.class) // 没有 getChar ，读取为 Character ，null 时保留默认值
+                return new ObjectColumn(index, setter.asType(MethodType.methodType(void.class, Object.class, Object.class)), Character.class, true);
+            return new ObjectColumn(index, typed, type, false);
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private IntColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            int value = rs.getInt(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private LongColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            long value = rs.getLong(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private DoubleColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            double value = rs.getDouble(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class FloatColumn extends Column {
+        private FloatColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            float value = rs.getFloat(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        private BooleanColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            boolean value = rs.getBoolean(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class ShortColumn extends Column {
+        private ShortColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            short value = rs.getShort(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class ByteColumn extends Column {
+        private ByteColumn(int index, MethodHandle setter) {
+            super(index, setter);
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            byte value = rs.getByte(index);
+            if (!rs.wasNull())
+                setter.invokeExact(bean, value);
+        }
+    }
+
+    /**
+     * 对象类型的属性 : 按属性类型读取 (同 BeanPropertyRowMapper 使用的 JdbcUtils.getResultSetValue)，类型不一致时转换
+     */
+    private static final class ObjectColumn extends Column {
+
+        private final Class<?> type;
+        private final boolean skipNull;
+
+        private ObjectColumn(int index, MethodHandle setter, Class<?> type, boolean skipNull) {
+            super(index, setter);
+            this.type = type;
+            this.skipNull = skipNull;
+        }
+
+        @Override
+        void read(ResultSet rs, Object bean) throws Throwable {
+            Object value = JdbcUtils.getResultSetValue(rs, index, type);
+            if (value == null && skipNull)
+                return;
+            if (value != null && !type.isInstance(value))
+                value = DefaultConversionService.getSharedInstance().convert(value, type);
+            setter.invokeExact(bean, value);
+        }
+    }
+
+    private static final class PlanKey {
+
+        private final Class<?> mappedClass;
+        private final String[] columnNames;
+        private final int hash;
+
+        private PlanKey(Class<?> mappedClass, String[] columnNames) {
+            this.mappedClass = mappedClass;
+            this.columnNames = columnNames;
+            this.hash = 31 * mappedClass.hashCode() + Arrays.hashCode(columnNames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof PlanKey))
+                return false;
+            PlanKey key = (PlanKey) o;
+            return mappedClass == key.mappedClass && Arrays.equals(columnNames, key.columnNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
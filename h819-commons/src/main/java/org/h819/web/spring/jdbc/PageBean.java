@@ -57,6 +57,18 @@ public class PageBean<T> implements Serializable {
      */
     private Map<String, Object> userdata;
 
+    /**
+     * keyset 分页时，下一页的游标，请求下一页时原样传回，见 KeysetCursor
+     * 没有下一页，或者不是 keyset 分页时为 null
+     */
+    private String cursor;
+
+    /**
+     * 是否有下一页
+     * 不计算总数 (totalRecords = -1) 时，通过多取一行判断，见 JdbcTemplateUtils.querySlicePage* 方法
+     */
+    private boolean hasNext;
+
     /**
      * 必须以有参构造方法生成，强制输入相关参数，避免输入错误
      */
@@ -99,6 +111,7 @@ public class PageBean<T> implements Serializable {
             totalTemp++;
         }
         totalPages = totalTemp;
+        hasNext = currentPageNo < totalPages;
     }
 
     public int getCurrentPageNo() {
@@ -133,4 +146,20 @@ public class PageBean<T> implements Serializable {
     public void setContent(List<T> content) {
         this.content = content;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    public void setHasNext(boolean hasNext) {
+        this.hasNext = hasNext;
+    }
 }
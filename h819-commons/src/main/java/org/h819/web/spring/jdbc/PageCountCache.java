@@ -0,0 +1,143 @@
+package org.h819.web.spring.jdbc;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Description : TODO(分页查询的总数缓存)
+ * -
+ * 分页查询每一页都要执行一次 count(*) ，而用户在表格中翻页时，查询条件不变，总数也基本不变。
+ * 本类按 (命名空间, 查询条件) 缓存总数：
+ * 1. 命名空间 : 一般为表名或者 entity 类名，数据修改后按命名空间清除，见 invalidate ;
+ * 2. 查询条件 : 规范化后的 count 语句和参数，由调用者生成，见 JdbcTemplateUtils , JpaUtils ;
+ * 3. 过期时间 : 写入后超过 ttl 自动过期，没有调用 invalidate 的修改 (如其他系统直接修改数据库)，最多在 ttl 之后反映出来。
+ * -
+ * 每个命名空间有一个版本号，invalidate 时增加版本号，正在计算中的旧版本的总数不会被之后的查询使用。
+ * 线程安全，一般作为单例使用 (如 spring bean)。
+ */
+@Slf4j
+public class PageCountCache {
+
+    private final Cache<Key, Integer> counts;
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl         写入后的有效时间
+     * @param unit        ttl 单位
+     * @param maximumSize 最多缓存的总数个数
+     */
+    public PageCountCache(long ttl, TimeUnit unit, long maximumSize) {
+        this.counts = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, unit)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取总数，没有缓存时调用 loader 计算并缓存
+     *
+     * @param namespace 命名空间，一般为表名或者 entity 类名
+     * @param query     规范化后的查询条件，相同的查询条件应该得到相同的字符串
+     * @param loader    计算总数，如 jdbcTemplate.queryForObject(countNativeSql, countArgs, Integer.class)
+     * @return
+     */
+    public int getCount(String namespace, String query, Supplier<Integer> loader) {
+        Key key = new Key(namespace, getVersion(namespace).get(), query);
+        try {
+            return counts.get(key, loader::get);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 命名空间中的数据修改后调用，清除该命名空间的所有总数
+     *
+     * @param namespace
+     */
+    public void invalidate(String namespace) {
+        getVersion(namespace).incrementAndGet();
+        counts.asMap().keySet().removeIf(key -> key.namespace.equals(namespace));
+        log.debug("page count invalidated , namespace={}", namespace);
+    }
+
+    /**
+     * 清除 entity 对应的总数，命名空间为 entity 类名，见 JpaUtils
+     *
+     * @param entityClass
+     */
+    public void invalidate(Class<?> entityClass) {
+        invalidate(entityClass.getName());
+    }
+
+    /**
+     * 清除所有总数
+     */
+    public void invalidateAll() {
+        for (AtomicLong version : versions.values())
+            version.incrementAndGet();
+        counts.invalidateAll();
+    }
+
+    /**
+     * @return 命中、未命中等统计
+     */
+    public CacheStats stats() {
+        return counts.stats();
+    }
+
+    /**
+     * 用于 micrometer 等监控，如 GuavaCacheMetrics.monitor(registry, pageCountCache.getCache(), "page.count")
+     *
+     * @return
+     */
+    public Cache<?, ?> getCache() {
+        return counts;
+    }
+
+    private AtomicLong getVersion(String namespace) {
+        return versions.computeIfAbsent(namespace, ns -> new AtomicLong());
+    }
+
+    private static final class Key {
+
+        private final String namespace;
+        private final long version;
+        private final String query;
+
+        private Key(String namespace, long version, String query) {
+            this.namespace = namespace;
+            this.version = version;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return version == key.version && namespace.equals(key.namespace) && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(namespace, version, query);
+        }
+    }
+}
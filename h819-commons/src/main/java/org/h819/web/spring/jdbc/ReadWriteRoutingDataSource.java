@@ -0,0 +1,296 @@
+package org.h819.web.spring.jdbc;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description : TODO(读写分离的数据源，只读事务使用从库，其他使用主库)
+ * -
+ * 路由规则 :
+ * 1. 当前线程在只读事务中 (@Transactional(readOnly = true))，使用从库 ; 其他 (读写事务、没有事务) 使用主库 ;
+ * 2. 多个从库时，选择正在使用的连接数最少的从库 (least outstanding requests)，连接关闭时计数减少 ;
+ * 3. 从库延迟 (由 lagQuery 查询) 超过 maxLagMillis 、查询延迟出错、或者从库取连接出错时，该从库不参与选择 ; 没有可用的从库时使用主库。
+ * -
+ * 注意 : 必须用 LazyConnectionDataSourceProxy 包装后再交给事务管理器 (见 wrap 方法) :
+ * 事务管理器开始事务时就取连接，此时只读标记 (TransactionSynchronizationManager.isCurrentTransactionReadOnly) 还没有设置，
+ * LazyConnectionDataSourceProxy 延迟到执行第一条语句时才取实际的连接，此时才能判断事务是否只读。
+ * -
+ * 延迟检查 :
+ * lagQuery 在从库上执行，返回延迟的秒数 (一行一列，可以是小数)，返回 null 或者没有结果时认为不可用，如
+ * mysql  : 从库监控表 (heartbeat) 或者 show slave status 的 Seconds_Behind_Master (需要自己转换为查询语句)
+ * postgresql : select extract(epoch from now() - pg_last_xact_replay_timestamp())
+ * lagQuery 为 null 时不检查延迟，只检查从库是否可以连接。
+ * 后台线程每隔 checkIntervalMillis 检查一次，也可以调用 checkReplicas 立即检查。
+ * -
+ * 用法 :
+ * ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, Arrays.asList(replica1, replica2), lagQuery, 5000, 1000);
+ * routing.start();
+ * DataSource dataSource = ReadWriteRoutingDataSource.wrap(routing); // 交给 jpa / JdbcTemplate / 事务管理器使用
+ * 关闭时调用 routing.close() ，停止检查线程，并关闭主库、从库的连接池 (实现了 AutoCloseable 的数据源)。
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final String lagQuery;
+    private final long maxLagMillis;
+    private final long checkIntervalMillis;
+
+    private ScheduledExecutorService checker;
+
+    /**
+     * @param primary             主库
+     * @param replicas            从库
+     * @param lagQuery            查询从库延迟秒数的语句，为 null 时不检查延迟
+     * @param maxLagMillis        最大允许的延迟，超过时不使用该从库
+     * @param checkIntervalMillis 检查从库延迟的间隔
+     */
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, String lagQuery, long maxLagMillis, long checkIntervalMillis) {
+        Assert.notNull(primary, "primary : 主库不能为 null");
+        Assert.notNull(replicas, "replicas : 从库不能为 null");
+        Assert.isTrue(checkIntervalMillis > 0, "checkIntervalMillis : 检查间隔应大于 0");
+
+        this.primary = primary;
+        List<Replica> list = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++)
+            list.add(new Replica("replica-" + i, replicas.get(i)));
+        this.replicas = Collections.unmodifiableList(list);
+        this.lagQuery = lagQuery;
+        this.maxLagMillis = maxLagMillis;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * 包装为延迟取连接的数据源，交给事务管理器使用，原因见类注释
+     *
+     * @param routing
+     * @return
+     */
+    public static DataSource wrap(ReadWriteRoutingDataSource routing) {
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    /**
+     * 立即检查一次从库，之后启动后台线程定时检查
+     */
+    public synchronized void start() {
+        if (checker != null || replicas.isEmpty())
+            return;
+        checkReplicas();
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkReplicas, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止检查线程，关闭主库、从库的连接池
+     */
+    @Override
+    public synchronized void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+            checker = null;
+        }
+        closeQuietly(primary);
+        for (Replica replica : replicas)
+            closeQuietly(replica.dataSource);
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        if (!(dataSource instanceof AutoCloseable))
+            return;
+        try {
+            ((AutoCloseable) dataSource).close();
+        } catch (Exception e) {
+            log.warn("close datasource failed : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 检查所有从库的延迟和连接
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas)
+            replica.check();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!isReadOnlyRoute())
+            return primary.getConnection();
+        return getReadOnlyConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (!isReadOnlyRoute())
+            return primary.getConnection(username, password);
+        return getReadOnlyConnection(username, password);
+    }
+
+    /**
+     * 当前线程是否使用从库
+     */
+    protected boolean isReadOnlyRoute() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    /**
+     * 依次尝试可用的从库 (连接数少的优先)，都不可用时使用主库
+     */
+    private Connection getReadOnlyConnection(String username, String password) throws SQLException {
+        List<Replica> candidates = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas)
+            if (replica.available)
+                candidates.add(replica);
+
+        while (!candidates.isEmpty()) {
+            Replica replica = candidates.get(0);
+            for (Replica candidate : candidates)
+                if (candidate.outstanding.get() < replica.outstanding.get())
+                    replica = candidate;
+            candidates.remove(replica);
+
+            try {
+                return replica.getConnection(username, password);
+            } catch (SQLException e) {
+                replica.markUnavailable(e);
+            }
+        }
+
+        log.debug("no replica available , read only transaction uses primary");
+        return username == null ? primary.getConnection() : primary.getConnection(username, password);
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return 从库状态，用于监控
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * 从库及其状态
+     */
+    public final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        // 正在使用的连接数
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean available = true;
+        // 最近一次检查到的延迟，-1 表示未知
+        private volatile long lagMillis = -1;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        public long getLagMillis() {
+            return lagMillis;
+        }
+
+        private Connection getConnection(String username, String password) throws SQLException {
+            Connection connection = username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+            outstanding.incrementAndGet();
+            return countingConnection(connection);
+        }
+
+        /**
+         * 连接关闭时减少计数，只减少一次
+         */
+        private Connection countingConnection(Connection target) {
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                if (method.getName().equals("close") && closed.compareAndSet(false, true))
+                    outstanding.decrementAndGet();
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            });
+        }
+
+        private void check() {
+            try (Connection connection = dataSource.getConnection()) {
+                if (lagQuery == null) {
+                    boolean valid = connection.isValid(1);
+                    lagMillis = valid ? 0 : -1;
+                    setAvailable(valid, valid ? "connection valid" : "connection invalid");
+                    return;
+                }
+                try (Statement statement = connection.createStatement();
+                     ResultSet rs = statement.executeQuery(lagQuery)) {
+                    Number seconds = rs.next() ? (Number) rs.getObject(1) : null;
+                    if (seconds == null) {
+                        lagMillis = -1;
+                        setAvailable(false, "lag unknown");
+                    } else {
+                        lagMillis = (long) (seconds.doubleValue() * 1000);
+                        setAvailable(lagMillis <= maxLagMillis, "lag " + lagMillis + " ms");
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                markUnavailable(e);
+            }
+        }
+
+        private void markUnavailable(Exception e) {
+            lagMillis = -1;
+            setAvailable(false, e.getMessage());
+        }
+
+        private void setAvailable(boolean available, String reason) {
+            if (this.available != available)
+                log.warn("{} {} : {}", name, available ? "available" : "unavailable", reason);
+            this.available = available;
+        }
+    }
+}
@@ -1,35 +1,109 @@
 package org.h819.web.spring.jdbc;
 
-import java.text.MessageFormat;
-import java.util.List;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.*;
 
 
 /**
- * Sql 工具类，标准 jdk ，不引入第三方 lib
+ * Sql 工具类
  * 需要注意的是 MessageFormat.format 会去掉 ''
  * 所以 sql 语句需要以参数形式传入，不能直接连接，见 createSqlString 方法注释
+ * 分页语句 (包括 keyset 分页) 不用 MessageFormat ，预先拆分为模板并缓存，见 PageSqlTemplate
  */
 
 public class SqlUtils {
     /**
      * 分页SQL，仅测试了 oracle
-     * 通过数据库分页，在满足条件的所有结果中截取一夜数据，所以传入的查询参数 {0} 是不分页时候的查询条件
+     * 通过数据库分页，在满足条件的所有结果中截取一页数据，所以传入的查询语句是不分页时候的查询条件
+     * 预先拆分为片段，见 PageSqlTemplate : String 为原样输出的 sql ，PageParam 为查询语句或者分页参数
      */
-    private static final String MYSQL_PAGE_SQL = "select * from ({0}) sel_tab00 limit {1},{2}"; // mysql
-    private static final String POSTGRE_PAGE_SQL = "select * from ({0}) sel_tab00 limit {2} offset {1}";// postgresql
+    private static final Object[] MYSQL_PAGE_SQL = {"select * from (", PageParam.QUERY, ") sel_tab00 limit ", PageParam.OFFSET, ",", PageParam.LIMIT}; // mysql
+    private static final Object[] POSTGRE_PAGE_SQL = {"select * from (", PageParam.QUERY, ") sel_tab00 limit ", PageParam.LIMIT, " offset ", PageParam.OFFSET};// postgresql
     // 此种方法为通用方法，也是标准写法，很多开源项目 如 jfinal 等分页语句，均是此种写法
-    private static final String ORACLE_PAGE_SQL = "select * from (\n" +
+    private static final Object[] ORACLE_PAGE_SQL = {"select * from (\n" +
             "  select rownum row_num, subq.* \n" +
             "  from \n" +
-            "    ({0}) subq\n" +
-            "     where rownum <= {1}) \n" +
-            "where row_num > {2}"; // oracle
+            "    (", PageParam.QUERY, ") subq\n" +
+            "     where rownum <= ", PageParam.END, ") \n" +
+            "where row_num > ", PageParam.OFFSET}; // oracle
+    // top 的参数为占位符时需要括号 ; PageParam.QUERY 为去掉 select (或 select distinct) 之后的部分
+    private static final Object[] SQLSERVER_PAGE_SQL = {"select * from ( select row_number() over(order by tempColumn) tempRowNumber, * from (select top (", PageParam.END,
+            ") tempColumn = 0, ", PageParam.QUERY, ") t ) tt where tempRowNumber > ", PageParam.OFFSET}; // sqlserver
 
-    private static final String SQLSERVER_PAGE_SQL = "select * from ( select row_number() over(order by tempColumn) tempRowNumber, * from (select top {1} tempColumn = 0, {0}) t ) tt where tempRowNumber > {2}"; // sqlserver
+    /**
+     * keyset 分页SQL，见 getNativeKeysetPageSqlTemplate
+     * PageParam.QUERY 为 select * from (查询条件) sel_tab00 where keyset 条件 order by 排序条件 ，只需要限制行数
+     */
+    private static final Object[] MYSQL_KEYSET_PAGE_SQL = {PageParam.QUERY, "limit ", PageParam.LIMIT}; // mysql
+    private static final Object[] POSTGRE_KEYSET_PAGE_SQL = {PageParam.QUERY, "limit ", PageParam.LIMIT};// postgresql
+    private static final Object[] ORACLE_KEYSET_PAGE_SQL = {"select * from (", PageParam.QUERY, ") where rownum <= ", PageParam.LIMIT}; // oracle
+    // PageParam.QUERY 为去掉 select 之后的部分
+    private static final Object[] SQLSERVER_KEYSET_PAGE_SQL = {"select top (", PageParam.LIMIT, ")", PageParam.QUERY}; // sqlserver
+
+    /**
+     * 每种数据库缓存的分页模板个数。分页的查询语句一般是有限的几个，超过时说明查询语句中拼接了参数值，按最近最少使用淘汰
+     */
+    private static final int MAX_PAGE_TEMPLATES = 1024;
+    private static final Map<Dialect, LoadingCache<String, PageSqlTemplate>> PAGE_TEMPLATES = new EnumMap<>(Dialect.class);
+    // keyset 分页模板，key 为 keyset 查询语句，见 getNativeKeysetPageSqlTemplate
+    private static final Map<Dialect, LoadingCache<String, PageSqlTemplate>> KEYSET_PAGE_TEMPLATES = new EnumMap<>(Dialect.class);
+
+    static {
+        for (Dialect dialect : Dialect.values()) {
+            PAGE_TEMPLATES.put(dialect, CacheBuilder.newBuilder().maximumSize(MAX_PAGE_TEMPLATES)
+                    .build(CacheLoader.from(sql -> new PageSqlTemplate(dialect, getPageSegments(dialect), sql))));
+            KEYSET_PAGE_TEMPLATES.put(dialect, CacheBuilder.newBuilder().maximumSize(MAX_PAGE_TEMPLATES)
+                    .build(CacheLoader.from(sql -> new PageSqlTemplate(dialect, getKeysetPageSegments(dialect), sql))));
+        }
+    }
 
     /**
-     * 构造数据库相关的本地分页查询语句
+     * 构造数据库相关的本地分页查询语句，分页参数为占位符，见 PageSqlTemplate
      * -
+     * 同一个查询语句翻页时，生成的 sql 相同，只是参数不同，数据库可以重用执行计划 (statement cache)。
+     * 模板按 (数据库类型, 查询语句) 缓存，同一个查询语句只解析一次。
+     * 用法 :
+     * PageSqlTemplate template = SqlUtils.getNativePageSqlTemplate(dialect, queryNativeSql);
+     * jdbcTemplate.query(template.getSql(), template.createPageArgs(queryArgs, currentPageNo, pageSize), rowMapper);
+     *
+     * @param dbDialect      数据库类型，数据库不同，分页语句不同
+     * @param queryNativeSql 本地查询条件，和不分页时相同，参数用占位符，不要直接拼接参数值，否则每个值都会生成一个模板
+     * @return
+     */
+    public static PageSqlTemplate getNativePageSqlTemplate(Dialect dbDialect, String queryNativeSql) {
+
+        return PAGE_TEMPLATES.get(dbDialect).getUnchecked(queryNativeSql);
+    }
+
+    private static Object[] getPageSegments(Dialect dbDialect) {
+        if (dbDialect.equals(Dialect.MySql))
+            return MYSQL_PAGE_SQL;
+        else if (dbDialect.equals(Dialect.PostgreSQL))
+            return POSTGRE_PAGE_SQL;
+        else if (dbDialect.equals(Dialect.Oracle))
+            return ORACLE_PAGE_SQL;
+        else
+            return SQLSERVER_PAGE_SQL;
+    }
+
+    private static Object[] getKeysetPageSegments(Dialect dbDialect) {
+        if (dbDialect.equals(Dialect.MySql))
+            return MYSQL_KEYSET_PAGE_SQL;
+        else if (dbDialect.equals(Dialect.PostgreSQL))
+            return POSTGRE_KEYSET_PAGE_SQL;
+        else if (dbDialect.equals(Dialect.Oracle))
+            return ORACLE_KEYSET_PAGE_SQL;
+        else
+            return SQLSERVER_KEYSET_PAGE_SQL;
+    }
+
+    /**
+     * 构造数据库相关的本地分页查询语句，分页参数为数值 (非占位符)
+     * -
+     * 每一页生成的 sql 都不同，数据库每次都要重新解析，分页查询尽量用 getNativePageSqlTemplate 。
      * 排序条件不在这里维护
      *
      * @param dbDialect      数据库类型，数据库不同，分页语句不同
@@ -43,42 +117,230 @@ public class SqlUtils {
      */
     public static String createNativePageSqlString(Dialect dbDialect, String queryNativeSql, int currentPageNo, int pageSize) {
 
+        checkPage(currentPageNo, pageSize);
+        return getNativePageSqlTemplate(dbDialect, queryNativeSql).toSqlString((currentPageNo - 1) * pageSize, pageSize);
+    }
+
+    /**
+     * 构造数据库相关的本地查询语句，从第 beginIndex 行 (从 0 开始) 开始，最多取 maxRows 行，分页参数为数值 (非占位符)
+     * -
+     * 和 createNativePageSqlString 相同，只是用行号代替页码，用于多取一行判断是否有下一页的情况
+     * 分页查询尽量用 getNativePageSqlTemplate ，见 PageSqlTemplate.createArgs
+     *
+     * @param dbDialect      数据库类型
+     * @param queryNativeSql 本地查询条件，同 createNativePageSqlString
+     * @param beginIndex     起始行，从 0 开始
+     * @param maxRows        最多返回的行数
+     * @return
+     */
+    public static String createNativeRangeSqlString(Dialect dbDialect, String queryNativeSql, int beginIndex, int maxRows) {
+
+        checkRange(beginIndex, maxRows);
+        return getNativePageSqlTemplate(dbDialect, queryNativeSql).toSqlString(beginIndex, maxRows);
+    }
+
+    private static void checkPage(int currentPageNo, int pageSize) {
         if (currentPageNo < 1)
             throw new IllegalArgumentException("currentPageNo : 起始页不应小于 1 ，且从 1 开始。");
 
         if (pageSize < 0)
             throw new IllegalArgumentException("pageSize : 页大小不能小于 0");
+    }
+
+    private static void checkRange(int beginIndex, int maxRows) {
+        if (beginIndex < 0)
+            throw new IllegalArgumentException("beginIndex : 起始行不应小于 0");
+
+        if (maxRows < 0)
+            throw new IllegalArgumentException("maxRows : 行数不能小于 0");
+    }
+
+    /**
+     * 构造数据库相关的本地 keyset (seek) 分页查询语句，页大小为占位符，见 PageSqlTemplate
+     * -
+     * offset 分页翻到很深的页时，数据库需要扫描并丢弃前面所有的记录。keyset 分页以上一页最后一行排序字段的值作为查询条件，如
+     * where (name, id) > (?, ?) order by name, id
+     * 有合适的索引时，每一页的耗时基本相同。代价是只能逐页向后翻，不能直接跳到任意一页。
+     * -
+     * 排序字段不同方向 (有 asc 也有 desc) 时，或者数据库不支持行值比较 (oracle , sql server) 时，展开为等价的条件
+     * where (name > ?) or (name = ? and id > ?)
+     * 占位符的值通过 createKeysetArgs 生成，顺序和这里的条件一致。
+     * -
+     * 排序字段可以为 null 。null 的排序位置按数据库的默认规则 : mysql , sql server 中 null 最小，oracle , postgresql 中 null 最大。
+     * 排在 null 之前的值，之后的条件要包含 null ，如 (name > ? or name is null) ; 游标中的值为 null 时，条件为 name is null / name is not null ，没有占位符。
+     * 行值比较不包含 null ，只在游标中没有 null ，并且 null 排在最前时使用。
+     * -
+     * 条件中只有占位符，同一个查询语句翻页时，只要游标中 null 的位置相同，生成的 sql 就相同。模板按 (数据库类型, keyset 查询语句) 缓存。
+     * 用法 :
+     * PageSqlTemplate template = SqlUtils.getNativeKeysetPageSqlTemplate(dialect, queryNativeSql, keysetOrders, cursorValues);
+     * jdbcTemplate.query(template.getSql(), template.createArgs(SqlUtils.createKeysetArgs(dialect, keysetOrders, queryArgs, cursorValues), 0, pageSize), rowMapper);
+     *
+     * @param dbDialect      数据库类型
+     * @param queryNativeSql 本地查询条件，和不分页时相同，不要包含排序条件
+     * @param keysetOrders   排序条件，最后一个应该是唯一字段，见 KeysetCursor.createKeysetOrders
+     *                       排序字段在外层查询中引用，所以应该是 queryNativeSql 结果集中的列名，形如 st.name 时，只取 name
+     * @param cursorValues   上一页最后一行排序字段的值，见 KeysetCursor.decode ，为 null 时表示第一页，不生成 keyset 条件
+     * @return 起始行固定为 0 ，createArgs 的 beginIndex 传入 0
+     */
+    public static PageSqlTemplate getNativeKeysetPageSqlTemplate(Dialect dbDialect, String queryNativeSql, List<Order> keysetOrders, Object[] cursorValues) {
+
+        if (keysetOrders.isEmpty())
+            throw new IllegalArgumentException("keysetOrders : keyset 分页必须有排序条件");
+
+        if (cursorValues != null && cursorValues.length != keysetOrders.size())
+            throw new IllegalArgumentException("cursorValues : 游标的值和排序条件的数量不一致");
+
+        String keysetSql = "select * from (" + queryNativeSql + ") sel_tab00 "
+                + (cursorValues != null ? "where " + createKeysetPredicateString(dbDialect, keysetOrders, cursorValues) + " " : "")
+                + createKeysetOrderString(keysetOrders);
+        return KEYSET_PAGE_TEMPLATES.get(dbDialect).getUnchecked(keysetSql);
+    }
+
+    /**
+     * 构造数据库相关的本地 keyset 分页查询语句，页大小为数值 (非占位符)，参数同 getNativeKeysetPageSqlTemplate
+     * -
+     * 每种页大小生成的 sql 都不同，分页查询尽量用 getNativeKeysetPageSqlTemplate 。
+     *
+     * @param pageSize 页大小
+     * @return
+     */
+    public static String createNativeKeysetPageSqlString(Dialect dbDialect, String queryNativeSql, List<Order> keysetOrders, Object[] cursorValues, int pageSize) {
+
+        if (pageSize < 0)
+            throw new IllegalArgumentException("pageSize : 页大小不能小于 0");
+
+        return getNativeKeysetPageSqlTemplate(dbDialect, queryNativeSql, keysetOrders, cursorValues).toSqlString(0, pageSize);
+    }
+
+    /**
+     * 生成 keyset 条件的参数，和 getNativeKeysetPageSqlTemplate 生成的 keyset 条件的占位符一一对应，页大小见 PageSqlTemplate.createArgs
+     *
+     * @param dbDialect    数据库类型，需要和 getNativeKeysetPageSqlTemplate 相同
+     * @param keysetOrders 排序条件，需要和 getNativeKeysetPageSqlTemplate 相同
+     * @param queryArgs    绑定在 queryNativeSql 上的参数
+     * @param cursorValues 上一页最后一行排序字段的值，见 KeysetCursor.decode ，为 null 时表示第一页
+     * @return queryArgs 在前，keyset 条件的参数在后 ; 游标中为 null 的值生成 is null 条件，没有参数
+     */
+    public static Object[] createKeysetArgs(Dialect dbDialect, List<Order> keysetOrders, Object[] queryArgs, Object[] cursorValues) {
+
+        if (cursorValues == null)
+            return queryArgs;
 
-        String[] sqlParam = new String[3];
-        int beginIndex = (currentPageNo - 1) * pageSize; //sql 语句，起始页，从 0 开始
-        sqlParam[0] = queryNativeSql;
-        sqlParam[1] = beginIndex + "";
-        sqlParam[2] = pageSize + "";
-
-        if (dbDialect.equals(Dialect.MySql)) { //mysql
-            if (Integer.valueOf(sqlParam[1].trim()) > Integer.valueOf(sqlParam[2].trim())) // 保证从小到大顺序
-                throw new IllegalArgumentException("limit 的写法，小的序号应该在前，大的序号应该在后");
-            queryNativeSql = MessageFormat.format(MYSQL_PAGE_SQL, sqlParam);
-
-        } else if (dbDialect.equals(Dialect.PostgreSQL)) { // postgre
-            queryNativeSql = MessageFormat.format(POSTGRE_PAGE_SQL, sqlParam);
-        } else {
-
-            //计算起止
-            int endIndex = beginIndex + pageSize;
-            sqlParam[2] = Integer.toString(beginIndex);
-            sqlParam[1] = Integer.toString(endIndex);
-
-            //oracle
-            if (dbDialect.equals(Dialect.Oracle)) { // oracle
-                queryNativeSql = MessageFormat.format(ORACLE_PAGE_SQL, sqlParam);
-            } else if (dbDialect.equals(Dialect.SqlServer)) {//SqlServer
-                sqlParam[0] = queryNativeSql.substring(getAfterSelectInsertPoint(queryNativeSql));
-                queryNativeSql = MessageFormat.format(SQLSERVER_PAGE_SQL, sqlParam);
+        List<Object> args = new ArrayList<>(Arrays.asList(queryArgs));
+        if (isKeysetRowValueSupported(dbDialect, keysetOrders, cursorValues)) {
+            args.addAll(Arrays.asList(cursorValues));
+            return args.toArray();
+        }
+
+        for (int i = 0; i < cursorValues.length; i++) {  // (c0 > ?) or (c0 = ? and c1 > ?) ...
+            if (cursorValues[i] == null && !isNullsFirst(dbDialect, keysetOrders, i))
+                continue; // 没有排在 null 之后的值，不生成这一项条件
+            for (int j = 0; j <= i; j++)
+                if (cursorValues[j] != null)
+                    args.add(cursorValues[j]);
+        }
+        return args.toArray();
+    }
+
+    /**
+     * 排序字段在 keyset 分页外层查询中的列名
+     *
+     * @param order
+     * @return 形如 st.name 时，返回 name
+     */
+    public static String getKeysetColumnLabel(Order order) {
+        String property = order.getProperty().trim();
+        return property.substring(property.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * 所有排序字段同一个方向时，mysql , postgresql 可以用行值比较 (c0, c1) > (?, ?) ，更容易利用组合索引
+     * 行值比较的结果不包含 null ，所以游标中不能有 null ，并且 null 排在最前 (之后的记录中没有 null)
+     */
+    private static boolean isKeysetRowValueSupported(Dialect dbDialect, List<Order> keysetOrders, Object[] cursorValues) {
+        if (!dbDialect.equals(Dialect.MySql) && !dbDialect.equals(Dialect.PostgreSQL))
+            return false;
+        if (!isNullsFirst(dbDialect, keysetOrders, 0))
+            return false;
+        for (Order order : keysetOrders)
+            if (order.getDirection() != keysetOrders.get(0).getDirection())
+                return false;
+        for (Object value : cursorValues)
+            if (value == null)
+                return false;
+        return true;
+    }
+
+    /**
+     * 按数据库默认的规则，第 index 个排序字段的 null 是否排在最前 : mysql , sql server 中 null 最小，oracle , postgresql 中 null 最大
+     * 最后一个是唯一字段，不会为 null ，按排在最前处理，不需要 is null 条件
+     */
+    private static boolean isNullsFirst(Dialect dbDialect, List<Order> keysetOrders, int index) {
+        if (index == keysetOrders.size() - 1)
+            return true;
+        boolean nullsLowest = dbDialect.equals(Dialect.MySql) || dbDialect.equals(Dialect.SqlServer);
+        return nullsLowest == (keysetOrders.get(index).getDirection() != Order.Direction.DESC);
+    }
+
+    private static String createKeysetPredicateString(Dialect dbDialect, List<Order> keysetOrders, Object[] cursorValues) {
+
+        StringBuilder builder = new StringBuilder();
+
+        if (isKeysetRowValueSupported(dbDialect, keysetOrders, cursorValues)) {
+            StringBuilder columns = new StringBuilder();
+            StringBuilder marks = new StringBuilder();
+            for (Order order : keysetOrders) {
+                columns.append(getKeysetColumnLabel(order)).append(", ");
+                marks.append("?, ");
             }
+            columns.setLength(columns.length() - 2);
+            marks.setLength(marks.length() - 2);
+            builder.append("(").append(columns).append(") ").append(getKeysetOperator(keysetOrders.get(0))).append(" (").append(marks).append(")");
+            return builder.toString();
         }
-        
-        return queryNativeSql.trim();
+
+        builder.append("(");
+        for (int i = 0; i < keysetOrders.size(); i++) {
+            Order order = keysetOrders.get(i);
+            String column = getKeysetColumnLabel(order);
+            boolean nullsFirst = isNullsFirst(dbDialect, keysetOrders, i);
+            if (cursorValues[i] == null && !nullsFirst)
+                continue; // 没有排在 null 之后的值，不生成这一项条件
+
+            if (builder.length() > 1)
+                builder.append(" or ");
+            builder.append("(");
+            for (int j = 0; j < i; j++)
+                builder.append(getKeysetColumnLabel(keysetOrders.get(j))).append(cursorValues[j] == null ? " is null and " : " = ? and ");
+            if (cursorValues[i] == null)
+                builder.append(column).append(" is not null");
+            else if (nullsFirst)
+                builder.append(column).append(" ").append(getKeysetOperator(order)).append(" ?");
+            else
+                builder.append("(").append(column).append(" ").append(getKeysetOperator(order)).append(" ? or ").append(column).append(" is null)");
+            builder.append(")");
+        }
+        if (builder.length() == 1) // 游标中全部为 null ，并且都排在最后，没有之后的记录
+            builder.append("1 = 0");
+        builder.append(")");
+        return builder.toString();
+    }
+
+    private static String getKeysetOperator(Order order) {
+        return order.getDirection() == Order.Direction.DESC ? "<" : ">";
+    }
+
+    /**
+     * keyset 分页的排序条件 sql 语句，排序字段取 getKeysetColumnLabel ，用于外层查询
+     *
+     * @param keysetOrders
+     * @return
+     */
+    public static String createKeysetOrderString(List<Order> keysetOrders) {
+        List<Order> orders = new ArrayList<>(keysetOrders.size());
+        for (Order order : keysetOrders)
+            orders.add(new Order(getKeysetColumnLabel(order), order.getDirection()));
+        return createOrderString(orders);
     }
 
     /**
@@ -88,9 +350,9 @@ public class SqlUtils {
      * @return
      */
     private static int getAfterSelectInsertPoint(String sql) {
-        int selectIndex = sql.toLowerCase().indexOf("select");
-        int selectDistinctIndex = sql.toLowerCase().indexOf("select distinct");
-        return selectIndex + (selectDistinctIndex == selectIndex ? 15 : 6);
+        String lowerCaseSql = sql.toLowerCase();
+        int selectIndex = lowerCaseSql.indexOf("select");
+        return selectIndex + (lowerCaseSql.startsWith("select distinct", selectIndex) ? 15 : 6);
     }
 
     public static void main(String[] args) throws Exception {
@@ -110,6 +372,13 @@ public class SqlUtils {
         System.out.println("ORACLE :\n" + SqlUtils.createNativePageSqlString(Dialect.Oracle, searchSql, currentPageNo, pageSize));
         System.out.println("SQLSERVER : \n" + SqlUtils.createNativePageSqlString(Dialect.SqlServer, searchSql, currentPageNo, pageSize));
         System.out.println("POSTGRE :\n" + SqlUtils.createNativePageSqlString(Dialect.PostgreSQL, searchSql, currentPageNo, pageSize));
+
+        PageSqlTemplate template = SqlUtils.getNativePageSqlTemplate(Dialect.Oracle, searchSql);
+        System.out.println("ORACLE TEMPLATE :\n" + template.getSql() + "\n" + Arrays.toString(template.createPageArgs(null, 3, pageSize)));
+
+        List<Order> keysetOrders = KeysetCursor.createKeysetOrders(Arrays.asList(new Order("st.standard_code", Order.Direction.DESC)), "id");
+        for (Dialect dialect : Dialect.values())
+            System.out.println(dialect + " KEYSET : \n" + SqlUtils.createNativeKeysetPageSqlString(dialect, searchSql, keysetOrders, new Object[]{"GB 2760", 100L}, pageSize));
     }
 
     /**
@@ -137,7 +406,7 @@ public class SqlUtils {
     }
 
     public static Order createOrder(String direction, String property) {
-        if (!direction.equalsIgnoreCase("asc") || !direction.equalsIgnoreCase("desc"))
+        if (!direction.equalsIgnoreCase("asc") && !direction.equalsIgnoreCase("desc"))
             throw new IllegalArgumentException("direction must be asc or desc");
 
         if (direction.equalsIgnoreCase("asc"))
@@ -157,6 +426,129 @@ public class SqlUtils {
         return sb.toString();
     }
 
+    /**
+     * 分页语句中的可变部分
+     */
+    private enum PageParam {
+        QUERY,  // 查询语句
+        OFFSET, // 起始行，从 0 开始
+        LIMIT,  // 最多返回的行数
+        END     // 结束行 (OFFSET + LIMIT) ，oracle , sql server 用
+    }
+
+    /**
+     * Description : TODO(预先拆分好的分页语句模板，分页参数为占位符)
+     * -
+     * 一个模板对应一个 (数据库类型, 查询语句) ，创建时拼接好 sql ，记录分页参数在占位符中的位置 :
+     * 查询语句自己的参数 (queryArgs) 和分页参数的先后顺序因数据库而不同 (sql server 的 top 在查询语句之前)，由 createArgs 统一处理。
+     * 不可变，线程安全，通过 SqlUtils.getNativePageSqlTemplate 、getNativeKeysetPageSqlTemplate 获得 (有缓存)。
+     */
+    public static final class PageSqlTemplate {
+
+        private final String query;
+        private final Object[] segments;
+        private final String sql;
+        // 查询语句之前、之后的分页参数
+        private final PageParam[] paramsBefore;
+        private final PageParam[] paramsAfter;
+
+        private PageSqlTemplate(Dialect dbDialect, Object[] segments, String queryNativeSql) {
+
+            this.segments = segments;
+            this.query = dbDialect.equals(Dialect.SqlServer) ? queryNativeSql.substring(getAfterSelectInsertPoint(queryNativeSql)) : queryNativeSql;
+
+            List<PageParam> before = new ArrayList<>(2);
+            List<PageParam> after = new ArrayList<>(2);
+            List<PageParam> current = before;
+            StringBuilder builder = new StringBuilder(query.length() + 128);
+            for (Object segment : segments) {
+                if (segment == PageParam.QUERY) {
+                    builder.append(query);
+                    current = after;
+                } else if (segment instanceof PageParam) {
+                    builder.append('?');
+                    current.add((PageParam) segment);
+                } else
+                    builder.append(segment);
+            }
+            this.sql = builder.toString().trim();
+            this.paramsBefore = before.toArray(new PageParam[0]);
+            this.paramsAfter = after.toArray(new PageParam[0]);
+        }
+
+        /**
+         * @return 分页语句，分页参数为占位符
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * 按页码生成参数，见 createArgs
+         *
+         * @param queryArgs     查询语句的参数，可以为 null
+         * @param currentPageNo 当前页码，从 1 开始
+         * @param pageSize      页大小
+         * @return
+         */
+        public Object[] createPageArgs(Object[] queryArgs, int currentPageNo, int pageSize) {
+            checkPage(currentPageNo, pageSize);
+            return createArgs(queryArgs, (currentPageNo - 1) * pageSize, pageSize);
+        }
+
+        /**
+         * 生成和 getSql() 的占位符一一对应的参数
+         *
+         * @param queryArgs  查询语句的参数，可以为 null
+         * @param beginIndex 起始行，从 0 开始
+         * @param maxRows    最多返回的行数
+         * @return
+         */
+        public Object[] createArgs(Object[] queryArgs, int beginIndex, int maxRows) {
+            checkRange(beginIndex, maxRows);
+
+            int queryArgsLength = queryArgs == null ? 0 : queryArgs.length;
+            Object[] args = new Object[paramsBefore.length + queryArgsLength + paramsAfter.length];
+            int i = 0;
+            for (PageParam param : paramsBefore)
+                args[i++] = getValue(param, beginIndex, maxRows);
+            if (queryArgsLength > 0) {
+                System.arraycopy(queryArgs, 0, args, i, queryArgsLength);
+                i += queryArgsLength;
+            }
+            for (PageParam param : paramsAfter)
+                args[i++] = getValue(param, beginIndex, maxRows);
+            return args;
+        }
+
+        /**
+         * 分页参数为数值的分页语句，见 createNativePageSqlString
+         */
+        private String toSqlString(int beginIndex, int maxRows) {
+            StringBuilder builder = new StringBuilder(sql.length() + 16);
+            for (Object segment : segments) {
+                if (segment == PageParam.QUERY)
+                    builder.append(query);
+                else if (segment instanceof PageParam)
+                    builder.append(getValue((PageParam) segment, beginIndex, maxRows));
+                else
+                    builder.append(segment);
+            }
+            return builder.toString().trim();
+        }
+
+        private static int getValue(PageParam param, int beginIndex, int maxRows) {
+            switch (param) {
+                case OFFSET:
+                    return beginIndex;
+                case LIMIT:
+                    return maxRows;
+                default:
+                    return beginIndex + maxRows;
+            }
+        }
+    }
+
     /**
      * 数据库类型
      */
@@ -15,7 +15,7 @@
  * 分页 :可以参考 https://github.com/pagehelper/Mybatis-PageHelper/blob/master/src/main/java/com/github/pagehelper/Page.java
  * ===
  * 3. ResultSet to Entity
- * 3.1 返回结果满足 Bean 的，用  BeanPropertyRowMapper
+ * 3.1 返回结果满足 Bean 的，用 MethodHandleRowMapper (和 BeanPropertyRowMapper 规则相同，映射计划缓存，不再每行反射)
  * 3.2 其他，手工 RowMapper
  * 3.3 one to many 问题 (怎么关联两个没有关联的实体 How to JOIN unrelated entities with JPA and Hibernate)
  * 用 left join 实现 ，之后手工 RowMapper
@@ -0,0 +1,255 @@
+package org.h819.web.spring.jpa;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Description : TODO(DtoUtils 使用的拷贝计划)
+ * -
+ * 原来的实现，每拷贝一个对象，都要调用 BeanUtils.getPropertyDescriptors , getNonSimplePropertyNames ，并线性扫描 excludes ，之后通过反射 invoke 逐个拷贝属性。
+ * 同一个类的这些信息是不变的，所以按类生成一次拷贝计划并缓存：
+ * 1. 预先区分 简单属性 / 非简单属性 / 集合属性;
+ * 2. 属性的 getter / setter 和无参构造方法，预先转换为 MethodHandle ，代替反射调用;
+ * 3. excludes 在 DtoUtils 实例中按类解析一次，生成过滤后的计划 (见 exclude 方法)。
+ * -
+ * 本类不可变，线程安全。
+ */
+final class DtoCopyPlan {
+
+    // 全局缓存，类的结构在运行期不会变化，所以不会失效
+    private static final ConcurrentMap<Class<?>, DtoCopyPlan> PLANS = new ConcurrentHashMap<>();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Class<?> beanClass;
+    private final MethodHandle constructor;
+
+    // BeanUtils.copyProperties 时拷贝的属性 (可读可写，并且不是非简单属性)
+    private final Property[] simpleProperties;
+    // createMapCopy 时直接放入 map 的属性 (可读，不是非简单属性，不是 class)
+    private final Property[] mapProperties;
+    // depth > 0 时需要递归拷贝的属性，保持 PropertyDescriptor 的顺序
+    private final Property[] associationProperties;
+
+    private DtoCopyPlan(Class<?> beanClass, MethodHandle constructor, Property[] simpleProperties,
+                        Property[] mapProperties, Property[] associationProperties) {
+        this.beanClass = beanClass;
+        this.constructor = constructor;
+        this.simpleProperties = simpleProperties;
+        this.mapProperties = mapProperties;
+        this.associationProperties = associationProperties;
+    }
+
+    /**
+     * 得到类的拷贝计划，第一次访问时生成，之后从缓存中获取
+     *
+     * @param beanClass
+     * @return
+     */
+    static DtoCopyPlan forClass(Class<?> beanClass) {
+        DtoCopyPlan plan = PLANS.get(beanClass);
+        if (plan == null) {
+            plan = build(beanClass);
+            DtoCopyPlan exist = PLANS.putIfAbsent(beanClass, plan);
+            if (exist != null)
+                plan = exist;
+        }
+        return plan;
+    }
+
+    private static DtoCopyPlan build(Class<?> beanClass) {
+
+        Set<String> nonSimplePropertyNames = getNonSimplePropertyNames(beanClass);
+
+        List<Property> simpleProperties = new ArrayList<>();
+        List<Property> mapProperties = new ArrayList<>();
+        List<Property> associationProperties = new ArrayList<>();
+
+        for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(beanClass)) {
+
+            String name = descriptor.getName();
+            Method readMethod = descriptor.getReadMethod();
+            Method writeMethod = descriptor.getWriteMethod();
+            boolean nonSimple = nonSimplePropertyNames.contains(name);
+            boolean collection = Collection.class.isAssignableFrom(descriptor.getPropertyType() == null ? Object.class : descriptor.getPropertyType());
+
+            if (readMethod == null)
+                continue;
+
+            MethodHandle getter = toGetter(readMethod);
+            MethodHandle setter = writeMethod == null ? null : toSetter(writeMethod);
+            Property property = new Property(name, getter, setter, collection);
+
+            if (!nonSimple) {
+                if (setter != null)
+                    simpleProperties.add(property);
+                if (!name.equals("class"))
+                    mapProperties.add(property);
+            }
+
+            // 集合属性，target 中已经有默认的空集合，不需要 setter ; 非简单属性需要 setter 赋值
+            if (collection || (nonSimple && setter != null))
+                associationProperties.add(property);
+        }
+
+        return new DtoCopyPlan(beanClass, toConstructor(beanClass),
+                simpleProperties.toArray(new Property[0]),
+                mapProperties.toArray(new Property[0]),
+                associationProperties.toArray(new Property[0]));
+    }
+
+    /**
+     * 根据 excludes 生成过滤后的计划，被排除的属性不再递归拷贝
+     *
+     * @param excludes DtoUtils 中设置的过滤条件
+     * @return 没有需要排除的属性时，返回本身
+     */
+    DtoCopyPlan exclude(Map<Class<?>, String[]> excludes) {
+
+        Set<String> excludedNames = new HashSet<>();
+        for (Map.Entry<Class<?>, String[]> item : excludes.entrySet()) {
+            if (item.getKey().isAssignableFrom(beanClass))
+                excludedNames.addAll(Arrays.asList(item.getValue()));
+        }
+
+        if (excludedNames.isEmpty())
+            return this;
+
+        List<Property> filtered = new ArrayList<>(associationProperties.length);
+        for (Property property : associationProperties) {
+            if (!excludedNames.contains(property.name))
+                filtered.add(property);
+        }
+
+        return new DtoCopyPlan(beanClass, constructor, simpleProperties, mapProperties, filtered.toArray(new Property[0]));
+    }
+
+    Object newInstance() throws InvocationTargetException {
+        try {
+            return constructor.invokeExact();
+        } catch (Error e) { // StackOverflowError , OutOfMemoryError 等不包装，直接抛出
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * 拷贝简单属性，同 BeanUtils.copyProperties(source, target, nonSimplePropertyNames)
+     */
+    void copySimpleProperties(Object source, Object target) throws InvocationTargetException {
+        for (Property property : simpleProperties)
+            property.set(target, property.get(source));
+    }
+
+    Property[] getMapProperties() {
+        return mapProperties;
+    }
+
+    Property[] getAssociationProperties() {
+        return associationProperties;
+    }
+
+    /**
+     * 找到 bean 的非简单属性名称(isSimpleProperty 进行判断)，见 DtoUtils 说明
+     * 和原来的实现一致，只检查本类声明的字段
+     *
+     * @param fromClass
+     * @return
+     */
+    private static Set<String> getNonSimplePropertyNames(Class<?> fromClass) {
+        Set<String> names = new HashSet<>();
+        for (Field field : fromClass.getDeclaredFields()) {
+            if (!BeanUtils.isSimpleProperty(field.getType())) {
+                names.add(field.getName());
+            }
+        }
+        return names;
+    }
+
+    private static MethodHandle toConstructor(Class<?> beanClass) {
+        try {
+            Constructor<?> ctor = beanClass.getDeclaredConstructor();
+            ReflectionUtils.makeAccessible(ctor);
+            return LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new UnsupportedOperationException(beanClass + " cannot be handled , no default constructor", ex);
+        }
+    }
+
+    private static MethodHandle toGetter(Method readMethod) {
+        try {
+            ReflectionUtils.makeAccessible(readMethod);
+            return LOOKUP.unreflect(readMethod).asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new UnsupportedOperationException(readMethod + " cannot be handled", ex);
+        }
+    }
+
+    private static MethodHandle toSetter(Method writeMethod) {
+        try {
+            ReflectionUtils.makeAccessible(writeMethod);
+            return LOOKUP.unreflect(writeMethod).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new UnsupportedOperationException(writeMethod + " cannot be handled", ex);
+        }
+    }
+
+    /**
+     * 一个 bean 属性，getter / setter 已转换为 (Object)Object 和 (Object,Object)void 形式的 MethodHandle
+     */
+    static final class Property {
+
+        private final String name;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        private final boolean collection;
+
+        private Property(String name, MethodHandle getter, MethodHandle setter, boolean collection) {
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+            this.collection = collection;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isCollection() {
+            return collection;
+        }
+
+        Object get(Object bean) throws InvocationTargetException {
+            try {
+                return getter.invokeExact(bean);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        void set(Object bean, Object value) throws InvocationTargetException {
+            try {
+                setter.invokeExact(bean, value);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+}
@@ -4,13 +4,10 @@ import org.hibernate.Hibernate;
 import org.hibernate.proxy.HibernateProxy;
 import org.springframework.beans.BeanUtils;
 
-import java.beans.BeanInfo;
-import java.beans.IntrospectionException;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 //参考实现：
 //http://thoughtfulsoftware.blogspot.sg/2013/05/using-variable-depth-copy-to-prevent.html
@@ -98,7 +95,11 @@ public class DtoUtils {
 
     //准备实例化的对象类别，该类别可以位于级联层次的任意层次，只要属性类别为此类别，那么其属性就会被忽略。用于 hibernate 的关联关系中，可以减少级联层次，并且可以避免深度级联而陷于死循环。
     //对于 @Transient 标准的属性，是临时状态，无法过滤
-    private Map<Class<?>, String[]> excludes = new HashMap();
+    //excludes 和按 excludes 生成的拷贝计划放在一起，addExcludes 时整体替换 (见 CopyPlans)
+    private volatile CopyPlans copyPlans = new CopyPlans(Collections.emptyMap());
+
+    //是否保留共享引用(DAG)。为 true 时，一次转换过程中，同一个对象被多次引用，只生成一个 DTO ，多处引用指向同一个 DTO
+    private boolean preserveSharedReferences = false;
 
 
     public DtoUtils() {
@@ -173,13 +174,14 @@ public class DtoUtils {
      * @return
      */
     public Map<String, Object> createMapCopy(Object entityPO, int depth) {
-        return createMapCopy(entityPO, depth, new LinkedList());
+        return createMapCopy(entityPO, depth, new CopyContext(preserveSharedReferences));
     }
 
     public <T> List<Map<String, Object>> createMapCopyList(Collection<T> entityPOs, int depth) {
         List<Map<String, Object>> list = new ArrayList(entityPOs.size());//按照原来的顺序
+        CopyContext context = new CopyContext(preserveSharedReferences); //集合中的对象共享一个上下文，集合中重复的对象也只转换一次
         for (T entity : entityPOs)
-            list.add(createMapCopy(entity, depth));
+            list.add(createMapCopy(entity, depth, context));
         return list;
     }
 
@@ -190,7 +192,7 @@ public class DtoUtils {
      * @return
      */
     private Object createDTOCopy(Object entityPO, int depth) {
-        return createDTOCopy(entityPO, depth, new LinkedList());
+        return createDTOCopy(entityPO, depth, new CopyContext(preserveSharedReferences));
     }
 
     /**
@@ -203,8 +205,9 @@ public class DtoUtils {
      */
     private <T> List<T> createDTOCopyList(Collection<T> entityPOs, int depth) {
         List<T> list = new ArrayList(entityPOs.size());//按照原来的顺序
+        CopyContext context = new CopyContext(preserveSharedReferences); //集合中的对象共享一个上下文，集合中重复的对象也只转换一次
         for (T entity : entityPOs)
-            list.add((T) createDTOCopy(entity, depth));
+            list.add((T) createDTOCopy(entity, depth, context));
         return list;
     }
 
@@ -214,10 +217,10 @@ public class DtoUtils {
      *
      * @param entityPO
      * @param depth
-     * @param ancestors
+     * @param context
      * @return
      */
-    private Object createDTOCopy(Object entityPO, int depth, List ancestors) {
+    private Object createDTOCopy(Object entityPO, int depth, CopyContext context) {
 
         if (entityPO == null) {
             // throw new NullPointerException("Entity passed for initialization is null");
@@ -232,90 +235,61 @@ public class DtoUtils {
         }
         // 修改原作者代码结束
 
-        if (ancestors.contains(entityPO)) {
+        // 按对象地址判断循环引用，不调用 entity 的 equals()
+        if (context.isAncestor(entityPO)) {
             return null;
         }
 
+        // 已经转换过的共享对象，直接返回
+        Object copied = context.getCopied(entityPO, depth);
+        if (copied != null)
+            return copied;
+
         Object entityVO = null;
 
         try {
-            //Convenience method to instantiate a class using its no-arg constructor.
-            entityVO = BeanUtils.instantiate(entityPO.getClass());
-            List<String> nonSimplePropertyNames = getNonSimplePropertyNames(entityPO.getClass());
-            // copy entityPO to entityBeanVO , ignore nonSimplePropertyNames properties , 不拷贝非简单属性
-            //Copy the property values of the given source bean into the given target bean, ignoring the given "ignoreProperties".
-            BeanUtils.copyProperties(entityPO, entityVO, nonSimplePropertyNames.toArray(new String[]{}));
+            // 拷贝计划，按类缓存，已经区分了简单属性、非简单属性、集合属性，并过滤了 excludes 中的属性
+            DtoCopyPlan plan = getCopyPlan(entityPO.getClass());
+            entityVO = plan.newInstance();
+            // copy entityPO to entityBeanVO , 不拷贝非简单属性
+            plan.copySimpleProperties(entityPO, entityVO);
+            context.putCopied(entityPO, entityVO, depth);
             if (depth > 0) {
 
-                // 获取当前需要从数据库加载的对象
-                Class<?> clazz = entityPO.getClass();
-                // System.out.println("descriptors : "+descriptors);
-                // System.out.println("=================== 当前需要从数据库加载的对象是 class : " + clazz.getName());
-
                 //本身放入
-                ancestors.add(entityPO);
-                //entityPOs 的所有属性
-                PropertyDescriptor[] properties = BeanUtils.getPropertyDescriptors(entityPO.getClass());
-
-
-                continueTag:
-                for (PropertyDescriptor property : properties) {//循环当前对象的所有属性，进行加载
-                    // System.out.println(pd.getName());
-
-                    /**
-                     * 逐一比当前对象的每个属性，找到不需要的序列化的对象的属性，跳过。
-                     * 如果当前对象的的属性，在忽略列表里面，则跳过
-                     */
-                    for (Map.Entry<Class<?>, String[]> item : excludes.entrySet()) {
-                        // isAssignableFrom()，用来判断类型间是否有继承关系
-                        if (item.getKey().isAssignableFrom(clazz)) { //key : 类
-                            List<String> list = Arrays.asList(item.getValue()); //value : 类中的属性
-                            if (list.contains(property.getName()))//类中属性
-                            {
-                                // System.out.println("跳过当前类的指定属性 ："+clazz.getName()+" : "+pd.getName());
-                                continue continueTag;            // 跳过包含的属性 . 此处用到了 goto 类型的语句，真好使啊!
-                            }
+                context.enter(entityPO);
+
+                try {
+                    for (DtoCopyPlan.Property property : plan.getAssociationProperties()) {//循环当前对象的非简单属性，进行加载
+
+                        /**
+                         * 集合则进行递归
+                         */
+                        // entityBeanVO into collections (target should always have a default empty collection assigned)
+                        if (property.isCollection()) {
+                            Collection sourceCollection = (Collection) property.get(entityPO);
+                            Collection targetCollection = (Collection) property.get(entityVO);
+                            targetCollection.clear();
+                            if (sourceCollection != null)
+                                for (Object j : sourceCollection) { //对集合的每一个对象，执行复制上一层操作，拷贝动作在下文
+                                    targetCollection.add(isSimpleValue(j) ? j : createDTOCopy(j, depth - 1, context)); // List<Long> 等简单值的集合，直接添加
+                                }
+
+                            continue;
                         }
-                    }
 
-
-                    /**
-                     * 集合则进行递归
-                     */
-                    //  System.out.println("type : "+pd.getPropertyType());
-                    // entityBeanVO into collections (target should always have a default empty collection assigned)
-                    if (Collection.class.isAssignableFrom(property.getPropertyType())) { // 判断属性名称，是否为 Collection 类型
-                        Collection sourceCollection = (Collection) property.getReadMethod().invoke(entityPO);
-                        Collection targetCollection = (Collection) property.getReadMethod().invoke(entityVO);
-                        targetCollection.clear();
-                        if (sourceCollection != null)
-                            for (Object j : sourceCollection) { //对集合的每一个对象，执行复制上一层操作，拷贝动作在下文
-                                targetCollection.add(createDTOCopy(j, depth - 1, ancestors));
-                            }
-
-                        continue;
-                    }
-
-                    /**
-                     * 拷贝非简单属性
-                     */
-
-                    //     System.out.println("pd name : "+pd.getName());
-                    if (nonSimplePropertyNames.contains(property.getName())) {
-                        Object propertyToCopy = property.getReadMethod().invoke(entityPO);
-                        Object propertyCopy = createDTOCopy(propertyToCopy, depth - 1, ancestors);
-                        //       System.out.println(" propertyToCopy:  " + propertyToCopy.toString());
-                        //      System.out.println(" propertyCopy:  " + propertyCopy.toString());
-                        property.getWriteMethod().invoke(entityVO, propertyCopy);
-                        continue;
+                        /**
+                         * 拷贝非简单属性
+                         */
+                        Object propertyToCopy = property.get(entityPO);
+                        Object propertyCopy = createDTOCopy(propertyToCopy, depth - 1, context);
+                        property.set(entityVO, propertyCopy);
                     }
+                } finally { // 出现异常时也要移出，集合中的对象共享一个上下文，否则后面的对象被当作循环引用
+                    context.exit(entityPO);
                 }
-
-                ancestors.remove(ancestors.size() - 1);
             }
 
-        } catch (IllegalAccessException ex) {
-            throw new UnsupportedOperationException(entityPO.getClass() + " cannot be handled", ex);
         } catch (InvocationTargetException e) {
             e.printStackTrace();
         }
@@ -328,10 +302,10 @@ public class DtoUtils {
      *
      * @param entityPO
      * @param depth
-     * @param ancestors
+     * @param context
      * @return
      */
-    private Map<String, Object> createMapCopy(Object entityPO, int depth, List ancestors) {
+    private Map<String, Object> createMapCopy(Object entityPO, int depth, CopyContext context) {
 
         if (entityPO == null) {
             // throw new NullPointerException("Entity passed for initialization is null");
@@ -346,106 +320,61 @@ public class DtoUtils {
         }
         // 修改原作者代码结束
 
-        if (ancestors.contains(entityPO)) {
+        // 按对象地址判断循环引用，不调用 entity 的 equals()
+        if (context.isAncestor(entityPO)) {
             return null;
         }
 
+        // 已经转换过的共享对象，直接返回
+        Map<String, Object> copied = (Map<String, Object>) context.getCopied(entityPO, depth);
+        if (copied != null)
+            return copied;
+
         Map<String, Object> map = new HashMap();
+        context.putCopied(entityPO, map, depth);
 
         try {
-            BeanInfo beanInfo = Introspector.getBeanInfo(entityPO.getClass());
-            List<String> nonSimplePropertyNames = getNonSimplePropertyNames(entityPO.getClass());
-            PropertyDescriptor[] propertyDescriptors = beanInfo.getPropertyDescriptors();
-
-            for (PropertyDescriptor property : propertyDescriptors) {
-                String key = property.getName();
-                // 过滤class属性，否则输出结果会有 class 属性
-                if (nonSimplePropertyNames.contains(key) || key.equals("class"))
-                    continue;
-                // 得到property对应的getter方法
-                Object value = property.getReadMethod().invoke(entityPO);
-                map.put(key, value);
-            }
+            DtoCopyPlan plan = getCopyPlan(entityPO.getClass());
 
+            // 过滤了 class 属性和非简单属性
+            for (DtoCopyPlan.Property property : plan.getMapProperties())
+                map.put(property.getName(), property.get(entityPO));
 
             if (depth > 0) {
 
-                // 获取当前需要从数据库加载的对象
-                Class<?> clazz = entityPO.getClass();
-                // System.out.println("descriptors : "+descriptors);
-                // System.out.println("=================== 当前需要从数据库加载的对象是 class : " + clazz.getName());
-
                 //本身放入
-                ancestors.add(entityPO);
-                //entityPOs 的所有属性
-                PropertyDescriptor[] properties = BeanUtils.getPropertyDescriptors(entityPO.getClass());
-
-                continueTag:
-                for (PropertyDescriptor property : properties) {//循环当前对象的所有属性，进行加载
-                    //   System.out.println("property name0 : " + property.getName());
-
-                    /**
-                     * 逐一比当前对象的每个属性，找到不需要的序列化的对象的属性，跳过。
-                     * 如果当前对象的的属性，在忽略列表里面，则跳过
-                     */
-                    for (Map.Entry<Class<?>, String[]> item : excludes.entrySet()) {
-                        // isAssignableFrom()，用来判断类型间是否有继承关系
-                        if (item.getKey().isAssignableFrom(clazz)) { //key : 类
-                            List<String> list = Arrays.asList(item.getValue()); //value : 类中的属性
-                            if (list.contains(property.getName()))//类中属性
-                            {
-                                // System.out.println("跳过当前类的指定属性 ："+clazz.getName()+" : "+pd.getName());
-                                continue continueTag;            // 跳过包含的属性 . 此处用到了 goto 类型的语句，真好使啊!
-                            }
+                context.enter(entityPO);
+
+                try {
+                    for (DtoCopyPlan.Property property : plan.getAssociationProperties()) {//循环当前对象的非简单属性，进行加载
+
+                        /**
+                         * 集合则进行递归
+                         */
+                        if (property.isCollection()) {
+                            Collection sourceCollection = (Collection) property.get(entityPO);
+                            Collection targetCollection = new ArrayList(sourceCollection == null ? 0 : sourceCollection.size());
+                            if (sourceCollection != null)
+                                for (Object j : sourceCollection) { //对集合的每一个对象，执行复制上一层操作，拷贝动作在下文
+                                    targetCollection.add(isSimpleValue(j) ? j : createMapCopy(j, depth - 1, context));
+                                }
+                            map.put(property.getName(), targetCollection);
+                            continue;
                         }
-                    }
 
-                    //  System.out.println("property name1 : " + property.getName());
-
-                    /**
-                     * 集合则进行递归
-                     */
-                    //  System.out.println("type : "+pd.getPropertyType());
-                    // entityBeanVO into collections (target should always have a default empty collection assigned)
-                    if (Collection.class.isAssignableFrom(property.getPropertyType())) { // 判断属性名称，是否为 Collection 类型
-                        Collection sourceCollection = (Collection) property.getReadMethod().invoke(entityPO);
-                        Collection targetCollection = new ArrayList(sourceCollection.size());
-                        // Collection targetCollection = (Collection) property.getReadMethod().invoke(entityVO);
-                        targetCollection.clear();
-                        if (sourceCollection != null)
-                            for (Object j : sourceCollection) { //对集合的每一个对象，执行复制上一层操作，拷贝动作在下文
-                                targetCollection.add(createMapCopy(j, depth - 1, ancestors));
-                            }
-                        map.put(property.getName(), targetCollection);
-
-                        //  System.out.println("property name11 : " + property.getName());
-                        continue;
-                    }
-
-                    /**
-                     * 拷贝非简单属性
-                     */
-
-                    //  System.out.println("property name2 : " + property.getName());
-                    if (nonSimplePropertyNames.contains(property.getName())) {
-                        Object propertyToCopy = property.getReadMethod().invoke(entityPO);
-                        Object propertyCopy = createMapCopy(propertyToCopy, depth - 1, ancestors);
-                        map.put(property.getName(), propertyCopy);
-                        // property.getWriteMethod().invoke(entityVO, propertyCopy);
-
-                        continue;
+                        /**
+                         * 拷贝非简单属性
+                         */
+                        Object propertyToCopy = property.get(entityPO);
+                        map.put(property.getName(), createMapCopy(propertyToCopy, depth - 1, context));
                     }
+                } finally {
+                    context.exit(entityPO);
                 }
-
-                ancestors.remove(ancestors.size() - 1);
             }
 
-        } catch (IllegalAccessException ex) {
-            throw new UnsupportedOperationException(entityPO.getClass() + " cannot be handled", ex);
         } catch (InvocationTargetException e) {
             e.printStackTrace();
-        } catch (IntrospectionException e) {
-            e.printStackTrace();
         }
 
         return map;
@@ -453,28 +382,35 @@ public class DtoUtils {
 
 
     /**
-     * 找到 bean 的非简单属性名称(isSimpleProperty 进行判断)，包括 :
-     * primitive (byte,short,int,long,float,double,boolean,char) Primitive Data Types 基本数据类型，共 8 种
-     * String or other CharSequence
-     * Number
-     * Date
-     * URI
-     * URL
-     * Locale
-     * Class
-     * corresponding array.
+     * 集合中的元素是否为简单值 (Long , String , 枚举等)，简单值不能也不需要再拷贝
+     */
+    private static boolean isSimpleValue(Object value) {
+        return value != null && BeanUtils.isSimpleValueType(value.getClass());
+    }
+
+    /**
+     * 得到类的拷贝计划，已经应用了本实例的 excludes 。
+     * 按类缓存在本实例中，调用 addExcludes 后使用新的缓存。
      *
-     * @param fromClass
+     * @param clazz
      * @return
      */
-    private List<String> getNonSimplePropertyNames(Class fromClass) {
-        List<String> names = new ArrayList<String>();
-        for (Field field : fromClass.getDeclaredFields()) {
-            if (!BeanUtils.isSimpleProperty(field.getType())) {
-                names.add(field.getName());
-            }
-        }
-        return names;
+    private DtoCopyPlan getCopyPlan(Class<?> clazz) {
+        return copyPlans.get(clazz);
+    }
+
+    /**
+     * 设置是否保留共享引用，默认为 false 。
+     * -
+     * false : 同一个对象在对象图中被多次引用(如多个子节点引用同一个 role)，每次引用都生成一个新的 DTO ，和原来的行为一致。
+     * true : 一次转换过程中(createDTOcopy / createMapcopy 的一次调用)，同一个对象只转换一次，所有引用指向同一个 DTO ，转换结果保持原来的 DAG 结构，减少拷贝和内存占用。
+     * 如果该对象在更深的剩余深度上再次出现，会重新转换，保证拷贝深度不少于不保留共享引用时的结果。
+     * 循环引用在两种模式下都设置为 null 。
+     *
+     * @param preserveSharedReferences
+     */
+    public void setPreserveSharedReferences(boolean preserveSharedReferences) {
+        this.preserveSharedReferences = preserveSharedReferences;
     }
 
     /**
@@ -483,8 +419,78 @@ public class DtoUtils {
      * @param clasz    准备实例化的对象类别，该类别可以位于级联层次的任意层次，只要属性类别为此类别，那么其属性就会被忽略。用于 hibernate 的关联关系中，可以减少级联层次，并且可以避免深度级联而陷于死循环。
      * @param excludes 不进行序列化的属性
      */
-    public void addExcludes(Class clasz, String... excludes) {
-        this.excludes.put(clasz, excludes);
+    public synchronized void addExcludes(Class clasz, String... excludes) {
+        Map<Class<?>, String[]> snapshot = new HashMap<>(this.copyPlans.excludes);
+        snapshot.put(clasz, excludes.clone());
+        this.copyPlans = new CopyPlans(Collections.unmodifiableMap(snapshot));
+    }
+
+
+    /**
+     * excludes 的不可变快照和按该快照生成的拷贝计划。
+     * addExcludes 时整体替换为新的实例 : 其他线程按旧的 excludes 生成的计划只会放入旧实例的缓存，不会出现在新的缓存中。
+     */
+    private static class CopyPlans {
+
+        private final Map<Class<?>, String[]> excludes;
+        private final ConcurrentMap<Class<?>, DtoCopyPlan> plans = new ConcurrentHashMap<>();
+
+        CopyPlans(Map<Class<?>, String[]> excludes) {
+            this.excludes = excludes;
+        }
+
+        DtoCopyPlan get(Class<?> clazz) {
+            return plans.computeIfAbsent(clazz, c -> DtoCopyPlan.forClass(c).exclude(excludes));
+        }
+    }
+
+
+    /**
+     * 一次转换过程中的状态
+     * ancestors : 当前路径上的祖先对象，用于检测循环引用。按对象地址 (IdentityHashMap) 判断，不调用 Hibernate entity 的 equals() ，查找为 O(1)
+     * copied : 保留共享引用时，已经转换过的对象 -> DTO ，以及转换时的剩余深度
+     */
+    private static class CopyContext {
+
+        private final Set<Object> ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<Object, Object> copied;
+        private final Map<Object, Integer> copiedDepth;
+
+        CopyContext(boolean preserveSharedReferences) {
+            this.copied = preserveSharedReferences ? new IdentityHashMap<>() : null;
+            this.copiedDepth = preserveSharedReferences ? new IdentityHashMap<>() : null;
+        }
+
+        boolean isAncestor(Object entityPO) {
+            return ancestors.contains(entityPO);
+        }
+
+        void enter(Object entityPO) {
+            ancestors.add(entityPO);
+        }
+
+        void exit(Object entityPO) {
+            ancestors.remove(entityPO);
+        }
+
+        /**
+         * 得到已经转换的 DTO ，只有当时的剩余深度不小于 depth 时才可以复用
+         */
+        Object getCopied(Object entityPO, int depth) {
+            if (copied == null)
+                return null;
+            Integer copiedAt = copiedDepth.get(entityPO);
+            if (copiedAt == null || copiedAt < depth)
+                return null;
+            return copied.get(entityPO);
+        }
+
+        void putCopied(Object entityPO, Object entityVO, int depth) {
+            if (copied == null)
+                return;
+            copied.put(entityPO, entityVO);
+            copiedDepth.put(entityPO, depth);
+        }
     }
 
-}
\ No newline at end of file
+}
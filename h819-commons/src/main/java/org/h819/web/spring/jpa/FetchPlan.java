@@ -0,0 +1,377 @@
+package org.h819.web.spring.jpa;
+
+import org.h819.web.spring.jdbc.Order;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Subgraph;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.*;
+import java.util.*;
+
+/**
+ * Description : TODO(查询的抓取计划，一次查询加载需要的关联对象，避免 1+N 次查询)
+ * -
+ * 查询条件为 parent.name 时，root.get("parent").get("name") 是隐式 join ，只用于过滤，查询结果中的 parent 仍然是 lazy 的。
+ * 之后 DtoUtils 转换、按 parent.name 排序的页面展示，每一行都要再查询一次 parent ，一页数据需要 1+N 次查询。
+ * -
+ * 抓取计划收集查询需要的所有关联属性 (关联属性的路径，如 parent , parent.tree)：
+ * 1. 查询条件中的级联属性 : parent.name -> parent ，见 fetchFilters ;
+ * 2. 排序字段中的级联属性，见 fetchOrders ;
+ * 3. 转换深度 : 和 DtoUtils 的 depth 、addExcludes 含义相同，深度以内的关联属性都需要加载，见 fetchDepth ;
+ * 4. 直接指定，见 fetch 。
+ * -
+ * 加载方式 :
+ * 1. 单值关联 (ManyToOne , OneToOne) : 在查询中 left join fetch ，和查询结果一起加载，见 apply ;
+ * count 查询中不能 fetch ，改为 left join 。查询条件、排序复用这些 join (见 getPath)，不再生成重复的隐式 join 。
+ * 2. 集合关联 (OneToMany , ManyToMany) : 分页查询中 fetch 集合，hibernate 只能取出全部记录后在内存中分页 (HHH000104)，
+ * 所以当前页查询完毕后，每个集合属性再执行一次 "where id in (当前页的 id)" 的查询，通过动态 EntityGraph 加载，并 distinct ，见 fetchCollections 。
+ * 集合中的对象已经在当前 EntityManager 中，当前页对象的集合属性随之初始化。
+ * -
+ * 一页数据的查询次数为 1 (count ，可以缓存) + 1 (当前页) + 集合属性的个数，和行数无关。
+ * -
+ * 用法 :
+ * JpaDynamicSpecificationBuilder 自动收集查询条件中的关联属性，见 JpaDynamicSpecificationBuilder.fetch* 方法
+ * JpaUtils.getJqGridKeysetPage 自动收集查询条件、排序中的关联属性，可以再传入 FetchPlan 指定转换深度 :
+ * FetchPlan fetchPlan = new FetchPlan().addExcludes(RoleEntity.class, "treeNodes", "users", "groups").fetchDepth(1);
+ * -
+ * 非线程安全，每次查询创建一个。
+ */
+public final class FetchPlan {
+
+    // 集合加载时使用 fetchgraph ，没有在 graph 中的属性按照 entity 中的定义 (一般为 lazy)
+    private static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+    // 关联属性路径，按加入的顺序
+    private final Set<String> paths = new LinkedHashSet<>();
+    // 和 DtoUtils.addExcludes 相同，转换深度中不加载的属性
+    private final Map<Class<?>, Set<String>> excludes = new HashMap<>();
+    // 转换深度，< 0 时不按深度加载
+    private int depth = -1;
+
+    public FetchPlan() {
+    }
+
+    /**
+     * 直接指定需要加载的关联属性
+     *
+     * @param associationPaths 关联属性路径，如 parent , parent.tree , roles
+     * @return
+     */
+    public FetchPlan fetch(String... associationPaths) {
+        for (String path : associationPaths)
+            if (path != null && !path.isEmpty())
+                paths.add(path);
+        return this;
+    }
+
+    /**
+     * 查询条件中的级联属性，去掉最后一级，如 parent.name -> parent ，tree.parent.name -> tree.parent
+     * 最后一级是关联对象时 (如 new SearchFilter("parent", EQ, parentEntity)) ，只比较 id ，不需要加载
+     *
+     * @param searchFilters
+     * @return
+     */
+    public FetchPlan fetchFilters(Collection<SearchFilter> searchFilters) {
+        for (SearchFilter filter : searchFilters)
+            fetchProperty(filter.getFieldName());
+        return this;
+    }
+
+    /**
+     * 排序字段中的级联属性
+     *
+     * @param orders
+     * @return
+     */
+    public FetchPlan fetchOrders(Collection<Order> orders) {
+        for (Order order : orders)
+            fetchProperty(order.getProperty());
+        return this;
+    }
+
+    /**
+     * 排序字段中的级联属性
+     *
+     * @param sort 可以为 null
+     * @return
+     */
+    public FetchPlan fetchOrders(Sort sort) {
+        if (sort != null)
+            for (Sort.Order order : sort)
+                fetchProperty(order.getProperty());
+        return this;
+    }
+
+    /**
+     * 转换深度，和 DtoUtils.createDTOcopy(entityPO, depth) 的 depth 相同 :
+     * depth 为 0 时不加载关联对象，为 1 时加载查询对象的关联对象，以此类推。
+     *
+     * @param depth
+     * @return
+     */
+    public FetchPlan fetchDepth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * 转换深度中不加载的属性，和 DtoUtils.addExcludes 相同，一般传入相同的参数
+     *
+     * @param clazz
+     * @param properties
+     * @return
+     */
+    public FetchPlan addExcludes(Class<?> clazz, String... properties) {
+        excludes.computeIfAbsent(clazz, c -> new HashSet<>()).addAll(Arrays.asList(properties));
+        return this;
+    }
+
+    /**
+     * 合并另一个抓取计划
+     *
+     * @param other 可以为 null
+     * @return
+     */
+    public FetchPlan merge(FetchPlan other) {
+        if (other == null)
+            return this;
+        paths.addAll(other.paths);
+        for (Map.Entry<Class<?>, Set<String>> entry : other.excludes.entrySet())
+            excludes.computeIfAbsent(entry.getKey(), c -> new HashSet<>()).addAll(entry.getValue());
+        depth = Math.max(depth, other.depth);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return paths.isEmpty() && depth <= 0;
+    }
+
+    /**
+     * 在查询中加入单值关联属性的 join ，需要在生成查询条件之前调用，以便查询条件复用这些 join
+     * 查询结果为 Long 时认为是 count 查询，使用 left join ，否则使用 left join fetch
+     *
+     * @param root
+     * @param query
+     */
+    public void apply(Root<?> root, CriteriaQuery<?> query) {
+
+        boolean count = Long.class.equals(query.getResultType()) || long.class.equals(query.getResultType());
+        for (String[] path : resolve(root.getModel())) {
+            From<?, ?> from = root;
+            ManagedType<?> type = root.getModel();
+            for (String name : path) {
+                Attribute<?, ?> attribute = type == null ? null : findAttribute(type, name);
+                if (attribute == null || attribute.isCollection()) // 集合在 fetchCollections 中加载
+                    break;
+                From<?, ?> join = findJoin(from, name);
+                if (join == null)
+                    join = count ? from.join(name, JoinType.LEFT) : (From<?, ?>) from.fetch(name, JoinType.LEFT);
+                from = join;
+                type = getTargetType(attribute);
+            }
+        }
+    }
+
+    /**
+     * 包装 Specification ，先加入 join 再生成查询条件，可以用于 repository.findAll(specification, pageable)
+     *
+     * @param specification 可以为 null
+     * @param <T>
+     * @return
+     */
+    public <T> Specification<T> toSpecification(Specification<T> specification) {
+        return (root, query, builder) -> {
+            apply(root, query);
+            return specification == null ? null : specification.toPredicate(root, query, builder);
+        };
+    }
+
+    /**
+     * 查询结果的集合属性，每个集合属性一次查询 "where id in (...)" 加载
+     * 需要在查询结果所在的 EntityManager (事务或 open-in-view) 中调用
+     *
+     * @param entityManager
+     * @param domainClass
+     * @param entities      查询结果，如当前页的数据
+     * @param <T>
+     */
+    public <T> void fetchCollections(EntityManager entityManager, Class<T> domainClass, Collection<T> entities) {
+
+        if (entities.isEmpty())
+            return;
+
+        EntityType<T> entityType = entityManager.getMetamodel().entity(domainClass);
+        List<String[]> collectionPaths = new ArrayList<>();
+        for (String[] path : resolve(entityType))
+            if (isCollectionPath(entityType, path))
+                collectionPaths.add(path);
+        if (collectionPaths.isEmpty())
+            return;
+
+        PersistenceUnitUtil unitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        List<Object> ids = new ArrayList<>(entities.size());
+        for (T entity : entities)
+            ids.add(unitUtil.getIdentifier(entity));
+        String idName = entityType.getId(entityType.getIdType().getJavaType()).getName();
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        for (String[] path : collectionPaths) {
+            EntityGraph<T> graph = entityManager.createEntityGraph(domainClass);
+            addGraphPath(graph, path);
+
+            CriteriaQuery<T> query = builder.createQuery(domainClass);
+            Root<T> root = query.from(domainClass);
+            query.select(root).distinct(true).where(root.get(idName).in(ids));
+            entityManager.createQuery(query).setHint(FETCH_GRAPH_HINT, graph).getResultList();
+        }
+    }
+
+    /**
+     * 逐层深入构造 path ，级联属性复用已有的 join / fetch ，没有时为 path.get (隐式 join)
+     * 和 apply 一起使用时，查询条件、排序中的级联属性和抓取使用同一个 join
+     *
+     * @param root
+     * @param names 拆分后的属性路径，tree.parent.name -> {tree, parent, name}
+     * @return
+     */
+    public static Path<?> getPath(From<?, ?> root, String[] names) {
+        Path<?> path = root;
+        for (int i = 0; i < names.length; i++) {
+            if (i < names.length - 1 && path instanceof From) {
+                From<?, ?> join = findJoin((From<?, ?>) path, names[i]);
+                if (join != null) {
+                    path = join;
+                    continue;
+                }
+            }
+            path = path.get(names[i]);
+        }
+        return path;
+    }
+
+    /**
+     * @see #getPath(From, String[])
+     */
+    public static Path<?> getPath(From<?, ?> root, String property) {
+        return getPath(root, property.split("\\."));
+    }
+
+    /**
+     * 已有的 left join 或 left join fetch ，hibernate 中 fetch 同时也是 join
+     */
+    private static From<?, ?> findJoin(From<?, ?> from, String name) {
+        for (Fetch<?, ?> fetch : from.getFetches())
+            if (fetch.getAttribute().getName().equals(name) && fetch.getJoinType() == JoinType.LEFT && fetch instanceof From)
+                return (From<?, ?>) fetch;
+        for (Join<?, ?> join : from.getJoins())
+            if (join.getAttribute().getName().equals(name) && join.getJoinType() == JoinType.LEFT)
+                return join;
+        return null;
+    }
+
+    private void fetchProperty(String property) {
+        if (property == null)
+            return;
+        int index = property.lastIndexOf('.');
+        if (index > 0)
+            paths.add(property.substring(0, index));
+    }
+
+    /**
+     * 解析为关联属性路径 : 只保留关联属性，遇到非关联属性 (如 embedded) 时截断 ; 再加上转换深度内的关联属性
+     */
+    private List<String[]> resolve(ManagedType<?> type) {
+
+        Set<String> resolved = new LinkedHashSet<>();
+        for (String path : paths) {
+            String[] names = path.split("\\.");
+            ManagedType<?> current = type;
+            StringBuilder builder = new StringBuilder();
+            for (String name : names) {
+                Attribute<?, ?> attribute = current == null ? null : findAttribute(current, name);
+                if (attribute == null || !attribute.isAssociation())
+                    break;
+                if (builder.length() > 0)
+                    builder.append('.');
+                builder.append(name);
+                current = getTargetType(attribute);
+            }
+            if (builder.length() > 0)
+                resolved.add(builder.toString());
+        }
+
+        if (depth > 0)
+            resolveDepth(type, "", depth, resolved);
+
+        // 只保留最长的路径，parent.tree 已经包含了 parent
+        List<String[]> result = new ArrayList<>(resolved.size());
+        for (String path : resolved) {
+            boolean prefix = false;
+            for (String other : resolved)
+                if (other.startsWith(path + "."))
+                    prefix = true;
+            if (!prefix)
+                result.add(path.split("\\."));
+        }
+        return result;
+    }
+
+    private void resolveDepth(ManagedType<?> type, String prefix, int depth, Set<String> resolved) {
+        Set<String> excluded = excludes.getOrDefault(type.getJavaType(), Collections.emptySet());
+        for (Attribute<?, ?> attribute : type.getAttributes()) {
+            if (!attribute.isAssociation() || excluded.contains(attribute.getName()))
+                continue;
+            String path = prefix + attribute.getName();
+            resolved.add(path);
+            ManagedType<?> target = getTargetType(attribute);
+            if (depth > 1 && target != null)
+                resolveDepth(target, path + ".", depth - 1, resolved);
+        }
+    }
+
+    private static Attribute<?, ?> findAttribute(ManagedType<?> type, String name) {
+        try {
+            return type.getAttribute(name);
+        } catch (IllegalArgumentException e) { // 属性不存在，由查询条件本身报错
+            return null;
+        }
+    }
+
+    private static ManagedType<?> getTargetType(Attribute<?, ?> attribute) {
+        Type<?> type = attribute.isCollection() ? ((PluralAttribute<?, ?, ?>) attribute).getElementType() : ((SingularAttribute<?, ?>) attribute).getType();
+        return type instanceof ManagedType ? (ManagedType<?>) type : null;
+    }
+
+    private static boolean isCollectionPath(ManagedType<?> type, String[] path) {
+        ManagedType<?> current = type;
+        for (String name : path) {
+            Attribute<?, ?> attribute = findAttribute(current, name);
+            if (attribute == null)
+                return false;
+            if (attribute.isCollection())
+                return true;
+            current = getTargetType(attribute);
+            if (current == null)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * parent.children -> graph.addSubgraph("parent").addAttributeNodes("children")
+     */
+    private static void addGraphPath(EntityGraph<?> graph, String[] path) {
+        if (path.length == 1) {
+            graph.addAttributeNodes(path[0]);
+            return;
+        }
+        Subgraph<?> subgraph = graph.addSubgraph(path[0]);
+        for (int i = 1; i < path.length - 1; i++)
+            subgraph = subgraph.addSubgraph(path[i]);
+        subgraph.addAttributeNodes(path[path.length - 1]);
+    }
+}
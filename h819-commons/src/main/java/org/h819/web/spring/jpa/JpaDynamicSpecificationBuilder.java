@@ -1,11 +1,14 @@
 package org.h819.web.spring.jpa;
 
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.domain.Specifications;
 
-import javax.persistence.criteria.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 
 /**
@@ -55,6 +58,10 @@ import java.util.Collection;
  * .and(new SearchFilter("id", SearchFilter.Operator.BETWEEN, null,20)).build();
  * List<TreeEntity> entity = repository.findAll(specification)
  * -
+ * 级联属性 (parent.name) 的关联对象 (parent) 自动加入抓取计划，和查询结果一起加载，避免之后逐行加载，见 FetchPlan 。
+ * 排序字段、转换深度中的关联属性，通过 fetchOrders 、fetchDepth 加入 :
+ * new JpaDynamicSpecificationBuilder().and(filters).fetchOrders(sort).fetchDepth(1).build();
+ * -
  * -
  * -
  * <p>
@@ -69,39 +76,13 @@ public class JpaDynamicSpecificationBuilder {
 
     //  //private static final Logger logger = LoggerFactory.getLogger(JpaDynamicSpecificationBuilder.class);
     private Specification specification;
+    // 查询条件、排序、转换深度中的关联属性
+    private final FetchPlan fetchPlan = new FetchPlan();
 
     public JpaDynamicSpecificationBuilder() {
         this.specification = Specifications.where(null);
     }
 
-    /**
-     * 逐层深入构造 path
-     * <p/>
-     * 当 jpa 对象有级联关系时，被级联的对象的某个属性作为查询条件构建 Predicate ，如
-     * 查询属性为 tree.parent.name (tree 对象中的 parent 对象 的 name 属性)
-     * 构建的 Predicate 中的 Path 不是
-     * return build.equal(root.get("tree.parent.name"), "value");
-     * 而应该是
-     * return cb.equal((Path<String>) ((Path<Area>) root.get("tree")).get("parent").get("name"),"value");
-     * root.get("tree").get("parent").get("name") 的返回值，即被查询的属性 name 代表的对象类型，可以是对象，也可以是字符串
-     *
-     * @param root
-     * @param filterFieldName 属性名称 , 可以是级联格式
-     * @param <T>
-     * @return
-     * @see "http://stackoverflow.com/questions/13246959/jpa-specification-with-onetoone-relation"
-     */
-    private <T> Path getNestedPath(Root<T> root, String filterFieldName) {
-
-        String[] names = filterFieldName.split("\\."); // filterFieldName = tree.parent.name
-        Path nestedPath = root;
-        //递归构造 Path
-        // 找到最终属性的 tree.parent.name 所代表的 path ，相当于 root.get("tree").get("parent").get("name");
-        for (String subPath : names)
-            nestedPath = nestedPath.get(subPath);
-        return nestedPath;
-    }
-
     /**
      * 条件 and
      * <p>
@@ -111,17 +92,23 @@ public class JpaDynamicSpecificationBuilder {
      * @return
      */
     public JpaDynamicSpecificationBuilder and(final SearchFilter searchFilter) {
-        this.specification = Specifications.where(this.specification).and(bySearchFilter(searchFilter));
-        return this;
+        return and(Collections.singletonList(searchFilter));
     }
 
     public JpaDynamicSpecificationBuilder and(final SearchFilter... searchFilters) {
         return and(Arrays.asList(searchFilters));
     }
 
+    /**
+     * 一组条件按形状编译为 SpecificationTemplate (有缓存)，之后只绑定值，见 SpecificationTemplate
+     * (spec and f1 and f2 ...) 和原来逐个 and 的结果相同
+     */
     public JpaDynamicSpecificationBuilder and(final Iterable<SearchFilter> searchFilters) {
-        for (SearchFilter filter : searchFilters)
-            this.specification = Specifications.where(this.specification).and(bySearchFilter(filter));
+        List<SearchFilter> filters = toList(searchFilters);
+        if (!filters.isEmpty()) {
+            this.specification = Specifications.where(this.specification).and(bySearchFilters(SearchFilter.Relation.AND, filters));
+            this.fetchPlan.fetchFilters(filters);
+        }
         return this;
     }
 
@@ -148,17 +135,22 @@ public class JpaDynamicSpecificationBuilder {
      * @return
      */
     public JpaDynamicSpecificationBuilder or(final SearchFilter searchFilter) {
-        this.specification = Specifications.where(this.specification).or(bySearchFilter(searchFilter));
-        return this;
+        return or(Collections.singletonList(searchFilter));
     }
 
     public JpaDynamicSpecificationBuilder or(final SearchFilter... searchFilters) {
         return or(Arrays.asList(searchFilters));
     }
 
+    /**
+     * 同 and(Iterable) ，(spec or f1 or f2 ...)
+     */
     public JpaDynamicSpecificationBuilder or(final Iterable<SearchFilter> searchFilters) {
-        for (SearchFilter filter : searchFilters)
-            this.specification = Specifications.where(this.specification).or(bySearchFilter(filter));
+        List<SearchFilter> filters = toList(searchFilters);
+        if (!filters.isEmpty()) {
+            this.specification = Specifications.where(this.specification).or(bySearchFilters(SearchFilter.Relation.OR, filters));
+            this.fetchPlan.fetchFilters(filters);
+        }
         return this;
     }
 
@@ -187,162 +179,89 @@ public class JpaDynamicSpecificationBuilder {
         return this;
     }
 
+    /**
+     * 直接指定需要和查询结果一起加载的关联属性
+     *
+     * @param associationPaths 如 parent , parent.tree
+     * @return
+     */
+    public JpaDynamicSpecificationBuilder fetch(final String... associationPaths) {
+        this.fetchPlan.fetch(associationPaths);
+        return this;
+    }
+
+    /**
+     * 排序字段中的关联属性和查询结果一起加载
+     *
+     * @param sort
+     * @return
+     */
+    public JpaDynamicSpecificationBuilder fetchOrders(final Sort sort) {
+        this.fetchPlan.fetchOrders(sort);
+        return this;
+    }
+
+    /**
+     * 转换深度以内的单值关联属性和查询结果一起加载，和 DtoUtils 的 depth 含义相同
+     * 集合属性不在分页查询中加载，查询后调用 getFetchPlan().fetchCollections(...) ，见 FetchPlan
+     *
+     * @param depth
+     * @return
+     */
+    public JpaDynamicSpecificationBuilder fetchDepth(final int depth) {
+        this.fetchPlan.fetchDepth(depth);
+        return this;
+    }
+
+    /**
+     * 转换深度中不加载的属性，同 DtoUtils.addExcludes
+     *
+     * @param clazz
+     * @param properties
+     * @return
+     */
+    public JpaDynamicSpecificationBuilder addFetchExcludes(final Class<?> clazz, final String... properties) {
+        this.fetchPlan.addExcludes(clazz, properties);
+        return this;
+    }
+
+    public FetchPlan getFetchPlan() {
+        return this.fetchPlan;
+    }
+
+    /**
+     * 有抓取计划时，先加入 join fetch (count 查询中为 join) ，再生成查询条件，查询条件中的级联属性复用这些 join
+     *
+     * @param <T>
+     * @return
+     */
     public <T> Specification<T> build() {
-        return this.specification;
+        if (this.fetchPlan.isEmpty())
+            return this.specification;
+        return this.fetchPlan.toSpecification(this.specification);
     }
 
     /**
-     * @param searchFilter 查询条件
+     * @param relation      条件之间的关系
+     * @param searchFilters 查询条件
      *                     根据于查询对象的属性，构造 SearchFilter
      *                     <p/>
      *                     假设查询条件 level 是一个对象的字符串属性，构造为 SearchFilter searchFilter = new SearchFilter("level", SearchFilter.Operator.EQ, "1");
      *                     假设查询条件 user 是一个对象，构造为 searchFilters.add(new SearchFilter("user", SearchFilter.Operator.EQ, userEntity)); // userEntity 为一个对象。
      *                     级联查询时
      *                     new SearchFilter("parent.name", SearchFilter.Operator.EQ, "pname") ，被查询对象的 parent 属性是一个对象，该对象的 name 属性等于 pname
-     * @return
+     * @return 值作为常量的 Specification ，属性路径、操作符的解析在 SpecificationTemplate 中缓存
      */
-    private <T> Specification bySearchFilter(final SearchFilter searchFilter) {
-
-        return new Specification<T>() {
-            /**
-             *
-             * @param root   查询中的条件表达式
-             * @param query  条件查询设计器
-             * @param builder 条件查询构造器
-             * @return
-             */
-            @Override
-            public Predicate toPredicate(final Root<T> root, final CriteriaQuery<?> query, final CriteriaBuilder builder) {
-
-                Path path = getNestedPath(root, searchFilter.getFieldName()); // 可以递归查找
-                /**
-                 * 取得属性代表的对象的类型
-                 */
-                Class<?> javaType = path.getJavaType();
-
-                switch (searchFilter.getOperator()) {
-
-                    case EQ:
-                        return builder.equal(path, searchFilter.getValue());
-
-                    case NE:
-                        return builder.notEqual(path, searchFilter.getValue());
-
-                    case LIKE: // like,notlike 操作要求：属性代表的对象， String 类型，才可以比较 。(只有字符串才可以 like)
-                    {
-                        if (javaType == String.class)
-                            return builder.like(path, "%" + searchFilter.getValue() + "%");
-                        else
-                            throw new IllegalArgumentException("like 操作，属性代表的对象只能为 String.class 类型 !");
-                    }
-
-                    case NLIKE: {
-                        if (javaType == String.class)
-                            return builder.notLike(path, "%" + searchFilter.getValue() + "%");
-                        else
-                            throw new IllegalArgumentException("not like 操作，属性代表的对象只能为 String.class 类型 !");
-                    }
-
-                    case STARTS_WITH: {
-                        if (javaType == String.class)
-                            return builder.like(path, searchFilter.getValue() + "%");
-                        else
-                            throw new IllegalArgumentException("STARTS_WITH 操作 ,是 like 操作，属性代表的对象只能为 String.class 类型 !");
-                    }
-
-
-                    case ENDS_WITH: {
-                        if (javaType.equals(String.class))
-                            return builder.like(path, "%" + searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("ENDS_WITH 操作 ,是 like 操作，属性代表的对象只能为 String.class 类型 !");
-                    }
-                    case GT: //great,less 操作要求：属性代表的对象，应该可以进行比较，即实现了 Comparable 才可以，这符合 java 对象比较的原则
-                    {
-                        if (Comparable.class.isAssignableFrom(javaType))
-                            return builder.greaterThan((Expression<? extends Comparable>) path, (Comparable) searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("不能比较! greaterThan 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
-                    }
-                    case GTE: {
-                        if (Comparable.class.isAssignableFrom(javaType))
-                            return builder.greaterThanOrEqualTo((Expression<? extends Comparable>) path, (Comparable) searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("不能比较! greaterThanOrEqualTo 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
-                    }
-
-                    case LT: {
-                        if (Comparable.class.isAssignableFrom(javaType))
-                            return builder.lessThan((Expression<? extends Comparable>) path, (Comparable) searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("不能比较! lessThan 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
-                    }
-                    case LTE: {
-                        if (Comparable.class.isAssignableFrom(javaType))
-                            return builder.lessThanOrEqualTo((Expression<? extends Comparable>) path, (Comparable) searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("不能比较! lessThanOrEqualTo 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
-                    }
-
-                    case IN://IN , NIN  操作要求：属性代表的对象，在集合中，对象应该可以比较
-
-                        /**
-                         * 构造单个属性的 IN 查询 ，相当于  @Query("select e from InfoEntity e where e.name in ?1")
-                         * 此时： attribute 为 "name" ,  values 为 e.name 对象的集合
-                         * @param searchFilter.getFieldName() 实体中的属性名称。对应上述列子，应是 InfoEntity 中的 province  属性。
-                         *                  如果集合为空，会抛出异常
-                         *                  处理办法是：在集合中放入一个不会影响程序运行结果的元素，进行比较。
-                         *                  例如集合元素是对象 id ，long 类型，则放入 -1 ，id 不会是负数，所以不会影响程序运行。
-                         *                  注意：
-                         *                  1. 不能是级联属性，只能比较实体中的直接属性，例如 province.website 就不行。
-                         *                  2. 如果遇到比较的是级联属性，则通过其他方法查询级联属性后再比较。如通过查询 website -> province ,之后还是直接比较 province
-                         * @param searchFilter.getValue()    用于比较的对象集合。 对应上述列子，应该是 InfoEntity 中的 e.province 对象的集合
-                         * @param <T>
-                         * @return
-                         */
-                        if (Collection.class.isAssignableFrom(searchFilter.getValue().getClass()))
-                            return path.in(searchFilter.getValue());
-                        else
-                            throw new IllegalArgumentException("不能比较! in 操作 ,被比较的对象必须是集合");
-                    case NIN:
-                        if (Collection.class.isAssignableFrom(searchFilter.getValue().getClass()))
-                            return path.in(searchFilter.getValue()).not();
-                        else
-                            throw new IllegalArgumentException("不能比较! not in 操作 ,被比较的对象必须是集合");
-
-                    case BETWEEN:
-                        //BETWEEN 操作要求：属性代表的对象，应该可以进行比较，即实现了 Comparable 才可以，这符合 java 对象比较的原则
-                        //包含两个边界 : betweenFrom <= object <= betweenTo
-                        if (Comparable.class.isAssignableFrom(javaType))
-                            return builder.between((Expression<? extends Comparable>) path, (Comparable) searchFilter.getBetweenFrom(), (Comparable) searchFilter.getBetweenTo());
-                        else
-                            throw new IllegalArgumentException("不能比较! between 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
-
-                        /**
-                         *  此时只需要 searchFilter.getFieldName() ，searchFilter.getValue() 用不到
-                         */
-                    case ISNULL:
-                        return builder.isNull(path);
-
-                    case ISNOTNULL:
-                        return builder.isNotNull(path);
-
-                    case ISEMPTY:
-                        return builder.isEmpty(path);
-
-                    case ISNOTEMPTY:
-                        return builder.isNotEmpty(path);
-
-                    case ISTRUE:
-                        return builder.isTrue(path);
-
-                    case ISFALSE:
-                        return builder.isFalse(path);
+    private <T> Specification<T> bySearchFilters(final SearchFilter.Relation relation, final List<SearchFilter> searchFilters) {
+        return SpecificationTemplate.compile(relation, searchFilters).bind(searchFilters);
+    }
 
-                    default:
-                        return builder.conjunction();
-                }
-            }
-        };
+    private static List<SearchFilter> toList(Iterable<SearchFilter> searchFilters) {
+        if (searchFilters instanceof List)
+            return (List<SearchFilter>) searchFilters;
+        List<SearchFilter> list = new ArrayList<>();
+        for (SearchFilter filter : searchFilters)
+            list.add(filter);
+        return list;
     }
 }
@@ -3,8 +3,13 @@ package org.h819.web.spring.jpa;
 import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.h819.web.jqgird.JqgridPage;
 import org.h819.web.jqgird.JqgridUtils;
+import org.h819.web.spring.jdbc.KeysetCursor;
 import org.h819.web.spring.jdbc.Order;
+import org.h819.web.spring.jdbc.PageCountCache;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
@@ -14,7 +19,15 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.repository.Repository;
 import org.springframework.util.Assert;
 
-import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import java.util.*;
 
 /**
  * 工具类，只适用于 spring data jpa ，可以用于生成 jqgrid 页数据
@@ -116,6 +129,314 @@ public class JpaUtils {
         }
     }
 
+    /**
+     * 同上，按 fetchPlan 加载关联对象
+     * <p>
+     * 查询条件、排序中的级联属性 (如 parent.name 中的 parent) 总是自动加入抓取计划，单值关联和当前页一起查询 (left join fetch)。
+     * 集合属性在当前页查询之后，每个集合一次查询加载，见 FetchPlan.fetchCollections 。
+     * 之后需要转换为 DTO 时，传入和 DtoUtils 相同的转换深度和 excludes ，一页数据的查询次数和行数无关 :
+     * new FetchPlan().addExcludes(RoleEntity.class, "treeNodes", "users", "groups").fetchDepth(1)
+     *
+     * @param entityManager 加载集合属性，需要和 repository 在同一个事务 (或 open-in-view) 中
+     * @param domainClass   查询的 entity 类型
+     * @param fetchPlan     需要加载的关联属性，可以为 null
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Page<T> getJqGridPage(EntityManager entityManager, Class<T> domainClass, Repository repository,
+                                            int currentPageNo, int pageSize, Order order, String jqgridFilters,
+                                            Specification<T> customSpecification, FetchPlan fetchPlan) {
+
+        //jpa 中起始页为 0，但传递过来的参数 currentPageNo 不能小于1
+        Assert.isTrue(currentPageNo >= 1, "currentPageNo  需要 >= 1 ");
+
+        Sort sort = getJqGirdSort(order);
+        FetchPlan plan = new FetchPlan().merge(fetchPlan).fetchOrders(sort);
+        Specification<T> filtersSpecification = null;
+        JqgridUtils.Filter filter = getJqGridFilter(jqgridFilters);
+        if (filter != null) {
+            plan.fetchFilters(filter.getSearchFilters());
+            filtersSpecification = SpecificationTemplate.compile(filter.getGroupRelation(), filter.getSearchFilters()).bind(filter.getSearchFilters());
+        }
+        Specification<T> specification = plan.toSpecification(
+                new JpaDynamicSpecificationBuilder().and(customSpecification, filtersSpecification).build());
+
+        PageRequest pageable = sort == null ? new PageRequest(currentPageNo - 1, pageSize) : new PageRequest(currentPageNo - 1, pageSize, sort);
+        Page<T> page = ((JpaSpecificationExecutor<T>) repository).findAll(specification, pageable);
+        plan.fetchCollections(entityManager, domainClass, page.getContent());
+        return page;
+    }
+
+    /**
+     * 根据 jqgrid 的 search 操作传递过来的条件(含 filters 条件)，进行 keyset (seek) 分页查询，用于记录很多的表 (如用户、日志)。
+     * <p>
+     * offset 分页翻到很深的页时，数据库需要扫描并丢弃前面所有的记录。keyset 分页以上一页最后一行排序字段的值 (游标) 作为查询条件，
+     * 形如 (name > ?) or (name = ? and id > ?) ，有合适的索引时每一页的耗时基本相同。
+     * 前端请求下一页时，传回上一页 JqgridPage.getCursor() ; 没有游标时 (第一页，或者直接跳转到某一页)，按 offset 方式查询当前页。
+     * <p>
+     * 排序属性可以为 null 时 (元模型中路径上有 optional 属性)，不生成游标，始终按 offset 方式查询，见 isKeysetSupported
+     * <p>
+     * 需要限制返回的行数，而 JpaSpecificationExecutor 分页时一定会进行 count 查询，所以直接通过 EntityManager 查询。
+     *
+     * @param entityManager       注入的 EntityManager ，//@PersistenceContext EntityManager entityManager;
+     * @param domainClass         查询的 entity 类型
+     * @param currentPageNo       当前页，实际对应 jqgrid 传递过来的 page 参数，jqgrid 规定起始页为 1
+     * @param pageSize            页面可显示行数
+     * @param order               用于排序的 order ，同 getJqGridPage
+     * @param idProperty          唯一属性，一般为 id ，追加在排序条件最后，保证顺序唯一
+     * @param cursor              上一页返回的游标，可以为 null
+     * @param jqgridFilters       通过 jqgrid search 按键查询，多个查询条件时，包含查询条件的 json 格式数据，可以为 null
+     * @param customSpecification 附加的查询条件，可以为 null
+     * @return JqgridPage.getCursor() 为下一页的游标，没有下一页时为 null
+     */
+    public static <T> JqgridPage<T> getJqGridKeysetPage(EntityManager entityManager, Class<T> domainClass,
+                                                        int currentPageNo, int pageSize, Order order, String idProperty, String cursor,
+                                                        String jqgridFilters, Specification<T> customSpecification) {
+        return getJqGridKeysetPage(entityManager, domainClass, currentPageNo, pageSize, order, idProperty, cursor,
+                jqgridFilters, customSpecification, null, null, true);
+    }
+
+    /**
+     * 同上，总数缓存在 countCache 中
+     * <p>
+     * 用户翻页时查询条件不变，总数也基本不变，不需要每一页都 count 。
+     * 缓存的命名空间为 domainClass 类名，key 为 count 语句 (jpql) 和全部参数 (包括常量)，所以 customSpecification 不同时不会混淆。
+     * 修改数据后通过 countCache.invalidate(domainClass) 清除，或者注册 PageCountCacheInvalidator 自动清除。
+     *
+     * @param countCache 总数缓存
+     * @return
+     */
+    public static <T> JqgridPage<T> getJqGridKeysetPage(EntityManager entityManager, Class<T> domainClass,
+                                                        int currentPageNo, int pageSize, Order order, String idProperty, String cursor,
+                                                        String jqgridFilters, Specification<T> customSpecification, PageCountCache countCache) {
+        Assert.notNull(countCache, "countCache 不能为 null");
+        return getJqGridKeysetPage(entityManager, domainClass, currentPageNo, pageSize, order, idProperty, cursor,
+                jqgridFilters, customSpecification, countCache, null, true);
+    }
+
+    /**
+     * 同上，按 fetchPlan 加载关联对象
+     * <p>
+     * 查询条件、排序中的级联属性 (如 parent.name 中的 parent) 总是自动加入抓取计划。
+     * 之后需要转换为 DTO 时，传入和 DtoUtils 相同的转换深度和 excludes ，当前页的关联对象一次加载，不再逐行查询 :
+     * new FetchPlan().addExcludes(RoleEntity.class, "treeNodes", "users", "groups").fetchDepth(1)
+     *
+     * @param countCache 总数缓存，可以为 null
+     * @param fetchPlan  需要加载的关联属性，见 FetchPlan
+     * @return
+     */
+    public static <T> JqgridPage<T> getJqGridKeysetPage(EntityManager entityManager, Class<T> domainClass,
+                                                        int currentPageNo, int pageSize, Order order, String idProperty, String cursor,
+                                                        String jqgridFilters, Specification<T> customSpecification, PageCountCache countCache,
+                                                        FetchPlan fetchPlan) {
+        return getJqGridKeysetPage(entityManager, domainClass, currentPageNo, pageSize, order, idProperty, cursor,
+                jqgridFilters, customSpecification, countCache, fetchPlan, true);
+    }
+
+    /**
+     * 同上，不计算总数，每一页只需要一次查询
+     * <p>
+     * 多取一行判断是否有下一页，JqgridPage.isHasNext() 表示是否有下一页，此时 records 和 total 是估计值，见 JqgridPage
+     *
+     * @return
+     */
+    public static <T> JqgridPage<T> getJqGridKeysetSlicePage(EntityManager entityManager, Class<T> domainClass,
+                                                             int currentPageNo, int pageSize, Order order, String idProperty, String cursor,
+                                                             String jqgridFilters, Specification<T> customSpecification) {
+        return getJqGridKeysetPage(entityManager, domainClass, currentPageNo, pageSize, order, idProperty, cursor,
+                jqgridFilters, customSpecification, null, null, false);
+    }
+
+    /**
+     * @param countCache 总数缓存，为 null 时每次都计算总数
+     * @param fetchPlan  附加的抓取计划，可以为 null
+     * @param countTotal 是否计算总数
+     */
+    private static <T> JqgridPage<T> getJqGridKeysetPage(EntityManager entityManager, Class<T> domainClass,
+                                                         int currentPageNo, int pageSize, Order order, String idProperty, String cursor,
+                                                         String jqgridFilters, Specification<T> customSpecification,
+                                                         PageCountCache countCache, FetchPlan fetchPlan, boolean countTotal) {
+
+        Assert.isTrue(currentPageNo >= 1, "currentPageNo  需要 >= 1 ");
+        Assert.isTrue(pageSize > 0, "pageSize  需要 > 0 ");
+
+        // jqgrid 的查询条件作为命名参数，jpql 只和查询条件的形状有关，可以命中 hibernate 的 query plan cache
+        JqgridUtils.Filter filter = getJqGridFilter(jqgridFilters);
+        SpecificationTemplate.ParameterizedSpecification<T> filtersSpecification = filter == null ? null :
+                SpecificationTemplate.compile(filter.getGroupRelation(), filter.getSearchFilters()).bindParameters(filter.getSearchFilters());
+        Specification<T> specification = new JpaDynamicSpecificationBuilder().and(customSpecification, filtersSpecification).build();
+
+        Sort sort = getJqGirdSort(order);
+        List<Order> orders = new ArrayList<>();
+        if (sort != null)
+            for (Sort.Order o : sort)
+                orders.add(new Order(o.getProperty(), o.getDirection().isAscending() ? Order.Direction.ASC : Order.Direction.DESC));
+        List<Order> keysetOrders = KeysetCursor.createKeysetOrders(orders, idProperty);
+        boolean keyset = isKeysetSupported(entityManager, domainClass, keysetOrders);
+        Object[] cursorValues = keyset ? KeysetCursor.decode(keysetOrders, cursor) : null;
+
+        // 查询条件、排序中的关联对象和当前页一起加载，查询条件和排序复用抓取的 join
+        FetchPlan plan = new FetchPlan().merge(fetchPlan).fetchOrders(keysetOrders);
+        if (filter != null)
+            plan.fetchFilters(filter.getSearchFilters());
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+
+        // 计算总数
+        int totalRecords = -1;
+        if (countTotal) {
+            CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
+            Root<T> countRoot = countQuery.from(domainClass);
+            plan.apply(countRoot, countQuery);
+            Predicate countPredicate = specification.toPredicate(countRoot, countQuery, builder);
+            if (countPredicate != null)
+                countQuery.where(countPredicate);
+            countQuery.select(builder.count(countRoot));
+            TypedQuery<Long> countTypedQuery = entityManager.createQuery(countQuery);
+            if (filtersSpecification != null)
+                filtersSpecification.bindTo(countTypedQuery);
+            if (countCache == null)
+                totalRecords = countTypedQuery.getSingleResult().intValue();
+            else
+                totalRecords = countCache.getCount(domainClass.getName(), getCountCacheKey(countTypedQuery), () -> countTypedQuery.getSingleResult().intValue());
+            if (totalRecords == 0)
+                return new JqgridPage<>(pageSize, 0, 0, Collections.emptyList());
+        }
+
+        // 查询当前页，多取一行，用来判断是否有下一页
+        CriteriaQuery<T> query = builder.createQuery(domainClass);
+        Root<T> root = query.from(domainClass);
+        plan.apply(root, query);
+        List<Predicate> predicates = new ArrayList<>(2);
+        Predicate predicate = specification.toPredicate(root, query, builder);
+        if (predicate != null)
+            predicates.add(predicate);
+        if (cursorValues != null)
+            predicates.add(createKeysetPredicate(root, builder, keysetOrders, cursorValues));
+        query.where(predicates.toArray(new Predicate[0]));
+        List<javax.persistence.criteria.Order> sortOrders = new ArrayList<>(keysetOrders.size());
+        for (Order o : keysetOrders) {
+            Path<?> path = FetchPlan.getPath(root, o.getProperty());
+            sortOrders.add(o.getDirection() == Order.Direction.DESC ? builder.desc(path) : builder.asc(path));
+        }
+        query.orderBy(sortOrders);
+
+        TypedQuery<T> typedQuery = entityManager.createQuery(query);
+        if (filtersSpecification != null)
+            filtersSpecification.bindTo(typedQuery);
+        if (cursorValues == null) // 没有游标，直接跳转到某一页
+            typedQuery.setFirstResult((currentPageNo - 1) * pageSize);
+        typedQuery.setMaxResults(pageSize + 1);
+        List<T> content = typedQuery.getResultList();
+
+        if (!countTotal) // 估计值 : 有下一页时 total = page + 1
+            totalRecords = (currentPageNo - 1) * pageSize + content.size();
+
+        if (content.size() <= pageSize) {
+            plan.fetchCollections(entityManager, domainClass, content);
+            return new JqgridPage<>(pageSize, currentPageNo - 1, totalRecords, content);
+        }
+
+        content = new ArrayList<>(content.subList(0, pageSize));
+        plan.fetchCollections(entityManager, domainClass, content);
+        JqgridPage<T> page = new JqgridPage<>(pageSize, currentPageNo - 1, totalRecords, content);
+        if (keyset) {
+            BeanWrapperImpl last = new BeanWrapperImpl(content.get(pageSize - 1));
+            Object[] lastValues = new Object[keysetOrders.size()];
+            for (int i = 0; i < lastValues.length; i++)
+                lastValues[i] = last.getPropertyValue(keysetOrders.get(i).getProperty());
+            page.setCursor(KeysetCursor.encode(keysetOrders, lastValues));
+        }
+        page.setHasNext(true);
+        return page;
+    }
+
+    /**
+     * 排序属性都不能为 null 时，才使用 keyset 分页
+     * 各个数据库中 null 的排序位置不同 (mysql 最小，oracle , postgresql 最大)，criteria 中也不能指定 nulls first / last ，
+     * keyset 条件 (c0 > ?) 不包含 null ，会漏掉记录。所以属性路径上任意一个属性为 optional (包括关联对象) 时，按 offset 方式分页。
+     */
+    private static boolean isKeysetSupported(EntityManager entityManager, Class<?> domainClass, List<Order> keysetOrders) {
+        for (Order order : keysetOrders) {
+            ManagedType<?> type = entityManager.getMetamodel().managedType(domainClass);
+            for (String name : StringUtils.split(order.getProperty(), '.')) {
+                if (type == null)
+                    return false;
+                Attribute<?, ?> attribute = type.getAttribute(name);
+                if (!(attribute instanceof SingularAttribute) || ((SingularAttribute<?, ?>) attribute).isOptional())
+                    return false;
+                Type<?> attributeType = ((SingularAttribute<?, ?>) attribute).getType();
+                type = attributeType instanceof ManagedType ? (ManagedType<?>) attributeType : null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 总数缓存的 key : count 语句 (hibernate 生成的 jpql) 和全部参数的值
+     * -
+     * criteria 查询中的常量由 hibernate 处理 (hibernate.criteria.literal_handling_mode)，默认时数字直接写在 jpql 中，
+     * 字符串等作为隐式参数 (:param0 ...)。entityManager.createQuery(criteriaQuery) 返回的 TypedQuery 只是适配器，
+     * getParameters() 只包含显式的参数 (builder.parameter)，不包含隐式参数，只差一个常量 (或者 in 的一个元素) 的两个查询 key 相同。
+     * 所以从 unwrap 得到的 jpql 查询中取语句和全部参数，不依赖 literal_handling_mode 的设置。
+     */
+    private static String getCountCacheKey(TypedQuery<Long> countQuery) {
+        org.hibernate.query.Query<?> jpqlQuery = countQuery.unwrap(org.hibernate.query.Query.class);
+        StringBuilder builder = new StringBuilder(jpqlQuery.getQueryString());
+        List<Parameter<?>> parameters = new ArrayList<>(jpqlQuery.getParameters());
+        parameters.sort(Comparator.comparing(p -> String.valueOf(p.getName() != null ? p.getName() : p.getPosition())));
+        for (Parameter<?> parameter : parameters) {
+            builder.append(' ').append(parameter.getName() != null ? parameter.getName() : parameter.getPosition())
+                    .append('=').append(jpqlQuery.getParameterValue(parameter));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * keyset 条件 (c0 > ?) or (c0 = ? and c1 > ?) ... ，desc 时为 <
+     * 游标中的值转换为属性的类型再比较，如 Long -> Integer , Timestamp -> Date
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Predicate createKeysetPredicate(Root<T> root, CriteriaBuilder builder, List<Order> keysetOrders, Object[] cursorValues) {
+
+        List<Predicate> or = new ArrayList<>(keysetOrders.size());
+        for (int i = 0; i < keysetOrders.size(); i++) {
+            List<Predicate> and = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                Path path = FetchPlan.getPath(root, keysetOrders.get(j).getProperty());
+                and.add(builder.equal(path, convertKeysetValue(cursorValues[j], path.getJavaType())));
+            }
+            Path path = FetchPlan.getPath(root, keysetOrders.get(i).getProperty());
+            Comparable value = (Comparable) convertKeysetValue(cursorValues[i], path.getJavaType());
+            and.add(keysetOrders.get(i).getDirection() == Order.Direction.DESC ? builder.lessThan(path, value) : builder.greaterThan(path, value));
+            or.add(builder.and(and.toArray(new Predicate[0])));
+        }
+        return builder.or(or.toArray(new Predicate[0]));
+    }
+
+    private static Object convertKeysetValue(Object value, Class<?> javaType) {
+        if (javaType.isInstance(value))
+            return value;
+        return DefaultConversionService.getSharedInstance().convert(value, javaType);
+    }
+
+    /**
+     * 解析 jqgrid filters 参数，查询条件的值作为命名参数 (SpecificationTemplate.bindParameters)，查询前需要调用 bindTo
+     *
+     * @param jqgridFilters
+     * @return filters 为空时返回 null
+     */
+    private static JqgridUtils.Filter getJqGridFilter(String jqgridFilters) {
+
+        if (jqgridFilters == null || jqgridFilters.isEmpty())
+            return null;
+
+        JqgridUtils.Filter f = JqgridUtils.getSearchFilters(jqgridFilters);
+        if (f.getSearchFilters().isEmpty())
+            return null;
+        return f;
+    }
+
     /**
      * 无查询条件，进行分页查询。
      * findAll() 方法，会进行两次查询，先做 count 查询，之后是具体查询，所以 Page 中包含了总数和具体查询结果集
@@ -0,0 +1,84 @@
+package org.h819.web.spring.jpa;
+
+import lombok.extern.slf4j.Slf4j;
+import org.h819.web.spring.jdbc.PageCountCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Description : TODO(entity 增删改提交后，清除 PageCountCache 中该 entity 的总数)
+ * -
+ * 注册为 hibernate 的 post-commit 事件监听，事务提交后才清除，回滚时不清除。
+ * 命名空间为 entity 类名，和 JpaUtils.getJqGridKeysetPage 一致。
+ * -
+ * 注意 : jpql 批量 update / delete (如 @Modifying 的 repository 方法) 和 jdbc 修改不会触发事件，需要手动调用 PageCountCache.invalidate ，否则在 ttl 之后才会更新。
+ * -
+ * 使用 :
+ * PageCountCacheInvalidator.register(entityManagerFactory, pageCountCache);
+ */
+@Slf4j
+public class PageCountCacheInvalidator implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private final PageCountCache countCache;
+
+    private PageCountCacheInvalidator(PageCountCache countCache) {
+        this.countCache = countCache;
+    }
+
+    /**
+     * 在 hibernate 中注册监听
+     *
+     * @param entityManagerFactory
+     * @param countCache
+     */
+    public static void register(EntityManagerFactory entityManagerFactory, PageCountCache countCache) {
+        PageCountCacheInvalidator invalidator = new PageCountCacheInvalidator(countCache);
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, invalidator);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, invalidator);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, invalidator);
+        log.info("page count cache invalidator registered");
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        countCache.invalidate(event.getPersister().getEntityName());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        // 修改也可能影响查询条件的结果，如状态字段
+        countCache.invalidate(event.getPersister().getEntityName());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        countCache.invalidate(event.getPersister().getEntityName());
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    // hibernate 5.2 中的方法名称 (拼写如此)，5.3 之后为 requiresPostCommitHandling
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return true;
+    }
+
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return true;
+    }
+}
@@ -33,12 +33,12 @@ public class SearchFilter {
         Assert.isTrue(!operator.equals(Operator.BETWEEN), "非 between 操作，operator 不能为 Operator.BETWEEN"); // 该构造方法，不能用于 between 
         Assert.hasText(fieldName, "fieldName 没有填写");
 
-        //判断 value = null 时的例外
+        //判断 value = null 时的例外，eq / ne 的值为 null 时表示 is null / is not null
         Operator[] operators = {Operator.BETWEEN, Operator.ISNULL, Operator.ISNOTNULL, Operator.ISEMPTY,
-                Operator.ISNOTEMPTY, Operator.ISTRUE, Operator.ISFALSE};
+                Operator.ISNOTEMPTY, Operator.ISTRUE, Operator.ISFALSE, Operator.EQ, Operator.NE};
         List<Operator> list = Arrays.asList(operators);
         if (!list.contains(operator))
-            Assert.notNull(value, "非 between / is**  操作，value 不能为 null");
+            Assert.notNull(value, "非 between / is** / eq / ne 操作，value 不能为 null");
 
         this.fieldName = fieldName;
         this.value = value;
@@ -0,0 +1,365 @@
+package org.h819.web.spring.jpa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.Query;
+import javax.persistence.criteria.*;
+import java.util.*;
+
+/**
+ * Description : TODO(编译后的查询条件模板，JpaDynamicSpecificationBuilder 使用)
+ * -
+ * 一组 SearchFilter 的 "形状" : 每个条件的属性路径、操作符，以及条件之间的关系 (and / or)。
+ * jqgrid 等页面上的查询，形状只有有限的几种，每次请求只是值不同。
+ * 所以按形状编译一次并缓存 (见 compile)：预先拆分级联属性 (parent.name)、检查操作符，之后每次请求只需要绑定值。
+ * -
+ * 绑定值的两种方式 :
+ * 1. bind : 值作为常量 (literal) ，生成普通的 Specification ，可以用于 repository.findAll(specification) ;
+ * hibernate 默认把数字常量直接写入 jpql ，值不同时 jpql 不同，query plan cache 不能命中，
+ * 可以设置 hibernate.criteria.literal_handling_mode=bind ，常量全部作为参数绑定。
+ * 2. bindParameters : 值作为 ParameterExpression (命名参数 :sf0 , :sf1 ...)，jpql 只和形状有关，query plan cache 可以命中。
+ * 需要自己创建 TypedQuery 后调用 ParameterizedSpecification.bindTo(query) 设置参数的值，不能用于 repository.findAll ，见 JpaUtils.getJqGridKeysetPage
+ * 两种方式都把值转换为属性的类型 (见 convert)，如 jqgrid 传入的字符串 "10" -> Long 。
+ * eq / ne 的值为 null (或者转换后为 null) 时，条件为 is null / is not null 。
+ * -
+ * 模板不可变，线程安全。
+ */
+public final class SpecificationTemplate {
+
+    // 参数名称前缀，避免和其他条件中的参数名称冲突
+    private static final String PARAMETER_PREFIX = "sf";
+
+    // 形状由页面传入的查询条件决定，限制缓存的数量
+    private static final Cache<String, SpecificationTemplate> TEMPLATES = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .recordStats()
+            .build();
+
+    private final SearchFilter.Relation relation;
+    private final Condition[] conditions;
+
+    private SpecificationTemplate(SearchFilter.Relation relation, Condition[] conditions) {
+        this.relation = relation;
+        this.conditions = conditions;
+    }
+
+    /**
+     * 得到查询条件的模板，第一次遇到该形状时编译，之后从缓存中获取
+     *
+     * @param relation 条件之间的关系
+     * @param filters  查询条件，只使用其属性名称和操作符
+     * @return
+     */
+    public static SpecificationTemplate compile(SearchFilter.Relation relation, Collection<SearchFilter> filters) {
+
+        StringBuilder key = new StringBuilder(relation.name());
+        for (SearchFilter filter : filters)
+            key.append('|').append(filter.getFieldName()).append(' ').append(filter.getOperator());
+
+        SpecificationTemplate template = TEMPLATES.getIfPresent(key.toString());
+        if (template == null) {
+            Condition[] conditions = new Condition[filters.size()];
+            int i = 0;
+            for (SearchFilter filter : filters)
+                conditions[i++] = new Condition(filter.getFieldName(), filter.getOperator());
+            template = new SpecificationTemplate(relation, conditions);
+            TEMPLATES.put(key.toString(), template);
+        }
+        return template;
+    }
+
+    /**
+     * @return 模板缓存的命中统计
+     */
+    public static CacheStats stats() {
+        return TEMPLATES.stats();
+    }
+
+    /**
+     * 绑定值，值作为常量
+     *
+     * @param filters 查询条件，形状需要和编译时相同
+     * @param <T>
+     * @return
+     */
+    public <T> Specification<T> bind(Collection<SearchFilter> filters) {
+        final Object[] values = getValues(filters);
+        return (root, query, builder) -> toPredicate(root, builder, values, (index, javaType, value) -> builder.literal(convert(value, javaType)));
+    }
+
+    /**
+     * 绑定值，值作为命名参数
+     *
+     * @param filters 查询条件，形状需要和编译时相同
+     * @param <T>
+     * @return 创建 TypedQuery 后，需要调用 bindTo(query) 设置参数的值
+     */
+    public <T> ParameterizedSpecification<T> bindParameters(Collection<SearchFilter> filters) {
+        return new ParameterizedSpecification<>(this, getValues(filters));
+    }
+
+    /**
+     * 按条件的顺序取出值，between 占两个位置
+     */
+    private Object[] getValues(Collection<SearchFilter> filters) {
+
+        if (filters.size() != conditions.length)
+            throw new IllegalArgumentException("查询条件和模板的形状不一致");
+
+        Object[] values = new Object[conditions.length * 2];
+        int i = 0;
+        for (SearchFilter filter : filters) {
+            if (!filter.getFieldName().equals(conditions[i].fieldName) || filter.getOperator() != conditions[i].operator)
+                throw new IllegalArgumentException("查询条件和模板的形状不一致 : " + filter.getFieldName() + " " + filter.getOperator());
+            if (filter.getOperator() == SearchFilter.Operator.BETWEEN) {
+                values[2 * i] = filter.getBetweenFrom();
+                values[2 * i + 1] = filter.getBetweenTo();
+            } else
+                values[2 * i] = filter.getValue();
+            i++;
+        }
+        return values;
+    }
+
+    private Predicate toPredicate(Root<?> root, CriteriaBuilder builder, Object[] values, Operand operand) {
+        Predicate[] predicates = new Predicate[conditions.length];
+        for (int i = 0; i < conditions.length; i++)
+            predicates[i] = conditions[i].toPredicate(root, builder, values, operand, 2 * i);
+        return relation == SearchFilter.Relation.OR ? builder.or(predicates) : builder.and(predicates);
+    }
+
+    /**
+     * 值转换为属性的类型，如 jqgrid 传入的字符串 "10" -> Long , "true" -> boolean
+     */
+    private static Object convert(Object value, Class<?> javaType) {
+        if (value == null || javaType.isInstance(value))
+            return value;
+        return DefaultConversionService.getSharedInstance().convert(value, javaType);
+    }
+
+    /**
+     * in 操作的集合，每个元素转换为属性的类型
+     */
+    private static List<Object> convertAll(Collection<?> values, Class<?> javaType) {
+        List<Object> list = new ArrayList<>(values.size());
+        for (Object value : values)
+            list.add(convert(value, javaType));
+        return list;
+    }
+
+    /**
+     * 值在查询中的表达式，常量或者参数
+     */
+    private interface Operand {
+        /**
+         * @param index    值的位置
+         * @param javaType 值的类型，一般为属性的类型
+         * @param value    值，like 操作时为添加了通配符 % 的字符串
+         * @return
+         */
+        Expression<?> get(int index, Class<?> javaType, Object value);
+    }
+
+    /**
+     * 值作为命名参数的 Specification
+     * 每次请求一个实例，不要在线程间共享
+     *
+     * @param <T>
+     */
+    public static final class ParameterizedSpecification<T> implements Specification<T> {
+
+        private final SpecificationTemplate template;
+        private final Object[] values;
+        // toPredicate 时记录参数的类型和值，bindTo 时按类型转换值
+        private final Class<?>[] javaTypes;
+        private final Object[] parameterValues;
+
+        private ParameterizedSpecification(SpecificationTemplate template, Object[] values) {
+            this.template = template;
+            this.values = values;
+            this.javaTypes = new Class<?>[values.length];
+            this.parameterValues = new Object[values.length];
+        }
+
+        @Override
+        public Predicate toPredicate(Root<T> root, CriteriaQuery<?> query, CriteriaBuilder builder) {
+            return template.toPredicate(root, builder, values, (index, javaType, value) -> {
+                javaTypes[index] = javaType;
+                parameterValues[index] = value;
+                return builder.parameter(javaType, PARAMETER_PREFIX + index);
+            });
+        }
+
+        /**
+         * 设置参数的值，需要在 toPredicate 之后 (即 entityManager.createQuery(criteriaQuery) 之后) 调用
+         * 值转换为属性的类型，如 jqgrid 传入的字符串 "10" -> Long
+         *
+         * @param query
+         */
+        public void bindTo(Query query) {
+            for (int i = 0; i < parameterValues.length; i++) {
+                if (javaTypes[i] != null)
+                    query.setParameter(PARAMETER_PREFIX + i, convert(parameterValues[i], javaTypes[i]));
+            }
+        }
+    }
+
+    /**
+     * 一个编译后的条件 : 拆分好的属性路径和操作符
+     */
+    private static final class Condition {
+
+        private final String fieldName;
+        // tree.parent.name -> {tree, parent, name}
+        private final String[] path;
+        private final SearchFilter.Operator operator;
+
+        private Condition(String fieldName, SearchFilter.Operator operator) {
+            this.fieldName = fieldName;
+            this.path = fieldName.split("\\.");
+            this.operator = operator;
+        }
+
+        /**
+         * 逐层深入构造 path ，见 JpaDynamicSpecificationBuilder 说明
+         * root.get("tree").get("parent").get("name") ，已经有 join / fetch 的级联属性复用 join ，见 FetchPlan
+         */
+        private Path getNestedPath(Root<?> root) {
+            return FetchPlan.getPath(root, path);
+        }
+
+        /**
+         * @param index 值的位置，between 时 index 为起始值，index + 1 为结束值
+         */
+        @SuppressWarnings("unchecked")
+        private Predicate toPredicate(Root<?> root, CriteriaBuilder builder, Object[] values, Operand operand, int index) {
+
+            Path path = getNestedPath(root);
+            Object value = values[index];
+            /**
+             * 取得属性代表的对象的类型
+             */
+            Class<?> javaType = path.getJavaType();
+
+            switch (operator) {
+
+                // 值为 null ，或者转换后为 null (如数字属性传入空字符串) 时，为 is null / is not null
+                case EQ:
+                    if (convert(value, javaType) == null)
+                        return builder.isNull(path);
+                    return builder.equal(path, operand.get(index, javaType, value));
+
+                case NE:
+                    if (convert(value, javaType) == null)
+                        return builder.isNotNull(path);
+                    return builder.notEqual(path, operand.get(index, javaType, value));
+
+                // like,notlike 操作要求：属性代表的对象， String 类型，才可以比较 。(只有字符串才可以 like)
+                case LIKE: {
+                    if (javaType == String.class)
+                        return builder.like(path, (Expression<String>) operand.get(index, String.class, "%" + value + "%"));
+                    else
+                        throw new IllegalArgumentException("like 操作，属性代表的对象只能为 String.class 类型 !");
+                }
+
+                case NLIKE: {
+                    if (javaType == String.class)
+                        return builder.notLike(path, (Expression<String>) operand.get(index, String.class, "%" + value + "%"));
+                    else
+                        throw new IllegalArgumentException("not like 操作，属性代表的对象只能为 String.class 类型 !");
+                }
+
+                case STARTS_WITH: {
+                    if (javaType == String.class)
+                        return builder.like(path, (Expression<String>) operand.get(index, String.class, value + "%"));
+                    else
+                        throw new IllegalArgumentException("STARTS_WITH 操作 ,是 like 操作，属性代表的对象只能为 String.class 类型 !");
+                }
+
+                case ENDS_WITH: {
+                    if (javaType == String.class)
+                        return builder.like(path, (Expression<String>) operand.get(index, String.class, "%" + value));
+                    else
+                        throw new IllegalArgumentException("ENDS_WITH 操作 ,是 like 操作，属性代表的对象只能为 String.class 类型 !");
+                }
+
+                //great,less 操作要求：属性代表的对象，应该可以进行比较，即实现了 Comparable 才可以，这符合 java 对象比较的原则
+                case GT: {
+                    if (Comparable.class.isAssignableFrom(javaType))
+                        return builder.greaterThan((Expression<? extends Comparable>) path, (Expression<? extends Comparable>) operand.get(index, javaType, value));
+                    else
+                        throw new IllegalArgumentException("不能比较! greaterThan 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
+                }
+                case GTE: {
+                    if (Comparable.class.isAssignableFrom(javaType))
+                        return builder.greaterThanOrEqualTo((Expression<? extends Comparable>) path, (Expression<? extends Comparable>) operand.get(index, javaType, value));
+                    else
+                        throw new IllegalArgumentException("不能比较! greaterThanOrEqualTo 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
+                }
+                case LT: {
+                    if (Comparable.class.isAssignableFrom(javaType))
+                        return builder.lessThan((Expression<? extends Comparable>) path, (Expression<? extends Comparable>) operand.get(index, javaType, value));
+                    else
+                        throw new IllegalArgumentException("不能比较! lessThan 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
+                }
+                case LTE: {
+                    if (Comparable.class.isAssignableFrom(javaType))
+                        return builder.lessThanOrEqualTo((Expression<? extends Comparable>) path, (Expression<? extends Comparable>) operand.get(index, javaType, value));
+                    else
+                        throw new IllegalArgumentException("不能比较! lessThanOrEqualTo 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
+                }
+
+                //IN , NIN  操作要求：属性代表的对象，在集合中，对象应该可以比较，见 JpaDynamicSpecificationBuilder 说明
+                //集合的大小不固定，jpql 会随集合大小变化，所以集合始终作为常量
+                case IN:
+                    if (value instanceof Collection)
+                        return path.in(convertAll((Collection<?>) value, javaType));
+                    else
+                        throw new IllegalArgumentException("不能比较! in 操作 ,被比较的对象必须是集合");
+                case NIN:
+                    if (value instanceof Collection)
+                        return path.in(convertAll((Collection<?>) value, javaType)).not();
+                    else
+                        throw new IllegalArgumentException("不能比较! not in 操作 ,被比较的对象必须是集合");
+
+                //BETWEEN 操作要求：属性代表的对象，应该可以进行比较，即实现了 Comparable 才可以，这符合 java 对象比较的原则
+                //包含两个边界 : betweenFrom <= object <= betweenTo
+                case BETWEEN:
+                    if (Comparable.class.isAssignableFrom(javaType))
+                        return builder.between((Expression<? extends Comparable>) path,
+                                (Expression<? extends Comparable>) operand.get(index, javaType, value),
+                                (Expression<? extends Comparable>) operand.get(index + 1, javaType, values[index + 1]));
+                    else
+                        throw new IllegalArgumentException("不能比较! between 操作 ,被比较的对象，应该实现了 Comparable 接口，对象之间能相互比较 !");
+
+                /**
+                 *  此时只需要属性名称，值用不到
+                 */
+                case ISNULL:
+                    return builder.isNull(path);
+
+                case ISNOTNULL:
+                    return builder.isNotNull(path);
+
+                case ISEMPTY:
+                    return builder.isEmpty(path);
+
+                case ISNOTEMPTY:
+                    return builder.isNotEmpty(path);
+
+                case ISTRUE:
+                    return builder.isTrue(path);
+
+                case ISFALSE:
+                    return builder.isFalse(path);
+
+                default:
+                    return builder.conjunction();
+            }
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package org.h819.commons.file;
 
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.h819.commons.MyDateUtils;
 import org.h819.commons.MyFastJsonUtils;
+import org.h819.commons.file.excel.poi.vo.ColumnarLine;
 import org.h819.commons.file.excel.poi.vo.ExcelCell;
 import org.h819.commons.file.excel.poi.vo.ExcelLine;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 /**
  * Description : TODO()
  * User: h819
@@ -34,6 +47,46 @@ public class MyExcelUtilsTest {
     @Test
     public void readExcel() throws Exception {
 
+        File file = File.createTempFile("readExcel", ".xlsx");
+        file.deleteOnExit();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); FileOutputStream out = new FileOutputStream(file)) {
+            XSSFSheet sheet = workbook.createSheet("data");
+            String[][] rows = {{"a", "1"}, {"b", "2"}, {"a", "1"}};
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(rows[i][0]);
+                row.createCell(2).setCellValue(Double.parseDouble(rows[i][1]));
+            }
+            workbook.write(out);
+        }
+
+        // 流式读取，允许重复行
+        List<ExcelLine> lines = MyExcelUtils.readExcel(file, true);
+        assertEquals(3, lines.size());
+        assertEquals("data", lines.get(1).getSheetName());
+        assertEquals(1, lines.get(1).getLineNumber());
+        assertEquals("b", MyExcelUtils.getCellValueByColumnAlphaTitleName(lines.get(1), "A"));
+        assertNull(MyExcelUtils.getCellValueByColumnAlphaTitleName(lines.get(1), "B")); // 空白单元格
+        assertEquals("2", MyExcelUtils.getCellValueByColumnAlphaTitleName(lines.get(1), "C"));
+
+        // 去掉重复行
+        List<Integer> lineNumbers = new ArrayList<>();
+        long count = MyExcelUtils.readExcel(file, MyDateUtils.datePattern, null, "data", false, line -> lineNumbers.add(line.getLineNumber()));
+        assertEquals(2, count);
+        assertEquals(Arrays.asList(0, 1), lineNumbers);
+
+        // 按列号保存的行
+        List<ColumnarLine> columnarLines = new ArrayList<>();
+        MyExcelUtils.readExcelColumnar(file, MyDateUtils.datePattern, 0, null, true, columnarLines::add);
+        assertEquals(3, columnarLines.size());
+        ColumnarLine columnarLine = columnarLines.get(1);
+        assertEquals(3, columnarLine.size());
+        assertEquals("b", columnarLine.get(0));
+        assertNull(columnarLine.get("B"));
+        assertEquals("2", columnarLine.get("c"));
+        assertNull(columnarLine.get(10));
+        assertEquals("2", MyExcelUtils.getCellValueByColumnAlphaTitleName(columnarLine.toExcelLine(), "C"));
+        assertEquals(columnarLine.toString(), ColumnarLine.of(columnarLine.toExcelLine()).toString());
     }
 
     @Test
@@ -0,0 +1,65 @@
+package org.h819.commons.file.base;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(DuplicateFileFinder : 大小相同内容不同、开头结尾相同中间不同的文件不算重复，文件夹参数重叠时文件不重复计算)
+ */
+public class DuplicateFileFinderTest {
+
+    private Path dir;
+    private Path sub;
+
+    @Before
+    public void createFiles() throws IOException {
+        dir = Files.createTempDirectory("duplicate");
+        sub = Files.createDirectories(dir.resolve("x/y"));
+
+        Files.write(dir.resolve("a.txt"), "hello".getBytes());
+        Files.write(sub.resolve("a-copy.txt"), "hello".getBytes());
+        Files.write(dir.resolve("b.txt"), "world".getBytes()); // 大小相同，内容不同
+        Files.write(Files.createDirectories(dir.resolve("$RECYCLE.BIN")).resolve("a.txt"), "hello".getBytes());
+        Files.write(dir.resolve("empty1"), new byte[0]);
+        Files.write(dir.resolve("empty2"), new byte[0]);
+
+        byte[] big = new byte[3 * 1024 * 1024];
+        new Random(1).nextBytes(big);
+        Files.write(dir.resolve("big1"), big);
+        Files.write(sub.resolve("big2"), big);
+        big[big.length / 2] ^= 1; // 开头结尾相同，只有中间不同
+        Files.write(dir.resolve("big3"), big);
+    }
+
+    @Test
+    public void find() throws IOException {
+        // sub 在 dir 中，其中的文件只计算一次
+        List<DuplicateFileFinder.DuplicateGroup> groups;
+        try (Stream<DuplicateFileFinder.DuplicateGroup> stream = new DuplicateFileFinder().find(null, Arrays.asList(dir.toFile(), sub.toFile()))) {
+            groups = stream.sorted((g1, g2) -> Long.compare(g1.getSize(), g2.getSize())).collect(Collectors.toList());
+        }
+
+        assertEquals(2, groups.size());
+        assertEquals(Arrays.asList(dir.resolve("a.txt").toAbsolutePath(), sub.resolve("a-copy.txt").toAbsolutePath()), groups.get(0).getFiles());
+        assertEquals(Arrays.asList(dir.resolve("big1").toAbsolutePath(), sub.resolve("big2").toAbsolutePath()), groups.get(1).getFiles());
+        assertEquals(3 * 1024 * 1024, groups.get(1).getWastedBytes());
+    }
+
+    @Test
+    public void findDuplicateFiles() {
+        assertEquals(2, FileUtilsBase.findDuplicateFiles(Arrays.asList(dir.toFile())).size());
+        assertTrue(FileUtilsBase.findDuplicateFiles(file -> file.getName().endsWith(".txt"), Arrays.asList(dir.toFile())).isEmpty());
+    }
+}
@@ -0,0 +1,66 @@
+package org.h819.commons.file.csv;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Description : TODO(流式读取、去重、行索引)
+ */
+public class StreamingCSVReaderTest {
+
+    @Test
+    public void readAndIndex() throws Exception {
+
+        File file = File.createTempFile("streaming", ".csv");
+        file.deleteOnExit();
+        // GBK ，带空行、引号中的换行、重复行
+        String content = "编号,名称\r\n\r\n1,\"第一\n行\"\r\n2,第二行\n1,\"第一\n行\"\n3,\"引号\"\"\"";
+        Files.write(file.toPath(), content.getBytes("GBK"));
+
+        StreamingCSVReader reader = new StreamingCSVReader(file, CSVFormat.DEFAULT, Charset.forName("GBK"));
+
+        List<String> names = new ArrayList<>();
+        assertEquals(5, reader.read(true, record -> names.add(record.get(1))));
+        assertEquals("第一\n行", names.get(1));
+
+        assertEquals(4, reader.read(false, record -> {
+        }));
+
+        assertEquals(5, reader.getLineCount());
+        CSVRecord record = reader.getRecord(4);
+        assertEquals("引号\"", record.get(1));
+        assertEquals(5, record.getRecordNumber());
+        assertEquals("第二行", reader.getRecord(2).get(1));
+        assertEquals("编号", reader.getRecord(0).get(0));
+        assertNull(reader.getRecord(5));
+    }
+
+    @Test
+    public void utf8Bom() throws Exception {
+
+        File file = File.createTempFile("bom", ".csv");
+        file.deleteOnExit();
+        byte[] body = "名称,数量\n苹果,1\n".getBytes("UTF-8");
+        byte[] bytes = new byte[body.length + 3];
+        bytes[0] = (byte) 0xEF;
+        bytes[1] = (byte) 0xBB;
+        bytes[2] = (byte) 0xBF;
+        System.arraycopy(body, 0, bytes, 3, body.length);
+        Files.write(file.toPath(), bytes);
+
+        StreamingCSVReader reader = new StreamingCSVReader(file);
+        assertEquals("UTF-8", reader.getCharset().name());
+        assertEquals("名称", reader.getRecord(0).get(0)); // BOM 不在第一个单元格中
+        assertEquals("苹果", reader.getRecord(1).get(0));
+    }
+}
@@ -0,0 +1,114 @@
+package org.h819.commons.file.excel.poi;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(XSSFWorkbook 和 StreamingExcelWriter (SXSSF) 写大文件的时间比较，每次调用写一个完整的文件)
+ * -
+ * 每行 10 列。XSSFWorkbook 只写 10 万行 (100 万行需要几个 G 的堆)，StreamingExcelWriter 写 100 万行 ;
+ * 追加 : 在已有 100 万行的文件之后追加 10 万行，已有的行不读入内存。
+ * 堆内存用 gc profiler 比较 : -Dbenchmark="StreamingExcelWriterBenchmark -prof gc" 。追加的正确性见 StreamingExcelWriterTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=StreamingExcelWriterBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingExcelWriterBenchmark {
+
+    static final int COLUMNS = 10;
+    private static final int XSSF_ROWS = 100_000;
+    private static final int STREAMING_ROWS = 1_000_000;
+    private static final int APPEND_ROWS = 100_000;
+
+    private File file;
+    // 已有 STREAMING_ROWS 行的文件，追加之前复制到 file
+    private File existing;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("sxssf", ".xlsx");
+        existing = File.createTempFile("existing", ".xlsx");
+        try (StreamingExcelWriter writer = StreamingExcelWriter.create(existing, StreamingExcelWriter.DEFAULT_WINDOW_SIZE)) {
+            writeRows(writer.sheet("data"), 0, STREAMING_ROWS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(existing.toPath());
+    }
+
+    @Setup(Level.Invocation)
+    public void copyExisting() throws IOException {
+        Files.copy(existing.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public void xssfWorkbook() throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            XSSFSheet sheet = workbook.createSheet("data");
+            for (int i = 0; i < XSSF_ROWS; i++) {
+                Row row = sheet.createRow(i);
+                for (int j = 0; j < COLUMNS; j++)
+                    row.createCell(j).setCellValue("r" + i + "c" + j);
+            }
+            workbook.write(out);
+        }
+    }
+
+    @Benchmark
+    public int streamingWriter() throws IOException {
+        try (StreamingExcelWriter writer = StreamingExcelWriter.create(file, StreamingExcelWriter.DEFAULT_WINDOW_SIZE)) {
+            return writeRows(writer.sheet("data"), 0, STREAMING_ROWS);
+        }
+    }
+
+    @Benchmark
+    public int appendToExistingSheet() throws IOException {
+        try (StreamingExcelWriter writer = StreamingExcelWriter.append(file, StreamingExcelWriter.DEFAULT_WINDOW_SIZE)) {
+            return writeRows(writer.sheet("data"), STREAMING_ROWS, APPEND_ROWS);
+        }
+    }
+
+    /**
+     * 写 rows 行，每个单元格为 r行号c列号
+     *
+     * @return 下一行的行号
+     */
+    static int writeRows(StreamingExcelWriter writer, int firstRow, int rows) {
+        Object[] values = new Object[COLUMNS];
+        for (int i = firstRow; i < firstRow + rows; i++) {
+            for (int j = 0; j < COLUMNS; j++)
+                values[j] = "r" + i + "c" + j;
+            writer.writeRow(values);
+        }
+        return writer.getNextRowNum();
+    }
+}
@@ -0,0 +1,122 @@
+package org.h819.commons.file.excel.poi;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Description : TODO(StreamingExcelWriter : 追加模式保留已有的行和共享字符串，新行写在最后一行之后)
+ * -
+ */
+public class StreamingExcelWriterTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("append", ".xlsx");
+        Files.delete(file.toPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testAppendToExistingSheet() throws Exception {
+        try (StreamingExcelWriter writer = StreamingExcelWriter.create(file, 100)) {
+            writer.sheet("data").writeRow("a", 1).writeRow("b", 2);
+        }
+        try (StreamingExcelWriter writer = StreamingExcelWriter.append(file, 100)) {
+            writer.sheet("data");
+            assertEquals(2, writer.getNextRowNum());
+            writer.writeRow("c", 3);
+        }
+
+        try (XSSFWorkbook workbook = read(file)) {
+            XSSFSheet sheet = workbook.getSheet("data");
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("a", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals(2, sheet.getRow(1).getCell(1).getNumericCellValue(), 0);
+            assertEquals("c", sheet.getRow(2).getCell(0).getStringCellValue());
+        }
+    }
+
+    /**
+     * XSSFWorkbook 写的文件 : 字符串在共享字符串表中，行号不连续 ; 追加之后已有的 sheet 不变，新 sheet 从第 0 行开始
+     */
+    @Test
+    public void testAppendToSharedStrings() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            XSSFSheet sheet = workbook.createSheet("data");
+            sheet.createRow(0).createCell(0).setCellValue("共享");
+            sheet.createRow(4).createCell(1).setCellValue("shared");
+            workbook.createSheet("empty");
+            workbook.write(out);
+        }
+
+        try (StreamingExcelWriter writer = StreamingExcelWriter.append(file, 2)) {
+            writer.sheet("data");
+            assertEquals(5, writer.getNextRowNum());
+            for (int i = 0; i < 5; i++)
+                writer.writeRow("new" + i);
+            writer.sheet("added").writeRow("x");
+            writer.sheet("data").writeRow("last");
+        }
+
+        try (XSSFWorkbook workbook = read(file)) {
+            XSSFSheet sheet = workbook.getSheet("data");
+            assertEquals("共享", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertNull(sheet.getRow(1));
+            assertEquals("shared", sheet.getRow(4).getCell(1).getStringCellValue());
+            assertEquals("new0", sheet.getRow(5).getCell(0).getStringCellValue());
+            assertEquals("new4", sheet.getRow(9).getCell(0).getStringCellValue());
+            assertEquals("last", sheet.getRow(10).getCell(0).getStringCellValue());
+            assertEquals(10, sheet.getLastRowNum());
+
+            assertEquals(0, workbook.getSheet("empty").getPhysicalNumberOfRows());
+            assertEquals("x", workbook.getSheet("added").getRow(0).getCell(0).getStringCellValue());
+        }
+    }
+
+    /**
+     * 写到输出流，不关闭输出流
+     */
+    @Test
+    public void testWriteToOutputStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (StreamingExcelWriter writer = StreamingExcelWriter.create(out, 10)) {
+            StreamingExcelWriterBenchmark.writeRows(writer.sheet("data"), 0, 25);
+        }
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            XSSFSheet sheet = workbook.getSheet("data");
+            assertEquals(24, sheet.getLastRowNum());
+            assertEquals("r24c9", sheet.getRow(24).getCell(9).getStringCellValue());
+        }
+    }
+
+    /**
+     * 只读打开，close 时不写回文件
+     */
+    private static XSSFWorkbook read(File file) throws IOException, InvalidFormatException {
+        return new XSSFWorkbook(OPCPackage.open(file, PackageAccess.READ));
+    }
+}
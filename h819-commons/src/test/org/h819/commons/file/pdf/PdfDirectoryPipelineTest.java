@@ -0,0 +1,78 @@
+package org.h819.commons.file.pdf;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(并行处理、错误隔离、同时执行两个任务)
+ * 任务不解析 pdf ，只读取文件大小，测试流水线本身
+ */
+public class PdfDirectoryPipelineTest {
+
+    @Test
+    public void run() throws Exception {
+
+        Path src = Files.createTempDirectory("pipeline-src");
+        Files.createDirectories(src.resolve("a/b"));
+        for (int i = 0; i < 250; i++)
+            Files.write(src.resolve((i % 3 == 0 ? "a/b/" : i % 3 == 1 ? "a/" : "") + i + ".PDF"), new byte[i]);
+        Files.write(src.resolve("a/readme.txt"), new byte[1]); // 不是 pdf ，跳过
+        Path dest = Files.createTempDirectory("pipeline-dest");
+        Path bad = Files.createTempDirectory("pipeline-bad");
+
+        // sink 串行调用，不需要同步
+        List<Long> sizes = new ArrayList<>();
+        PdfDirectoryPipeline.Progress progress = new PdfDirectoryPipeline(4, 8).run(src, dest, bad, (srcPdf, destPdf) -> {
+            long size = Files.size(srcPdf);
+            if (size % 50 == 7)
+                throw new IllegalStateException("bad pdf");
+            Files.write(destPdf, new byte[0]);
+            return size;
+        }, sizes::add);
+
+        assertTrue(progress.isFinished());
+        assertEquals(250, progress.getSubmitted());
+        assertEquals(5, progress.getFailed()); // 7 , 57 , 107 , 157 , 207
+        assertEquals(245, progress.getSucceeded());
+        assertEquals(245, sizes.size());
+        assertEquals(5, progress.getFailures().size());
+        assertTrue(Files.exists(bad.resolve("a/b/57.PDF"))); // 保持目录结构
+        assertTrue(Files.exists(dest.resolve("a/1.PDF")));
+    }
+
+    @Test
+    public void concurrentRuns() throws Exception {
+
+        Path src = Files.createTempDirectory("pipeline-concurrent");
+        for (int i = 0; i < 100; i++)
+            Files.write(src.resolve(i + ".pdf"), new byte[1]);
+
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                new PdfDirectoryPipeline(2).run(src, null, null, (srcPdf, destPdf) -> 1L, first::addAndGet);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        thread.start();
+        new PdfDirectoryPipeline(2).run(src, null, null, (srcPdf, destPdf) -> 1L, second::addAndGet);
+        done.await();
+
+        assertEquals(100, first.get());
+        assertEquals(100, second.get());
+    }
+}
@@ -0,0 +1,126 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.utils.PdfMerger;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.element.Image;
+import com.itextpdf.layout.element.Paragraph;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(合并 1000 个 pdf : PdfMerger 直接合并和 PdfIncrementalMerger 的时间比较，每次调用合并全部文件)
+ * -
+ * 每个源文件 3 页，每页有相同的图片，PdfIncrementalMerger 去重后输出文件更小，见 PdfIncrementalMergerTest 。
+ * 堆内存 : 用 -prof gc 比较，或者在 @Fork 中加 -Xmx64m ，PdfMerger 直接合并时内存溢出。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=PdfIncrementalMergerBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfIncrementalMergerBenchmark {
+
+    static final int PAGES_PER_FILE = 3;
+    private static final int FILES = 1000;
+
+    private Path srcDir;
+    private List<Path> srcPdfs;
+    private Path dest;
+
+    @Setup
+    public void setUp() throws IOException {
+        srcDir = Files.createTempDirectory("merge-src");
+        srcPdfs = createSources(srcDir, FILES);
+        dest = Files.createTempFile("merge", ".pdf");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(srcDir.toFile());
+        Files.deleteIfExists(dest);
+    }
+
+    @Benchmark
+    public long pdfMerger() throws IOException {
+        mergeAll(srcPdfs, dest);
+        return Files.size(dest);
+    }
+
+    @Benchmark
+    public long incrementalMerger() throws IOException {
+        return new PdfIncrementalMerger().merge(srcPdfs, dest).getOutputBytes();
+    }
+
+    /**
+     * PdfMerger 直接合并，所有页面保存在内存中，close 时写出
+     */
+    static void mergeAll(List<Path> srcPdfs, Path dest) throws IOException {
+        try (PdfDocument pdf = new PdfDocument(new PdfWriter(dest.toString()))) {
+            PdfMerger merger = new PdfMerger(pdf);
+            for (Path srcPdf : srcPdfs) {
+                try (PdfDocument source = new PdfDocument(new PdfReader(srcPdf.toString()))) {
+                    merger.merge(source, 1, source.getNumberOfPages());
+                }
+            }
+        }
+    }
+
+    /**
+     * 在 dir 中生成 files 个源文件，每个 PAGES_PER_FILE 页，每页有相同的图片
+     */
+    static List<Path> createSources(Path dir, int files) throws IOException {
+        ImageData image = ImageDataFactory.create(createPng());
+        List<Path> srcPdfs = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            Path file = dir.resolve(String.format("std-%04d.pdf", i));
+            try (Document doc = new Document(new PdfDocument(new PdfWriter(file.toString())))) {
+                for (int page = 0; page < PAGES_PER_FILE; page++) {
+                    if (page > 0)
+                        doc.add(new AreaBreak());
+                    doc.add(new Paragraph("standard " + i + " page " + page));
+                    doc.add(new Image(image));
+                }
+            }
+            srcPdfs.add(file);
+        }
+        return srcPdfs;
+    }
+
+    private static byte[] createPng() throws IOException {
+        BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++)
+            for (int y = 0; y < image.getHeight(); y++)
+                image.setRGB(x, y, (x * 31 + y * 17) & 0xFFFFFF);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
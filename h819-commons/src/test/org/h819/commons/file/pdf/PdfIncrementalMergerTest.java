@@ -0,0 +1,82 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.h819.commons.file.pdf.PdfIncrementalMergerBenchmark.PAGES_PER_FILE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(PdfIncrementalMerger : 合并的页数，跳过出错的文件，相同的资源只写一次)
+ * -
+ * 源文件同 PdfIncrementalMergerBenchmark 。
+ */
+public class PdfIncrementalMergerTest {
+
+    private static final int FILES = 20;
+
+    private Path dir;
+    private List<Path> srcPdfs;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("merge-src");
+        srcPdfs = PdfIncrementalMergerBenchmark.createSources(dir, FILES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        Path dest = dir.resolve("merged.pdf");
+        PdfIncrementalMerger.Report report = new PdfIncrementalMerger().merge(srcPdfs, dest);
+
+        assertEquals(FILES, report.getMergedFiles());
+        assertEquals(FILES * PAGES_PER_FILE, report.getPages());
+        assertEquals(Files.size(dest), report.getOutputBytes());
+        try (PdfDocument merged = new PdfDocument(new PdfReader(dest.toString()))) {
+            assertEquals(FILES * PAGES_PER_FILE, merged.getNumberOfPages());
+        }
+
+        // 每个源文件中相同的图片只写一次
+        Path plain = dir.resolve("plain.pdf");
+        PdfIncrementalMergerBenchmark.mergeAll(srcPdfs, plain);
+        assertTrue(report.getOutputBytes() < Files.size(plain));
+    }
+
+    @Test
+    public void testSkipBadFiles() throws IOException {
+        Path bad = dir.resolve("bad.pdf");
+        Files.write(bad, "not a pdf".getBytes());
+        Path dest = dir.resolve("merged.pdf");
+
+        PdfIncrementalMerger.Report report = new PdfIncrementalMerger(true).merge(Arrays.asList(srcPdfs.get(0), bad, srcPdfs.get(1)), dest);
+        assertEquals(2, report.getMergedFiles());
+        assertEquals(1, report.getFailures().size());
+        assertEquals(2 * PAGES_PER_FILE, report.getPages());
+        try (PdfDocument merged = new PdfDocument(new PdfReader(dest.toString()))) {
+            assertEquals(2 * PAGES_PER_FILE, merged.getNumberOfPages());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailOnBadFile() throws IOException {
+        Path bad = dir.resolve("bad.pdf");
+        Files.write(bad, "not a pdf".getBytes());
+        new PdfIncrementalMerger().merge(Arrays.asList(srcPdfs.get(0), bad), dir.resolve("merged.pdf"));
+    }
+}
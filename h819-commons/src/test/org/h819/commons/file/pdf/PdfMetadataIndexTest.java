@@ -0,0 +1,120 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.kernel.pdf.EncryptionConstants;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.element.Paragraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(PdfMetadataIndex : 第二次扫描不解析没有变化的文件，移动的文件沿用记录，修改的文件重新解析)
+ */
+public class PdfMetadataIndexTest {
+
+    private Path dir;
+    private Path indexFile;
+
+    @Before
+    public void createSources() throws IOException {
+        dir = Files.createTempDirectory("index-src");
+        indexFile = Files.createTempDirectory("index").resolve("pdf-index.bin");
+        createPdf(dir.resolve("a.pdf"), 3, null);
+        createPdf(Files.createDirectories(dir.resolve("sub")).resolve("b.pdf"), 5, null);
+        createPdf(dir.resolve("encrypted.pdf"), 2, new WriterProperties().setStandardEncryption(null, "owner".getBytes(),
+                EncryptionConstants.ALLOW_PRINTING, EncryptionConstants.ENCRYPTION_AES_128));
+        Files.write(dir.resolve("bad.pdf"), "not a pdf".getBytes());
+    }
+
+    private static void createPdf(Path file, int pages, WriterProperties properties) throws IOException {
+        PdfWriter writer = properties == null ? new PdfWriter(file.toString()) : new PdfWriter(file.toString(), properties);
+        try (Document doc = new Document(new PdfDocument(writer))) {
+            for (int page = 0; page < pages; page++) {
+                if (page > 0)
+                    doc.add(new AreaBreak());
+                doc.add(new Paragraph(file.getFileName() + " page " + page));
+            }
+        }
+    }
+
+    @Test
+    public void scan() throws IOException {
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            assertEquals(4, index.scan(dir, 2).size());
+            assertEquals(4, index.getParsed());
+
+            assertEquals(3, index.get(dir.resolve("a.pdf")).getPages());
+            assertEquals(PdfMetadataIndex.Status.DAMAGED, index.get(dir.resolve("bad.pdf")).getStatus());
+            PdfMetadataIndex.Entry encrypted = index.get(dir.resolve("encrypted.pdf"));
+            assertTrue(encrypted.isEncrypted());
+            assertEquals(2, encrypted.getPages());
+            assertFalse(index.get(dir.resolve("sub/b.pdf")).isEncrypted());
+        }
+
+        // 没有变化 : 从索引文件读取，不解析
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            assertEquals(4, index.size());
+            index.scan(dir, 2);
+            assertEquals(4, index.getUnchanged());
+            assertEquals(0, index.getParsed());
+        }
+
+        // 移动一个文件，修改一个文件
+        Files.move(dir.resolve("a.pdf"), dir.resolve("a-moved.pdf"));
+        createPdf(dir.resolve("sub/b.pdf"), 7, null);
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            index.scan(dir, 2);
+            assertEquals(1, index.getReused());
+            assertEquals(1, index.getParsed());
+            assertEquals(4, index.size());
+            assertEquals(3, index.get(dir.resolve("a-moved.pdf")).getPages());
+            assertEquals(7, index.get(dir.resolve("sub/b.pdf")).getPages());
+        }
+    }
+
+    /**
+     * 同一个路径只修改了时间 (指纹相同) 时也重新解析 ; 复制到新路径时沿用记录
+     */
+    @Test
+    public void modifiedTimeReparses() throws IOException {
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            index.scan(dir, 2);
+        }
+
+        Path a = dir.resolve("a.pdf");
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() - 60_000));
+        Files.copy(dir.resolve("sub/b.pdf"), dir.resolve("b-copy.pdf"));
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            index.scan(dir, 2);
+            assertEquals(3, index.getUnchanged());
+            assertEquals(1, index.getParsed());
+            assertEquals(1, index.getReused());
+            assertEquals(3, index.get(a).getPages());
+            assertEquals(5, index.get(dir.resolve("b-copy.pdf")).getPages());
+        }
+    }
+
+    @Test
+    public void damagedIndexFile() throws IOException {
+        Files.write(indexFile, "garbage".getBytes());
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            assertEquals(0, index.size());
+            index.scan(dir, 2);
+        }
+        try (PdfMetadataIndex index = new PdfMetadataIndex(indexFile)) {
+            assertEquals(4, index.size());
+        }
+    }
+}
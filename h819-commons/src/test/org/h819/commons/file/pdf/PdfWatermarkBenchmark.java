@@ -0,0 +1,158 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.io.font.FontConstants;
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.property.TextAlignment;
+import com.itextpdf.layout.property.VerticalAlignment;
+import org.apache.commons.io.FileUtils;
+import org.h819.commons.file.MyPdfUtils.TextPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(10000 页加水印 : 每页排版文字、添加图片 和 PdfWatermark (每个文件一个 Form XObject) 的吞吐量比较，结果为 pages/sec)
+ * -
+ * 100 个文件，每个 100 页，每次调用处理全部文件。文字、图片隔页添加 (和 PdfWatermark 相同)。
+ * 原来的方式 : 每页 Document.showTextAligned 排版一次文字，PdfCanvas.addImage 一次图片 (每页一个新的图片对象)。
+ * 输出文件的页数、大小见 PdfWatermarkTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=PdfWatermarkBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfWatermarkBenchmark {
+
+    static final int PAGES_PER_FILE = 100;
+    static final String TEXT = "h819 watermark benchmark";
+    private static final int FILES = 100;
+
+    private Path srcDir;
+    private List<Path> srcPdfs;
+    private Path png;
+    private Path destDir;
+    private FontProgram fontProgram;
+    private PdfWatermark watermark;
+
+    @Setup
+    public void setUp() throws IOException {
+        srcDir = Files.createTempDirectory("watermark-src");
+        srcPdfs = createSources(srcDir, FILES);
+        png = createPng(srcDir);
+        destDir = Files.createTempDirectory("watermark-dest");
+        fontProgram = FontProgramFactory.createFont(FontConstants.HELVETICA);
+        watermark = new PdfWatermark(TEXT, fontProgram, png, TextPosition.CENTER);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(srcDir.toFile());
+        FileUtils.deleteDirectory(destDir.toFile());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES * PAGES_PER_FILE)
+    public void perPage() throws IOException {
+        for (Path srcPdf : srcPdfs)
+            stampPerPage(srcPdf, destDir.resolve(srcPdf.getFileName()), fontProgram, png);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES * PAGES_PER_FILE)
+    public void formXObject() throws IOException {
+        for (Path srcPdf : srcPdfs)
+            try (PdfDocument pdfDoc = new PdfDocument(new PdfReader(srcPdf.toString()), new PdfWriter(destDir.resolve(srcPdf.getFileName()).toString()))) {
+                watermark.stamp(pdfDoc);
+            }
+    }
+
+    /**
+     * 原来的方式 : 每页排版一次文字，或者添加一个新的图片对象
+     */
+    static void stampPerPage(Path srcPdf, Path dest, FontProgram fontProgram, Path png) throws IOException {
+        try (PdfDocument pdfDoc = new PdfDocument(new PdfReader(srcPdf.toString()), new PdfWriter(dest.toString()));
+             Document doc = new Document(pdfDoc)) {
+            ImageData image = ImageDataFactory.create(png.toString());
+            Paragraph p = new Paragraph(TEXT).setFont(PdfFontFactory.createFont(fontProgram)).setFontSize(35);
+            for (int i = 1; i <= pdfDoc.getNumberOfPages(); i++) {
+                PdfPage page = pdfDoc.getPage(i);
+                Rectangle pageSize = page.getPageSizeWithRotation();
+                float x = (pageSize.getLeft() + pageSize.getRight()) / 2;
+                float y = (pageSize.getTop() + pageSize.getBottom()) / 2;
+                if (i % 2 == 1)
+                    doc.showTextAligned(p, x, y, i, TextAlignment.CENTER, VerticalAlignment.MIDDLE, (float) Math.toRadians(45));
+                else {
+                    PdfCanvas canvas = new PdfCanvas(page);
+                    canvas.addImage(image, x - image.getWidth() / 2, y - image.getHeight() / 2, false);
+                    canvas.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 在 dir 中生成 files 个源文件，每个 PAGES_PER_FILE 页
+     */
+    static List<Path> createSources(Path dir, int files) throws IOException {
+        List<Path> srcPdfs = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            Path file = dir.resolve(String.format("std-%03d.pdf", i));
+            try (Document doc = new Document(new PdfDocument(new PdfWriter(file.toString())))) {
+                for (int page = 0; page < PAGES_PER_FILE; page++) {
+                    if (page > 0)
+                        doc.add(new AreaBreak());
+                    doc.add(new Paragraph("standard " + i + " page " + page));
+                }
+            }
+            srcPdfs.add(file);
+        }
+        return srcPdfs;
+    }
+
+    /**
+     * 在 dir 中生成半透明的水印图片
+     */
+    static Path createPng(Path dir) throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < image.getWidth(); x++)
+            for (int y = 0; y < image.getHeight(); y++)
+                image.setRGB(x, y, ((x + y) % 2 == 0 ? 0x40 : 0x00) << 24 | (x * 31 + y * 17) & 0xFFFFFF);
+        Path png = dir.resolve("watermark.png");
+        ImageIO.write(image, "png", png.toFile());
+        return png;
+    }
+}
@@ -0,0 +1,75 @@
+package org.h819.commons.file.pdf;
+
+import com.itextpdf.io.font.FontConstants;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import org.apache.commons.io.FileUtils;
+import org.h819.commons.file.MyPdfUtils.TextPosition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.h819.commons.file.pdf.PdfWatermarkBenchmark.PAGES_PER_FILE;
+import static org.h819.commons.file.pdf.PdfWatermarkBenchmark.TEXT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(PdfWatermark : 页数不变，每个文件只有一个水印对象，输出文件比每页添加的方式小)
+ * -
+ * 源文件同 PdfWatermarkBenchmark 。
+ */
+public class PdfWatermarkTest {
+
+    private Path dir;
+    private Path srcPdf;
+    private Path png;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("watermark-src");
+        srcPdf = PdfWatermarkBenchmark.createSources(dir, 1).get(0);
+        png = PdfWatermarkBenchmark.createPng(dir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testStamp() throws IOException {
+        Path dest = dir.resolve("stamped.pdf");
+        PdfWatermark watermark = new PdfWatermark(TEXT, FontProgramFactory.createFont(FontConstants.HELVETICA), png, TextPosition.CENTER);
+        try (PdfDocument pdfDoc = new PdfDocument(new PdfReader(srcPdf.toString()), new PdfWriter(dest.toString()))) {
+            watermark.stamp(pdfDoc);
+        }
+
+        try (PdfDocument stamped = new PdfDocument(new PdfReader(dest.toString()))) {
+            assertEquals(PAGES_PER_FILE, stamped.getNumberOfPages());
+
+            // 所有页面引用同样的两个 Form XObject (文字、图片)
+            Set<Integer> forms = new HashSet<>();
+            for (int i = 1; i <= stamped.getNumberOfPages(); i++) {
+                PdfDictionary xObjects = stamped.getPage(i).getResources().getResource(PdfName.XObject);
+                for (PdfName name : xObjects.keySet())
+                    forms.add(xObjects.get(name).getIndirectReference().getObjNumber());
+            }
+            assertEquals(2, forms.size());
+        }
+
+        Path perPage = dir.resolve("per-page.pdf");
+        PdfWatermarkBenchmark.stampPerPage(srcPdf, perPage, FontProgramFactory.createFont(FontConstants.HELVETICA), png);
+        assertTrue(Files.size(dest) < Files.size(perPage));
+    }
+}
@@ -0,0 +1,75 @@
+package org.h819.web.jdbc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Description : TODO(MonitoredDataSource 的监控指标和泄漏检测，h2 内存数据库)
+ */
+public class MonitoredDataSourceTest {
+
+    private MonitoredDataSource dataSource;
+    private SimpleMeterRegistry registry;
+
+    @Before
+    public void setUp() {
+        dataSource = MyDataSourceFactory.builder("test")
+                .url("jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1")
+                .username("sa")
+                .password("")
+                .initialSize(1)
+                .maxTotal(1)
+                .maxIdle(1)
+                .leakThresholdMillis(50)
+                .build();
+        registry = new SimpleMeterRegistry();
+        dataSource.bindTo(registry);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        dataSource.close();
+    }
+
+    @Test
+    public void preparedStatementCacheHitRatio() throws SQLException {
+        for (int i = 0; i < 10; i++)
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement("select ? from dual")) {
+                statement.setInt(1, i);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    assertEquals(i, rs.getInt(1));
+                }
+            }
+
+        // 只有一个连接，同一个语句只创建一次
+        assertEquals(0.9, dataSource.getStatementCacheHitRatio(), 1e-9);
+        assertEquals(10, registry.get("jdbc.pool.statements.requested").functionCounter().count(), 0);
+        assertEquals(1, registry.get("jdbc.pool.statements.created").functionCounter().count(), 0);
+        assertEquals(10, registry.get("jdbc.pool.wait").timer().count());
+        assertEquals(10, registry.get("jdbc.pool.usage").timer().count());
+    }
+
+    @Test
+    public void connectionHeldPastThresholdIsReported() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            assertEquals(1, registry.get("jdbc.pool.active").gauge().value(), 0);
+            assertEquals(0, dataSource.getLeakedConnectionCount());
+            Thread.sleep(100);
+            assertEquals(1, dataSource.getLeakedConnectionCount());
+            dataSource.detectLeaks(); // 打印取出连接时的调用栈
+        }
+        assertEquals(0, dataSource.getLeakedConnectionCount());
+        assertEquals(0, registry.get("jdbc.pool.active").gauge().value(), 0);
+    }
+}
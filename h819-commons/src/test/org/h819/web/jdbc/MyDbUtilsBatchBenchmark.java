@@ -0,0 +1,127 @@
+package org.h819.web.jdbc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(MyDbUtils 批量操作的吞吐量测试，h2 内存数据库，每次调用插入 100 万行，结果为 rows/sec)
+ * -
+ * 只比较同一台机器上几种方式的相对速度，绝对值和数据库、硬件相关。
+ * 逐行 insert 很慢，只插入 1/10 的行数估算。每次调用之前清空表，插入之后提交。插入的行数见 MyDbUtilsBatchTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=MyDbUtilsBatchBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MyDbUtilsBatchBenchmark {
+
+    static final String INSERT_SQL = "insert into bench (id, name, amount) values (?, ?, ?)";
+    static final String[] COLUMNS = {"id", "name", "amount"};
+    private static final int ROWS = 1_000_000;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = createTable("bench");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        dropTable(connection);
+    }
+
+    @Setup(Level.Invocation)
+    public void truncate() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("truncate table bench");
+        }
+        connection.commit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS / 10)
+    public long rowByRow() throws SQLException {
+        long inserted = MyDbUtils.batch(connection, INSERT_SQL, rows(ROWS / 10), 1);
+        connection.commit();
+        return inserted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long jdbcBatch() throws SQLException {
+        long inserted = MyDbUtils.batch(connection, INSERT_SQL, rows(ROWS), 1000);
+        connection.commit();
+        return inserted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long multiRowInsert() throws SQLException {
+        long inserted = MyDbUtils.batchInsert(connection, "bench", COLUMNS, rows(ROWS), 100);
+        connection.commit();
+        return inserted;
+    }
+
+    /**
+     * h2 内存数据库中建立 bench 表，连接不自动提交
+     *
+     * @param database 数据库名称
+     */
+    static Connection createTable(String database) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1", "sa", "");
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table bench (id bigint primary key, name varchar(64), amount decimal(12, 2))");
+        }
+        return connection;
+    }
+
+    static void dropTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table bench");
+        }
+        connection.close();
+    }
+
+    /**
+     * 逐行生成参数，不占用内存
+     */
+    static Iterable<Object[]> rows(int count) {
+        return () -> new Iterator<Object[]>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < count;
+            }
+
+            @Override
+            public Object[] next() {
+                i++;
+                return new Object[]{(long) i, "name-" + i, i % 10000 / 100.0};
+            }
+        };
+    }
+}
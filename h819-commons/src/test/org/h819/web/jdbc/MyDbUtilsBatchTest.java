@@ -0,0 +1,64 @@
+package org.h819.web.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.h819.web.jdbc.MyDbUtilsBatchBenchmark.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Description : TODO(MyDbUtils 批量操作 : 返回的行数和表中的行数一致，测试数据同 MyDbUtilsBatchBenchmark)
+ * -
+ * 行数不是每批行数的整数倍，最后一批不满。
+ */
+public class MyDbUtilsBatchTest {
+
+    private static final int ROWS = 2_345;
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = createTable("batch");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        dropTable(connection);
+    }
+
+    @Test
+    public void testRowByRow() throws SQLException {
+        assertEquals(ROWS, MyDbUtils.batch(connection, INSERT_SQL, rows(ROWS), 1));
+        connection.commit();
+        assertEquals(ROWS, count());
+    }
+
+    @Test
+    public void testJdbcBatch() throws SQLException {
+        assertEquals(ROWS, MyDbUtils.batch(connection, INSERT_SQL, rows(ROWS), 1000));
+        connection.commit();
+        assertEquals(ROWS, count());
+    }
+
+    @Test
+    public void testMultiRowInsert() throws SQLException {
+        assertEquals(ROWS, MyDbUtils.batchInsert(connection, "bench", COLUMNS, rows(ROWS), 100));
+        connection.commit();
+        assertEquals(ROWS, count());
+    }
+
+    private long count() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select count(*) from bench")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.h819.web.spring.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Description : TODO(逐行读取 : 没有在 spring 事务中时，读取期间关闭 autoCommit (postgresql 的 fetchSize 才有效)，读取结束后恢复)
+ * -
+ * h2 内存数据库，只有一个连接 (SingleConnectionDataSource)，可以检查读取期间和之后连接的 autoCommit 。
+ */
+public class JdbcTemplateUtilsStreamingTest {
+
+    private static final String SQL = "select id from stream_test order by id";
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:stream;DB_CLOSE_DELAY=-1", "sa", "", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table stream_test (id bigint primary key)");
+        jdbcTemplate.batchUpdate("insert into stream_test (id) values (?)", Stream.of(1L, 2L, 3L).map(id -> new Object[]{id}).collect(Collectors.toList()));
+        connection = dataSource.getConnection();
+    }
+
+    @After
+    public void tearDown() {
+        jdbcTemplate.execute("drop table stream_test");
+        dataSource.destroy();
+    }
+
+    @Test
+    public void testForEachOutsideTransaction() throws SQLException {
+        List<Boolean> autoCommit = new ArrayList<>();
+        long count = JdbcTemplateUtils.queryForEachByMapMapperNativeSqlString(jdbcTemplate, SqlUtils.Dialect.PostgreSQL, SQL, null,
+                row -> autoCommit.add(connection.getAutoCommit()));
+
+        assertEquals(3, count);
+        assertTrue(autoCommit.stream().noneMatch(value -> value));
+        assertTrue(connection.getAutoCommit());
+    }
+
+    /**
+     * 出现异常时也要恢复
+     */
+    @Test
+    public void testForEachRestoreAfterException() throws SQLException {
+        try {
+            JdbcTemplateUtils.queryForEachByMapMapperNativeSqlString(jdbcTemplate, SqlUtils.Dialect.PostgreSQL, SQL, null, row -> {
+                throw new IllegalStateException("stop");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("stop", e.getMessage());
+        }
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void testStreamOutsideTransaction() throws SQLException {
+        try (Stream<Map<String, Object>> rows = JdbcTemplateUtils.queryForStreamByNativeSqlString(jdbcTemplate, SqlUtils.Dialect.PostgreSQL,
+                SQL, null, new ColumnMapRowMapper())) {
+            assertFalse(connection.getAutoCommit());
+            assertEquals(3, rows.count());
+        }
+        assertTrue(connection.getAutoCommit());
+    }
+
+    /**
+     * 在事务中时，autoCommit 由事务管理，关闭 Stream 时不修改
+     */
+    @Test
+    public void testStreamInTransaction() {
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(status -> {
+            try (Stream<Map<String, Object>> rows = JdbcTemplateUtils.queryForStreamByNativeSqlString(jdbcTemplate, SqlUtils.Dialect.PostgreSQL,
+                    SQL, null, new ColumnMapRowMapper())) {
+                assertEquals(3, rows.count());
+            }
+            try {
+                assertFalse(connection.getAutoCommit());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        });
+    }
+}
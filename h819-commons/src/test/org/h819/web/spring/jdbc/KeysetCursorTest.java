@@ -0,0 +1,198 @@
+package org.h819.web.spring.jdbc;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description : TODO(keyset 分页 : 游标的编码、解析，和排序字段的值为 null 时生成的查询条件)
+ * -
+ * 只生成 sql 语句和参数，不访问数据库。
+ */
+public class KeysetCursorTest {
+
+    private static final List<Order> ORDERS = KeysetCursor.createKeysetOrders(
+            Arrays.asList(new Order("st.name", Order.Direction.ASC), new Order("price", Order.Direction.DESC),
+                    new Order("created", Order.Direction.ASC), new Order("count", Order.Direction.ASC)), "id");
+
+    @Test
+    public void testCreateKeysetOrders() {
+        assertEquals(5, ORDERS.size());
+        assertEquals("id", ORDERS.get(4).getProperty());
+
+        List<Order> withId = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("ID", Order.Direction.DESC)), "id");
+        assertEquals(1, withId.size());
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        Object[] values = {"名称.a/b", new BigDecimal("12.50"), new Timestamp(1500000000123L), 7, 42L};
+        Object[] decoded = KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, values));
+
+        assertEquals("名称.a/b", decoded[0]);
+        assertEquals(new BigDecimal("12.50"), decoded[1]);
+        assertEquals(new Timestamp(1500000000123L), decoded[2]);
+        assertEquals(7L, decoded[3]); // 整数都解析为 Long ，查询时再转换为属性的类型
+        assertEquals(42L, decoded[4]);
+    }
+
+    /**
+     * 日期保留纳秒 : 截断后游标比上一页最后一行小，下一页会重复该行
+     */
+    @Test
+    public void testEncodeDecodeNanos() {
+        Timestamp timestamp = new Timestamp(1500000000123L);
+        timestamp.setNanos(123456789);
+        Object[] decoded = KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, new Object[]{null, null, timestamp, null, 42L}));
+
+        assertEquals(timestamp, decoded[2]);
+        assertEquals(123456789, ((Timestamp) decoded[2]).getNanos());
+
+        // java.util.Date 和 java.sql.Date 只有毫秒，解析为 Timestamp
+        decoded = KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, new Object[]{null, null, new java.util.Date(1500000000123L), null, 42L}));
+        assertEquals(new Timestamp(1500000000123L), decoded[2]);
+        decoded = KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, new Object[]{null, null, new java.sql.Date(1500000000123L), null, 42L}));
+        assertEquals(new Timestamp(1500000000123L), decoded[2]);
+    }
+
+    /**
+     * java.time 的类型解析为原来的类型，保留纳秒
+     */
+    @Test
+    public void testEncodeDecodeJavaTime() {
+        LocalDateTime localDateTime = LocalDateTime.of(2018, 3, 1, 10, 20, 30, 123456789);
+        Object[] values = {
+                localDateTime,
+                localDateTime.toLocalDate(),
+                localDateTime.toLocalTime(),
+                localDateTime.atOffset(ZoneOffset.ofHours(8)),
+                localDateTime.atZone(ZoneId.of("Asia/Shanghai")).toInstant()};
+
+        Object[] decoded = KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, values));
+        assertArrayEquals(values, decoded);
+        for (int i = 0; i < values.length; i++)
+            assertEquals(values[i].getClass(), decoded[i].getClass());
+
+        // 秒为 0 时 toString 省略秒
+        Object[] minutes = {LocalDateTime.of(2018, 3, 1, 10, 20), null, LocalTime.MIDNIGHT,
+                ZonedDateTime.of(localDateTime, ZoneId.of("Asia/Shanghai")), 42L};
+        assertArrayEquals(minutes, KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, minutes)));
+    }
+
+    @Test
+    public void testEncodeDecodeNull() {
+        Object[] values = {null, null, new Timestamp(0), null, 42L};
+        String cursor = KeysetCursor.encode(ORDERS, values);
+        assertArrayEquals(values, KeysetCursor.decode(ORDERS, cursor));
+
+        // 空字符串和 null 不同
+        Object[] empty = {"", null, new Timestamp(0), 0L, 42L};
+        assertArrayEquals(empty, KeysetCursor.decode(ORDERS, KeysetCursor.encode(ORDERS, empty)));
+    }
+
+    @Test
+    public void testDecodeEmpty() {
+        assertNull(KeysetCursor.decode(ORDERS, null));
+        assertNull(KeysetCursor.decode(ORDERS, ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeOrdersChanged() {
+        String cursor = KeysetCursor.encode(ORDERS, new Object[]{"a", 1, null, 2, 3L});
+        KeysetCursor.decode(KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("st.name", Order.Direction.DESC)), "id"), cursor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalid() {
+        String cursor = KeysetCursor.encode(ORDERS, new Object[]{"a", 1, null, 2, 3L});
+        KeysetCursor.decode(ORDERS, cursor.replace(".z", ".lx"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidDate() {
+        String cursor = KeysetCursor.encode(ORDERS, new Object[]{"a", 1, null, 2, 3L});
+        KeysetCursor.decode(ORDERS, cursor.replace(".z", ".m" + java.util.Base64.getUrlEncoder().withoutPadding().encodeToString("2018-13-01".getBytes())));
+    }
+
+    /**
+     * 没有 null 、同一个方向时，mysql 用行值比较
+     */
+    @Test
+    public void testRowValuePredicate() {
+        List<Order> orders = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("name", Order.Direction.ASC)), "id");
+        Object[] values = {"a", 3L};
+
+        assertPredicate(SqlUtils.Dialect.MySql, orders, values, "(name, id) > (?, ?)", "a", 3L);
+        assertArrayEquals(new Object[]{1, "a", 3L}, SqlUtils.createKeysetArgs(SqlUtils.Dialect.MySql, orders, new Object[]{1}, values));
+
+        // 只有唯一字段时，postgresql 也可以用行值比较
+        List<Order> id = KeysetCursor.createKeysetOrders(Collections.<Order>emptyList(), "id");
+        assertPredicate(SqlUtils.Dialect.PostgreSQL, id, new Object[]{3L}, "(id) > (?)", 3L);
+    }
+
+    /**
+     * mysql 中 null 最小 : asc 时 null 在最前，游标为 null 时之后的记录为 is not null ; desc 时 null 在最后，之后的记录包含 null
+     */
+    @Test
+    public void testNullPredicateMySql() {
+        List<Order> asc = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("name", Order.Direction.ASC)), "id");
+        assertPredicate(SqlUtils.Dialect.MySql, asc, new Object[]{null, 3L},
+                "((name is not null) or (name is null and id > ?))", 3L);
+
+        List<Order> desc = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("name", Order.Direction.DESC)), "id");
+        assertPredicate(SqlUtils.Dialect.MySql, desc, new Object[]{"a", 3L},
+                "(((name < ? or name is null)) or (name = ? and id > ?))", "a", "a", 3L);
+        assertPredicate(SqlUtils.Dialect.MySql, desc, new Object[]{null, 3L},
+                "((name is null and id > ?))", 3L);
+    }
+
+    /**
+     * postgresql 中 null 最大 : asc 时 null 在最后，不能用行值比较
+     */
+    @Test
+    public void testNullPredicatePostgreSQL() {
+        List<Order> asc = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("name", Order.Direction.ASC)), "id");
+        assertPredicate(SqlUtils.Dialect.PostgreSQL, asc, new Object[]{"a", 3L},
+                "(((name > ? or name is null)) or (name = ? and id > ?))", "a", "a", 3L);
+        assertPredicate(SqlUtils.Dialect.PostgreSQL, asc, new Object[]{null, 3L},
+                "((name is null and id > ?))", 3L);
+    }
+
+    private static void assertPredicate(SqlUtils.Dialect dialect, List<Order> orders, Object[] cursorValues, String predicate, Object... args) {
+        SqlUtils.PageSqlTemplate template = SqlUtils.getNativeKeysetPageSqlTemplate(dialect, "select * from t", orders, cursorValues);
+        String sql = template.getSql();
+        assertTrue(sql, sql.contains(" where " + predicate + "  order by "));
+        Object[] keysetArgs = SqlUtils.createKeysetArgs(dialect, orders, new Object[0], cursorValues);
+        assertArrayEquals(args, keysetArgs);
+
+        // 页大小也是占位符，在 keyset 条件的参数之后
+        Object[] pageArgs = template.createArgs(keysetArgs, 0, 10);
+        assertEquals(sql.chars().filter(c -> c == '?').count(), pageArgs.length);
+        assertEquals(args.length + 1, pageArgs.length);
+        assertEquals(10, pageArgs[pageArgs.length - 1]);
+    }
+
+    /**
+     * 页大小为占位符 : 翻页时 (游标中 null 的位置相同) 使用同一个模板 ; sql server 的 top 在查询语句之前
+     */
+    @Test
+    public void testKeysetTemplate() {
+        List<Order> orders = KeysetCursor.createKeysetOrders(Collections.singletonList(new Order("name", Order.Direction.ASC)), "id");
+        SqlUtils.PageSqlTemplate template = SqlUtils.getNativeKeysetPageSqlTemplate(SqlUtils.Dialect.MySql, "select * from t where a = ?", orders, new Object[]{"a", 3L});
+        assertSame(template, SqlUtils.getNativeKeysetPageSqlTemplate(SqlUtils.Dialect.MySql, "select * from t where a = ?", orders, new Object[]{"b", 4L}));
+        assertEquals("select * from (select * from t where a = ?) sel_tab00 where (name, id) > (?, ?)  order by name ASC, id ASC  limit ?", template.getSql());
+
+        SqlUtils.PageSqlTemplate sqlServer = SqlUtils.getNativeKeysetPageSqlTemplate(SqlUtils.Dialect.SqlServer, "select * from t where a = ?", orders, null);
+        assertEquals("select top (?) * from (select * from t where a = ?) sel_tab00  order by name ASC, id ASC", sqlServer.getSql());
+        assertArrayEquals(new Object[]{11, 1}, sqlServer.createArgs(new Object[]{1}, 0, 11));
+        assertEquals("select top (11) * from (select * from t where a = ?) sel_tab00  order by name ASC, id ASC",
+                SqlUtils.createNativeKeysetPageSqlString(SqlUtils.Dialect.SqlServer, "select * from t where a = ?", orders, null, 11));
+    }
+}
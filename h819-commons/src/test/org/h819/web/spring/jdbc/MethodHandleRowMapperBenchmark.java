@@ -0,0 +1,157 @@
+package org.h819.web.spring.jdbc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(BeanPropertyRowMapper 和 MethodHandleRowMapper 的吞吐量测试，h2 内存数据库，每次调用查询 10 万行，结果为 rows/sec)
+ * -
+ * 只比较同一台机器上的相对速度。两种方式的查询结果相同，见 MethodHandleRowMapperTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=MethodHandleRowMapperBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MethodHandleRowMapperBenchmark {
+
+    static final String QUERY_SQL = "select id, user_name, age, score, amount, enabled, create_time from bench_user";
+    private static final int ROWS = 100_000;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup
+    public void setUp() {
+        dataSource = createTable("mapper", ROWS);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dropTable(dataSource);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<BenchUser> beanPropertyRowMapper() {
+        return jdbcTemplate.query(QUERY_SQL, new BeanPropertyRowMapper<>(BenchUser.class));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<BenchUser> methodHandleRowMapper() {
+        return jdbcTemplate.query(QUERY_SQL, MethodHandleRowMapper.of(BenchUser.class));
+    }
+
+    /**
+     * h2 内存数据库中建立 bench_user 表，插入 rows 行
+     *
+     * @param database 数据库名称
+     */
+    static SingleConnectionDataSource createTable(String database, int rows) {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource("jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1", "sa", "", true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table bench_user (id bigint primary key, user_name varchar(64), age int, score double," +
+                " amount decimal(12, 2), enabled boolean, create_time timestamp)");
+        jdbcTemplate.execute("insert into bench_user select x, concat('name-', x), mod(x, 100), x / 3.0, mod(x, 10000) / 100.0," +
+                " mod(x, 2) = 0, current_timestamp from system_range(1, " + rows + ")");
+        return dataSource;
+    }
+
+    static void dropTable(SingleConnectionDataSource dataSource) {
+        new JdbcTemplate(dataSource).execute("drop table bench_user");
+        dataSource.destroy();
+    }
+
+    public static class BenchUser {
+        private long id;
+        private String userName;
+        private int age;
+        private double score;
+        private BigDecimal amount;
+        private boolean enabled;
+        private Date createTime;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public void setUserName(String userName) {
+            this.userName = userName;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public void setScore(double score) {
+            this.score = score;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Date getCreateTime() {
+            return createTime;
+        }
+
+        public void setCreateTime(Date createTime) {
+            this.createTime = createTime;
+        }
+
+        @Override
+        public String toString() {
+            return id + "," + userName + "," + age + "," + score + "," + amount + "," + enabled + "," + createTime;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.h819.web.spring.jdbc;
+
+import org.h819.web.spring.jdbc.MethodHandleRowMapperBenchmark.BenchUser;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.List;
+
+import static org.h819.web.spring.jdbc.MethodHandleRowMapperBenchmark.QUERY_SQL;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Description : TODO(MethodHandleRowMapper 和 BeanPropertyRowMapper 的查询结果相同)
+ * -
+ */
+public class MethodHandleRowMapperTest {
+
+    private static final int ROWS = 100;
+
+    private static SingleConnectionDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeClass
+    public static void setUp() {
+        dataSource = MethodHandleRowMapperBenchmark.createTable("mapper_test", ROWS);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        MethodHandleRowMapperBenchmark.dropTable(dataSource);
+    }
+
+    @Test
+    public void testSameResult() {
+        List<BenchUser> expected = jdbcTemplate.query(QUERY_SQL + " order by id", new BeanPropertyRowMapper<>(BenchUser.class));
+        List<BenchUser> actual = jdbcTemplate.query(QUERY_SQL + " order by id", MethodHandleRowMapper.of(BenchUser.class));
+        assertEquals(ROWS, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+    }
+}
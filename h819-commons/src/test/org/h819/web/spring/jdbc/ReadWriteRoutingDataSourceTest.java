@@ -0,0 +1,108 @@
+package org.h819.web.spring.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(读写分离数据源测试，两个 h2 内存数据库分别作为主库和从库)
+ * -
+ * 每个库的 db_role 表记录自己的名字，查询结果说明使用的是哪个库 ; 从库的 replica_lag 表模拟延迟秒数。
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+    private static final String LAG_QUERY = "select lag_seconds from replica_lag";
+
+    private DataSource primary;
+    private DataSource replica;
+    private ReadWriteRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+
+    @Before
+    public void setUp() {
+        primary = createDatabase("primary");
+        replica = createDatabase("replica");
+        new JdbcTemplate(replica).execute("create table replica_lag (lag_seconds decimal(10, 3))");
+        new JdbcTemplate(replica).update("insert into replica_lag values (0)");
+
+        routing = new ReadWriteRoutingDataSource(primary, Arrays.asList(replica), LAG_QUERY, 5000, 60_000);
+        routing.start();
+
+        DataSource dataSource = ReadWriteRoutingDataSource.wrap(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+    }
+
+    @After
+    public void tearDown() {
+        routing.close();
+        new JdbcTemplate(primary).execute("drop all objects");
+        new JdbcTemplate(replica).execute("drop all objects");
+    }
+
+    @Test
+    public void readOnlyTransactionUsesReplica() {
+        assertEquals("replica", readOnly.execute(status -> currentRole()));
+        assertEquals("primary", readWrite.execute(status -> currentRole()));
+        assertEquals("primary", currentRole()); // 没有事务
+    }
+
+    @Test
+    public void laggingReplicaFallsBackToPrimary() {
+        new JdbcTemplate(replica).update("update replica_lag set lag_seconds = 30");
+        routing.checkReplicas();
+        assertFalse(routing.getReplicas().get(0).isAvailable());
+        assertEquals("primary", readOnly.execute(status -> currentRole()));
+
+        new JdbcTemplate(replica).update("update replica_lag set lag_seconds = 0.5");
+        routing.checkReplicas();
+        assertTrue(routing.getReplicas().get(0).isAvailable());
+        assertEquals(500, routing.getReplicas().get(0).getLagMillis());
+        assertEquals("replica", readOnly.execute(status -> currentRole()));
+    }
+
+    @Test
+    public void outstandingConnectionsAreCounted() throws SQLException {
+        ReadWriteRoutingDataSource.Replica state = routing.getReplicas().get(0);
+        readOnly.execute(status -> {
+            currentRole();
+            assertEquals(1, state.getOutstanding());
+            return null;
+        });
+        assertEquals(0, state.getOutstanding());
+
+        try (Connection connection = primary.getConnection()) { // 不经过 routing ，不计数
+            assertEquals(0, state.getOutstanding());
+        }
+    }
+
+    private String currentRole() {
+        return jdbcTemplate.queryForObject("select name from db_role", String.class);
+    }
+
+    private static DataSource createDatabase(String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("create table db_role (name varchar(16))");
+        template.update("insert into db_role values (?)", name);
+        return dataSource;
+    }
+}
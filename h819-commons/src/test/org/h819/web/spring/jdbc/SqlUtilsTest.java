@@ -0,0 +1,24 @@
+package org.h819.web.spring.jdbc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Description : TODO(SqlUtils : jqgrid 传入的排序方向)
+ * -
+ */
+public class SqlUtilsTest {
+
+    @Test
+    public void testCreateOrder() {
+        assertEquals(Order.Direction.ASC, SqlUtils.createOrder("asc", "name").getDirection());
+        assertEquals(Order.Direction.DESC, SqlUtils.createOrder("DESC", "name").getDirection());
+        assertEquals("name", SqlUtils.createOrder("desc", "name").getProperty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateOrderInvalidDirection() {
+        SqlUtils.createOrder("up", "name");
+    }
+}
@@ -1,8 +1,19 @@
 package org.h819.web.spring.jpa;
 
+import com.alibaba.fastjson.JSON;
 import org.h819.commons.MyFastJsonUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
 /**
  * Description : TODO()
  * User: h819
@@ -25,5 +36,207 @@ public class DTOUtilsTest {
 
     }
 
+    @Test
+    public void testCreateDTOcopyList() throws Exception {
+
+        DtoUtils utils = new DtoUtils();
+
+        List<User> users = Arrays.asList(new User("jiang", 40, true), new User("li", 30, false));
+        // 第二次拷贝使用缓存的拷贝计划
+        for (int i = 0; i < 2; i++) {
+            List<User> copy = utils.createDTOcopy(users, 1);
+            assertEquals(2, copy.size());
+            assertNotSame(users.get(0), copy.get(0));
+            assertEquals("li", copy.get(1).getName());
+            assertEquals(30, copy.get(1).getAge());
+            assertEquals(false, copy.get(1).isSex());
+        }
+
+    }
+
+    /**
+     * 默认模式 : 多个节点引用同一个对象 (DAG)，每个引用各自拷贝一份，和原来的实现一致 ; 循环引用 (parent) 设置为 null
+     */
+    @Test
+    public void testCreateDTOcopySharedReference() throws Exception {
+
+        Node shared = new Node(100, "shared");
+        Node root = new Node(1, "root");
+        Node a = root.addChild(new Node(2, "a"));
+        Node b = root.addChild(new Node(3, "b"));
+        a.setShared(shared);
+        b.setShared(shared);
+
+        DtoUtils utils = new DtoUtils();
+        Node copy = utils.createDTOcopy(root, 2);
+
+        assertNotSame(root, copy);
+        assertEquals(2, copy.getChildren().size());
+        Node copyA = copy.getChildren().get(0);
+        Node copyB = copy.getChildren().get(1);
+        assertEquals("a", copyA.getName());
+        assertEquals(1, copyB.getSort());
+        assertNull(copyA.getParent()); // root 是 a 的祖先，循环引用
+        assertNotSame(shared, copyA.getShared());
+        assertEquals("shared", copyA.getShared().getName());
+        assertEquals("shared", copyB.getShared().getName());
+        assertNotSame(copyA.getShared(), copyB.getShared());
+
+        // 深度不够的属性 : 对象为 null ，集合为空
+        Node shallow = utils.createDTOcopy(root, 1);
+        assertNull(shallow.getChildren().get(0).getShared());
+        assertEquals(0, utils.createDTOcopy(root, 0).getChildren().size());
+
+        // excludes 的属性不拷贝
+        utils.addExcludes(Node.class, "shared");
+        assertNull(utils.createDTOcopy(root, 2).getChildren().get(0).getShared());
+    }
+
+
+    /**
+     * 保留共享引用模式 : 同一个对象只生成一个 DTO ; 先以较小的剩余深度拷贝过的对象，再以更大的深度遇到时重新拷贝
+     */
+    @Test
+    public void testCreateDTOcopyPreserveSharedReferences() throws Exception {
+
+        Node shared = new Node(100, "shared");
+        shared.addChild(new Node(101, "shared-child"));
+        Node root = new Node(1, "root");
+        Node a = root.addChild(new Node(2, "a"));
+        Node b = root.addChild(new Node(3, "b"));
+        a.setShared(shared);
+        b.setShared(shared);
+        root.setShared(shared);
+
+        DtoUtils utils = new DtoUtils();
+        utils.setPreserveSharedReferences(true);
+        Node copy = utils.createDTOcopy(root, 2);
+
+        Node copyA = copy.getChildren().get(0);
+        Node copyB = copy.getChildren().get(1);
+        assertSame(copyA.getShared(), copyB.getShared());
+        assertNotSame(shared, copyA.getShared());
+        // root.shared 的剩余深度为 1 ，子节点需要拷贝 ; a.shared , b.shared 的剩余深度为 0
+        assertEquals(1, copy.getShared().getChildren().size());
+        assertEquals("shared-child", copy.getShared().getChildren().get(0).getName());
+
+        // 集合中的对象共享一个上下文
+        List<Node> copies = utils.createDTOcopy(Arrays.asList(a, b), 1);
+        assertSame(copies.get(0).getShared(), copies.get(1).getShared());
+
+        // 每次调用各自独立
+        assertNotSame(copyA.getShared(), utils.createDTOcopy(a, 1).getShared());
+    }
+
+
+    /**
+     * 简单值 (String , Long) 的集合属性，元素直接添加，不作为关联对象拷贝
+     */
+    @Test
+    public void testCreateDTOcopySimpleValueCollection() throws Exception {
+
+        Node root = new Node(1, "root");
+        root.getTags().add("a");
+        root.getTags().add("b");
+        root.addChild(new Node(2, "child")).getTags().add("c");
+
+        DtoUtils utils = new DtoUtils();
+        Node copy = utils.createDTOcopy(root, 2);
+        assertEquals(Arrays.asList("a", "b"), copy.getTags());
+        assertEquals(Arrays.asList("c"), copy.getChildren().get(0).getTags());
+
+        Map<String, Object> map = utils.createMapCopy(root, 1);
+        assertEquals(Arrays.asList("a", "b"), map.get("tags"));
+    }
+
+
+    /**
+     * getter 抛出的 Error (StackOverflowError 等) 直接抛出，不包装为 InvocationTargetException ，不返回拷贝了一半的 DTO
+     */
+    @Test(expected = StackOverflowError.class)
+    public void testCreateDTOcopyRethrowError() throws Exception {
+        new DtoUtils().createDTOcopy(new FailingBean(), 0);
+    }
+
+    public static class FailingBean {
+
+        public String getName() {
+            throw new StackOverflowError("getName");
+        }
+
+        public void setName(String name) {
+        }
+    }
+
+    /**
+     * 拷贝关联属性时出现异常 (打印异常，返回部分拷贝的 DTO)，该对象也要移出祖先 :
+     * 集合中的对象共享一个上下文，后面的对象引用它时不能当作循环引用
+     */
+    @Test
+    public void testCreateDTOcopyListAfterException() throws Exception {
+
+        FailingItem failing = new FailingItem("failing");
+        FailingItem b = new FailingItem("b");
+        b.setRef(failing);
+
+        List<FailingItem> copies = new DtoUtils().createDTOcopy(Arrays.asList(failing, b), 1);
+        assertEquals("failing", copies.get(1).getRef().getName());
+
+        List<Map<String, Object>> maps = new DtoUtils().createMapCopyList(Arrays.asList(failing, b), 1);
+        assertEquals("failing", ((Map<String, Object>) maps.get(1).get("ref")).get("name"));
+    }
+
+    /**
+     * 按属性名的顺序拷贝关联属性 : 先拷贝 ref ，再读取 values 时抛出异常
+     */
+    public static class FailingItem {
+
+        private String name;
+        private FailingItem ref;
+        private List<FailingItem> values = new ArrayList<>();
+
+        public FailingItem() {
+        }
+
+        FailingItem(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public FailingItem getRef() {
+            return ref;
+        }
+
+        public void setRef(FailingItem ref) {
+            this.ref = ref;
+        }
+
+        public List<FailingItem> getValues() {
+            throw new IllegalStateException("getValues");
+        }
+    }
+
+    /**
+     * 拷贝计划和原来的实现 (DtoUtilsBenchmark.LegacyDtoUtils) 的拷贝结果相同
+     */
+    @Test
+    public void testCreateDTOcopySameAsLegacy() throws Exception {
+
+        List<Node> nodes = new ArrayList<>();
+        Node root = DtoUtilsBenchmark.createTree(nodes);
+
+        for (int depth : new int[]{1, 2})
+            assertEquals(JSON.toJSONString(new DtoUtilsBenchmark.LegacyDtoUtils().createDTOcopy(nodes, depth)),
+                    JSON.toJSONString(new DtoUtils().createDTOcopy(nodes, depth)));
+        assertEquals(JSON.toJSONString(new DtoUtilsBenchmark.LegacyDtoUtils().createDTOcopy(root, 100)),
+                JSON.toJSONString(new DtoUtils().createDTOcopy(root, 100)));
+    }
 
-}
\ No newline at end of file
+}
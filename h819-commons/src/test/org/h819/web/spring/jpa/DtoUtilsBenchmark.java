@@ -0,0 +1,153 @@
+package org.h819.web.spring.jpa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(DtoUtils.createDTOcopy : 原来的实现 (每个对象反射 + 线性扫描 excludes + List 记录祖先) 和拷贝计划 (DtoCopyPlan) 的速度比较)
+ * -
+ * 测试数据 : 根节点下 50 条链，每条 40 个节点，共 2001 个节点 ; 每个节点引用 5 个共享节点之一，子节点的 parent 指向父节点 (双向关联)。
+ * depth 1 , 2 : 拷贝所有节点的列表 (如 grid 的一页) ; depth 100 : 从根节点拷贝整棵树。
+ * 两种方式的结果相同，见 DTOUtilsTest.testCreateDTOcopySameAsLegacy 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=DtoUtilsBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DtoUtilsBenchmark {
+
+    private static final int CHAINS = 50;
+    private static final int CHAIN_LENGTH = 40;
+
+    @Param({"1", "2", "100"})
+    public int depth;
+
+    private Object source;
+
+    @Setup
+    public void setUp() {
+        List<Node> nodes = new ArrayList<>();
+        Node root = createTree(nodes);
+        source = depth == 100 ? root : nodes;
+    }
+
+    @Benchmark
+    public Object legacy() {
+        return new LegacyDtoUtils().createDTOcopy(source, depth);
+    }
+
+    @Benchmark
+    public Object copyPlan() {
+        return new DtoUtils().createDTOcopy(source, depth);
+    }
+
+    /**
+     * @param nodes 放入所有节点，包含根节点
+     * @return 根节点
+     */
+    static Node createTree(List<Node> nodes) {
+        List<Node> shared = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            shared.add(new Node(-i - 1, "shared-" + i));
+
+        long id = 0;
+        Node root = new Node(id++, "root");
+        nodes.add(root);
+        for (int chain = 0; chain < CHAINS; chain++) {
+            Node parent = root;
+            for (int i = 0; i < CHAIN_LENGTH; i++) {
+                Node node = parent.addChild(new Node(id, "node-" + id));
+                node.setShared(shared.get((int) (id % shared.size())));
+                nodes.add(node);
+                parent = node;
+                id++;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * 原来的实现 (DtoCopyPlan 之前的 DtoUtils.createDTOCopy)，用于比较
+     */
+    static class LegacyDtoUtils {
+
+        private final Map<Class<?>, String[]> excludes = new HashMap<>();
+
+        Object createDTOcopy(Object entityPO, int depth) {
+            if (entityPO instanceof Collection) {
+                List<Object> list = new ArrayList<>();
+                for (Object entity : (Collection<?>) entityPO)
+                    list.add(createDTOCopy(entity, depth, new LinkedList<>()));
+                return list;
+            }
+            return createDTOCopy(entityPO, depth, new LinkedList<>());
+        }
+
+        private Object createDTOCopy(Object entityPO, int depth, List<Object> ancestors) {
+            if (entityPO == null || ancestors.contains(entityPO))
+                return null;
+
+            Object entityVO = BeanUtils.instantiateClass(entityPO.getClass());
+            try {
+                List<String> nonSimplePropertyNames = getNonSimplePropertyNames(entityPO.getClass());
+                BeanUtils.copyProperties(entityPO, entityVO, nonSimplePropertyNames.toArray(new String[]{}));
+                if (depth > 0) {
+                    Class<?> clazz = entityPO.getClass();
+                    ancestors.add(entityPO);
+
+                    continueTag:
+                    for (PropertyDescriptor property : BeanUtils.getPropertyDescriptors(clazz)) {
+                        for (Map.Entry<Class<?>, String[]> item : excludes.entrySet())
+                            if (item.getKey().isAssignableFrom(clazz) && Arrays.asList(item.getValue()).contains(property.getName()))
+                                continue continueTag;
+
+                        if (Collection.class.isAssignableFrom(property.getPropertyType())) {
+                            Collection sourceCollection = (Collection) property.getReadMethod().invoke(entityPO);
+                            Collection targetCollection = (Collection) property.getReadMethod().invoke(entityVO);
+                            targetCollection.clear();
+                            if (sourceCollection != null)
+                                for (Object j : sourceCollection)
+                                    targetCollection.add(createDTOCopy(j, depth - 1, ancestors));
+                            continue;
+                        }
+
+                        if (nonSimplePropertyNames.contains(property.getName()))
+                            property.getWriteMethod().invoke(entityVO, createDTOCopy(property.getReadMethod().invoke(entityPO), depth - 1, ancestors));
+                    }
+
+                    ancestors.remove(ancestors.size() - 1);
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+            return entityVO;
+        }
+
+        private static List<String> getNonSimplePropertyNames(Class<?> fromClass) {
+            List<String> names = new ArrayList<>();
+            for (Field field : fromClass.getDeclaredFields())
+                if (!BeanUtils.isSimpleProperty(field.getType()))
+                    names.add(field.getName());
+            return names;
+        }
+    }
+}
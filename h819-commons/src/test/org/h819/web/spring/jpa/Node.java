@@ -0,0 +1,94 @@
+package org.h819.web.spring.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description : TODO(DtoUtils 测试用的树节点 : parent / children 双向关联，shared 为多个节点共同引用的对象)
+ */
+public class Node {
+    private Long id;
+    private String name;
+    private int sort;
+    private Node parent;
+    private Node shared;
+    private List<Node> children = new ArrayList<>();
+    private List<String> tags = new ArrayList<>();
+
+    public Node() {
+    }
+
+    public Node(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * 添加子节点，并设置子节点的 parent
+     *
+     * @param child
+     * @return child
+     */
+    public Node addChild(Node child) {
+        child.setParent(this);
+        child.setSort(children.size());
+        children.add(child);
+        return child;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getSort() {
+        return sort;
+    }
+
+    public void setSort(int sort) {
+        this.sort = sort;
+    }
+
+    public Node getParent() {
+        return parent;
+    }
+
+    public void setParent(Node parent) {
+        this.parent = parent;
+    }
+
+    public Node getShared() {
+        return shared;
+    }
+
+    public void setShared(Node shared) {
+        this.shared = shared;
+    }
+
+    public List<Node> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<Node> children) {
+        this.children = children;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
@@ -8,6 +8,7 @@ import org.examples.spring.repository.TreeEntityRepository;
 import org.h819.web.jqgird.JqgridPage;
 import org.h819.web.spring.jdbc.SqlUtils;
 import org.h819.web.spring.jpa.DtoUtils;
+import org.h819.web.spring.jpa.FetchPlan;
 import org.h819.web.spring.jpa.JpaDynamicSpecificationBuilder;
 import org.h819.web.spring.jpa.JpaUtils;
 import org.h819.web.spring.jpa.SearchFilter;
@@ -23,6 +24,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -48,6 +51,8 @@ public class JqgridController {
     TreeEntityRepository treeEntityRepository;
     @Autowired
     private ServletContext servletContext; //获得应用的路径用
+    @PersistenceContext
+    private EntityManager entityManager;
 
     /**
      * jqgrid 通过 ajax 方式发送请求，得到返回的 json 数据后，在当前表格进行展示。
@@ -141,9 +146,13 @@ public class JqgridController {
         //  Page list = JpaUtils.getJqgridPage(treeEntityRepository, currentPageNo, pageSize, sortParameter, direction, filters, customSpecification);
         // 3. 用在非 jqgrid 的条件下，没有 filter 查询条件 ,仅有自己附加查询条件时写法 (customSpecification):
         // Page list = JpaUtils.getPage(treeEntityRepository, currentPageNo, pageSize, sortParameter, direction, null, customSpecification);
+        // 4. DTO 转换时用到关联对象，传入和 DTO 转换相同的抓取计划，关联对象和当前页一起加载，避免逐条查询 (1+N) :
+        // Page list = JpaUtils.getJqGridPage(entityManager, TreeEntity.class, treeEntityRepository, currentPageNo, pageSize, order, filters, customSpecification, fetchPlan);
 
 
-        Page<TreeEntity> pages = JpaUtils.getJqGridPage(treeEntityRepository, currentPageNo, pageSize, SqlUtils.createOrder(sortDirection,sortParameter),filters, customSpecification);
+        FetchPlan fetchPlan = new FetchPlan().addExcludes(TreeEntity.class, "parent").fetchDepth(0); // 同下面的 DTO 转换
+        Page<TreeEntity> pages = JpaUtils.getJqGridPage(entityManager, TreeEntity.class, treeEntityRepository, currentPageNo, pageSize,
+                SqlUtils.createOrder(sortDirection, sortParameter), filters, customSpecification, fetchPlan);
         if (pages.getTotalElements() == 0)
             return new JqgridPage(pageSize, 0, 0, Collections.EMPTY_LIST); //构造空数据集，否则返回结果集 jqgird 解析会有问题
 
@@ -161,7 +170,7 @@ public class JqgridController {
 
 
         JqgridPage<TreeEntity> jqPage = new JqgridPage
-                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent()));
+                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent(), 0));
 
         // 非 Jqgrid 情况下，JqgridPage 换成 PageBean 即可
 //        PageBean<StStandardEntity> response = new PageBean
@@ -0,0 +1,31 @@
+package com.base.spring.config;
+
+import com.base.spring.config.properties.PageCountCacheProperty;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.h819.web.spring.jdbc.PageCountCache;
+import org.h819.web.spring.jpa.PageCountCacheInvalidator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(表格分页查询的总数缓存)
+ * -
+ * 用户在 jqgrid 表格中翻页时，查询条件不变，不需要每一页都执行 count(*) ，见 PageCountCache , JpaUtils.getJqGridKeysetPage
+ * entity 通过 jpa 增删改，事务提交后自动清除该 entity 的总数
+ * 命中率 : actuator metrics cache.gets?tag=cache:page.count
+ */
+@Configuration
+public class PageCountCacheConfig {
+
+    @Bean
+    public PageCountCache pageCountCache(PageCountCacheProperty property, EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry) {
+        PageCountCache countCache = new PageCountCache(property.getTtlSeconds(), TimeUnit.SECONDS, property.getMaxSize());
+        PageCountCacheInvalidator.register(entityManagerFactory, countCache);
+        GuavaCacheMetrics.monitor(meterRegistry, countCache.getCache(), "page.count");
+        return countCache;
+    }
+}
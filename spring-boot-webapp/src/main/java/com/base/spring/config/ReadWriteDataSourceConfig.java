@@ -0,0 +1,74 @@
+package com.base.spring.config;
+
+import com.base.spring.config.properties.ReadWriteDataSourceProperty;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.h819.web.spring.jdbc.ReadWriteRoutingDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(读写分离数据源)
+ * -
+ * datasource.routing.enabled=true 时启用，@Transactional(readOnly = true) 的方法 (如 CustomUserDetailsService , TreeService 的查询) 使用从库，
+ * 其他使用主库 (spring.datasource)。从库延迟超过 datasource.routing.max-lag-seconds 时，只读事务也使用主库。
+ * 路由规则见 ReadWriteRoutingDataSource ，配置见 ReadWriteDataSourceProperty
+ * 从库状态 : actuator metrics datasource.replica.lag , datasource.replica.outstanding , datasource.replica.available
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "datasource.routing", name = "enabled", havingValue = "true")
+public class ReadWriteDataSourceConfig {
+
+    /**
+     * 关闭应用时 close : 停止检查线程，关闭主库、从库的连接池
+     */
+    @Bean(destroyMethod = "close")
+    public ReadWriteRoutingDataSource routingDataSource(DataSourceProperties dataSourceProperties, ReadWriteDataSourceProperty property,
+                                                        MeterRegistry meterRegistry) {
+
+        DataSource primary = dataSourceProperties.initializeDataSourceBuilder().build();
+        List<DataSource> replicas = new ArrayList<>(property.getReplicas().size());
+        for (ReadWriteDataSourceProperty.Replica replica : property.getReplicas())
+            replicas.add(DataSourceBuilder.create()
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .driverClassName(replica.getDriverClassName())
+                    .build());
+
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replicas,
+                StringUtils.hasText(property.getLagQuery()) ? property.getLagQuery() : null,
+                (long) (property.getMaxLagSeconds() * 1000), TimeUnit.SECONDS.toMillis(property.getCheckIntervalSeconds()));
+
+        for (ReadWriteRoutingDataSource.Replica replica : routing.getReplicas()) {
+            Gauge.builder("datasource.replica.lag", replica, ReadWriteRoutingDataSource.Replica::getLagMillis)
+                    .tag("replica", replica.getName()).baseUnit("milliseconds").register(meterRegistry);
+            Gauge.builder("datasource.replica.outstanding", replica, ReadWriteRoutingDataSource.Replica::getOutstanding)
+                    .tag("replica", replica.getName()).register(meterRegistry);
+            Gauge.builder("datasource.replica.available", replica, r -> r.isAvailable() ? 1 : 0)
+                    .tag("replica", replica.getName()).register(meterRegistry);
+        }
+
+        routing.start();
+        return routing;
+    }
+
+    /**
+     * jpa 、JdbcTemplate 、事务管理器使用的数据源，延迟取连接，事务是否只读确定之后再路由
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return ReadWriteRoutingDataSource.wrap(routingDataSource);
+    }
+}
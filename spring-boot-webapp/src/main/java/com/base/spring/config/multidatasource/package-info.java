@@ -31,6 +31,8 @@
  * @Transactional(value ="mysqlTransactionManager") -
  * -
  * 8. 如果在同一个方法中用到了不同的数据源，可以改写成两个方法，之后分别设置 Transactional ，见 MultiDataSourceExample
+ * -
+ * 9. 同一个数据库的主从 (读写分离) 不用配置多个数据源，只读事务自动使用从库，见 ReadWriteDataSourceConfig
  * Time: 2016.03.29 :16:47
  */
 package com.base.spring.config.multidatasource;
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.base.spring.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分页查询总数缓存配置，见 PageCountCacheConfig
+ * -
+ * application.properties 中设置，如 :
+ * page.count-cache.ttl-seconds=60
+ * page.count-cache.max-size=10000
+ */
+@Component
+@ConfigurationProperties(prefix = "page.count-cache")
+@Data
+public class PageCountCacheProperty {
+
+    // 总数写入后的有效时间(秒)，不经过 hibernate 的修改(jdbc , 批量 jpql)，最多在此时间后反映出来
+    private long ttlSeconds = 60;
+
+    // 最多缓存的总数个数
+    private long maxSize = 10000;
+}
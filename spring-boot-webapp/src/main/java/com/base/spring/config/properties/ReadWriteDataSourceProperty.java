@@ -0,0 +1,49 @@
+package com.base.spring.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读写分离数据源配置，见 ReadWriteDataSourceConfig
+ * -
+ * 主库为 spring.datasource ，从库在 application.properties 中设置，如 :
+ * datasource.routing.enabled=true
+ * datasource.routing.max-lag-seconds=5
+ * datasource.routing.lag-query=select extract(epoch from now() - pg_last_xact_replay_timestamp())
+ * datasource.routing.replicas[0].url=jdbc:mysql://replica1:3306/springboottest
+ * datasource.routing.replicas[0].username=springboottest
+ * datasource.routing.replicas[0].password=springboottest
+ */
+@Component
+@ConfigurationProperties(prefix = "datasource.routing")
+@Data
+public class ReadWriteDataSourceProperty {
+
+    // 是否启用读写分离，不启用时只用 spring.datasource
+    private boolean enabled = false;
+
+    // 从库延迟超过此值时，只读事务改用主库
+    private double maxLagSeconds = 5;
+
+    // 检查从库延迟的间隔(秒)
+    private long checkIntervalSeconds = 5;
+
+    // 在从库上查询延迟秒数的语句，为空时只检查从库是否可以连接，见 ReadWriteRoutingDataSource
+    private String lagQuery;
+
+    // 从库
+    private List<Replica> replicas = new ArrayList<>();
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+        // 可以不指定，从 url 分析得到
+        private String driverClassName;
+    }
+}
@@ -0,0 +1,24 @@
+package com.base.spring.config.properties;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 树快照缓存配置，见 TreeCacheService
+ * -
+ * application.properties 中设置，如 :
+ * tree.cache.enabled=true
+ * tree.cache.max-nodes=100000
+ */
+@Component
+@ConfigurationProperties(prefix = "tree.cache")
+@Data
+public class TreeCacheProperty {
+
+    // 是否启用缓存，false 时每次都从数据库加载
+    private boolean enabled = true;
+
+    // 所有缓存的树快照的节点总数上限，超出时淘汰快照，超出上限的单个树不缓存
+    private long maxNodes = 100000;
+}
@@ -16,6 +16,7 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.h819.web.jqgird.JqgridPage;
 import org.h819.web.spring.jdbc.SqlUtils;
 import org.h819.web.spring.jpa.DtoUtils;
+import org.h819.web.spring.jpa.FetchPlan;
 import org.h819.web.spring.jpa.JpaUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -29,6 +30,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
@@ -42,6 +45,8 @@ public class GroupAjaxController {
 
     //private static final log log = LoggerFactory.getLogger(GroupAjaxController.class);
 
+    // 表格的 DTO 转换深度，抓取计划使用相同的深度 : 关联属性 (users 、roles) 都被 excludes ，只转换简单属性
+    private static final int DTO_DEPTH = 0;
 
     @Autowired
     private GroupRepository groupRepository;
@@ -51,6 +56,8 @@ public class GroupAjaxController {
     private UserRepository userRepository;
     @Autowired
     private RoleRepository roleRepository;
+    @PersistenceContext
+    private EntityManager entityManager;
 
 
     /**
@@ -78,8 +85,11 @@ public class GroupAjaxController {
 
         /**
          * 记录集
+         * 抓取计划和下面的 DTO 转换使用相同的深度和 excludes ，查询条件、排序、DTO 中的关联对象和当前页一起加载，见 FetchPlan
          */
-        Page<GroupEntity> pages = JpaUtils.getJqGridPage(groupRepository, currentPageNo, pageSize, SqlUtils.createOrder(sortDirection,sortParameter), filters);
+        FetchPlan fetchPlan = new FetchPlan().addExcludes(GroupEntity.class, "users", "roles").fetchDepth(DTO_DEPTH);
+        Page<GroupEntity> pages = JpaUtils.getJqGridPage(entityManager, GroupEntity.class, groupRepository, currentPageNo, pageSize,
+                SqlUtils.createOrder(sortDirection, sortParameter), filters, null, fetchPlan);
         if (pages.getTotalElements() == 0)
             return new JqgridPage(pageSize, 0, 0, new ArrayList(0)); //构造空数据集，否则返回结果集 jqgird 解析会有问题
 
@@ -94,7 +104,7 @@ public class GroupAjaxController {
         dtoUtils.addExcludes(GroupEntity.class, "users", "roles");
 
         JqgridPage<GroupEntity> jqPage = new JqgridPage
-                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent()));
+                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent(), DTO_DEPTH));
 
         return jqPage;
     }
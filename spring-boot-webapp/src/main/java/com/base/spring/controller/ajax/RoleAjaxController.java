@@ -7,6 +7,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.h819.web.jqgird.JqgridPage;
 import org.h819.web.spring.jdbc.SqlUtils;
 import org.h819.web.spring.jpa.DtoUtils;
+import org.h819.web.spring.jpa.FetchPlan;
 import org.h819.web.spring.jpa.JpaUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -20,6 +21,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
@@ -31,11 +34,15 @@ public class RoleAjaxController {
 
     //private static final log log = LoggerFactory.getLogger(RoleAjaxController.class);
 
+    // 表格的 DTO 转换深度，抓取计划使用相同的深度 : 关联属性 (treeNodes 、users 、groups) 都被 excludes ，只转换简单属性
+    private static final int DTO_DEPTH = 0;
 
     @Autowired
     private RoleRepository roleRepository;
     @Autowired
     private RoleService roleService;
+    @PersistenceContext
+    private EntityManager entityManager;
 
 
     /**
@@ -65,9 +72,11 @@ public class RoleAjaxController {
 
         /**
          * 记录集
+         * 抓取计划和下面的 DTO 转换使用相同的深度和 excludes ，查询条件、排序、DTO 中的关联对象和当前页一起加载，见 FetchPlan
          */
-
-        Page<RoleEntity> pages = JpaUtils.getJqGridPage(roleRepository, currentPageNo, pageSize, SqlUtils.createOrder(direction,parameter), filters);
+        FetchPlan fetchPlan = new FetchPlan().addExcludes(RoleEntity.class, "treeNodes", "users", "groups").fetchDepth(DTO_DEPTH);
+        Page<RoleEntity> pages = JpaUtils.getJqGridPage(entityManager, RoleEntity.class, roleRepository, currentPageNo, pageSize,
+                SqlUtils.createOrder(direction, parameter), filters, null, fetchPlan);
         if (pages.getTotalElements() == 0)
             return new JqgridPage(pageSize, 0, 0, new ArrayList()); //构造空数据集，否则返回结果集 jqgird 解析会有问题
 
@@ -83,7 +92,7 @@ public class RoleAjaxController {
 
 
         JqgridPage<RoleEntity> jqPage = new JqgridPage
-                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent()));
+                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent(), DTO_DEPTH));
 
         return jqPage;
     }
@@ -122,7 +131,7 @@ public class RoleAjaxController {
             //多选时，逐个处理
             for (String id : ids) {
                 log.info("id =" + id);
-                roleRepository.deleteById(Long.valueOf(id));
+                roleService.delete(Long.valueOf(id)); // 通过 RoleService 修改，以便发布 TreeChangedEvent ，清空树缓存
             }
 
             return; //删除后返回
@@ -131,8 +140,7 @@ public class RoleAjaxController {
 
             log.info("add action.");
             Assert.hasText(name.trim(), "namecn must not be null!");
-            RoleEntity entity = new RoleEntity(name);
-            roleRepository.save(entity);
+            roleService.add(name);
             // do add action
 
         } else if (oper.equals("edit")) {
@@ -144,9 +152,7 @@ public class RoleAjaxController {
                 //必填项 。  不能放在方法参数中，用 required = true 限制，因为 del 操作无此参数
                 Assert.hasText(name.trim(), "namecn must not be null!");
 
-                RoleEntity entity = roleRepository.getOne(Long.valueOf(id));
-                entity.setName(name);
-                roleRepository.save(entity);
+                roleService.editName(Long.valueOf(id), name);
             }
         } else {
             //do none. 没有其他的 oper 参数值了
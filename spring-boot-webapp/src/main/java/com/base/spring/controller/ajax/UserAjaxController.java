@@ -12,11 +12,12 @@ import com.base.spring.utils.BCryptPassWordUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.h819.web.jqgird.JqgridPage;
+import org.h819.web.spring.jdbc.PageCountCache;
 import org.h819.web.spring.jdbc.SqlUtils;
 import org.h819.web.spring.jpa.DtoUtils;
+import org.h819.web.spring.jpa.FetchPlan;
 import org.h819.web.spring.jpa.JpaUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
@@ -27,6 +28,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
@@ -38,6 +41,9 @@ import java.util.List;
 @Slf4j
 public class UserAjaxController {
 
+    // 表格的 DTO 转换深度，抓取计划使用相同的深度 : 用户和 roles 、groups (第 1 层，excludes 见 jqgridSearch)
+    private static final int DTO_DEPTH = 1;
+
     @Autowired
     private UserRepository userRepository;
     @Autowired
@@ -50,6 +56,11 @@ public class UserAjaxController {
     @Autowired
     private RoleRepository roleRepository;
 
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Autowired
+    private PageCountCache pageCountCache;
+
 
     /**
      * 查看菜单
@@ -60,6 +71,7 @@ public class UserAjaxController {
      * @param pageSize      页面可显示行数
      * @param sortParameter 用于排序的列名 ，启用 groups 时，此项复杂，需要特殊解析
      * @param sortDirection 排序的方式desc/asc
+     * @param cursor        keyset 分页的游标，点击下一页时传回上一页返回的 cursor ，其他情况为空
      * @return jqgrid 展示所需要的 json 结构，通过 spring 自动完成
      */
     @RequestMapping(value = "/jqgrid-search", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
@@ -71,16 +83,24 @@ public class UserAjaxController {
             @RequestParam(value = "page", required = true) Integer currentPageNo,
             @RequestParam(value = "rows", required = true) Integer pageSize,
             @RequestParam(value = "sidx", required = true) String sortParameter,
-            @RequestParam(value = "sord", required = true) String sortDirection, RedirectAttributes redirectAttrs, HttpServletRequest request) {
+            @RequestParam(value = "sord", required = true) String sortDirection,
+            @RequestParam(value = "cursor", required = false) String cursor, RedirectAttributes redirectAttrs, HttpServletRequest request) {
 
 
         log.info("search ={},page ={},rows ={},sord={},sidx={},filters={}", search, currentPageNo, pageSize, sortDirection, sortParameter, filters);
 
         /**
          * 记录集
+         * 用户表记录较多，keyset 分页，翻到很深的页时不需要扫描前面所有的记录 ; 翻页时查询条件不变，总数从缓存中获取
+         * 抓取计划和下面的 DTO 转换使用相同的深度和 excludes ，查询条件、排序、DTO 中的关联对象和当前页一起加载，见 FetchPlan
          */
-        Page<UserEntity> pages = JpaUtils.getJqGridPage(userRepository, currentPageNo, pageSize, SqlUtils.createOrder(sortDirection, sortParameter), filters);
-        if (pages.getTotalElements() == 0)
+        FetchPlan fetchPlan = new FetchPlan()
+                .addExcludes(RoleEntity.class, "treeNodes", "users", "groups")
+                .addExcludes(GroupEntity.class, "users", "roles")
+                .fetchDepth(DTO_DEPTH);
+        JqgridPage<UserEntity> pages = JpaUtils.getJqGridKeysetPage(entityManager, UserEntity.class, currentPageNo, pageSize,
+                SqlUtils.createOrder(sortDirection, sortParameter), "id", cursor, filters, null, pageCountCache, fetchPlan);
+        if (pages.getRecords() == 0)
             return new JqgridPage(pageSize, 0, 0, new ArrayList(0)); //构造空数据集，否则返回结果集 jqgird 解析会有问题
 
 
@@ -96,7 +116,8 @@ public class UserAjaxController {
 
 
         JqgridPage<UserEntity> jqPage = new JqgridPage
-                (pages.getSize(), pages.getNumber(), (int) pages.getTotalElements(), dtoUtils.createDTOcopy(pages.getContent()));
+                (pageSize, pages.getPage() - 1, pages.getRecords(), dtoUtils.createDTOcopy(pages.getRows(), DTO_DEPTH));
+        jqPage.setCursor(pages.getCursor());
 
         return jqPage;
     }
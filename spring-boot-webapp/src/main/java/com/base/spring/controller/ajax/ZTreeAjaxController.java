@@ -14,6 +14,8 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,8 +49,8 @@ public class ZTreeAjaxController {
      * @return
      */
     @RequestMapping(value = "/asyncByTreeType.html", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    @ResponseBody
-    public String asyncByTreeType(@RequestParam(value = "id", required = false) Long id, @RequestParam(value = "treeType", required = true) TreeType menuType) {
+    public void asyncByTreeType(@RequestParam(value = "id", required = false) Long id, @RequestParam(value = "treeType", required = true) TreeType menuType,
+                                HttpServletResponse response) throws IOException {
 
         log.info("id={} , menuType={}", id, menuType);
 
@@ -57,7 +59,9 @@ public class ZTreeAjaxController {
             list.addAll(Arrays.asList(TreeType.Menu, TreeType.PageResource));
         else list.add(menuType);
 
-        return treeNodeService.asyncTree(id, list);
+        //直接写入 response ，不生成中间的字符串
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        treeNodeService.writeAsyncTree(id, list, response.getWriter());
 
     }
 
@@ -67,10 +71,10 @@ public class ZTreeAjaxController {
      * @return
      */
     @RequestMapping(value = "/asyncByTreeTypeAndRole.html", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    @ResponseBody
-    public String asyncByTreeTypeAndRole(@RequestParam(value = "id", required = false) Long id,
-                                         @RequestParam(value = "treeType", required = true) TreeType menuType,
-                                         @RequestParam(value = "role_id", required = true) String roleId) {
+    public void asyncByTreeTypeAndRole(@RequestParam(value = "id", required = false) Long id,
+                                       @RequestParam(value = "treeType", required = true) TreeType menuType,
+                                       @RequestParam(value = "role_id", required = true) String roleId,
+                                       HttpServletResponse response) throws IOException {
 
         log.info("id={} , menuType={}, roleId={}", id, menuType, roleId);
 
@@ -80,10 +84,11 @@ public class ZTreeAjaxController {
         else list.add(menuType);
 
 
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
         if (roleId.isEmpty())    // 还没有选择 role，返回初始的树
-            return treeNodeService.asyncTree(id, list);
+            treeNodeService.writeAsyncTree(id, list, response.getWriter());
         else
-            return treeNodeService.asyncRoleTree(id, list, roleRepository.getOne(Long.valueOf(roleId))); //和 role 关联的树节点会自动选中
+            treeNodeService.writeAsyncRoleTree(id, list, roleRepository.getOne(Long.valueOf(roleId)), response.getWriter()); //和 role 关联的树节点会自动选中
     }
 
     /**
@@ -120,9 +125,7 @@ public class ZTreeAjaxController {
     public String edit(@RequestParam(value = "id", required = true) Long id, @RequestParam(value = "name", required = true) String name) {
         log.info("edit treeNode : id={} , name={}", id, name);
         //treeNodeService.clearChildren(id);
-        TreeEntity treeNode = treeNodeRepository.getOne(id);
-        treeNode.setName(name);
-        treeNodeRepository.save(treeNode);
+        treeNodeService.editName(id, name);
         return "edit succeed.";
     }
 
@@ -139,7 +142,7 @@ public class ZTreeAjaxController {
         if (tree.isRoot())
             return "root node can not be delete";
 
-        treeNodeRepository.deleteById(id);
+        treeNodeService.delete(id);
 
         return "del succeed.";
     }
@@ -8,6 +8,7 @@ import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import javax.persistence.*;
 import java.util.*;
@@ -23,7 +24,7 @@ import java.util.*;
 @Setter
 @AllArgsConstructor
 @Entity
-@Table(name = "base_tree")
+@Table(name = "base_tree", indexes = {@Index(name = "idx_base_tree_path", columnList = "path")})
 @NamedEntityGraphs({
         @NamedEntityGraph(name = "tree.parent", attributeNodes = {@NamedAttributeNode("parent")}),//级联 parent
         @NamedEntityGraph(name = "tree.children", attributeNodes = {@NamedAttributeNode("children")}), // 级联 children
@@ -31,6 +32,8 @@ import java.util.*;
 // 二者都级联
 public class TreeEntity extends BaseEntity {
 
+    public static final String PATH_SEPARATOR = "/";
+
     //private static final log log = LoggerFactory.getLogger(TreeEntity.class);
 
     /**
@@ -117,6 +120,15 @@ public class TreeEntity extends BaseEntity {
 
     @Column(name = "type", nullable = false)
     private TreeType type;
+    /**
+     * 物化路径 (materialized path) : 从根节点到父节点的所有祖先节点的 id ，形如 "/1/5/9/" ，根节点为 "/"
+     * 有了该字段，可以用一个 like 查询(走索引)获取整个子树 (TreeRepository.findSubtree) 或者祖先链，不必逐级 lazy 加载 parent / children 。
+     * -
+     * 新建节点时由 @PrePersist 自动设置，移动节点时由 TreeService 维护。
+     * 可以为 null (该字段加入之前的数据)，此时可以调用 TreeService.rebuildPath 初始化。
+     */
+    @Column(name = "path", length = 1000)
+    private String path;
     /**
      * 树状结构的层级,根节点 level = 0，依次递增
      * 不加 @Getter , @Setter 不自动生成
@@ -244,14 +256,67 @@ public class TreeEntity extends BaseEntity {
 
     /**
      * 树状结构的层级,根节点 level = 0，依次递增
+     * 有 path 时，直接根据 path 计算，不必逐级加载 parent
      *
      * @return
      */
     public int getLevel() {
+        if (path != null)
+            return StringUtils.countOccurrencesOf(path, PATH_SEPARATOR) - 1;
+        level = 0;
         getLevelInit(this);
         return level;
     }
 
+    /**
+     * 本节点的子孙节点的 path 前缀，即本节点作为祖先时的 path
+     * 不用 getXxx 命名 : 不是 bean 属性，DtoUtils 拷贝和 fastjson 序列化时不处理
+     *
+     * @return path 为 null 或者节点未保存时，返回 null
+     */
+    public String subtreePath() {
+        if (path == null || getId() == null)
+            return null;
+        return path + getId() + PATH_SEPARATOR;
+    }
+
+    /**
+     * 祖先节点的 id ，从根节点开始
+     * 同 subtreePath ，不是 bean 属性
+     *
+     * @return path 为 null 时，返回空集合
+     */
+    public List<Long> ancestorIds() {
+        List<Long> ids = new ArrayList<>();
+        if (path == null)
+            return ids;
+        for (String id : StringUtils.tokenizeToStringArray(path, PATH_SEPARATOR))
+            ids.add(Long.valueOf(id));
+        return ids;
+    }
+
+    /**
+     * 根据父节点计算 path
+     *
+     * @param parent
+     * @return 父节点的 path 为 null 或者父节点未保存时，返回 null
+     */
+    public static String buildPath(TreeEntity parent) {
+        if (parent == null)
+            return PATH_SEPARATOR;
+        return parent.subtreePath();
+    }
+
+    /**
+     * 保存新节点时，设置 path 。
+     * 主键为 IDENTITY 生成，级联保存时父节点先插入，此时父节点已有 id
+     */
+    @PrePersist
+    void initPath() {
+        if (path == null)
+            path = buildPath(parent);
+    }
+
     /**
      * 递归计算层级，根节点为 0 级
      *
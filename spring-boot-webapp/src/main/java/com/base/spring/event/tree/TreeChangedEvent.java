@@ -0,0 +1,18 @@
+package com.base.spring.event.tree;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 树结构 (TreeEntity) 或者树节点的授权 (RoleEntity.treeNodes) 发生变化时发布的事件
+ * -
+ * 由 TreeService , RoleService 的写方法发布，TreeCacheService 监听，事务提交后清空缓存的树快照
+ */
+public class TreeChangedEvent extends ApplicationEvent {
+
+    /**
+     * @param source 发布事件的对象
+     */
+    public TreeChangedEvent(Object source) {
+        super(source);
+    }
+}
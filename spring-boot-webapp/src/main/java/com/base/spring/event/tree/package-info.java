@@ -0,0 +1,4 @@
+/**
+ * 树结构变化事件，用于清空树缓存 (见 TreeCacheService)
+ */
+package com.base.spring.event.tree;
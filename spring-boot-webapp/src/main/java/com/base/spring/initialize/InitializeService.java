@@ -5,6 +5,7 @@ import com.base.spring.repository.GroupRepository;
 import com.base.spring.repository.RoleRepository;
 import com.base.spring.repository.TreeRepository;
 import com.base.spring.repository.UserRepository;
+import com.base.spring.service.TreeService;
 import com.base.spring.utils.BCryptPassWordUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +36,8 @@ public class InitializeService {
     GroupRepository groupRepository;
     @Autowired
     RoleRepository roleRepository;
+    @Autowired
+    TreeService treeService;
 
 //    private boolean initMenuTree =false;
 //    private boolean initUser =false;
@@ -72,6 +75,14 @@ public class InitializeService {
         initPageResourceTree();
         initStandardTree();
 
+        /**
+         * path 字段加入之前的数据，初始化 path
+         */
+        if (treeRepository.countByPathIsNull() > 0) {
+            log.info("initialize tree path ... ");
+            treeService.rebuildPath();
+        }
+
         /**
          * 初始化 User
          */
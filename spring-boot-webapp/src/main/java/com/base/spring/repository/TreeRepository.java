@@ -2,6 +2,7 @@ package com.base.spring.repository;
 
 import com.base.spring.domain.TreeEntity;
 import com.base.spring.domain.TreeType;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import java.util.Collection;
@@ -63,4 +64,37 @@ public interface TreeRepository extends BaseRepository<TreeEntity, Long> {
     @Query("select e from TreeEntity e where e.id in ?1")
     List<TreeEntity> findByIdIn(Collection<Long> ids);
 
+
+    /**
+     * 根据 path 获取整个子树(不含节点本身)，一次查询完成，不必逐级 lazy 加载 children
+     * 同时 fetch 子树中每个节点的 children ，之后在同一个事务中遍历 getChildren() 不再访问数据库。
+     * 按 path 排序，父节点在子节点之前
+     *
+     * @param subtreePath 节点的 TreeEntity.subtreePath()
+     * @return
+     */
+    @Query("select distinct e from TreeEntity e left join fetch e.children where e.path like concat(?1, '%') order by e.path, e.index")
+    List<TreeEntity> findSubtree(String subtreePath);
+
+    /**
+     * path 为 null (没有初始化) 的节点数量
+     *
+     * @return
+     */
+    long countByPathIsNull();
+
+    /**
+     * 移动节点后，批量修改子孙节点的 path 前缀
+     * 不清空持久化上下文 (不用 clearAutomatically ，否则调用方已经加载的所有实体都被 detach) ，已经加载的子孙节点还是旧的 path ，
+     * 需要调用方 refresh 移动的子树 (见 TreeService.updateSubtreePath) 。调用之前需要先 flush 未保存的修改。
+     *
+     * @param oldSubtreePath 移动前节点的 subtreePath
+     * @param newSubtreePath 移动后节点的 subtreePath
+     * @param start          oldSubtreePath.length() + 1 ， jpql substring 从 1 开始
+     * @return 修改的记录数
+     */
+    @Modifying
+    @Query("update TreeEntity e set e.path = concat(?2, substring(e.path, ?3)) where e.path like concat(?1, '%')")
+    int updateSubtreePath(String oldSubtreePath, String newSubtreePath, int start);
+
 }
\ No newline at end of file
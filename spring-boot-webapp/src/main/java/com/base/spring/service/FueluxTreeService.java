@@ -4,6 +4,8 @@ import com.alibaba.fastjson.JSON;
 import com.base.spring.domain.TreeEntity;
 import com.base.spring.domain.TreeType;
 import com.base.spring.repository.TreeRepository;
+import com.base.spring.service.cache.TreeCacheService;
+import com.base.spring.service.cache.TreeSnapshot;
 import com.base.spring.utils.FueluxTreeUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +25,9 @@ public class FueluxTreeService {
     @Autowired
     private TreeRepository treeNodeRepository;
 
+    @Autowired
+    private TreeCacheService treeCacheService;
+
     /**
      * 参照 ztree 的方法
      * FueluxTree 异步模式加载数据。FueluxTree 每次仅返回被点击节点的子节点，不再深入。
@@ -36,6 +41,19 @@ public class FueluxTreeService {
      */
     public String async(Long pId, TreeType menuType) {
 
+        // 优先从缓存的树快照中读取，不访问数据库
+        if (treeCacheService.isEnabled()) {
+            if (pId == 0) {
+                Optional<TreeSnapshot> snapshot = treeCacheService.getSnapshot(menuType);
+                if (snapshot.isPresent())
+                    return FueluxTreeUtils.getFueluxTreeSnapshotJson(snapshot.get().getRoot().getChildren());
+            } else {
+                Optional<TreeSnapshot.Node> node = treeCacheService.findNode(pId);
+                if (node.isPresent())
+                    return FueluxTreeUtils.getFueluxTreeSnapshotJson(node.get().getChildren());
+            }
+        }
+
         if (pId == 0) {  // 打开页面时，第一次异步加载，返回根节点的所有子节点
             log.info("initialize FueluxTree first from db by pId={} , menuType={}", pId, menuType);
             Optional<TreeEntity> rootNode = treeNodeRepository.findRoot(menuType);
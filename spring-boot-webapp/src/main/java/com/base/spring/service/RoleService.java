@@ -2,11 +2,13 @@ package com.base.spring.service;
 
 import com.base.spring.domain.RoleEntity;
 import com.base.spring.domain.TreeEntity;
+import com.base.spring.event.tree.TreeChangedEvent;
 import com.base.spring.repository.RoleRepository;
 import com.base.spring.repository.TreeRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -33,6 +35,37 @@ public class RoleService {
     private RoleRepository roleRepository;
     @Autowired
     private TreeRepository treeRepository;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Transactional(readOnly = false)
+    public void add(String name) {
+
+        roleRepository.save(new RoleEntity(name)); // 新的 role 没有授权的树节点，树缓存不受影响
+    }
+
+    @Transactional(readOnly = false)
+    public void editName(Long id, String name) {
+
+        RoleEntity roleEntity = roleRepository.getOne(id);
+        roleEntity.setName(name);
+        roleRepository.save(roleEntity);
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
+    }
+
+    /**
+     * 删除 role ，同时删除 role 和树节点、用户、组的关联
+     *
+     * @param id
+     */
+    @Transactional(readOnly = false)
+    public void delete(Long id) {
+
+        roleRepository.deleteById(id);
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this)); // 树节点的授权改变，清空树缓存
+    }
 
     /**
      * 关联所有树节点到指定的 role
@@ -49,6 +82,7 @@ public class RoleService {
             log.info("clear.");
             roleEntity.clearTreeNodes();
             roleRepository.save(roleEntity);
+            eventPublisher.publishEvent(new TreeChangedEvent(this));
             return;
         }
 
@@ -87,6 +121,8 @@ public class RoleService {
 
         roleRepository.save(roleEntity);
 
+        eventPublisher.publishEvent(new TreeChangedEvent(this)); // 树节点的授权改变，清空树缓存
+
         //FastJsonPropertyPreFilter filter = new FastJsonPropertyPreFilter();
 //        filter.addExcludes(TreeNodeEntity.class, "parent", "roles", "children");
 //
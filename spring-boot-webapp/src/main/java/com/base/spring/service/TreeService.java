@@ -1,18 +1,29 @@
 package com.base.spring.service;
 
-import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONWriter;
 import com.base.spring.domain.RoleEntity;
 import com.base.spring.domain.TreeEntity;
 import com.base.spring.domain.TreeType;
+import com.base.spring.event.tree.TreeChangedEvent;
 import com.base.spring.repository.TreeRepository;
+import com.base.spring.service.cache.TreeCacheService;
+import com.base.spring.service.cache.TreeSnapshot;
 import com.base.spring.utils.TreeUtils;
 import lombok.extern.slf4j.Slf4j;
-import org.h819.web.spring.jpa.DtoUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-
+import org.springframework.util.Assert;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 //http://git.oschina.net/smallc/SpringBlade
 //可参考处理方式
@@ -23,9 +34,21 @@ public class TreeService {
 
     //private static final log log = LoggerFactory.getLogger(TreeService.class);
 
+    // 输出深度超过此值时 (如 asyncRoleTree 的 100 级)，先用 path 一次查询加载整个子树，不再逐级 lazy 加载 children
+    private static final int SUBTREE_QUERY_LEVEL = 2;
+
     @Autowired
     private TreeRepository treeRepository;
 
+    @Autowired
+    private TreeCacheService treeCacheService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     /**
      * 异步加载原始树
      *
@@ -34,7 +57,20 @@ public class TreeService {
      * @return
      */
     public String asyncTree(Long id, List<TreeType> treeTypes) {
-        return async(id, treeTypes, 2, null);
+        StringWriter out = new StringWriter();
+        writeAsyncTree(id, treeTypes, out);
+        return out.toString();
+    }
+
+    /**
+     * 异步加载原始树，直接写入 writer (如 HttpServletResponse.getWriter())，不生成中间的字符串
+     *
+     * @param id
+     * @param treeTypes
+     * @param out
+     */
+    public void writeAsyncTree(Long id, List<TreeType> treeTypes, Writer out) {
+        async(id, treeTypes, 2, null, out);
     }
 
 
@@ -48,22 +84,24 @@ public class TreeService {
      * @return
      */
     public String asyncRoleTree(Long id, List<TreeType> treeTypes, RoleEntity roleEntity) {
-        return async(id, treeTypes, 100, roleEntity);
+        StringWriter out = new StringWriter();
+        writeAsyncRoleTree(id, treeTypes, roleEntity, out);
+        return out.toString();
     }
 
-
     /**
-     * ztree 异步模式加载数据
-     * 两种情况返回值不一样。
-     * id==null ，返回一个节点
-     * id!=null , 返回一个集合
-     * 所以返回值用 String , 不用 ZTreeJsonNode 对象
+     * 根据 role ，异步加载树，直接写入 writer
      *
      * @param id
      * @param treeTypes
-     * @param show_Level 页面显示树状结构到第 n 级
-     * @return
+     * @param roleEntity
+     * @param out
      */
+    public void writeAsyncRoleTree(Long id, List<TreeType> treeTypes, RoleEntity roleEntity, Writer out) {
+        async(id, treeTypes, 100, roleEntity, out);
+    }
+
+
     /**
      * ztree 异步模式加载数据
      * -
@@ -72,6 +110,10 @@ public class TreeService {
      * 1.2 id!=null , 返回一个集合
      * -
      * 所以返回值用 String , 不用 ZTreeJsonNode 对象
+     * -
+     * 直接遍历受容器管理的 TreeEntity ，流式写出 json (TreeUtils.writeZTreeNode)，
+     * 不再经过 DtoUtils.createDTOcopy -> TreeUtils.convertToZTreeNode -> JSON.toJSONString 三次生成对象树。
+     * 深度控制和原来 DtoUtils 的转换深度一致， parent 属性不输出，roleEntity == null 时不加载 roles 。
      *
      * @param id
      * @param treeTypes  TreeEntity 类型。只有两种情况：
@@ -79,16 +121,17 @@ public class TreeService {
      *                   2. 为 DepartMent 或 Standard 时，仅有一个元素
      * @param show_Level
      * @param roleEntity
-     * @return
+     * @param out
      */
-    private String async(Long id, List<TreeType> treeTypes, int show_Level, RoleEntity roleEntity) {
+    private void async(Long id, List<TreeType> treeTypes, int show_Level, RoleEntity roleEntity, Writer out) {
 
-        //List<TreeNodeEntity> treeNodeEntity = null;
-        DtoUtils dtoUtils = new DtoUtils();
-        if (roleEntity == null)
-            dtoUtils.addExcludes(TreeEntity.class, "parent", "roles");
-        else
-            dtoUtils.addExcludes(TreeEntity.class, "parent");
+        JSONWriter writer = new JSONWriter(out);
+
+        // 优先从缓存的树快照中读取，不访问数据库
+        if (treeCacheService.isEnabled() && asyncFromSnapshot(id, treeTypes, show_Level, roleEntity, writer)) {
+            writer.flush();
+            return;
+        }
 
         /**
          * 初始化树，第一次加载，返回整个树 :
@@ -99,16 +142,14 @@ public class TreeService {
             List<TreeEntity> rootList = treeRepository.findRoot(treeTypes);
             if (rootList == null || rootList.isEmpty()) {
                 log.info("not exist any tree node !");
-                return "";
+                return;
             }
-            //构建一个临时的节点
-
-            List<TreeEntity> dtoRootNode = dtoUtils.createDTOcopy(rootList, show_Level); // 通过 DTOUtils 开控制返回的层级
 
+            preloadSubtree(rootList, show_Level);
             if (treeTypes.contains(TreeType.Menu)) { // 返回可以授权的 Menu 和 PageResource 两个 root menu ，此时需要构造一个临时的父节点
-                return JSON.toJSONString(TreeUtils.convertToZTreeNode("菜单+资源", dtoRootNode, roleEntity));
+                TreeUtils.writeZTreeNode(writer, "菜单+资源", rootList, show_Level, roleEntity);
             } else // 返回一个 root menu , get(0) 合理
-                return JSON.toJSONString(TreeUtils.convertToZTreeNode(dtoRootNode.get(0), roleEntity));
+                TreeUtils.writeZTreeNode(writer, rootList.get(0), show_Level, roleEntity);
 
         }
         /**
@@ -121,17 +162,62 @@ public class TreeService {
             //数据库中 TreeEntity 的 id 从 1 开始，如果得到 TreeEntity id =0 ，一定是构造的临时节点的 id ，TreeUtils.convertToZTreeNode ，此时返回临时节点的子节点。
             if (id == 0) {
                 List<TreeEntity> rootList = treeRepository.findRoot(treeTypes);
-                List<TreeEntity> dtoRootNode = dtoUtils.createDTOcopy(rootList, show_Level); // 通过 DTOUtils 开控制返回的层级
-                return JSON.toJSONString(TreeUtils.convertToZTreeNode("菜单授权", dtoRootNode, roleEntity).getChildren());
+                preloadSubtree(rootList, show_Level);
+                TreeUtils.writeZTreeNodes(writer, rootList, show_Level, roleEntity);
+            } else {
+                TreeEntity rootNode = treeRepository.getOne(id);
+                preloadSubtree(Collections.singletonList(rootNode), show_Level);
+                TreeUtils.writeZTreeNodeChildren(writer, rootNode, show_Level, roleEntity); //返回节点的子节点 List
             }
+        }
 
-            TreeEntity rootNode = treeRepository.getOne(id);
-            TreeEntity dtoNode = dtoUtils.createDTOcopy(rootNode, show_Level);
-            return JSON.toJSONString(TreeUtils.getZTreeNodeChildren(dtoNode, roleEntity)); //返回节点的子节点 List
+        writer.flush();
+    }
 
+    /**
+     * 输出较深的树之前，通过 path 加载整个子树 (同时加载 children)，之后遍历 children 在内存中完成
+     *
+     * @param nodes
+     * @param show_Level
+     */
+    private void preloadSubtree(List<TreeEntity> nodes, int show_Level) {
+        if (show_Level <= SUBTREE_QUERY_LEVEL)
+            return;
+        for (TreeEntity node : nodes)
+            findSubtree(node.getId());
+    }
 
+    /**
+     * 同 async ，数据来自 TreeCacheService 缓存的树快照
+     *
+     * @return 快照中没有需要的节点时返回 false ，此时什么都不输出，由数据库加载
+     */
+    private boolean asyncFromSnapshot(Long id, List<TreeType> treeTypes, int show_Level, RoleEntity roleEntity, JSONWriter writer) {
+
+        Long roleId = roleEntity == null ? null : roleEntity.getId();
+
+        if (id == null || id == 0) {
+            List<TreeSnapshot.Node> roots = treeCacheService.findRoots(treeTypes);
+            if (roots.isEmpty())
+                return false;
+
+            if (id == null) {
+                log.info("initialize ztree first from cache by id={} , treeType={}", id, treeTypes);
+                if (treeTypes.contains(TreeType.Menu))
+                    TreeUtils.writeZTreeSnapshotNode(writer, "菜单+资源", roots, show_Level, roleId);
+                else
+                    TreeUtils.writeZTreeSnapshotNode(writer, roots.get(0), show_Level, roleId);
+            } else
+                TreeUtils.writeZTreeSnapshotNodes(writer, roots, show_Level, roleId);
+            return true;
         }
 
+        Optional<TreeSnapshot.Node> node = treeCacheService.findNode(id, treeTypes);
+        if (!node.isPresent())
+            return false;
+        log.info("Load ztree async from cache by id={} and type={}", id, treeTypes);
+        TreeUtils.writeZTreeSnapshotNodeChildren(writer, node.get(), show_Level, roleId);
+        return true;
     }
 
 
@@ -152,13 +238,14 @@ public class TreeService {
 
         TreeEntity parent = treeRepository.getOne(pId);
         TreeEntity child = new TreeEntity(treeType, name, index, isParent, parent);
-        parent.addChildToLastIndex(child);
+        parent.addChildToLastIndex(child); // child 的 path 在保存时由 TreeEntity.initPath 设置
 
 //        for(TreeNodeEntity entity :parent.getChildren())
 //            System.out.println(String.format("%s,%d,%s",entity.getName(),entity.getIndex(),entity.getParent().getName()));
         parent.setParentNode(true); //如果原来为叶节点，需要设置为父节点
         treeRepository.save(parent);
 
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
     /**
@@ -171,10 +258,11 @@ public class TreeService {
 
         log.info("Getting id={}", id);
         TreeEntity parent = treeRepository.getOne(id);
-        parent.clearChildren();
+        parent.clearChildren(); // orphanRemoval ，子孙节点被删除，不需要维护 path
         parent.setParentNode(false);//没有叶子节点了，把父节点设置为叶节点，否则前端显示为文件夹
         treeRepository.save(parent);
 
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
 
@@ -193,8 +281,11 @@ public class TreeService {
         // parentNode.setIsParent(true);
 
 
+        String oldSubtreePath = selectNode.subtreePath();
+
         if (curType.equals("copy")) {
             log.info("copy nodes to a new parent node");
+            findSubtree(id); // 一次查询加载整个子树，复制时不再逐级 lazy 加载 children
             // 复制一份和新生成的对象，加入到 parent 的子中。
             TreeEntity copy = TreeUtils.createCopyTreeEntity(selectNode);
             parentNode.addChildToLastIndex(copy);
@@ -202,8 +293,10 @@ public class TreeService {
 
         if (curType.equals("cut")) {    //直接移动cut : 直接修改 currentNode 的父类为新的父类，不重新创建新的对象，相当于剪切过来。
             log.info("paste nodes to a new parent node");
+            assertNotMoveIntoSubtree(selectNode, parentNode);
             parentNode.addChildToLastIndex(selectNode);//此方法可以直接修改父类
             parentNode.setParentNode(true); // 修改参考对象为父节点
+            selectNode.setPath(TreeEntity.buildPath(parentNode));
         }
 
         if (selectNode.getParent().getChildren().size() == 0) { // 移动完成，如果没有子节点了，则标记为叶节点
@@ -213,7 +306,10 @@ public class TreeService {
 
         treeRepository.save(parentNode);
 
+        if (curType.equals("cut"))
+            updateSubtreePath(selectNode, oldSubtreePath); // 最后执行，之后刷新移动的子树
 
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
 
@@ -231,9 +327,12 @@ public class TreeService {
 
         TreeEntity child = treeRepository.getOne(id);
         TreeEntity parent = treeRepository.getOne(pId);
+        assertNotMoveIntoSubtree(child, parent);
+        String oldSubtreePath = child.subtreePath();
 
         //可以用于移动
         parent.addChildToIndex(child, index);
+        child.setPath(TreeEntity.buildPath(parent));
 
         parent.setParentNode(true);
 
@@ -243,6 +342,87 @@ public class TreeService {
         treeRepository.save(child);
         treeRepository.save(parent);
 
+        updateSubtreePath(child, oldSubtreePath); // 最后执行，之后刷新移动的子树
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
+    }
+
+    /**
+     * 获取整个子树(不含节点本身)，通过 path 一次查询完成，子树中节点的 children 也一起加载
+     * path 为 null 时(没有初始化，见 rebuildPath)，返回空集合，此时仍可以逐级 lazy 加载 children
+     *
+     * @param id
+     * @return 按 path 排序，父节点在子节点之前
+     */
+    public List<TreeEntity> findSubtree(Long id) {
+        String subtreePath = treeRepository.getOne(id).subtreePath();
+        if (subtreePath == null)
+            return new ArrayList<>();
+        return treeRepository.findSubtree(subtreePath);
+    }
+
+    /**
+     * 重新生成所有节点的 path
+     * 用于 path 字段加入之前的数据，或者 path 和 parent 不一致时。启动时由 InitializeService 检查调用。
+     */
+    @Transactional(readOnly = false)
+    public void rebuildPath() {
+        for (TreeEntity root : treeRepository.findRoot())
+            rebuildPath(root);
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
+    }
+
+    private void rebuildPath(TreeEntity node) {
+        node.setPath(TreeEntity.buildPath(node.getParent()));
+        for (TreeEntity child : node.getChildren())
+            rebuildPath(child);
+    }
+
+    /**
+     * 不能把节点移动到自身或者自己的子孙节点下，否则会形成环。通过 parent 的 path 判断，不必逐级加载 parent
+     *
+     * @param node
+     * @param parent
+     */
+    private void assertNotMoveIntoSubtree(TreeEntity node, TreeEntity parent) {
+        Assert.isTrue(!node.getId().equals(parent.getId()) && !parent.ancestorIds().contains(node.getId()),
+                "can not move a tree node into its own subtree.");
+    }
+
+    /**
+     * 节点的父节点改变后，修改子孙节点的 path
+     * 子孙节点用一个 update 语句批量修改，不必逐个加载。
+     * 先 flush 节点本身的修改 ; 批量修改不经过持久化上下文，之后 refresh 节点本身，通过 children 的级联 (CascadeType.ALL) 刷新已经加载的子孙节点，
+     * 未加载的 children 集合不会被级联初始化。持久化上下文中的其他实体不受影响。
+     *
+     * @param node           已经设置了新的父节点和 path
+     * @param oldSubtreePath 移动前节点的 subtreePath
+     */
+    private void updateSubtreePath(TreeEntity node, String oldSubtreePath) {
+        String newSubtreePath = node.subtreePath();
+        if (oldSubtreePath == null || newSubtreePath == null || oldSubtreePath.equals(newSubtreePath))
+            return;
+        treeRepository.flush();
+        treeRepository.updateSubtreePath(oldSubtreePath, newSubtreePath, oldSubtreePath.length() + 1);
+        entityManager.refresh(node);
+    }
+
+    @Transactional(readOnly = false)
+    public void editName(Long id, String name) {
+
+        TreeEntity treeNodeEntity = treeRepository.getOne(id);
+        treeNodeEntity.setName(name);
+        treeRepository.save(treeNodeEntity);
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
+    }
+
+    @Transactional(readOnly = false)
+    public void delete(Long id) {
+
+        treeRepository.deleteById(id);
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
     @Transactional(readOnly = false)
@@ -252,6 +432,7 @@ public class TreeService {
         treeNodeEntity.setCss(css);
         treeRepository.save(treeNodeEntity);
 
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
     @Transactional(readOnly = false)
@@ -261,6 +442,8 @@ public class TreeService {
         TreeEntity treeNodeEntity = treeRepository.getOne(id);
         treeNodeEntity.setUrl(url);
         treeRepository.save(treeNodeEntity);
+
+        eventPublisher.publishEvent(new TreeChangedEvent(this));
     }
 
 
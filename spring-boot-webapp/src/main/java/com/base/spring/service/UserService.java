@@ -5,6 +5,8 @@ import com.base.spring.repository.GroupRepository;
 import com.base.spring.repository.RoleRepository;
 import com.base.spring.repository.TreeRepository;
 import com.base.spring.repository.UserRepository;
+import com.base.spring.service.cache.TreeCacheService;
+import com.base.spring.service.cache.TreeSnapshot;
 import com.base.spring.utils.TreeUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.h819.commons.json.FastJsonPropertyPreFilter;
@@ -36,6 +38,8 @@ public class UserService {
     private RoleRepository roleRepository;
     @Autowired
     private TreeRepository treeRepository;
+    @Autowired
+    private TreeCacheService treeCacheService;
 
     public Optional<UserEntity> getUserById(long id) {
         log.debug("Getting user={}", id);
@@ -135,20 +139,15 @@ public class UserService {
 //        FastJsonPropertyPreFilter preFilter2 = new FastJsonPropertyPreFilter();
 //        preFilter2.addExcludes(TreeEntity.class, "parent", "roles");
 
-        Set<TreeEntity> userMenus = new HashSet<>();
-        for (RoleEntity role : user.getRoles()) {
-            //  allMenu.addAll(role.getTreeNodes());
-            //级联了两层 lazy 属性，第二层无法自动通过 Transactional 自动加载，只能再次查询
-            userMenus.addAll(roleRepository.findTreeEntitiesById(role.getId()));
-        }
-
-        System.out.println();
-
-        //  MyJsonUtils.prettyPrint(allMenuSet, preFilter1, StandardCharsets.UTF_8);
+        // 用户所有角色被授权的菜单节点的并集 : 每个角色的菜单在缓存的树快照中已经计算为 BitSet ，按位或即可，不再逐个角色查询数据库
+        TreeSnapshot menuSnapshot = treeCacheService.getSnapshot(TreeType.Menu).get();
+        List<Long> roleIds = new ArrayList<>(user.getRoles().size());
+        for (RoleEntity role : user.getRoles())
+            roleIds.add(role.getId());
+        BitSet userMenus = menuSnapshot.getGrantedNodes(roleIds);
 
-        //重新组装，仅包含 set 中的元素。
-        TreeEntity menuRoot = treeRepository.findRoot(TreeType.Menu).get();
-        TreeEntity filterMenus = TreeUtils.createCopyTreeEntityByFilterIncludes(menuRoot, userMenus);
+        //重新组装，仅包含被授权的节点
+        TreeEntity filterMenus = TreeUtils.createCopyTreeEntityByFilterIncludes(menuSnapshot.getRoot(), node -> userMenus.get(node.getPosition()));
         // MyJsonUtils.prettyPrint(filterMenus, preFilter2, StandardCharsets.UTF_8);
 
         return filterMenus;
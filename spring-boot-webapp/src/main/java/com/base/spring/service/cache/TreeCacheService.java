@@ -0,0 +1,180 @@
+package com.base.spring.service.cache;
+
+import com.base.spring.config.properties.TreeCacheProperty;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import com.base.spring.event.tree.TreeChangedEvent;
+import com.base.spring.repository.TreeRepository;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description : TODO(树快照缓存，read-through ，每种 TreeType 一个快照)
+ * -
+ * 菜单、部门等树结构很少修改，但每次打开页面、登录都会读取。第一次读取时从数据库加载整棵树，生成只读的 TreeSnapshot ，之后直接从内存返回。
+ * -
+ * 失效 :
+ * TreeService , RoleService 修改树或者授权后发布 TreeChangedEvent ，事务提交后清空所有快照并增加版本号。
+ * 快照记录生成时的版本号，加载过程中发生了修改的快照，下次读取时会被丢弃重新加载。
+ * -
+ * 大小 : 按节点数量计算权重，总数不超过 tree.cache.max-nodes ，超出上限的单个树不缓存 (每次都重新加载)。
+ * 命中率 : 通过 actuator 的 cache.gets , cache.evictions 等指标查看 (cache=tree.snapshot)，或者 getStats() 。
+ */
+@Slf4j
+@Service
+@Transactional(readOnly = true) //加载快照时需要在事务中，才可以自动加载 lazy 的 children 和 roles
+public class TreeCacheService {
+
+    private static final String CACHE_NAME = "tree.snapshot";
+
+    private final TreeRepository treeRepository;
+    private final TreeCacheProperty property;
+    private final AtomicLong version = new AtomicLong();
+    private final LoadingCache<TreeType, Optional<TreeSnapshot>> snapshots;
+
+    @Autowired
+    public TreeCacheService(TreeRepository treeRepository, TreeCacheProperty property, MeterRegistry meterRegistry) {
+        this.treeRepository = treeRepository;
+        this.property = property;
+        this.snapshots = CacheBuilder.newBuilder()
+                // guava 把 maximumWeight 平均分给各个 segment (默认 4 个)，单个快照的权重超过 maxNodes / 4 就会被立即淘汰。
+                // 快照只有 TreeType 几个，并发写很少，用一个 segment ，maxNodes 才是单个树的上限
+                .concurrencyLevel(1)
+                .maximumWeight(property.getMaxNodes())
+                .<TreeType, Optional<TreeSnapshot>>weigher((type, snapshot) -> snapshot.map(TreeSnapshot::size).orElse(1))
+                .recordStats()
+                .build(new CacheLoader<TreeType, Optional<TreeSnapshot>>() {
+                    @Override
+                    public Optional<TreeSnapshot> load(TreeType type) {
+                        return loadSnapshot(type);
+                    }
+                });
+        GuavaCacheMetrics.monitor(meterRegistry, snapshots, CACHE_NAME);
+    }
+
+    /**
+     * @return tree.cache.enabled
+     */
+    public boolean isEnabled() {
+        return property.isEnabled();
+    }
+
+    /**
+     * 获取树快照
+     *
+     * @param type
+     * @return 该类型没有根节点时返回 empty
+     */
+    public Optional<TreeSnapshot> getSnapshot(TreeType type) {
+
+        if (!property.isEnabled())
+            return loadSnapshot(type);
+
+        Optional<TreeSnapshot> snapshot = snapshots.getUnchecked(type);
+        // 加载过程中树被修改了，重新加载
+        if (snapshot.isPresent() && snapshot.get().getVersion() != version.get()) {
+            snapshots.invalidate(type);
+            snapshot = snapshots.getUnchecked(type);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 获取多种类型树的根节点，按 index 排序，同 TreeRepository.findRoot(Collection)
+     *
+     * @param types
+     * @return
+     */
+    public List<TreeSnapshot.Node> findRoots(Collection<TreeType> types) {
+        List<TreeSnapshot.Node> roots = new ArrayList<>(types.size());
+        for (TreeType type : types)
+            getSnapshot(type).ifPresent(snapshot -> roots.add(snapshot.getRoot()));
+        roots.sort(Comparator.comparingInt(TreeSnapshot.Node::getIndex));
+        return roots;
+    }
+
+    /**
+     * 在指定类型的树中查找节点
+     *
+     * @param id
+     * @param types
+     * @return
+     */
+    public Optional<TreeSnapshot.Node> findNode(Long id, Collection<TreeType> types) {
+        for (TreeType type : types) {
+            Optional<TreeSnapshot> snapshot = getSnapshot(type);
+            if (snapshot.isPresent()) {
+                TreeSnapshot.Node node = snapshot.get().getNode(id);
+                if (node != null)
+                    return Optional.of(node);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 在所有类型的树中查找节点
+     *
+     * @param id
+     * @return
+     */
+    public Optional<TreeSnapshot.Node> findNode(Long id) {
+        return findNode(id, Arrays.asList(TreeType.values()));
+    }
+
+    /**
+     * 树或者授权修改后，在事务提交后清空缓存。
+     * 没有事务时立即清空。
+     *
+     * @param event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTreeChanged(TreeChangedEvent event) {
+        invalidateAll();
+    }
+
+    /**
+     * 清空所有快照
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+        snapshots.invalidateAll();
+        log.info("tree snapshots invalidated , version={}", version.get());
+    }
+
+    /**
+     * @return 命中、未命中、加载时间、淘汰次数等统计
+     */
+    public CacheStats getStats() {
+        return snapshots.stats();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    private Optional<TreeSnapshot> loadSnapshot(TreeType type) {
+        long currentVersion = version.get(); // 先取版本号，加载过程中发生修改时，快照的版本号会落后
+        Optional<TreeEntity> root = treeRepository.findRoot(type);
+        if (!root.isPresent())
+            return Optional.empty();
+        String subtreePath = root.get().subtreePath();
+        if (subtreePath != null)
+            treeRepository.findSubtree(subtreePath); // 一次查询加载整棵树 (包括 children)，TreeSnapshot.of 遍历时不再逐级 lazy 加载
+        TreeSnapshot snapshot = TreeSnapshot.of(type, currentVersion, root.get());
+        log.info("load tree snapshot from db , type={} , nodes={} , version={}", type, snapshot.size(), currentVersion);
+        return Optional.of(snapshot);
+    }
+}
@@ -0,0 +1,255 @@
+package com.base.spring.service.cache;
+
+import com.base.spring.domain.RoleEntity;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+
+import java.util.*;
+
+/**
+ * Description : TODO(一种类型的树 (TreeType) 的只读快照，脱离事务使用)
+ * -
+ * 从数据库加载一次后，节点按先序遍历存放在数组中，并按 id 建立索引，之后展开节点、生成菜单等操作都不再访问 JPA 。
+ * 快照及其节点都不可变，可以在多个线程间共享。
+ * 树发生变化时，不修改快照，而是由 TreeCacheService 丢弃快照后重新加载。
+ */
+public final class TreeSnapshot {
+
+    private final TreeType treeType;
+    // 生成快照时 TreeCacheService 的版本号，版本号变化后快照失效
+    private final long version;
+    // 先序遍历顺序，nodes[0] 为根节点
+    private final Node[] nodes;
+    // id -> nodes 中的位置
+    private final Map<Long, Integer> positions;
+    // role id -> 授权给该 role 的节点，按节点位置(Node.getPosition)置位
+    private final Map<Long, BitSet> roleNodes;
+
+    private TreeSnapshot(TreeType treeType, long version, Node[] nodes) {
+        this.treeType = treeType;
+        this.version = version;
+        this.nodes = nodes;
+        Map<Long, Integer> positions = new HashMap<>(nodes.length * 2);
+        for (int i = 0; i < nodes.length; i++)
+            positions.put(nodes[i].getId(), i);
+        this.positions = positions;
+
+        Map<Long, BitSet> roleNodes = new HashMap<>();
+        for (Node node : nodes)
+            for (long roleId : node.roleIds)
+                roleNodes.computeIfAbsent(roleId, id -> new BitSet(nodes.length)).set(node.getPosition());
+        this.roleNodes = roleNodes;
+    }
+
+    /**
+     * 根据根节点生成快照，需要在事务中调用，以便加载 lazy 的 children 和 roles
+     *
+     * @param treeType
+     * @param version
+     * @param root
+     * @return
+     */
+    public static TreeSnapshot of(TreeType treeType, long version, TreeEntity root) {
+        List<Node> preOrder = new ArrayList<>();
+        Node rootNode = build(root, null, 0, new int[1], Collections.newSetFromMap(new IdentityHashMap<>()));
+        collect(rootNode, preOrder);
+        return new TreeSnapshot(treeType, version, preOrder.toArray(new Node[0]));
+    }
+
+    /**
+     * @param counter 先序遍历的计数器，进入节点时分配位置，和 collect 的顺序一致
+     */
+    private static Node build(TreeEntity entity, Long parentId, int level, int[] counter, Set<TreeEntity> ancestors) {
+
+        int position = counter[0]++;
+        ancestors.add(entity);
+        List<Node> children = new ArrayList<>(entity.getChildren().size());
+        for (TreeEntity child : entity.getChildren())
+            if (child != null && !ancestors.contains(child))
+                children.add(build(child, entity.getId(), level + 1, counter, ancestors));
+        ancestors.remove(entity);
+
+        Set<RoleEntity> roles = entity.getRoles();
+        long[] roleIds = new long[roles.size()];
+        int i = 0;
+        for (RoleEntity role : roles)
+            roleIds[i++] = role.getId();
+        Arrays.sort(roleIds);
+
+        return new Node(entity, parentId, position, level, roleIds, Collections.unmodifiableList(children));
+    }
+
+    private static void collect(Node node, List<Node> preOrder) {
+        preOrder.add(node);
+        for (Node child : node.getChildren())
+            collect(child, preOrder);
+    }
+
+    public TreeType getTreeType() {
+        return treeType;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Node getRoot() {
+        return nodes[0];
+    }
+
+    /**
+     * @param id
+     * @return 不存在时返回 null
+     */
+    public Node getNode(Long id) {
+        Integer position = positions.get(id);
+        return position == null ? null : nodes[position];
+    }
+
+    /**
+     * @param position 先序遍历的位置，见 indexOf
+     * @return
+     */
+    public Node getNode(int position) {
+        return nodes[position];
+    }
+
+    /**
+     * 节点在先序遍历中的位置，0 ~ size()-1 ，可以作为节点的稠密索引
+     *
+     * @param id
+     * @return 不存在时返回 -1
+     */
+    public int indexOf(Long id) {
+        Integer position = positions.get(id);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @return 节点数量
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * 多个 role 被授权的节点的并集
+     * 每个 role 的节点集合在生成快照时已经计算为 BitSet ，这里只需要按位或，每个 role 为 O(size/64) ，不查询数据库
+     *
+     * @param roleIds
+     * @return 新的 BitSet ，按节点位置 (Node.getPosition) 置位，可以修改
+     */
+    public BitSet getGrantedNodes(Collection<Long> roleIds) {
+        BitSet granted = new BitSet(nodes.length);
+        for (Long roleId : roleIds) {
+            BitSet bits = roleNodes.get(roleId);
+            if (bits != null)
+                granted.or(bits);
+        }
+        return granted;
+    }
+
+    /**
+     * 快照中的一个节点，保存 TreeEntity 的基本属性，以及子节点和被授权的 role id
+     */
+    public static final class Node {
+
+        private final long id;
+        private final Long parentId;
+        private final int position;
+        private final TreeType type;
+        private final String name;
+        private final String url;
+        private final String target;
+        private final String css;
+        private final int index;
+        private final boolean parentNode;
+        private final int level;
+        // 升序排列，用于二分查找
+        private final long[] roleIds;
+        private final List<Node> children;
+
+        private Node(TreeEntity entity, Long parentId, int position, int level, long[] roleIds, List<Node> children) {
+            this.id = entity.getId();
+            this.parentId = parentId;
+            this.position = position;
+            this.type = entity.getType();
+            this.name = entity.getName();
+            this.url = entity.getUrl();
+            this.target = entity.getTarget();
+            this.css = entity.getCss();
+            this.index = entity.getIndex();
+            this.parentNode = entity.isParentNode();
+            this.level = level;
+            this.roleIds = roleIds;
+            this.children = children;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return 根节点返回 null
+         */
+        public Long getParentId() {
+            return parentId;
+        }
+
+        /**
+         * @return 在快照中先序遍历的位置，0 ~ size()-1
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        public TreeType getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getCss() {
+            return css;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public boolean isParentNode() {
+            return parentNode;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return 不可修改的子节点集合，按 index 排序
+         */
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * 该节点是否授权给了指定的 role
+         *
+         * @param roleId
+         * @return
+         */
+        public boolean hasRole(Long roleId) {
+            return roleId != null && Arrays.binarySearch(roleIds, roleId) >= 0;
+        }
+    }
+}
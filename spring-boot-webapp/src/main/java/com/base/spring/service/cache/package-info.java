@@ -0,0 +1,6 @@
+/**
+ * 内存缓存
+ * -
+ * TreeCacheService : 菜单、部门等树结构的只读快照，事件驱动失效 (见 event.tree)
+ */
+package com.base.spring.service.cache;
@@ -2,6 +2,7 @@ package com.base.spring.utils;
 
 import com.alibaba.fastjson.JSON;
 import com.base.spring.domain.TreeEntity;
+import com.base.spring.service.cache.TreeSnapshot;
 import com.base.spring.vo.FueluxTreeJsonNode;
 import com.base.spring.vo.FueluxTreeNodeType;
 
@@ -53,6 +54,23 @@ public class FueluxTreeUtils {
 
     }
 
+    /**
+     * 同 getFueluxTreeJson(Collection) ，数据来自缓存的树快照 (TreeCacheService)
+     *
+     * @param nodes 待转换的对象
+     */
+    public static String getFueluxTreeSnapshotJson(Collection<TreeSnapshot.Node> nodes) {
+        List<FueluxTreeJsonNode> FueluxTreeNodes = new ArrayList<>(nodes.size());
+        for (TreeSnapshot.Node node : nodes)
+            if (node.isParentNode())  // 节点默认不选中
+                FueluxTreeNodes.add(new FueluxTreeJsonNode(node.getName(), FueluxTreeNodeType.folder, node.getId(), false));
+            else
+                FueluxTreeNodes.add(new FueluxTreeJsonNode(node.getName(), FueluxTreeNodeType.item, node.getId(), true));
+
+        String str = JSON.toJSONString(FueluxTreeNodes);
+        return str.replaceAll("\"dataIcon\":", "\"data-icon\":");   // 替换为 Fuelux Tree 规定的格式
+    }
+
     /**
      * 把 TreeNodeEntity 类型转换为 FueluxTreeJsonNode 类型
      * fuelux tree 解析的 json 字符串，都是集合类型，所以单个对象，也包装为集合类型
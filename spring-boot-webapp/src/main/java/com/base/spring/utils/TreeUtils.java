@@ -1,11 +1,13 @@
 package com.base.spring.utils;
 
+import com.alibaba.fastjson.JSONWriter;
 import com.base.spring.domain.RoleEntity;
 import com.base.spring.domain.TreeEntity;
+import com.base.spring.service.cache.TreeSnapshot;
 import com.base.spring.vo.ZTreeNode;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Description : TODO(TreeNodeEntity -> ZTreeNode 转换工具，注意非事物状态下，递归方法，返回值的写法)
@@ -72,6 +74,215 @@ public class TreeUtils {
     }
 
 
+    /**
+     * 流式输出，不生成中间对象 :
+     * 直接遍历受容器管理的 TreeEntity ，把 ZTreeNode 格式的 json 写入 writer 。
+     * 结果和 DtoUtils.createDTOcopy(treeEntity, depth) 之后再 JSON.toJSONString(convertToZTreeNode(...)) 相同，但不生成 DTO 和 ZTreeNode 两个中间对象树。
+     * -
+     * 需要在事务中调用，以便加载 lazy 的 children 和 roles
+     *
+     * @param writer     fastjson 的流式 writer
+     * @param treeEntity 待转换的对象
+     * @param depth      转换深度，同 DtoUtils 的 depth ，深度为 0 的节点不输出子节点
+     * @param roleEntity 如果拥有此权限，树节点设置为选中状态
+     */
+    public static void writeZTreeNode(JSONWriter writer, TreeEntity treeEntity, int depth, RoleEntity roleEntity) {
+        writeZTreeNode(writer, treeEntity, depth, roleEntity, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * 流式输出集合，用一个临时的节点包装，同 convertToZTreeNode(String, List, RoleEntity)
+     *
+     * @param writer
+     * @param zTreeNodeName 临时节点的名字
+     * @param treeEntities
+     * @param depth
+     * @param roleEntity
+     */
+    public static void writeZTreeNode(JSONWriter writer, String zTreeNodeName, List<TreeEntity> treeEntities, int depth, RoleEntity roleEntity) {
+        writeZTreeNodeHead(writer, false);
+        writeZTreeNodes(writer, treeEntities, depth, roleEntity);
+        writeZTreeNodeTail(writer, 0L, true, zTreeNodeName, true, "url");
+    }
+
+    /**
+     * 流式输出为 json 数组
+     *
+     * @param writer
+     * @param treeEntities
+     * @param depth
+     * @param roleEntity
+     */
+    public static void writeZTreeNodes(JSONWriter writer, Collection<TreeEntity> treeEntities, int depth, RoleEntity roleEntity) {
+        Set<TreeEntity> ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+        writer.startArray();
+        for (TreeEntity treeEntity : treeEntities)
+            writeZTreeNode(writer, treeEntity, depth, roleEntity, ancestors);
+        writer.endArray();
+    }
+
+    /**
+     * 流式输出节点的子节点，同 getZTreeNodeChildren
+     *
+     * @param writer
+     * @param treeEntity
+     * @param depth      treeEntity 本身的转换深度
+     * @param roleEntity
+     */
+    public static void writeZTreeNodeChildren(JSONWriter writer, TreeEntity treeEntity, int depth, RoleEntity roleEntity) {
+        if (depth > 0)
+            writeZTreeNodes(writer, treeEntity.getChildren(), depth - 1, roleEntity);
+        else
+            writeZTreeNodes(writer, Collections.emptyList(), 0, roleEntity);
+    }
+
+    /**
+     * 同 writeZTreeNode ，数据来自缓存的树快照 (TreeCacheService)，不访问数据库，不需要事务
+     *
+     * @param writer
+     * @param node
+     * @param depth
+     * @param roleId 如果拥有此权限，树节点设置为选中状态
+     */
+    public static void writeZTreeSnapshotNode(JSONWriter writer, TreeSnapshot.Node node, int depth, Long roleId) {
+
+        // 超出深度的节点，DtoUtils 拷贝为空集合
+        List<TreeSnapshot.Node> children = depth > 0 ? node.getChildren() : Collections.emptyList();
+
+        writeZTreeNodeHead(writer, depth > 0 && node.hasRole(roleId));
+        writer.startArray();
+        for (TreeSnapshot.Node child : children)
+            writeZTreeSnapshotNode(writer, child, depth - 1, roleId);
+        writer.endArray();
+        writeZTreeNodeTail(writer, node.getId(), node.isParentNode(), node.getName(), !children.isEmpty(), node.getUrl());
+    }
+
+    /**
+     * 同 writeZTreeNode(JSONWriter, String, List, int, RoleEntity) ，数据来自缓存的树快照
+     *
+     * @param writer
+     * @param zTreeNodeName
+     * @param nodes
+     * @param depth
+     * @param roleId
+     */
+    public static void writeZTreeSnapshotNode(JSONWriter writer, String zTreeNodeName, List<TreeSnapshot.Node> nodes, int depth, Long roleId) {
+        writeZTreeNodeHead(writer, false);
+        writeZTreeSnapshotNodes(writer, nodes, depth, roleId);
+        writeZTreeNodeTail(writer, 0L, true, zTreeNodeName, true, "url");
+    }
+
+    /**
+     * 同 writeZTreeNodes ，数据来自缓存的树快照
+     *
+     * @param writer
+     * @param nodes
+     * @param depth
+     * @param roleId
+     */
+    public static void writeZTreeSnapshotNodes(JSONWriter writer, Collection<TreeSnapshot.Node> nodes, int depth, Long roleId) {
+        writer.startArray();
+        for (TreeSnapshot.Node node : nodes)
+            writeZTreeSnapshotNode(writer, node, depth, roleId);
+        writer.endArray();
+    }
+
+    /**
+     * 同 writeZTreeNodeChildren ，数据来自缓存的树快照
+     *
+     * @param writer
+     * @param node
+     * @param depth
+     * @param roleId
+     */
+    public static void writeZTreeSnapshotNodeChildren(JSONWriter writer, TreeSnapshot.Node node, int depth, Long roleId) {
+        if (depth > 0)
+            writeZTreeSnapshotNodes(writer, node.getChildren(), depth - 1, roleId);
+        else
+            writeZTreeSnapshotNodes(writer, Collections.emptyList(), 0, roleId);
+    }
+
+    /**
+     * 递归输出节点
+     *
+     * @param ancestors 当前路径上的节点，避免循环引用，同 DtoUtils
+     */
+    private static void writeZTreeNode(JSONWriter writer, TreeEntity treeEntity, int depth, RoleEntity roleEntity, Set<TreeEntity> ancestors) {
+
+        // DtoUtils 会把循环引用的节点设置为 null ，convertToZTreeNode 跳过 null 节点
+        if (treeEntity == null || ancestors.contains(treeEntity))
+            return;
+
+        // 超出深度的节点，DtoUtils 拷贝为空集合
+        List<TreeEntity> children = depth > 0 ? treeEntity.getChildren() : Collections.emptyList();
+
+        boolean checked = false;
+        if (roleEntity != null && depth > 0)
+            checked = hasRole(treeEntity, roleEntity);
+
+        writeZTreeNodeHead(writer, checked);
+        writer.startArray();
+        ancestors.add(treeEntity);
+        for (TreeEntity child : children)
+            writeZTreeNode(writer, child, depth - 1, roleEntity, ancestors);
+        ancestors.remove(treeEntity);
+        writer.endArray();
+        writeZTreeNodeTail(writer, treeEntity.getId(), treeEntity.isParentNode(), treeEntity.getName(), !children.isEmpty(), treeEntity.getUrl());
+    }
+
+    /**
+     * 节点是否拥有 roleEntity 权限，按 id 判断。
+     * 受容器管理的 roles 中可能是 hibernate 代理对象 (如之前调用过 getOne)，代理和实体的 getClass() 不同，
+     * AbstractMySQLEntity.equals 会判断为不相等，所以不能用 getRoles().contains(roleEntity) 。
+     * 代理对象的 getId() 不会触发加载。
+     *
+     * @param treeEntity
+     * @param roleEntity
+     * @return
+     */
+    private static boolean hasRole(TreeEntity treeEntity, RoleEntity roleEntity) {
+        Long roleId = roleEntity.getId();
+        if (roleId == null)
+            return false;
+        for (RoleEntity role : treeEntity.getRoles())
+            if (roleId.equals(role.getId()))
+                return true;
+        return false;
+    }
+
+    /**
+     * 输出 ZTreeNode 的开始部分，之后紧接着输出 children 数组
+     * 属性顺序和 fastjson 序列化 ZTreeNode 的顺序一致 (按字母排序)
+     */
+    private static void writeZTreeNodeHead(JSONWriter writer, boolean checked) {
+        writer.startObject();
+        writer.writeKey("checked");
+        writer.writeValue(checked);
+        writer.writeKey("children");
+    }
+
+    /**
+     * 输出 children 之后的属性，null 值不输出，同 fastjson
+     */
+    private static void writeZTreeNodeTail(JSONWriter writer, long id, boolean isParent, String name, boolean open, String url) {
+        writer.writeKey("id");
+        writer.writeValue(id);
+        writer.writeKey("isParent");
+        writer.writeValue(isParent);
+        if (name != null) {
+            writer.writeKey("name");
+            writer.writeValue(name);
+        }
+        writer.writeKey("open");
+        writer.writeValue(open);
+        if (url != null) {
+            writer.writeKey("url");
+            writer.writeValue(url);
+        }
+        writer.endObject();
+    }
+
+
     /**
      * 创建已有节点的拷贝，生成新的节点，该节点及其子节点，仅包含集合中有的节点
      *
@@ -118,6 +329,22 @@ public class TreeUtils {
         return null;
     }
 
+    /**
+     * 根据缓存的树快照，创建 TreeEntity 节点，该节点及其子节点，仅包含满足条件的节点
+     * 同 createCopyTreeEntityByFilterIncludes ，但不访问数据库
+     *
+     * @param sourceNode     树快照中的节点
+     * @param filterIncludes 过滤条件，不满足条件的节点(及其子节点)不包含
+     * @return 源节点本身不满足条件时，返回 null
+     */
+    public static TreeEntity createCopyTreeEntityByFilterIncludes(TreeSnapshot.Node sourceNode, Predicate<TreeSnapshot.Node> filterIncludes) {
+        TreeEntity parentTemp = new TreeEntity();  // 临时变量
+        createCopyTreeEntityByFilterIncludes(parentTemp, sourceNode, filterIncludes); // 临时变量赋值
+        if (!parentTemp.getChildren().isEmpty())
+            return parentTemp.getChildren().get(0); //临时 parentNew 节点，只有一个子节点
+        return null;
+    }
+
     /**
      * 创建已有节点的拷贝，生成新的节点
      *
@@ -158,7 +385,7 @@ public class TreeUtils {
 
         //是否属于指定的 RoleEntity
         if (roleEntity != null)
-            if (treeEntity.getRoles().contains(roleEntity))
+            if (hasRole(treeEntity, roleEntity))
                 checked = true;
 
         ZTreeNode zTreeNode = new ZTreeNode(id, name, url, open, treeEntity.isParentNode(), checked);
@@ -208,6 +435,29 @@ public class TreeUtils {
 
     }
 
+    /**
+     * 同 createCopyTreeEntityByFilterIncludes(TreeEntity, TreeEntity, Collection) ，源节点来自缓存的树快照
+     *
+     * @param parentTemp
+     * @param sourceNode
+     * @param filterIncludes
+     */
+    private static void createCopyTreeEntityByFilterIncludes(TreeEntity parentTemp, TreeSnapshot.Node sourceNode, Predicate<TreeSnapshot.Node> filterIncludes) {
+
+        if (!filterIncludes.test(sourceNode))
+            return;
+
+        TreeEntity copy = new TreeEntity(sourceNode.getType(), sourceNode.getName(), sourceNode.getIndex(), sourceNode.isParentNode(), parentTemp);
+        copy.setUrl(sourceNode.getUrl());
+        copy.setCss(sourceNode.getCss());
+        copy.setTarget(sourceNode.getTarget());
+        parentTemp.addChildToLastIndex(copy); // 添加到所有子节点的尾
+        parentTemp.setParentNode(true); // 包含子节点，是父节点
+
+        for (TreeSnapshot.Node child : sourceNode.getChildren())
+            createCopyTreeEntityByFilterIncludes(copy, child, filterIncludes); // 递归
+    }
+
     /**
      * 不包含，和 createCopyTreeEntityByFilterIncludes 相反
      *
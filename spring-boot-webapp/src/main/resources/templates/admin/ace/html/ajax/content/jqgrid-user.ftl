@@ -307,6 +307,7 @@
         jQuery(function ($) {
             var grid_selector = "#grid-table";
             var pager_selector = "#grid-pager";
+            var nextCursor = ''; // 下一页的游标，见 JqgridPage.cursor
 
 
             var parent_column = $(grid_selector).closest('[class*="col-"]');
@@ -630,8 +631,15 @@
                 //  altRows: true,
                 //toppager: true,
 
-                loadComplete: function () {
+                // keyset 分页 : 点击下一页时，传回上一次查询返回的游标 ; 排序、查询、跳页等其他请求不传游标
+                onPaging: function (pgButton) {
+                    $(this).jqGrid('setGridParam', {postData: {cursor: pgButton.indexOf('next') === 0 ? nextCursor : ''}});
+                },
+
+                loadComplete: function (data) {
                     var table = this;
+                    nextCursor = data && data.cursor ? data.cursor : '';
+                    $(this).jqGrid('setGridParam', {postData: {cursor: ''}});
                     setTimeout(function () {
                         styleCheckbox(table);
 
@@ -0,0 +1,154 @@
+package com.base.spring.controller.ajax;
+
+import com.base.spring.domain.GroupEntity;
+import com.base.spring.domain.RoleEntity;
+import com.base.spring.domain.UserEntity;
+import org.h819.web.jqgird.JqgridPage;
+import org.h819.web.spring.jdbc.PageCountCache;
+import org.h819.web.spring.jdbc.SqlUtils;
+import org.h819.web.spring.jpa.DtoUtils;
+import org.h819.web.spring.jpa.FetchPlan;
+import org.h819.web.spring.jpa.JpaUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(jqgrid 表格查询按抓取计划加载关联对象 : 一页数据的 sql 语句数和行数无关，没有 1+N 查询)
+ * -
+ * 用 hibernate statistics 统计 sql 语句数。每个表格的查询条件只包含本测试创建的数据，pageSize 不大于记录数，
+ * 所以总数查询一定执行 (spring data 第一页不满时不查总数)。测试数据在事务结束时回滚。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional
+public class JqgridFetchPlanTest {
+
+    private static final int USERS = 6;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private UserAjaxController userAjaxController;
+    @Autowired
+    private RoleAjaxController roleAjaxController;
+    @Autowired
+    private GroupAjaxController groupAjaxController;
+    @Autowired
+    private PageCountCache pageCountCache;
+
+    private Statistics statistics;
+    private String prefix;
+
+    @Before
+    public void createData() {
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        prefix = "fetch-" + System.nanoTime() + "-";
+        for (int i = 0; i < USERS; i++) {
+            RoleEntity role = new RoleEntity(prefix + "role-" + i);
+            GroupEntity group = new GroupEntity(prefix + "group-" + i);
+            entityManager.persist(role);
+            entityManager.persist(group);
+
+            UserEntity user = new UserEntity(prefix + i, "123456", prefix + i + "@fetch.test");
+            user.setUserName("user-" + i);
+            user.addRole(role);
+            user.addGroup(group);
+            entityManager.persist(user);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * 用户表格的 DTO 包含 roles 、groups (深度 1) : 总数 + 当前页 + 每个集合一条，四条语句，和每页的行数无关 ;
+     * 角色、组表格的关联属性都被 excludes (深度 0) : 总数 + 当前页，两条语句
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGridStatements() {
+        String userFilters = filters("loginName");
+        for (int rows : new int[]{USERS / 2, USERS}) {
+            pageCountCache.invalidateAll(); // 每页都查询总数
+            JqgridPage[] page = new JqgridPage[1];
+            assertEquals(4, countStatements(() -> page[0] = userAjaxController.jqgridSearch(
+                    true, userFilters, 1, rows, "userName", "asc", null, null, null)));
+
+            List<UserEntity> users = page[0].getRows();
+            assertEquals(rows, users.size());
+            users.forEach(user -> {
+                assertEquals(1, user.getRoles().size());
+                assertEquals(1, user.getGroups().size());
+            });
+        }
+
+        String roleFilters = filters("name");
+        assertEquals(2, countStatements(() -> roleAjaxController.jqgridSearch(
+                true, roleFilters, 1, USERS / 2, "name", "asc", null, null)));
+
+        String groupFilters = filters("name");
+        assertEquals(2, countStatements(() -> groupAjaxController.jqgridSearch(
+                true, groupFilters, 1, USERS / 2, "name", "asc", null, null)));
+    }
+
+    /**
+     * DTO 转换深度为 1 (转换 roles 、groups) :
+     * 有抓取计划时，总数 + 当前页 + 每个集合一条，和行数无关 ; 没有时 groups 逐个用户加载
+     */
+    @Test
+    public void testCollectionStatements() {
+        FetchPlan fetchPlan = new FetchPlan()
+                .addExcludes(RoleEntity.class, "treeNodes", "users", "groups")
+                .addExcludes(GroupEntity.class, "users", "roles")
+                .fetchDepth(1);
+
+        assertEquals(4, countStatements(() -> copyUsers(fetchPlan)));
+        entityManager.clear();
+        assertTrue(countStatements(() -> copyUsers(null)) >= 2 + USERS);
+    }
+
+    private List<UserEntity> copyUsers(FetchPlan fetchPlan) {
+        Specification<UserEntity> specification = (root, query, builder) -> builder.like(root.get("loginName"), prefix + "%");
+        JqgridPage<UserEntity> page = JpaUtils.getJqGridKeysetPage(entityManager, UserEntity.class, 1, USERS,
+                SqlUtils.createOrder("asc", "id"), "id", null, null, specification, null, fetchPlan);
+        assertEquals(USERS, page.getRows().size());
+
+        DtoUtils dtoUtils = new DtoUtils();
+        dtoUtils.addExcludes(RoleEntity.class, "treeNodes", "users", "groups");
+        dtoUtils.addExcludes(GroupEntity.class, "users", "roles");
+        List<UserEntity> users = dtoUtils.createDTOcopy(page.getRows(), 1);
+        users.forEach(user -> {
+            assertEquals(1, user.getRoles().size());
+            assertEquals(1, user.getGroups().size());
+        });
+        return users;
+    }
+
+    private long countStatements(Runnable runnable) {
+        statistics.clear();
+        runnable.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    /**
+     * jqgrid 传入的查询条件 : field 以本测试的 prefix 开头
+     */
+    private String filters(String field) {
+        return "{\"groupOp\":\"AND\",\"rules\":[{\"field\":\"" + field + "\",\"op\":\"STARTS_WITH\",\"data\":\"" + prefix + "\"}]}";
+    }
+}
@@ -0,0 +1,106 @@
+package com.base.spring.controller.ajax;
+
+import com.base.spring.domain.RoleEntity;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import com.base.spring.repository.RoleRepository;
+import com.base.spring.repository.TreeRepository;
+import com.base.spring.service.cache.TreeCacheService;
+import com.base.spring.service.cache.TreeSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(jqgrid 编辑、删除 role 之后，树缓存的快照被清空，重新读取时得到新的授权)
+ * -
+ * 树缓存在事务提交后清空 (TreeCacheService.onTreeChanged)，所以测试方法本身不在事务中，测试数据在 @After 中删除。
+ * 测试数据 : Menu 树根节点下一个节点，授权给一个新的 role 。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest
+public class RoleAjaxControllerTest {
+
+    @Autowired
+    private RoleAjaxController roleAjaxController;
+    @Autowired
+    private RoleRepository roleRepository;
+    @Autowired
+    private TreeRepository treeRepository;
+    @Autowired
+    private TreeCacheService treeCacheService;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private Long roleId;
+    private Long nodeId;
+
+    @Before
+    public void createData() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(status -> {
+            TreeEntity root = treeRepository.findRoot(TreeType.Menu).get();
+            TreeEntity node = new TreeEntity(TreeType.Menu, "role-snapshot-test", 0, false, root);
+            root.addChildToLastIndex(node);
+            treeRepository.save(node);
+
+            RoleEntity role = new RoleEntity("role-snapshot-" + System.nanoTime());
+            role.addTreeNode(node);
+            roleRepository.save(role);
+
+            nodeId = node.getId();
+            roleId = role.getId();
+            return null;
+        });
+        treeCacheService.invalidateAll();
+    }
+
+    @After
+    public void deleteData() {
+        transactionTemplate.execute(status -> {
+            if (roleRepository.existsById(roleId))
+                roleRepository.deleteById(roleId);
+            TreeEntity node = treeRepository.getOne(nodeId);
+            node.getParent().getChildren().remove(node);
+            treeRepository.delete(node);
+            return null;
+        });
+        treeCacheService.invalidateAll();
+    }
+
+    @Test
+    public void testEditRole() {
+        TreeSnapshot snapshot = treeCacheService.getSnapshot(TreeType.Menu).get();
+        assertTrue(snapshot.getNode(nodeId).hasRole(roleId));
+
+        roleAjaxController.jqgridCURD("edit", new String[]{roleId.toString()}, "role-snapshot-edited", null, null, null, null);
+
+        TreeSnapshot reloaded = treeCacheService.getSnapshot(TreeType.Menu).get();
+        assertNotSame(snapshot, reloaded);
+        assertTrue(reloaded.getVersion() > snapshot.getVersion());
+        assertTrue(reloaded.getNode(nodeId).hasRole(roleId));
+    }
+
+    @Test
+    public void testDeleteRole() {
+        assertTrue(treeCacheService.findNode(nodeId).get().hasRole(roleId));
+
+        roleAjaxController.jqgridCURD("del", new String[]{roleId.toString()}, null, null, null, null, null);
+
+        assertFalse(treeCacheService.findNode(nodeId).get().hasRole(roleId));
+        assertTrue(treeCacheService.getSnapshot(TreeType.Menu).get().getGrantedNodes(Collections.singleton(roleId)).isEmpty());
+    }
+}
@@ -0,0 +1,90 @@
+package com.base.spring.domain;
+
+import org.h819.web.spring.jpa.DtoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(DtoUtils 拷贝整棵树 (depth 100) : 默认模式和保留共享引用模式 (setPreserveSharedReferences) 的速度比较)
+ * -
+ * 测试数据 : 根节点下 100 条链，每条 100 个节点，共 10001 个 TreeEntity ; 每个节点引用 5 个 RoleEntity 中的 2 个 (多个节点共享同一个 role ，DAG)。
+ * 不启动 spring ，实体在内存中创建，不访问数据库。两种模式生成的 DTO 见 TreeEntityCopyTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=TreeEntityCopyBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeEntityCopyBenchmark {
+
+    static final int CHAINS = 100;
+    static final int CHAIN_LENGTH = 100;
+    static final int ROLES = 5;
+    static final int DEPTH = 100;
+
+    @Param({"false", "true"})
+    public boolean preserveSharedReferences;
+
+    private TreeEntity root;
+
+    @Setup
+    public void setUp() {
+        root = createTree();
+    }
+
+    @Benchmark
+    public TreeEntity copy() {
+        return copy(root, preserveSharedReferences);
+    }
+
+    /**
+     * @return 根节点
+     */
+    static TreeEntity createTree() {
+        List<RoleEntity> roles = new ArrayList<>();
+        for (int i = 0; i < ROLES; i++) {
+            RoleEntity role = new RoleEntity("role-" + i);
+            role.setId((long) i + 1);
+            roles.add(role);
+        }
+
+        long id = 1;
+        TreeEntity root = new TreeEntity(TreeType.Menu, "root_", 0, true, null);
+        root.setId(id++);
+        for (int chain = 0; chain < CHAINS; chain++) {
+            TreeEntity parent = root;
+            for (int i = 0; i < CHAIN_LENGTH; i++) {
+                TreeEntity node = new TreeEntity(TreeType.Menu, "node-" + id, 0, i < CHAIN_LENGTH - 1, parent);
+                node.setId(id);
+                node.getRoles().add(roles.get((int) (id % ROLES)));
+                node.getRoles().add(roles.get((int) ((id + 1) % ROLES)));
+                parent.addChildToLastIndex(node);
+                parent = node;
+                id++;
+            }
+        }
+        return root;
+    }
+
+    static TreeEntity copy(TreeEntity root, boolean preserveSharedReferences) {
+        DtoUtils dtoUtils = new DtoUtils();
+        dtoUtils.setPreserveSharedReferences(preserveSharedReferences);
+        dtoUtils.addExcludes(RoleEntity.class, "groups", "users", "treeNodes");
+        return dtoUtils.createDTOcopy(root, DEPTH);
+    }
+}
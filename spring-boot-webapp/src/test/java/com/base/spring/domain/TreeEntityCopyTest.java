@@ -0,0 +1,61 @@
+package com.base.spring.domain;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.base.spring.domain.TreeEntityCopyBenchmark.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(DtoUtils 拷贝整棵树 : 默认模式和保留共享引用模式生成的 DTO ，测试数据和 TreeEntityCopyBenchmark 相同)
+ * -
+ */
+public class TreeEntityCopyTest {
+
+    private static TreeEntity root;
+
+    @BeforeClass
+    public static void createTree() {
+        root = TreeEntityCopyBenchmark.createTree();
+    }
+
+    @Test
+    public void sameTree() {
+        TreeEntity copyEach = copy(root, false);
+        TreeEntity preserve = copy(root, true);
+
+        assertEquals(CHAINS * CHAIN_LENGTH + 1, countNodes(copyEach));
+        assertEquals(CHAINS * CHAIN_LENGTH + 1, countNodes(preserve));
+
+        // 默认模式每个引用各自拷贝一份 ; 保留共享引用模式每个 role 只有一个 DTO
+        assertTrue(countRoles(copyEach) > CHAINS * CHAIN_LENGTH);
+        assertEquals(ROLES, countRoles(preserve));
+        assertEquals("role-1", preserve.getChildren().get(0).getRoles().stream()
+                .filter(role -> role.getId() == 1L).findFirst().get().getName());
+    }
+
+    private static int countNodes(TreeEntity node) {
+        int count = 1;
+        for (TreeEntity child : node.getChildren())
+            count += countNodes(child);
+        return count;
+    }
+
+    /**
+     * 拷贝结果中 RoleEntity 对象的个数 (按对象地址)
+     */
+    private static int countRoles(TreeEntity root) {
+        Set<RoleEntity> roles = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<TreeEntity> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TreeEntity node = stack.pop();
+            roles.addAll(node.getRoles());
+            node.getChildren().forEach(stack::push);
+        }
+        return roles.size();
+    }
+}
@@ -0,0 +1,159 @@
+package com.base.spring.repository;
+
+import com.base.spring.domain.UserEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.h819.web.spring.jdbc.SqlUtils;
+import org.h819.web.spring.jpa.JpaUtils;
+import org.h819.web.spring.jpa.SearchFilter;
+import org.h819.web.spring.jpa.SpecificationTemplate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(SpecificationTemplate : jqgrid 传入的字符串值转换为属性的类型，eq / ne null 为 is null / is not null ; query plan cache 命中率)
+ * -
+ * 两种绑定方式都测试 : bind (常量，同 JpaDynamicSpecificationBuilder) 和 bindParameters (命名参数，同 JpaUtils.getJqGridKeysetPage)。
+ * 使用 hibernate 默认的常量处理方式 (literal_handling_mode=auto)，不依赖 application.properties 中的 bind 设置。
+ * 测试数据在事务结束时回滚。
+ */
+@Slf4j
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.criteria.literal_handling_mode=auto",
+        "spring.jpa.properties.hibernate.generate_statistics=true"})
+@Transactional
+public class SpecificationTemplateTest {
+
+    private static final int USERS = 4;
+    private static final int REQUESTS = 100;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private String prefix;
+    private List<Long> ids = new ArrayList<>();
+
+    @Before
+    public void createUsers() {
+        prefix = "template-" + System.nanoTime() + "-";
+        for (int i = 0; i < USERS; i++) {
+            UserEntity user = new UserEntity(prefix + i, "123456", prefix + i + "@template.test");
+            user.setUserName("user");
+            user.setAddress(i == 0 ? null : "address");
+            user.setAccountNonExpired(i % 2 == 0);
+            entityManager.persist(user);
+            ids.add(user.getId());
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * 数字属性，值为 jqgrid 传入的字符串
+     */
+    @Test
+    public void testConvertNumber() {
+        String id = ids.get(1).toString();
+        assertEquals(1, count(new SearchFilter("id", SearchFilter.Operator.EQ, id)));
+        assertEquals(2, count(new SearchFilter("id", SearchFilter.Operator.GT, id)));
+        assertEquals(1, count(new SearchFilter("id", SearchFilter.Operator.LT, id)));
+        assertEquals(3, count(new SearchFilter("id", SearchFilter.Operator.NE, id)));
+        assertEquals(2, count(new SearchFilter("id", SearchFilter.Operator.IN, Arrays.asList(id, ids.get(2).toString()))));
+        assertEquals(2, count(new SearchFilter("id", SearchFilter.Operator.BETWEEN, ids.get(2).toString(), ids.get(3).toString())));
+    }
+
+    /**
+     * boolean 属性，值为 jqgrid 传入的字符串
+     */
+    @Test
+    public void testConvertBoolean() {
+        assertEquals(2, count(new SearchFilter("accountNonExpired", SearchFilter.Operator.EQ, "true")));
+    }
+
+    @Test
+    public void testNull() {
+        assertEquals(1, count(new SearchFilter("address", SearchFilter.Operator.EQ, null)));
+        assertEquals(3, count(new SearchFilter("address", SearchFilter.Operator.NE, null)));
+        // 数字属性传入空字符串，转换后为 null
+        assertEquals(0, count(new SearchFilter("id", SearchFilter.Operator.EQ, "")));
+    }
+
+    /**
+     * hibernate 5.2 没有 query plan cache 的命中统计，plan 按 jpql 缓存，所以用执行过的不同 jpql 的个数计算命中率 :
+     * hibernate statistics 按 jpql 分别统计 (Statistics.getQueries) ，REQUESTS 次请求，每次 id 的值不同 ;
+     * 命中率 = (请求数 - 不同 jpql 数) / 请求数 ，实测的结果写入日志
+     */
+    @Test
+    public void reportPlanCacheHitRatio() {
+        double literal = planCacheHitRatio("literal", false);
+        double parameter = planCacheHitRatio("parameter", true);
+        assertTrue(parameter > literal); // 默认时数字常量写在 jpql 中，值不同 plan 不同
+    }
+
+    private double planCacheHitRatio(String name, boolean parameters) {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        for (int i = 0; i < REQUESTS; i++) {
+            List<SearchFilter> filters = Arrays.asList(
+                    new SearchFilter("id", SearchFilter.Operator.GT, String.valueOf(i)),
+                    new SearchFilter("loginName", SearchFilter.Operator.STARTS_WITH, prefix));
+            SpecificationTemplate template = SpecificationTemplate.compile(SearchFilter.Relation.AND, filters);
+            Specification<UserEntity> specification = parameters ? template.bindParameters(filters) : template.bind(filters);
+
+            CriteriaQuery<UserEntity> query = builder.createQuery(UserEntity.class);
+            Root<UserEntity> root = query.from(UserEntity.class);
+            query.where(specification.toPredicate(root, query, builder));
+            entityManager.createQuery(query).getResultList();
+        }
+
+        long executions = statistics.getQueryExecutionCount();
+        int plans = statistics.getQueries().length;
+        assertEquals(REQUESTS, executions);
+        double ratio = (executions - plans) / (double) executions;
+        log.info("{} : {} requests , {} plans , hit ratio {}", name, executions, plans, String.format("%.2f", ratio));
+        return ratio;
+    }
+
+    /**
+     * 两种绑定方式的结果相同，都限制在本测试的数据中
+     */
+    private int count(SearchFilter filter) {
+        List<SearchFilter> filters = Collections.singletonList(filter);
+        SpecificationTemplate template = SpecificationTemplate.compile(SearchFilter.Relation.AND, filters);
+        Specification<UserEntity> own = (root, query, builder) -> builder.like(root.get("loginName"), prefix + "%");
+
+        Specification<UserEntity> literal = template.bind(filters);
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<UserEntity> root = query.from(UserEntity.class);
+        query.select(builder.count(root)).where(new Predicate[]{literal.toPredicate(root, query, builder), own.toPredicate(root, query, builder)});
+        int literalCount = entityManager.createQuery(query).getSingleResult().intValue();
+
+        String jqgridFilters = filter.getOperator() == SearchFilter.Operator.IN || filter.getOperator() == SearchFilter.Operator.BETWEEN ? null
+                : "{\"groupOp\":\"AND\",\"rules\":[{\"field\":\"" + filter.getFieldName() + "\",\"op\":\"" + filter.getOperator()
+                + "\",\"data\":" + (filter.getValue() == null ? "null" : "\"" + filter.getValue() + "\"") + "}]}";
+        if (jqgridFilters != null) // jqgrid 的查询条件按命名参数绑定
+            assertEquals(literalCount, JpaUtils.getJqGridKeysetPage(entityManager, UserEntity.class, 1, 10,
+                    SqlUtils.createOrder("asc", "id"), "id", null, jqgridFilters, own).getRecords());
+        return literalCount;
+    }
+}
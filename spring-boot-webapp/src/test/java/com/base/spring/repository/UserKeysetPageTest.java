@@ -0,0 +1,91 @@
+package com.base.spring.repository;
+
+import com.base.spring.domain.UserEntity;
+import org.h819.web.jqgird.JqgridPage;
+import org.h819.web.spring.jdbc.SqlUtils;
+import org.h819.web.spring.jpa.JpaUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description : TODO(JpaUtils.getJqGridKeysetPage : 按可以为 null 的属性 (address) 排序时逐页查询，同 UserAjaxController)
+ * -
+ * 可以为 null 的排序属性按 offset 方式分页，不生成游标 ; 不能为 null 的属性 (userName) 生成游标，按 keyset 方式分页。
+ * 两种方式都要能取到全部记录，不重复、不遗漏。测试数据在事务结束时回滚。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest
+@Transactional
+public class UserKeysetPageTest {
+
+    private static final int USERS = 7;
+    private static final int PAGE_SIZE = 3;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private String prefix;
+
+    @Before
+    public void createUsers() {
+        prefix = "keyset-" + System.nanoTime() + "-";
+        for (int i = 0; i < USERS; i++) {
+            UserEntity user = new UserEntity(prefix + i, "123456", prefix + i + "@keyset.test");
+            user.setUserName("user-" + (i % 3)); // 排序值有重复，由 id 保证顺序唯一
+            user.setAddress(i % 2 == 0 ? null : "address-" + (i % 3)); // 一半的 address 为 null
+            entityManager.persist(user);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void testNullableSortProperty() {
+        for (String direction : new String[]{"asc", "desc"}) {
+            List<String> loginNames = readAllPages(direction, "address", false);
+            assertEquals(USERS, loginNames.size());
+            assertEquals(USERS, loginNames.stream().distinct().count());
+        }
+    }
+
+    @Test
+    public void testNotNullSortProperty() {
+        for (String direction : new String[]{"asc", "desc"}) {
+            List<String> loginNames = readAllPages(direction, "userName", true);
+            assertEquals(USERS, loginNames.size());
+            assertEquals(USERS, loginNames.stream().distinct().count());
+        }
+    }
+
+    /**
+     * 同 jqgrid : 点击下一页时传回上一页的游标
+     */
+    private List<String> readAllPages(String direction, String sortProperty, boolean keyset) {
+        Specification<UserEntity> specification = (root, query, builder) -> builder.like(root.get("loginName"), prefix + "%");
+
+        List<String> loginNames = new ArrayList<>();
+        String cursor = null;
+        for (int pageNo = 1; ; pageNo++) {
+            JqgridPage<UserEntity> page = JpaUtils.getJqGridKeysetPage(entityManager, UserEntity.class, pageNo, PAGE_SIZE,
+                    SqlUtils.createOrder(direction, sortProperty), "id", cursor, null, specification);
+            assertEquals(USERS, page.getRecords());
+            page.getRows().forEach(user -> loginNames.add(user.getLoginName()));
+            if (!page.isHasNext())
+                return loginNames;
+            assertEquals(keyset, page.getCursor() != null);
+            cursor = page.getCursor();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.base.spring.repository;
+
+import com.base.spring.domain.UserEntity;
+import org.h819.web.spring.jdbc.PageCountCache;
+import org.h819.web.spring.jdbc.SqlUtils;
+import org.h819.web.spring.jpa.JpaUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Description : TODO(JpaUtils.getJqGridKeysetPage 总数缓存 : 只有常量不同的两个查询条件，总数分别缓存)
+ * -
+ * 使用 hibernate 默认的常量处理方式 (literal_handling_mode=auto ，数字写在 jpql 中，字符串为隐式参数)，
+ * 不依赖 application.properties 中的 bind 设置。测试数据在事务结束时回滚。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.criteria.literal_handling_mode=auto")
+@Transactional
+public class UserPageCountCacheTest {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private PageCountCache countCache;
+    private String prefix;
+    private long firstId;
+
+    @Before
+    public void createUsers() {
+        countCache = new PageCountCache(60, TimeUnit.SECONDS, 100);
+        prefix = "count-" + System.nanoTime() + "-";
+        for (int i = 0; i < 3; i++) {
+            UserEntity user = new UserEntity(prefix + i, "123456", prefix + i + "@count.test");
+            user.setUserName(i == 0 ? "a" : "b");
+            entityManager.persist(user);
+            if (i == 0)
+                firstId = user.getId();
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * 字符串常量 : 隐式参数
+     */
+    @Test
+    public void testStringLiteral() {
+        assertEquals(1, count((root, query, builder) -> builder.and(
+                builder.like(root.get("loginName"), prefix + "%"), builder.equal(root.get("userName"), "a"))));
+        assertEquals(2, count((root, query, builder) -> builder.and(
+                builder.like(root.get("loginName"), prefix + "%"), builder.equal(root.get("userName"), "b"))));
+    }
+
+    /**
+     * in 的元素个数相同，只是值不同
+     */
+    @Test
+    public void testInList() {
+        assertEquals(1, count((root, query, builder) -> root.get("loginName").in(Arrays.asList(prefix + 0, "none"))));
+        assertEquals(2, count((root, query, builder) -> root.get("loginName").in(Arrays.asList(prefix + 1, prefix + 2))));
+    }
+
+    /**
+     * 数字常量 : 写在 jpql 中
+     */
+    @Test
+    public void testNumberLiteral() {
+        assertEquals(3, count((root, query, builder) -> builder.and(
+                builder.like(root.get("loginName"), prefix + "%"), builder.ge(root.<Long>get("id"), firstId))));
+        assertEquals(2, count((root, query, builder) -> builder.and(
+                builder.like(root.get("loginName"), prefix + "%"), builder.ge(root.<Long>get("id"), firstId + 1))));
+    }
+
+    private int count(Specification<UserEntity> specification) {
+        return JpaUtils.getJqGridKeysetPage(entityManager, UserEntity.class, 1, 10,
+                SqlUtils.createOrder("asc", "id"), "id", null, null, specification, countCache).getRecords();
+    }
+}
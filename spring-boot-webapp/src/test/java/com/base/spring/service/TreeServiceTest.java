@@ -0,0 +1,101 @@
+package com.base.spring.service;
+
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(移动节点 : 批量修改子孙节点的 path 之后，只刷新移动的子树，持久化上下文中的其他实体仍然可以使用)
+ * -
+ * 测试数据 : root 下 a -> b -> c 和 x 两个分支，测试数据在事务结束时回滚。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest
+@Transactional
+public class TreeServiceTest {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private TreeService treeService;
+
+    private long rootId, aId, cId, xId;
+
+    @Before
+    public void createTree() {
+        TreeEntity root = new TreeEntity(TreeType.Standard, "root_move_test", 0, true, null);
+        TreeEntity a = new TreeEntity(TreeType.Standard, "a", 0, true, root);
+        TreeEntity b = new TreeEntity(TreeType.Standard, "b", 0, true, a);
+        TreeEntity c = new TreeEntity(TreeType.Standard, "c", 0, false, b);
+        TreeEntity x = new TreeEntity(TreeType.Standard, "x", 1, false, root);
+        root.addChildToLastIndex(a);
+        a.addChildToLastIndex(b);
+        b.addChildToLastIndex(c);
+        root.addChildToLastIndex(x);
+        entityManager.persist(root);
+        entityManager.flush();
+        entityManager.clear();
+
+        rootId = root.getId();
+        aId = a.getId();
+        cId = c.getId();
+        xId = x.getId();
+    }
+
+    /**
+     * path 一次查询得到整个子树 (不含节点本身)，父节点在子节点之前，之后遍历 children 得到相同的节点
+     */
+    @Test
+    public void testFindSubtree() {
+        List<TreeEntity> subtree = treeService.findSubtree(rootId);
+        assertEquals(4, subtree.size());
+        assertEquals(aId, (long) subtree.get(0).getId());
+        assertEquals(xId, (long) subtree.get(1).getId()); // 按 path 、 index 排序
+        assertEquals(cId, (long) subtree.get(3).getId());
+
+        TreeEntity root = entityManager.find(TreeEntity.class, rootId);
+        assertSame(subtree.get(0), root.getChildren().get(0));
+        assertSame(subtree.get(3), root.getChildren().get(0).getChildren().get(0).getChildren().get(0));
+    }
+
+    @Test
+    public void testMoveRefreshesSubtree() {
+        TreeEntity a = entityManager.find(TreeEntity.class, aId);
+        TreeEntity c = a.getChildren().get(0).getChildren().get(0); // 加载子树
+        TreeEntity x = entityManager.find(TreeEntity.class, xId);
+        TreeEntity root = x.getParent();
+
+        treeService.move(aId, xId, 0);
+
+        // 其他实体没有被 detach
+        assertTrue(entityManager.contains(root));
+        assertTrue(entityManager.contains(x));
+        assertSame(c, entityManager.find(TreeEntity.class, cId));
+
+        // 已经加载的子孙节点是新的 path
+        String bPath = x.subtreePath() + aId + "/";
+        assertEquals(bPath + c.getParent().getId() + "/", c.getPath());
+        assertEquals(bPath + c.getParent().getId() + "/" + cId + "/", c.subtreePath());
+        assertEquals(4, c.getLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoveIntoSubtree() {
+        treeService.move(aId, cId, 0);
+    }
+}
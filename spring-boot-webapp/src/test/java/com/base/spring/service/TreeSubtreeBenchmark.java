@@ -0,0 +1,132 @@
+package com.base.spring.service;
+
+import com.base.SpringBootWebAppApplication;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description : TODO(加载整个子树 : 逐级 lazy 加载 children 和 path 一次查询 (TreeService.findSubtree) 的速度比较)
+ * -
+ * 测试数据 : 每个节点 10 个子节点，4 层共 11111 个节点 (1 万) ， 5 层共 111111 个节点 (10 万)。
+ * 启动 spring (不启动 web 服务器)，使用当前 profile 的数据库。测试数据在 @Setup 中保存，@TearDown 中删除。
+ * 每次加载在一个新的只读事务中 (新的持久化上下文)，两种方式都从数据库读取，然后遍历整个子树。只比较同一台机器、同一个数据库上的相对速度。
+ * findSubtree 的结果见 TreeServiceTest 。
+ * 运行 : mvn -P benchmark test-compile exec:exec -Dbenchmark=TreeSubtreeBenchmark (见父 pom)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeSubtreeBenchmark {
+
+    private static final int FAN_OUT = 10;
+
+    @Param({"4", "5"})
+    public int levels;
+
+    private ConfigurableApplicationContext context;
+    private EntityManager entityManager;
+    private TransactionTemplate transactionTemplate;
+    private TreeService treeService;
+    private long rootId;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(SpringBootWebAppApplication.class).web(WebApplicationType.NONE).run();
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        treeService = context.getBean(TreeService.class);
+
+        rootId = transactionTemplate.execute(status -> createTree());
+        transactionTemplate.setReadOnly(true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transactionTemplate.setReadOnly(false);
+        transactionTemplate.execute(status -> {
+            treeService.findSubtree(rootId); // 一次查询加载整个子树，级联删除时不再逐级加载
+            entityManager.remove(entityManager.find(TreeEntity.class, rootId));
+            return null;
+        });
+        context.close();
+    }
+
+    @Benchmark
+    public long lazyChildren() {
+        return transactionTemplate.execute(status -> count(entityManager.find(TreeEntity.class, rootId)));
+    }
+
+    @Benchmark
+    public long pathQuery() {
+        return transactionTemplate.execute(status -> {
+            TreeEntity root = entityManager.find(TreeEntity.class, rootId);
+            treeService.findSubtree(rootId);
+            return count(root);
+        });
+    }
+
+    /**
+     * 逐层保存，每 1000 个节点 flush 一次并清空持久化上下文，path 由 TreeEntity.initPath 设置
+     *
+     * @return 根节点 id
+     */
+    private long createTree() {
+        TreeEntity root = new TreeEntity(TreeType.Standard, "root_benchmark", 0, true, null);
+        entityManager.persist(root);
+
+        List<TreeEntity> current = new ArrayList<>();
+        current.add(root);
+        int saved = 1;
+        for (int level = 1; level <= levels; level++) {
+            List<TreeEntity> next = new ArrayList<>(current.size() * FAN_OUT);
+            for (TreeEntity parent : current)
+                for (int i = 0; i < FAN_OUT; i++) {
+                    TreeEntity child = new TreeEntity(TreeType.Standard, "node", i, level < levels, parent);
+                    entityManager.persist(child);
+                    next.add(child);
+                    if (++saved % 1000 == 0) {
+                        entityManager.flush();
+                        entityManager.clear();
+                    }
+                }
+            current = next;
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return root.getId();
+    }
+
+    private static long count(TreeEntity node) {
+        long count = 1;
+        for (TreeEntity child : node.getChildren())
+            count += count(child);
+        return count;
+    }
+}
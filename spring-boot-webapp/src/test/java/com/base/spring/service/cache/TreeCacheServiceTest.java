@@ -0,0 +1,95 @@
+package com.base.spring.service.cache;
+
+import com.base.spring.config.properties.TreeCacheProperty;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import com.base.spring.repository.TreeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+/**
+ * Description : TODO(TreeCacheService : 节点数不超过 tree.cache.max-nodes 的树都会被缓存，超过的不缓存)
+ * -
+ * 不启动 spring ，TreeRepository 用 mock ，树在内存中创建。
+ */
+public class TreeCacheServiceTest {
+
+    private static final int MAX_NODES = 100;
+
+    private TreeRepository treeRepository;
+    private TreeCacheService service;
+
+    @Before
+    public void createService() {
+        treeRepository = mock(TreeRepository.class);
+        TreeCacheProperty property = new TreeCacheProperty();
+        property.setMaxNodes(MAX_NODES);
+        service = new TreeCacheService(treeRepository, property, new SimpleMeterRegistry());
+    }
+
+    /**
+     * 大于 maxNodes / 4 (guava 默认的 segment 数) 、不大于 maxNodes 的树，加载一次之后从缓存读取
+     */
+    @Test
+    public void testCacheTreeLargerThanSegment() {
+        when(treeRepository.findRoot(TreeType.Menu)).thenReturn(Optional.of(createTree(60)));
+
+        TreeSnapshot snapshot = service.getSnapshot(TreeType.Menu).get();
+        assertEquals(60, snapshot.size());
+        assertSame(snapshot, service.getSnapshot(TreeType.Menu).get());
+
+        verify(treeRepository, times(1)).findRoot(TreeType.Menu);
+        assertEquals(1, service.getStats().hitCount());
+    }
+
+    /**
+     * 多个树的节点总数不超过 maxNodes 时都缓存
+     */
+    @Test
+    public void testCacheSeveralTrees() {
+        when(treeRepository.findRoot(TreeType.Menu)).thenReturn(Optional.of(createTree(45)));
+        when(treeRepository.findRoot(TreeType.DepartMent)).thenReturn(Optional.of(createTree(45)));
+
+        for (int i = 0; i < 3; i++) {
+            service.getSnapshot(TreeType.Menu);
+            service.getSnapshot(TreeType.DepartMent);
+        }
+
+        verify(treeRepository, times(1)).findRoot(TreeType.Menu);
+        verify(treeRepository, times(1)).findRoot(TreeType.DepartMent);
+    }
+
+    /**
+     * 超过 maxNodes 的树不缓存，每次都重新加载
+     */
+    @Test
+    public void testNotCacheTreeLargerThanMaxNodes() {
+        when(treeRepository.findRoot(TreeType.Menu)).thenReturn(Optional.of(createTree(MAX_NODES + 1)));
+
+        assertEquals(MAX_NODES + 1, service.getSnapshot(TreeType.Menu).get().size());
+        service.getSnapshot(TreeType.Menu);
+
+        verify(treeRepository, times(2)).findRoot(TreeType.Menu);
+    }
+
+    /**
+     * 根节点下一层子节点，共 nodes 个节点
+     */
+    private static TreeEntity createTree(int nodes) {
+        TreeEntity root = new TreeEntity(TreeType.Menu, "root_Menu", 0, true, null);
+        root.setId(1L);
+        for (long id = 2; id <= nodes; id++) {
+            TreeEntity child = new TreeEntity(TreeType.Menu, "node-" + id, 0, false, root);
+            child.setId(id);
+            root.addChildToLastIndex(child);
+        }
+        return root;
+    }
+}
@@ -0,0 +1,125 @@
+package com.base.spring.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.JSONWriter;
+import com.base.spring.domain.RoleEntity;
+import com.base.spring.domain.TreeEntity;
+import com.base.spring.domain.TreeType;
+import com.base.spring.service.cache.TreeSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Description : TODO(TreeUtils 流式输出 ztree json : 用保存到数据库、受容器管理的 TreeEntity 和 RoleEntity 判断节点是否选中)
+ * -
+ * role 可能是 hibernate 代理 (getOne / getReference)，也可能是实体，节点的 roles 集合中也一样，几种组合都要能正确判断。
+ * 测试数据在事务结束时回滚。
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest
+@Transactional
+public class TreeUtilsTest {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private RoleEntity roleA;
+    private RoleEntity roleB;
+    private TreeEntity root;
+
+    @Before
+    public void createTree() {
+        String suffix = String.valueOf(System.nanoTime());
+        roleA = new RoleEntity("tree-utils-a-" + suffix);
+        roleB = new RoleEntity("tree-utils-b-" + suffix);
+        entityManager.persist(roleA);
+        entityManager.persist(roleB);
+
+        root = new TreeEntity(TreeType.Standard, "root_tree-utils-" + suffix, 0, true, null);
+        TreeEntity child1 = new TreeEntity(TreeType.Standard, "child1", 0, false, root);
+        TreeEntity child2 = new TreeEntity(TreeType.Standard, "child2", 0, false, root);
+        root.addChildToLastIndex(child1);
+        root.addChildToLastIndex(child2);
+        child1.getRoles().add(roleA);
+        child2.getRoles().add(roleB);
+        entityManager.persist(root);
+
+        entityManager.flush();
+        entityManager.clear(); // 之后都从数据库重新加载
+    }
+
+    /**
+     * role 为代理对象 (同 ZTreeAjaxController 中的 roleRepository.getOne)
+     */
+    @Test
+    public void testCheckedByRoleProxy() {
+        RoleEntity role = entityManager.getReference(RoleEntity.class, roleA.getId());
+        assertChecked(write(entityManager.find(TreeEntity.class, root.getId()), role), true, false);
+    }
+
+    /**
+     * role 为已加载的实体
+     */
+    @Test
+    public void testCheckedByManagedRole() {
+        RoleEntity role = entityManager.find(RoleEntity.class, roleB.getId());
+        assertChecked(write(entityManager.find(TreeEntity.class, root.getId()), role), false, true);
+    }
+
+    /**
+     * 节点的 roles 集合中为代理对象 (加载 roles 之前已经有了该 role 的代理)，role 为事务之外的实体
+     */
+    @Test
+    public void testCheckedByDetachedRole() {
+        entityManager.getReference(RoleEntity.class, roleA.getId());
+        assertChecked(write(entityManager.find(TreeEntity.class, root.getId()), roleA), true, false);
+    }
+
+    /**
+     * 树快照中的 role id 来自受容器管理的 roles
+     */
+    @Test
+    public void testCheckedBySnapshot() {
+        entityManager.getReference(RoleEntity.class, roleB.getId());
+        TreeSnapshot snapshot = TreeSnapshot.of(TreeType.Standard, 1, entityManager.find(TreeEntity.class, root.getId()));
+
+        StringWriter out = new StringWriter();
+        JSONWriter writer = new JSONWriter(out);
+        TreeUtils.writeZTreeSnapshotNode(writer, snapshot.getRoot(), 2, roleB.getId());
+        writer.flush();
+        assertChecked(out.toString(), false, true);
+    }
+
+    private static String write(TreeEntity treeEntity, RoleEntity roleEntity) {
+        StringWriter out = new StringWriter();
+        JSONWriter writer = new JSONWriter(out);
+        TreeUtils.writeZTreeNode(writer, treeEntity, 2, roleEntity);
+        writer.flush();
+        return out.toString();
+    }
+
+    private static void assertChecked(String json, boolean child1, boolean child2) {
+        JSONObject node = JSON.parseObject(json);
+        assertFalse(node.getBooleanValue("checked"));
+        JSONArray children = node.getJSONArray("children");
+        assertEquals(2, children.size());
+        assertEquals("child1", children.getJSONObject(0).getString("name"));
+        assertEquals(child1, children.getJSONObject(0).getBooleanValue("checked"));
+        assertEquals(child2, children.getJSONObject(1).getBooleanValue("checked"));
+        assertTrue(node.getBooleanValue("open"));
+    }
+}
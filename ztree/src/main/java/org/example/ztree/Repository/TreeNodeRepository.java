@@ -5,6 +5,7 @@ import org.example.ztree.domain.TreeNodeEntity;
 import org.example.ztree.domain.TreeNodeType;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
@@ -45,4 +46,34 @@ public interface TreeNodeRepository extends JpaRepository<TreeNodeEntity, Long>,
      */
     @Query("select e from TreeNodeEntity e where e.parent is null order by  e.index")
     List<TreeNodeEntity> getRoot();
+
+    /**
+     * 根据 path 获取整个子树(不含节点本身)，同时 fetch 每个节点的 children ，一次查询完成，之后遍历 getChildren() 不再访问数据库
+     *
+     * @param subtreePath 节点的 TreeNodeEntity.subtreePath()
+     * @return 按 path 排序，父节点在子节点之前
+     */
+    @Query("select distinct e from TreeNodeEntity e left join fetch e.children where e.path like concat(?1, '%') order by e.path, e.index")
+    List<TreeNodeEntity> findSubtree(String subtreePath);
+
+    /**
+     * path 为 null (没有初始化) 的节点数量
+     *
+     * @return
+     */
+    long countByPathIsNull();
+
+    /**
+     * 移动节点后，批量修改子孙节点的 path 前缀
+     * 不清空持久化上下文 (不用 clearAutomatically ，否则已经加载的所有实体都被 detach) ，已经加载的子孙节点需要调用方 refresh (见 ZTreeService.updateSubtreePath) 。
+     * 调用之前需要先 flush 未保存的修改
+     *
+     * @param oldSubtreePath 移动前节点的 subtreePath
+     * @param newSubtreePath 移动后节点的 subtreePath
+     * @param start          oldSubtreePath.length() + 1 ， jpql substring 从 1 开始
+     * @return 修改的记录数
+     */
+    @Modifying
+    @Query("update TreeNodeEntity e set e.path = concat(?2, substring(e.path, ?3)) where e.path like concat(?1, '%')")
+    int updateSubtreePath(String oldSubtreePath, String newSubtreePath, int start);
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -23,10 +24,12 @@ import java.util.List;
  * To change this template use File | Settings | File Templates.
  */
 @Entity
-@Table(name = "base_treenode")
+@Table(name = "base_treenode", indexes = {@Index(name = "idx_base_treenode_path", columnList = "path")})
 @EntityListeners(AuditingEntityListener.class) // 该 entity 启用 auditing
 public class TreeNodeEntity implements Serializable {
 
+    public static final String PATH_SEPARATOR = "/";
+
     private static final Logger logger = LoggerFactory.getLogger(TreeNodeEntity.class);
 
     /**
@@ -107,6 +110,13 @@ public class TreeNodeEntity implements Serializable {
     private List<TreeNodeEntity> children = new ArrayList<>();  //初始化，否则在没有初始化时进行操作会发生异常。
 
 
+    /**
+     * 物化路径 (materialized path) : 从根节点到父节点的所有祖先节点的 id ，形如 "/1/5/9/" ，根节点为 "/"
+     * 新建节点时由 @PrePersist 自动设置，移动节点时由 ZTreeService 维护。可以为 null (该字段加入之前的数据)
+     */
+    @Column(name = "path", length = 1000)
+    private String path;
+
     /**
      * 树状结构的层级,根节点 level = 0，依次递增
      * 不加 @Getter , @Setter 不自动生成
@@ -301,14 +311,67 @@ public class TreeNodeEntity implements Serializable {
 
     /**
      * 树状结构的层级,根节点 level = 0，依次递增
+     * 有 path 时，直接根据 path 计算，不必逐级加载 parent
      *
      * @return
      */
     public int getLevel() {
+        if (path != null)
+            return StringUtils.countOccurrencesOf(path, PATH_SEPARATOR) - 1;
+        level = 0;
         getLevelInit(this);
         return level;
     }
 
+    /**
+     * 本节点的子孙节点的 path 前缀，即本节点作为祖先时的 path
+     * 不用 getXxx 命名 : 不是 bean 属性，DtoUtils 拷贝和 fastjson 序列化时不处理
+     *
+     * @return path 为 null 或者节点未保存时，返回 null
+     */
+    public String subtreePath() {
+        if (path == null || id == null)
+            return null;
+        return path + id + PATH_SEPARATOR;
+    }
+
+    /**
+     * 祖先节点的 id ，从根节点开始
+     * 同 subtreePath ，不是 bean 属性
+     *
+     * @return path 为 null 时，返回空集合
+     */
+    public List<Long> ancestorIds() {
+        List<Long> ids = new ArrayList<>();
+        if (path == null)
+            return ids;
+        for (String id : StringUtils.tokenizeToStringArray(path, PATH_SEPARATOR))
+            ids.add(Long.valueOf(id));
+        return ids;
+    }
+
+    /**
+     * 根据父节点计算 path
+     *
+     * @param parent
+     * @return 父节点的 path 为 null 或者父节点未保存时，返回 null
+     */
+    public static String buildPath(TreeNodeEntity parent) {
+        if (parent == null)
+            return PATH_SEPARATOR;
+        return parent.subtreePath();
+    }
+
+    /**
+     * 保存新节点时，设置 path 。
+     * 主键为 IDENTITY 生成，级联保存时父节点先插入，此时父节点已有 id
+     */
+    @PrePersist
+    void initPath() {
+        if (path == null)
+            path = buildPath(parent);
+    }
+
     /**
      * 递归计算层级，根节点为 0 级
      *
@@ -369,6 +432,14 @@ public class TreeNodeEntity implements Serializable {
         this.css = css;
     }
 
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -31,6 +31,9 @@ public class InitializeService {
     @Autowired
     TreeNodeRepository treeNodeRepository;
 
+    @Autowired
+    ZTreeService zTreeService;
+
     /**
      * 初始化 TreeNodeType 中定义的所有类型的根节点，所有节点均为该节点的子节点
      *
@@ -56,5 +59,13 @@ public class InitializeService {
                 treeNodeRepository.save(root);
             }
         }
+
+        /**
+         * path 字段加入之前的数据，初始化 path
+         */
+        if (treeNodeRepository.countByPathIsNull() > 0) {
+            logger.info("initialize tree path ... ");
+            zTreeService.rebuildPath();
+        }
     }
 }
@@ -12,7 +12,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import java.util.Optional;
 
 @Service
@@ -24,6 +27,9 @@ public class ZTreeService {
     @Autowired
     private TreeNodeRepository treeNodeRepository;
 
+    @PersistenceContext
+    private EntityManager entityManager;
+
     /**
      * 异步加载原始树
      *
@@ -134,16 +140,21 @@ public class ZTreeService {
         TreeNodeEntity selectNode = treeNodeRepository.findOne(id); //被操作的对象
         TreeNodeEntity parentNode = treeNodeRepository.findOne(pId); //参考对象
         // parentNode.setIsParent(true);
+        String oldSubtreePath = selectNode.subtreePath();
 
         if (curType.equals("copy")) {
             logger.info("copy nodes to a new parent node");
+            if (oldSubtreePath != null)
+                treeNodeRepository.findSubtree(oldSubtreePath); // 一次查询加载整个子树，复制时不再逐级 lazy 加载 children
             ZTreeUtils.createCopyNode(parentNode, selectNode); // 复制一份和新生成的对象，加入到 parent 的子中。
         }
 
         if (curType.equals("cut")) {    //直接移动cut : 直接修改 currentNode 的父类为新的父类，不重新创建新的对象，相当于剪切过来。
             logger.info("paste nodes to a new parent node");
+            assertNotMoveIntoSubtree(selectNode, parentNode);
             parentNode.addChildToLastIndex(selectNode);//此方法可以直接修改父类
             parentNode.setParentNode(true); // 修改参考对象为父节点
+            selectNode.setPath(TreeNodeEntity.buildPath(parentNode));
         }
 
         treeNodeRepository.save(parentNode);
@@ -152,6 +163,9 @@ public class ZTreeService {
             selectNode.getParent().setParentNode(false);
         treeNodeRepository.save(selectNode);
 
+        if (curType.equals("cut"))
+            updateSubtreePath(selectNode, oldSubtreePath); // 最后执行，之后刷新移动的子树
+
     }
 
 
@@ -168,8 +182,11 @@ public class ZTreeService {
 
         TreeNodeEntity childNode = treeNodeRepository.findOne(id);
         TreeNodeEntity parentNode = treeNodeRepository.findOne(pId);
+        assertNotMoveIntoSubtree(childNode, parentNode);
+        String oldSubtreePath = childNode.subtreePath();
 
         parentNode.addChildToIndex(childNode, index);
+        childNode.setPath(TreeNodeEntity.buildPath(parentNode));
         parentNode.setParentNode(true);
         treeNodeRepository.save(parentNode);
 
@@ -177,6 +194,52 @@ public class ZTreeService {
             childNode.getParent().setParentNode(false);
         treeNodeRepository.save(childNode);
 
+        updateSubtreePath(childNode, oldSubtreePath); // 最后执行，之后刷新移动的子树
+
+    }
+
+    /**
+     * 重新生成所有节点的 path
+     * 用于 path 字段加入之前的数据，或者 path 和 parent 不一致时。启动时由 InitializeService 检查调用。
+     */
+    @Transactional(readOnly = false)
+    public void rebuildPath() {
+        for (TreeNodeEntity root : treeNodeRepository.getRoot())
+            rebuildPath(root);
+    }
+
+    private void rebuildPath(TreeNodeEntity node) {
+        node.setPath(TreeNodeEntity.buildPath(node.getParent()));
+        for (TreeNodeEntity child : node.getChildren())
+            rebuildPath(child);
+    }
+
+    /**
+     * 不能把节点移动到自身或者自己的子孙节点下，否则会形成环。通过 parent 的 path 判断，不必逐级加载 parent
+     *
+     * @param node
+     * @param parent
+     */
+    private void assertNotMoveIntoSubtree(TreeNodeEntity node, TreeNodeEntity parent) {
+        Assert.isTrue(!node.getId().equals(parent.getId()) && !parent.ancestorIds().contains(node.getId()),
+                "can not move a tree node into its own subtree.");
+    }
+
+    /**
+     * 节点的父节点改变后，用一个 update 语句批量修改子孙节点的 path
+     * 先 flush 节点本身的修改 ; 批量修改不经过持久化上下文，之后 refresh 节点本身，通过 children 的级联 (CascadeType.ALL) 刷新已经加载的子孙节点，
+     * 未加载的 children 集合不会被级联初始化。持久化上下文中的其他实体不受影响。
+     *
+     * @param node           已经设置了新的父节点和 path
+     * @param oldSubtreePath 移动前节点的 subtreePath
+     */
+    private void updateSubtreePath(TreeNodeEntity node, String oldSubtreePath) {
+        String newSubtreePath = node.subtreePath();
+        if (oldSubtreePath == null || newSubtreePath == null || oldSubtreePath.equals(newSubtreePath))
+            return;
+        treeNodeRepository.flush();
+        treeNodeRepository.updateSubtreePath(oldSubtreePath, newSubtreePath, oldSubtreePath.length() + 1);
+        entityManager.refresh(node);
     }
 
     @Transactional(readOnly = false)